@@ -11,7 +11,7 @@ import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
  * @author mhanna
  * @version 0.1
  */
-public class BWAAlignment extends Alignment implements Cloneable {
+public class BWAAlignment extends Alignment implements Cloneable, Comparable<Alignment> {
     /**
      * Track the number of alignments that have been created.
      */
@@ -70,6 +70,24 @@ public class BWAAlignment extends Alignment implements Cloneable {
         this.negativeStrand = negativeStrand;
     }
 
+    protected void setContigIndex(int contigIndex) {
+        this.contigIndex = contigIndex;
+    }
+
+    protected void setMappingQuality(int mappingQuality) {
+        this.mappingQuality = mappingQuality;
+    }
+
+    /**
+     * Record how many alignments of the read tied for best and for second best.
+     * @param bestCount Number of top scoring alignments.
+     * @param secondBestCount Number of second best scoring alignments.
+     */
+    protected void setAlignmentCounts(int bestCount, int secondBestCount) {
+        this.bestCount = bestCount;
+        this.secondBestCount = secondBestCount;
+    }
+
     /**
      * Cache the score.
      */
@@ -107,6 +125,22 @@ public class BWAAlignment extends Alignment implements Cloneable {
     public int getGapOpens() { return gapOpens; }
     public int getGapExtensions() { return gapExtensions; }
 
+    @Override
+    public int getNumMismatches() { return mismatches; }
+    @Override
+    public int getNumGapOpens() { return gapOpens; }
+    @Override
+    public int getNumGapExtensions() { return gapExtensions; }
+
+    /**
+     * Gets the edit distance: mismatches plus inserted and deleted bases.
+     * @return The edit distance.
+     */
+    @Override
+    public int getEditDistance() {
+        return mismatches + getNumberOfBasesMatchingState(AlignmentState.INSERTION) + getNumberOfBasesMatchingState(AlignmentState.DELETION);
+    }
+
     public void incrementMismatches() {
         this.mismatches++;
         updateScore();
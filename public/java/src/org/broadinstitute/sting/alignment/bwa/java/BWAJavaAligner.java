@@ -2,17 +2,19 @@ package org.broadinstitute.sting.alignment.bwa.java;
 
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceDictionary;
 import org.broadinstitute.sting.alignment.Alignment;
 import org.broadinstitute.sting.alignment.bwa.BWAAligner;
 import org.broadinstitute.sting.alignment.bwa.BWAConfiguration;
+import org.broadinstitute.sting.alignment.bwa.BWTFiles;
 import org.broadinstitute.sting.alignment.reference.bwt.*;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
 import org.broadinstitute.sting.utils.BaseUtils;
 import org.broadinstitute.sting.utils.Utils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.PriorityQueue;
+import java.util.*;
 
 /**
  * Create imperfect alignments from the read to the genome represented by the given BWT / suffix array. 
@@ -41,6 +43,16 @@ public class BWAJavaAligner extends BWAAligner {
      */
     private SuffixArray reverseSuffixArray;
 
+    /**
+     * Start of each contig within the concatenated reference, in the order of the contigs in the ANN file.
+     */
+    private long[] contigStarts;
+
+    /**
+     * Length of each contig.
+     */
+    private long[] contigLengths;
+
     /**
      * Maximum edit distance (-n option from original BWA).
      */
@@ -76,8 +88,44 @@ public class BWAJavaAligner extends BWAAligner {
      */
     public final int INDEL_END_SKIP = 5;
 
+    /**
+     * Create an aligner over a single-contig reference represented by the given BWTs / suffix arrays.
+     */
     public BWAJavaAligner( File forwardBWTFile, File reverseBWTFile, File forwardSuffixArrayFile, File reverseSuffixArrayFile ) {
         super(null,null);
+        load(forwardBWTFile,reverseBWTFile,forwardSuffixArrayFile,reverseSuffixArrayFile);
+        contigStarts = new long[] { 0 };
+        contigLengths = new long[] { forwardBWT.length() };
+    }
+
+    /**
+     * Create an aligner over the reference represented by the given BWA index files.  Alignments are placed
+     * on the contigs listed in the ANN file.  If an occurrence index (.occ) exists alongside a BWT, it is
+     * memory-mapped rather than rebuilt.
+     * @param bwtFiles The BWA index of the reference.
+     */
+    public BWAJavaAligner( BWTFiles bwtFiles ) {
+        super(bwtFiles,null);
+        if(!bwtFiles.annFile.exists()) throw new ReviewedStingException("ANN file is missing; please rerun 'bwa aln' to regenerate it.");
+        load(bwtFiles.forwardBWTFile,bwtFiles.reverseBWTFile,bwtFiles.forwardSAFile,bwtFiles.reverseSAFile);
+
+        ANNReader annReader = new ANNReader(bwtFiles.annFile);
+        SAMSequenceDictionary dictionary = annReader.read();
+        annReader.close();
+
+        contigStarts = new long[dictionary.size()];
+        contigLengths = new long[dictionary.size()];
+        long contigStart = 0;
+        for(int i = 0; i < dictionary.size(); i++) {
+            contigStarts[i] = contigStart;
+            contigLengths[i] = dictionary.getSequence(i).getSequenceLength();
+            contigStart += contigLengths[i];
+        }
+        if(contigStart != forwardBWT.length())
+            throw new ReviewedStingException("ANN file does not match BWT; please rerun 'bwa aln' to regenerate it.");
+    }
+
+    private void load( File forwardBWTFile, File reverseBWTFile, File forwardSuffixArrayFile, File reverseSuffixArrayFile ) {
         forwardBWT = new BWTReader(forwardBWTFile).read();
         reverseBWT = new BWTReader(reverseBWTFile).read();
         forwardSuffixArray = new SuffixArrayReader(forwardSuffixArrayFile,forwardBWT).read();
@@ -89,7 +137,8 @@ public class BWAJavaAligner extends BWAAligner {
      */
     @Override
     public void close()  {
-        throw new UnsupportedOperationException("BWA aligner can't currently be closed.");
+        forwardBWT = reverseBWT = null;
+        forwardSuffixArray = reverseSuffixArray = null;
     }
 
     /**
@@ -103,9 +152,15 @@ public class BWAJavaAligner extends BWAAligner {
     /**
      * Allow the aligner to choose one alignment randomly from the pile of best alignments.
      * @param bases Bases to align.
-     * @return An align
+     * @return An alignment, or null if the bases don't align.
      */
-    public Alignment getBestAlignment(final byte[] bases) { throw new UnsupportedOperationException("BWAJavaAligner does not yet support the standard Aligner interface."); }
+    public Alignment getBestAlignment(final byte[] bases) {
+        Iterator<Alignment[]> alignments = getAllAlignments(bases).iterator();
+        if( !alignments.hasNext() )
+            return null;
+        Alignment[] bestAlignments = alignments.next();
+        return bestAlignments[GenomeAnalysisEngine.getRandomGenerator().nextInt(bestAlignments.length)];
+    }
 
     /**
      * Align the read to the reference.
@@ -113,14 +168,42 @@ public class BWAJavaAligner extends BWAAligner {
      * @param header Optional header to drop in place.
      * @return A list of the alignments.
      */
-    public SAMRecord align(final SAMRecord read, final SAMFileHeader header) { throw new UnsupportedOperationException("BWAJavaAligner does not yet support the standard Aligner interface."); }
+    public SAMRecord align(final SAMRecord read, final SAMFileHeader header) {
+        return Alignment.convertToRead(getBestAlignment(read.getReadBases()),read,header);
+    }
 
     /**
      * Get a iterator of alignments, batched by mapping quality.
      * @param bases List of bases.
      * @return Iterator to alignments.
      */
-    public Iterable<Alignment[]> getAllAlignments(final byte[] bases) { throw new UnsupportedOperationException("BWAJavaAligner does not yet support the standard Aligner interface."); }
+    public Iterable<Alignment[]> getAllAlignments(final byte[] bases) {
+        List<BWAAlignment> alignments = placeAlignments(bases.length,search(bases));
+
+        List<Alignment[]> alignmentsByScore = new ArrayList<Alignment[]>();
+        int batchStart = 0;
+        for( int i = 1; i <= alignments.size(); i++ ) {
+            if( i == alignments.size() || alignments.get(i).getScore() != alignments.get(batchStart).getScore() ) {
+                alignmentsByScore.add(alignments.subList(batchStart,i).toArray(new Alignment[i-batchStart]));
+                batchStart = i;
+            }
+        }
+
+        // Mapping quality, as in BWA, is based on the number of best and second best hits.
+        if( !alignmentsByScore.isEmpty() ) {
+            int bestCount = alignmentsByScore.get(0).length;
+            int secondBestCount = alignmentsByScore.size() > 1 ? alignmentsByScore.get(1).length : 0;
+            for( Alignment[] alignmentsOfQuality: alignmentsByScore ) {
+                for( Alignment alignment: alignmentsOfQuality ) {
+                    BWAAlignment bwaAlignment = (BWAAlignment)alignment;
+                    bwaAlignment.setAlignmentCounts(bestCount,secondBestCount);
+                    bwaAlignment.setMappingQuality(alignmentsOfQuality == alignmentsByScore.get(0) ? approximateMappingQuality(bwaAlignment,bestCount,secondBestCount) : 0);
+                }
+            }
+        }
+
+        return alignmentsByScore;
+    }
 
     /**
      * Get a iterator of aligned reads, batched by mapping quality.
@@ -128,14 +211,37 @@ public class BWAJavaAligner extends BWAAligner {
      * @param newHeader Optional new header to use when aligning the read.  If present, it must be null.
      * @return Iterator to alignments.
      */
-    public Iterable<SAMRecord[]> alignAll(final SAMRecord read, final SAMFileHeader newHeader) { throw new UnsupportedOperationException("BWAJavaAligner does not yet support the standard Aligner interface."); }
-
+    public Iterable<SAMRecord[]> alignAll(final SAMRecord read, final SAMFileHeader newHeader) {
+        List<SAMRecord[]> reads = new ArrayList<SAMRecord[]>();
+        for( Alignment[] alignmentsOfQuality: getAllAlignments(read.getReadBases()) ) {
+            SAMRecord[] readsOfQuality = new SAMRecord[alignmentsOfQuality.length];
+            for( int i = 0; i < alignmentsOfQuality.length; i++ )
+                readsOfQuality[i] = Alignment.convertToRead(alignmentsOfQuality[i],read,newHeader);
+            reads.add(readsOfQuality);
+        }
+        return reads;
+    }
 
+    /**
+     * Find all alignments of the read, in the coordinates of the concatenated reference.
+     * @param read Read to align.
+     * @return The alignments.
+     */
     public List<Alignment> align( SAMRecord read ) {
-        List<Alignment> successfulMatches = new ArrayList<Alignment>();
+        return new ArrayList<Alignment>(search(read.getReadBases()));
+    }
 
-        Byte[] uncomplementedBases = normalizeBases(read.getReadBases());
-        Byte[] complementedBases = normalizeBases(Utils.reverse(BaseUtils.simpleReverseComplement(read.getReadBases())));
+    /**
+     * Search both BWTs for alignments of the given bases.
+     * @param readBases Bases to align.
+     * @return The alignments found, in the coordinates of the concatenated reference.
+     */
+    private List<BWAAlignment> search( byte[] readBases ) {
+        List<BWAAlignment> successfulMatches = new ArrayList<BWAAlignment>();
+        int readLength = readBases.length;
+
+        Byte[] uncomplementedBases = normalizeBases(readBases);
+        Byte[] complementedBases = normalizeBases(Utils.reverse(BaseUtils.simpleReverseComplement(readBases)));
 
         List<LowerBound> forwardLowerBounds = LowerBound.create(uncomplementedBases,forwardBWT);
         List<LowerBound> reverseLowerBounds = LowerBound.create(complementedBases,reverseBWT);
@@ -175,14 +281,14 @@ public class BWAJavaAligner extends BWAAligner {
             }
 
             // Found a valid alignment; store it and move on.
-            if(alignment.position >= read.getReadLength()-1) {
+            if(alignment.position >= readLength-1) {
                 for(long bwtIndex = alignment.loBound; bwtIndex <= alignment.hiBound; bwtIndex++) {
                     BWAAlignment finalAlignment = alignment.clone();
 
                     if( finalAlignment.isNegativeStrand() )
                         finalAlignment.setAlignmentStart(forwardSuffixArray.get(bwtIndex) + 1);
                     else {
-                        int sizeAlongReference = read.getReadLength() -
+                        int sizeAlongReference = readLength -
                                 finalAlignment.getNumberOfBasesMatchingState(AlignmentState.INSERTION) +
                                 finalAlignment.getNumberOfBasesMatchingState(AlignmentState.DELETION);
                         finalAlignment.setAlignmentStart(reverseBWT.length() - reverseSuffixArray.get(bwtIndex) - sizeAlongReference + 1);
@@ -219,7 +325,7 @@ public class BWAJavaAligner extends BWAAligner {
 
             if( allowDifferences &&
                 alignment.position+1 >= INDEL_END_SKIP-1+alignment.getGapOpens()+alignment.getGapExtensions() &&
-                read.getReadLength()-1-(alignment.position+1) >= INDEL_END_SKIP+alignment.getGapOpens()+alignment.getGapExtensions() ) {
+                readLength-1-(alignment.position+1) >= INDEL_END_SKIP+alignment.getGapOpens()+alignment.getGapExtensions() ) {
                 if( alignment.getCurrentState() == AlignmentState.MATCH_MISMATCH ) {
                     if( alignment.getGapOpens() < MAXIMUM_GAP_OPENS ) {
                         // Add a potential insertion extension.
@@ -260,6 +366,65 @@ public class BWAJavaAligner extends BWAAligner {
         return successfulMatches;
     }
 
+    /**
+     * Place the alignments found by the search on their contigs, dropping any that span contigs and any duplicates.
+     * @param readLength Length of the read.
+     * @param alignments Alignments in the coordinates of the concatenated reference.
+     * @return The placed alignments, best scoring first.
+     */
+    private List<BWAAlignment> placeAlignments( int readLength, List<BWAAlignment> alignments ) {
+        List<BWAAlignment> sortedAlignments = new ArrayList<BWAAlignment>(alignments);
+        Collections.sort(sortedAlignments,new Comparator<BWAAlignment>() {
+            public int compare( BWAAlignment lhs, BWAAlignment rhs ) {
+                return lhs.getScore() - rhs.getScore();
+            }
+        });
+
+        List<BWAAlignment> placedAlignments = new ArrayList<BWAAlignment>();
+        Set<String> placements = new HashSet<String>();
+        for( BWAAlignment alignment: sortedAlignments ) {
+            long start = alignment.getAlignmentStart();
+            int contigIndex = Arrays.binarySearch(contigStarts,start-1);
+            if( contigIndex < 0 )
+                contigIndex = -contigIndex - 2;
+
+            int sizeAlongReference = readLength -
+                    alignment.getNumberOfBasesMatchingState(AlignmentState.INSERTION) +
+                    alignment.getNumberOfBasesMatchingState(AlignmentState.DELETION);
+            long contigStart = start - contigStarts[contigIndex];
+            if( contigStart < 1 || contigStart + sizeAlongReference - 1 > contigLengths[contigIndex] )
+                continue;
+
+            // The same placement can be reached along different paths through the BWT; keep the best scoring one.
+            if( !placements.add(String.format("%d:%d:%b",contigIndex,contigStart,alignment.isNegativeStrand())) )
+                continue;
+
+            alignment.setContigIndex(contigIndex);
+            alignment.setAlignmentStart(contigStart);
+            placedAlignments.add(alignment);
+        }
+
+        return placedAlignments;
+    }
+
+    /**
+     * Approximate the mapping quality of the best alignment of a read, as BWA does.
+     * @param alignment The best alignment.
+     * @param bestCount Number of top scoring alignments.
+     * @param secondBestCount Number of second best scoring alignments.
+     * @return The approximate mapping quality.
+     */
+    private int approximateMappingQuality( BWAAlignment alignment, int bestCount, int secondBestCount ) {
+        if( bestCount > 1 )
+            return 0;
+        if( alignment.getMismatches() == MAXIMUM_EDIT_DISTANCE )
+            return 25;
+        if( secondBestCount == 0 )
+            return 37;
+        int logSecondBestCount = (int)(4.343 * Math.log(Math.min(secondBestCount,255)) + 0.5);
+        return logSecondBestCount > 23 ? 0 : 23 - logSecondBestCount;
+    }
+
     /**
      * Create an seeding alignment to use as a starting point when traversing.
      * @param bwt source BWT.
@@ -0,0 +1,86 @@
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Reads the contig names and lengths from a BWA .ann file.
+ */
+public class ANNReader {
+    /**
+     * Input reader from which to read ANN data.
+     */
+    private final BufferedReader in;
+
+    /**
+     * Create a new ANNReader reading from the given file.
+     * @param file file from which ANN data should be read.
+     */
+    public ANNReader(File file) {
+        try {
+            in = new BufferedReader(new FileReader(file));
+        }
+        catch(IOException ex) {
+            throw new ReviewedStingException("Unable to open ANN file " + file, ex);
+        }
+    }
+
+    /**
+     * Read the contigs in the ANN file, in the order in which they're concatenated in the packed reference.
+     * @return A dictionary of the contigs.
+     */
+    public SAMSequenceDictionary read() {
+        SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+        try {
+            // The header is the genome length, the number of sequences and the seed.
+            String[] header = readFields(3);
+            int sequences = Integer.parseInt(header[1]);
+
+            for(int i = 0; i < sequences; i++) {
+                // The sequence GI (?), name and comment, followed by the sequence offset, length and ambs.
+                String[] name = readFields(2);
+                String[] extent = readFields(3);
+                dictionary.addSequence(new SAMSequenceRecord(name[1],Integer.parseInt(extent[1])));
+            }
+        }
+        catch(NumberFormatException ex) {
+            throw new ReviewedStingException("Malformed ANN file", ex);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Close the given input reader.
+     */
+    public void close() {
+        try {
+            in.close();
+        }
+        catch(IOException ex) {
+            throw new ReviewedStingException("Unable to close ANN file", ex);
+        }
+    }
+
+    private String[] readFields(int minimumFields) {
+        String line;
+        try {
+            line = in.readLine();
+        }
+        catch(IOException ex) {
+            throw new ReviewedStingException("Unable to read ANN file", ex);
+        }
+        if(line == null)
+            throw new ReviewedStingException("ANN file is truncated");
+
+        String[] fields = line.trim().split("\\s+");
+        if(fields.length < minimumFields)
+            throw new ReviewedStingException("Malformed ANN file line: " + line);
+        return fields;
+    }
+}
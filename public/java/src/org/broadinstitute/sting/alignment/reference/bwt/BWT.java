@@ -31,6 +31,11 @@ public class BWT {
      */
     protected final SequenceBlock[] sequenceBlocks;
 
+    /**
+     * Packed rank directory answering occurrence queries against the sequence blocks.
+     */
+    protected final OccurrenceIndex occurrenceIndex;
+
     /**
      * Creates a new BWT with the given inverse SA, counts, and sequence (in ASCII).
      * @param inverseSA0 Inverse SA entry for the first element.  Will be missing from the BWT sequence.
@@ -38,9 +43,23 @@ public class BWT {
      * @param sequenceBlocks The full BWT sequence, sans the '$'.
      */
     public BWT( long inverseSA0, Counts counts, SequenceBlock[] sequenceBlocks ) {
+        this(inverseSA0,counts,sequenceBlocks,OccurrenceIndex.create(inverseSA0,counts,sequenceBlocks));
+    }
+
+    /**
+     * Creates a new BWT with the given inverse SA, counts, sequence (in ASCII) and prebuilt occurrence index.
+     * @param inverseSA0 Inverse SA entry for the first element.  Will be missing from the BWT sequence.
+     * @param counts Cumulative count of bases, in A,C,G,T order.
+     * @param sequenceBlocks The full BWT sequence, sans the '$'.
+     * @param occurrenceIndex Occurrence index over the same sequence, e.g. one mapped from disk.
+     */
+    public BWT( long inverseSA0, Counts counts, SequenceBlock[] sequenceBlocks, OccurrenceIndex occurrenceIndex ) {
+        if( !occurrenceIndex.matches(inverseSA0,counts) )
+            throw new ReviewedStingException("Occurrence index does not match BWT; it may be out of date and need to be regenerated");
         this.inverseSA0 = inverseSA0;
         this.counts = counts;
         this.sequenceBlocks = sequenceBlocks;
+        this.occurrenceIndex = occurrenceIndex;
     }
 
     /**
@@ -70,24 +89,25 @@ public class BWT {
      * @return Total counts for all bases lexicographically smaller than this base.
      */
     public long counts(byte base) {
-        return counts.getCumulative(base);
+        return occurrenceIndex.counts(base);
     }
 
     /**
-     * Get the total counts of bases lexicographically smaller than the given base, for Ferragina and Manzini's search.
+     * Get the number of occurrences of the given base in the BWT up to and including the given position, for Ferragina and Manzini's search.
      * @param base The base.
      * @param index The position to search within the BWT.
-     * @return Total counts for all bases lexicographically smaller than this base.
+     * @return Number of occurrences of this base in BWT[0..index].
      */
     public long occurrences(byte base,long index) {
-        SequenceBlock block = getSequenceBlock(index);
-        int position = getSequencePosition(index);
-        long accumulator = block.occurrences.get(base);
-        for(int i = 0; i <= position; i++) {
-            if(base == block.sequence[i])
-                accumulator++;
-        }
-        return accumulator;
+        return occurrenceIndex.occurrences(base,index);
+    }
+
+    /**
+     * Gets the occurrence index backing this BWT's occurrence queries.
+     * @return The occurrence index.
+     */
+    public OccurrenceIndex getOccurrenceIndex() {
+        return occurrenceIndex;
     }
 
     /**
@@ -104,17 +124,8 @@ public class BWT {
      * @return reference sequence-derived BWT.
      */
     public static BWT createFromReferenceSequence(byte[] referenceSequence) {
-        SuffixArray suffixArray = SuffixArray.createFromReferenceSequence(referenceSequence);
-
-        byte[] bwt = new byte[(int)suffixArray.length()-1];
-        int bwtIndex = 0;
-        for(long suffixArrayIndex = 0; suffixArrayIndex < suffixArray.length(); suffixArrayIndex++) {
-            if(suffixArray.get(suffixArrayIndex) == 0)
-                continue;
-            bwt[bwtIndex++] = referenceSequence[(int)suffixArray.get(suffixArrayIndex)-1];
-        }
-
-        return new BWT(suffixArray.inverseSA0,suffixArray.occurrences,bwt);
+        SuffixArrayBuilder builder = new SuffixArrayBuilder(1);
+        return builder.createBWT(referenceSequence,builder.createSuffixArray(referenceSequence));
     }
 
     /**
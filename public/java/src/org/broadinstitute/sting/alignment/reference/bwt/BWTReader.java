@@ -22,11 +22,17 @@ public class BWTReader {
      */
     private FileInputStream inputStream;
 
+    /**
+     * File in which the BWT is stored.
+     */
+    private final File inputFile;
+
     /**
      * Create a new BWT reader.
      * @param inputFile File in which the BWT is stored.
      */
     public BWTReader( File inputFile ) {
+        this.inputFile = inputFile;
         try {
             this.inputStream = new FileInputStream(inputFile);
         }
@@ -72,6 +78,11 @@ public class BWTReader {
             throw new ReviewedStingException("Unable to read BWT from input stream.", ex);
         }
 
+        // Use the precomputed occurrence index stored next to the BWT, if there is one.
+        File occurrenceIndexFile = OccurrenceIndex.getIndexFile(inputFile);
+        if( occurrenceIndexFile.exists() )
+            return new BWT(inverseSA0, new Counts(count,true), sequenceBlocks, OccurrenceIndex.map(occurrenceIndexFile));
+
         return new BWT(inverseSA0, new Counts(count,true), sequenceBlocks);
     }
 
@@ -41,6 +41,11 @@ import java.io.IOException;
  * @version 0.1
  */
 public class CreateBWTFromReference {
+    /**
+     * Builds the suffix arrays and BWTs, using every available processor.
+     */
+    private final SuffixArrayBuilder builder = new SuffixArrayBuilder(Runtime.getRuntime().availableProcessors());
+
     private byte[] loadReference( File inputFile ) {
         // Read in the first sequence in the input file
         ReferenceSequenceFile reference = ReferenceSequenceFileFactory.getReferenceSequenceFile(inputFile);
@@ -55,22 +60,12 @@ public class CreateBWTFromReference {
         return sequence.getBases();
     }
 
-    private Counts countOccurrences( byte[] sequence ) {
-        Counts occurrences = new Counts();
-        for( byte base: sequence )
-            occurrences.increment(base);
-        return occurrences;
-    }
-
-    private long[] createSuffixArray( byte[] sequence ) {
-        return SuffixArray.createFromReferenceSequence(sequence).sequence;
+    private SuffixArray createSuffixArray( byte[] sequence ) {
+        return builder.createSuffixArray(sequence);
     }
 
-    private long[] invertSuffixArray( long[] suffixArray ) {
-        long[] inverseSuffixArray = new long[suffixArray.length];
-        for( int i = 0; i < suffixArray.length; i++ )
-            inverseSuffixArray[(int)suffixArray[i]] = i;
-        return inverseSuffixArray;
+    private BWT createBWT( byte[] sequence, SuffixArray suffixArray ) {
+        return builder.createBWT(sequence,suffixArray);
     }
 
     private long[] createCompressedSuffixArray( int[] suffixArray, int[] inverseSuffixArray ) {
@@ -114,24 +109,16 @@ public class CreateBWTFromReference {
         byte[] sequence = creator.loadReference(inputFile);
         byte[] reverseSequence = creator.loadReverseReference(inputFile);
 
-        // Count the occurences of each given base.
-        Counts occurrences = creator.countOccurrences(sequence);
+        // Generate the suffix arrays, counting the occurrences of each given base along the way.
+        SuffixArray suffixArray = creator.createSuffixArray(sequence);
+        SuffixArray reverseSuffixArray = creator.createSuffixArray(reverseSequence);
+
+        Counts occurrences = suffixArray.occurrences;
         System.out.printf("Occurrences: a=%d, c=%d, g=%d, t=%d%n",occurrences.getCumulative(Bases.A),
                                                                   occurrences.getCumulative(Bases.C),
                                                                   occurrences.getCumulative(Bases.G),
                                                                   occurrences.getCumulative(Bases.T));
 
-        // Generate the suffix array and print diagnostics.
-        long[] suffixArrayData = creator.createSuffixArray(sequence);
-        long[] reverseSuffixArrayData = creator.createSuffixArray(reverseSequence);
-
-        // Invert the suffix array and print diagnostics.
-        long[] inverseSuffixArray = creator.invertSuffixArray(suffixArrayData);
-        long[] reverseInverseSuffixArray = creator.invertSuffixArray(reverseSuffixArrayData);
-
-        SuffixArray suffixArray = new SuffixArray( inverseSuffixArray[0], occurrences, suffixArrayData );
-        SuffixArray reverseSuffixArray = new SuffixArray( reverseInverseSuffixArray[0], occurrences, reverseSuffixArrayData );
-
         /*
         // Create the data structure for the compressed suffix array and print diagnostics.
         int[] compressedSuffixArray = creator.createCompressedSuffixArray(suffixArray.sequence,inverseSuffixArray);
@@ -149,8 +136,8 @@ public class CreateBWTFromReference {
         */
 
         // Create the BWT.
-        BWT bwt = BWT.createFromReferenceSequence(sequence);
-        BWT reverseBWT = BWT.createFromReferenceSequence(reverseSequence);
+        BWT bwt = creator.createBWT(sequence,suffixArray);
+        BWT reverseBWT = creator.createBWT(reverseSequence,reverseSuffixArray);
 
         byte[] bwtSequence = bwt.getSequence();
         System.out.printf("BWT: %s... (length = %d)%n", new String(bwtSequence,0,80),bwt.length());
@@ -163,7 +150,10 @@ public class CreateBWTFromReference {
         reverseBWTWriter.write(reverseBWT);
         reverseBWTWriter.close();
 
-        /*
+        // Store the occurrence indices alongside the BWTs so that aligners can map them rather than rebuild them.
+        bwt.getOccurrenceIndex().write(OccurrenceIndex.getIndexFile(bwtFile));
+        reverseBWT.getOccurrenceIndex().write(OccurrenceIndex.getIndexFile(rbwtFile));
+
         SuffixArrayWriter saWriter = new SuffixArrayWriter(saFile);
         saWriter.write(suffixArray);
         saWriter.close();
@@ -171,9 +161,12 @@ public class CreateBWTFromReference {
         SuffixArrayWriter reverseSAWriter = new SuffixArrayWriter(rsaFile);
         reverseSAWriter.write(reverseSuffixArray);
         reverseSAWriter.close();
-        */
 
+        // Validate against an existing index of the same reference, if there is one.
         File existingBWTFile = new File(inputFileName+".bwt");
+        if( !existingBWTFile.exists() )
+            return;
+
         BWTReader existingBWTReader = new BWTReader(existingBWTFile);
         BWT existingBWT = existingBWTReader.read();
 
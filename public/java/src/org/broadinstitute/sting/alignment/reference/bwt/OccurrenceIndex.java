@@ -0,0 +1,317 @@
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.alignment.reference.packing.PackUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A rank directory over a BWT, answering occurrence queries in constant time.
+ *
+ * The BWT is stored 2-bit packed, 32 bases to a long word, in superblocks of 256 bases.  Each superblock
+ * starts with four words holding the number of A,C,G,T seen before the superblock, followed by the eight
+ * words of bases, so that a query touches a single cache-line-sized stretch of memory: the count for the
+ * superblock plus a popcount over at most eight words.
+ *
+ * The index can be written to disk next to the BWT and memory-mapped back in, so that large indices
+ * needn't be rebuilt or copied onto the heap.
+ */
+public class OccurrenceIndex {
+    /**
+     * Extension appended to the name of a BWT file to get the name of its occurrence index.
+     */
+    public static final String FILE_EXTENSION = ".occ";
+
+    /**
+     * Identifies (and versions) occurrence index files.
+     */
+    private static final long MAGIC = 0x3130434f43435742L;
+
+    private static final int BASES_PER_WORD = 64 / PackUtils.BITS_PER_BASE;
+    private static final int WORDS_PER_SUPERBLOCK = 8;
+    private static final int BASES_PER_SUPERBLOCK = BASES_PER_WORD * WORDS_PER_SUPERBLOCK;
+    private static final int SUPERBLOCK_SHIFT = Integer.numberOfTrailingZeros(BASES_PER_SUPERBLOCK);
+    private static final int WORD_SHIFT = Integer.numberOfTrailingZeros(BASES_PER_WORD);
+    private static final int COUNT_WORDS = PackUtils.ALPHABET_SIZE;
+    private static final int SUPERBLOCK_WORDS = COUNT_WORDS + WORDS_PER_SUPERBLOCK;
+
+    /**
+     * Header: magic, inverse SA[0], length, cumulative counts of A,C,G,T.
+     */
+    private static final int HEADER_WORDS = 3 + PackUtils.ALPHABET_SIZE;
+
+    /**
+     * The low bit of every 2-bit base in a word.
+     */
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    /**
+     * Each base, repeated into every slot of a word.
+     */
+    private static final long[] PATTERNS = { 0L, LOW_BITS, LOW_BITS << 1, -1L };
+
+    private static final byte[] BASES = { Bases.A, Bases.C, Bases.G, Bases.T };
+
+    /**
+     * Inverse SA entry for the first element, the '$' which is not stored in the BWT.
+     */
+    private final long inverseSA0;
+
+    /**
+     * Number of bases in the BWT, sans the '$'.
+     */
+    private final long length;
+
+    /**
+     * Number of bases lexicographically smaller than each base, in A,C,G,T order.
+     */
+    private final long[] cumulativeCounts;
+
+    /**
+     * The interleaved superblocks; either on the heap or mapped from disk.
+     */
+    private final LongBuffer words;
+
+    private OccurrenceIndex( long inverseSA0, long length, long[] cumulativeCounts, LongBuffer words ) {
+        this.inverseSA0 = inverseSA0;
+        this.length = length;
+        this.cumulativeCounts = cumulativeCounts;
+        this.words = words;
+    }
+
+    /**
+     * Create an occurrence index over the given BWT.
+     * @param inverseSA0 Inverse SA entry for the first element.
+     * @param counts Cumulative count of bases, in A,C,G,T order.
+     * @param sequenceBlocks The full BWT sequence, sans the '$'.
+     * @return An in-memory occurrence index.
+     */
+    public static OccurrenceIndex create( long inverseSA0, Counts counts, SequenceBlock[] sequenceBlocks ) {
+        long length = counts.getTotal();
+        long numWords = (long)getNumSuperblocks(length) * SUPERBLOCK_WORDS;
+        if( numWords > Integer.MAX_VALUE )
+            throw new ReviewedStingException("BWT is too long to index: " + length);
+
+        long[] words = new long[(int)numWords];
+        long[] occurrences = new long[PackUtils.ALPHABET_SIZE];
+        long position = 0;
+        for( SequenceBlock block: sequenceBlocks ) {
+            for( int i = 0; i < block.sequenceLength; i++, position++ ) {
+                int superblockStart = getSuperblockStart(position);
+                if( (position & (BASES_PER_SUPERBLOCK-1)) == 0 )
+                    System.arraycopy(occurrences,0,words,superblockStart,COUNT_WORDS);
+
+                int code = PackUtils.packBase(block.sequence[i]);
+                int offset = (int)(position & (BASES_PER_SUPERBLOCK-1));
+                words[superblockStart + COUNT_WORDS + (offset >>> WORD_SHIFT)] |= (long)code << (PackUtils.BITS_PER_BASE*(offset & (BASES_PER_WORD-1)));
+                occurrences[code]++;
+            }
+        }
+
+        // A query for the occurrences through the last base can land at the very start of the next superblock.
+        if( (position & (BASES_PER_SUPERBLOCK-1)) == 0 )
+            System.arraycopy(occurrences,0,words,getSuperblockStart(position),COUNT_WORDS);
+
+        long[] cumulativeCounts = new long[PackUtils.ALPHABET_SIZE];
+        for( byte base: BASES )
+            cumulativeCounts[PackUtils.packBase(base)] = counts.getCumulative(base);
+
+        return new OccurrenceIndex(inverseSA0,length,cumulativeCounts,LongBuffer.wrap(words));
+    }
+
+    /**
+     * Gets the file in which the occurrence index of the given BWT file is stored.
+     * @param bwtFile The BWT file.
+     * @return The file holding its occurrence index, which may or may not exist.
+     */
+    public static File getIndexFile( File bwtFile ) {
+        return new File(bwtFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Memory-map an occurrence index previously written with write().
+     * @param indexFile The file holding the index.
+     * @return The occurrence index, backed by the mapped file.
+     */
+    public static OccurrenceIndex map( File indexFile ) {
+        try {
+            FileInputStream inputStream = new FileInputStream(indexFile);
+            try {
+                FileChannel channel = inputStream.getChannel();
+                if( channel.size() > Integer.MAX_VALUE )
+                    throw new ReviewedStingException("Occurrence index is too large to map: " + indexFile);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+                if( buffer.getLong() != MAGIC )
+                    throw new ReviewedStingException("File is not an occurrence index: " + indexFile);
+                long inverseSA0 = buffer.getLong();
+                long length = buffer.getLong();
+                long[] cumulativeCounts = new long[PackUtils.ALPHABET_SIZE];
+                for( int i = 0; i < cumulativeCounts.length; i++ )
+                    cumulativeCounts[i] = buffer.getLong();
+
+                LongBuffer words = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+                if( words.capacity() != (long)getNumSuperblocks(length) * SUPERBLOCK_WORDS )
+                    throw new ReviewedStingException("Occurrence index is truncated: " + indexFile);
+
+                return new OccurrenceIndex(inverseSA0,length,cumulativeCounts,words);
+            }
+            finally {
+                // The mapping remains valid after the channel is closed.
+                inputStream.close();
+            }
+        }
+        catch( IOException ex ) {
+            throw new ReviewedStingException("Unable to map occurrence index " + indexFile, ex);
+        }
+    }
+
+    /**
+     * Write this index to disk in a form that can be memory-mapped back in with map().
+     * @param indexFile The file to write.
+     */
+    public void write( File indexFile ) {
+        try {
+            FileOutputStream outputStream = new FileOutputStream(indexFile);
+            try {
+                FileChannel channel = outputStream.getChannel();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_WORDS*8).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(MAGIC).putLong(inverseSA0).putLong(length);
+                for( long cumulativeCount: cumulativeCounts )
+                    header.putLong(cumulativeCount);
+                header.flip();
+                writeFully(channel,header);
+
+                ByteBuffer chunk = ByteBuffer.allocate(SUPERBLOCK_WORDS*8*1024).order(ByteOrder.LITTLE_ENDIAN);
+                LongBuffer chunkWords = chunk.asLongBuffer();
+                for( int word = 0; word < words.capacity(); ) {
+                    chunkWords.clear();
+                    while( chunkWords.hasRemaining() && word < words.capacity() )
+                        chunkWords.put(words.get(word++));
+                    chunk.clear();
+                    chunk.limit(chunkWords.position()*8);
+                    writeFully(channel,chunk);
+                }
+            }
+            finally {
+                outputStream.close();
+            }
+        }
+        catch( IOException ex ) {
+            throw new ReviewedStingException("Unable to write occurrence index " + indexFile, ex);
+        }
+    }
+
+    /**
+     * Make sure that this index was built over the given BWT.
+     * @param inverseSA0 Inverse SA entry for the first element of the BWT.
+     * @param counts Cumulative count of bases in the BWT.
+     * @return True if the index is consistent with the BWT.
+     */
+    public boolean matches( long inverseSA0, Counts counts ) {
+        if( this.inverseSA0 != inverseSA0 || this.length != counts.getTotal() )
+            return false;
+        for( byte base: BASES ) {
+            if( cumulativeCounts[PackUtils.packBase(base)] != counts.getCumulative(base) )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the total counts of bases lexicographically smaller than the given base, for Ferragina and Manzini's search.
+     * @param base The base.
+     * @return Total counts for all bases lexicographically smaller than this base.
+     */
+    public long counts( byte base ) {
+        return cumulativeCounts[PackUtils.packBase(base)];
+    }
+
+    /**
+     * Get the number of times the given base occurs in the BWT up to and including the given index.
+     * @param base The base.
+     * @param index The position to search within the BWT, which includes the '$' at inverse SA[0].
+     * @return Number of occurrences of the base in BWT[0..index].
+     */
+    public long occurrences( byte base, long index ) {
+        if( index < 0 )
+            return 0;
+        // The '$' isn't stored in the BWT, so remap the index to the stored coordinate space.
+        if( index >= inverseSA0 )
+            index--;
+        return rank(PackUtils.packBase(base),index+1);
+    }
+
+    /**
+     * Gets the base at a given position in the BWT.
+     * @param index The index to use.
+     * @return The base at that location.
+     */
+    public byte getBase( long index ) {
+        if( index == inverseSA0 )
+            throw new ReviewedStingException(String.format("Base at index %d does not have a text representation",index));
+        if( index > inverseSA0 )
+            index--;
+
+        int offset = (int)(index & (BASES_PER_SUPERBLOCK-1));
+        long word = words.get(getSuperblockStart(index) + COUNT_WORDS + (offset >>> WORD_SHIFT));
+        return BASES[(int)(word >>> (PackUtils.BITS_PER_BASE*(offset & (BASES_PER_WORD-1)))) & 3];
+    }
+
+    /**
+     * The number of bases in the BWT as a whole.
+     * @return Number of bases.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Count the occurrences of the given packed base in the stored sequence before the given position.
+     */
+    private long rank( int code, long position ) {
+        int wordIndex = getSuperblockStart(position);
+        long count = words.get(wordIndex + code);
+        wordIndex += COUNT_WORDS;
+
+        long pattern = PATTERNS[code];
+        int offset = (int)(position & (BASES_PER_SUPERBLOCK-1));
+        for( int fullWords = offset >>> WORD_SHIFT; fullWords > 0; fullWords-- )
+            count += Long.bitCount(matches(words.get(wordIndex++),pattern));
+
+        int remainder = offset & (BASES_PER_WORD-1);
+        if( remainder > 0 )
+            count += Long.bitCount(matches(words.get(wordIndex),pattern) & ((1L << (PackUtils.BITS_PER_BASE*remainder)) - 1));
+
+        return count;
+    }
+
+    /**
+     * Flag, in the low bit of each 2-bit slot, the bases in the word equal to the base repeated in the pattern.
+     */
+    private static long matches( long word, long pattern ) {
+        long equal = ~(word ^ pattern);
+        return equal & (equal >>> 1) & LOW_BITS;
+    }
+
+    private static int getSuperblockStart( long position ) {
+        return (int)(position >>> SUPERBLOCK_SHIFT) * SUPERBLOCK_WORDS;
+    }
+
+    private static int getNumSuperblocks( long length ) {
+        return (int)(length >>> SUPERBLOCK_SHIFT) + 1;
+    }
+
+    private static void writeFully( FileChannel channel, ByteBuffer buffer ) throws IOException {
+        while( buffer.hasRemaining() )
+            channel.write(buffer);
+    }
+}
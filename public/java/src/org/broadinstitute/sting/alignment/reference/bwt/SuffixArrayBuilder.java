@@ -0,0 +1,395 @@
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.alignment.reference.packing.PackUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.threading.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Builds suffix arrays (and the BWTs derived from them) in linear time using induced sorting (SA-IS,
+ * Nong, Zhang and Chan 2009), working entirely on primitive arrays.
+ *
+ * The input sequence is first remapped onto a dense alphabet that preserves the unsigned byte order of
+ * the bases, so either ASCII bases or 2-bit packed bases (see PackUtils.packBase()) produce the same
+ * suffix array as SuffixArray's lexicographic definition: the empty suffix sorts first, so that entry 0
+ * of the suffix array is always the length of the sequence.
+ *
+ * The induced sorting passes themselves are inherently sequential, but the bucket counting, alphabet
+ * remapping, suffix array widening and BWT extraction passes over the full sequence are split into
+ * contiguous chunks and run across a pool of worker threads.
+ */
+public class SuffixArrayBuilder {
+    /**
+     * Below this many elements it isn't worth splitting a pass up across threads.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Number of distinct values a byte can take.
+     */
+    private static final int BYTE_ALPHABET_SIZE = 256;
+
+    private final int nThreads;
+
+    /**
+     * Create a new builder.
+     * @param nThreads Number of threads to use for the parallelizable passes over the sequence.
+     */
+    public SuffixArrayBuilder( int nThreads ) {
+        if( nThreads < 1 )
+            throw new ReviewedStingException("Number of suffix array construction threads must be at least 1 but was " + nThreads);
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Create a suffix array from a given reference sequence.
+     * @param sequence The reference sequence (in ASCII over A,C,G,T) to use when building the suffix array.
+     * @return a constructed suffix array.
+     * @throws ReviewedStingException if the sequence contains any other bases.
+     */
+    public SuffixArray createSuffixArray( byte[] sequence ) {
+        ExecutorService threadPool = createThreadPool();
+        try {
+            long[] histogram = countBases(threadPool,sequence);
+            Counts occurrences = createCounts(histogram);
+            int[] suffixArray = buildSuffixArray(threadPool,sequence,histogram);
+
+            final long[] widenedSuffixArray = new long[suffixArray.length];
+            final long[] inverseSA0 = { -1 };
+            final int[] source = suffixArray;
+            runInChunks(threadPool,source.length,new ChunkTask() {
+                public void run( int start, int stop ) {
+                    for( int i = start; i < stop; i++ ) {
+                        widenedSuffixArray[i] = source[i];
+                        if( source[i] == 0 )
+                            inverseSA0[0] = i;
+                    }
+                }
+            });
+            suffixArray = null;
+
+            if( inverseSA0[0] < 0 )
+                throw new ReviewedStingException("Unable to find first inverse SA entry in generated suffix array.");
+
+            return new SuffixArray(inverseSA0[0],occurrences,widenedSuffixArray);
+        }
+        finally {
+            shutdown(threadPool);
+        }
+    }
+
+    /**
+     * Create a BWT from a given reference sequence and its complete (sequence interval 1) suffix array.
+     * @param sequence The reference sequence from which the suffix array was built.
+     * @param suffixArray The suffix array of that sequence.
+     * @return reference sequence-derived BWT.
+     */
+    public BWT createBWT( final byte[] sequence, SuffixArray suffixArray ) {
+        if( suffixArray.sequenceInterval != 1 || suffixArray.sequence.length != sequence.length+1 )
+            throw new ReviewedStingException("A complete suffix array of the reference sequence is required to build its BWT");
+
+        final long[] sa = suffixArray.sequence;
+        final int inverseSA0 = (int)suffixArray.inverseSA0;
+        final byte[] bwt = new byte[sequence.length];
+
+        ExecutorService threadPool = createThreadPool();
+        try {
+            runInChunks(threadPool,sa.length,new ChunkTask() {
+                public void run( int start, int stop ) {
+                    for( int i = start; i < stop; i++ ) {
+                        // The '$' at SA-1[0] is left out of the BWT sequence.
+                        if( i == inverseSA0 )
+                            continue;
+                        bwt[i < inverseSA0 ? i : i-1] = sequence[(int)sa[i]-1];
+                    }
+                }
+            });
+        }
+        finally {
+            shutdown(threadPool);
+        }
+
+        return new BWT(suffixArray.inverseSA0,suffixArray.occurrences,bwt);
+    }
+
+    /**
+     * Build the raw suffix array of the given sequence.
+     * @param sequence The sequence, over any byte alphabet.
+     * @return The suffix array, including the empty suffix at entry 0.
+     */
+    public int[] buildSuffixArray( byte[] sequence ) {
+        ExecutorService threadPool = createThreadPool();
+        try {
+            return buildSuffixArray(threadPool,sequence,countBases(threadPool,sequence));
+        }
+        finally {
+            shutdown(threadPool);
+        }
+    }
+
+    private int[] buildSuffixArray( ExecutorService threadPool, final byte[] sequence, long[] histogram ) {
+        if( sequence.length >= Integer.MAX_VALUE )
+            throw new ReviewedStingException("Sequence is too long to build a suffix array for: " + sequence.length);
+
+        // Remap the bases onto 1..alphabetSize, in order, leaving 0 for the unique sentinel.
+        final int[] rank = new int[BYTE_ALPHABET_SIZE];
+        int alphabetSize = 1;
+        for( int value = 0; value < BYTE_ALPHABET_SIZE; value++ ) {
+            if( histogram[value] > 0 )
+                rank[value] = alphabetSize++;
+        }
+
+        final int[] text = new int[sequence.length+1];
+        runInChunks(threadPool,sequence.length,new ChunkTask() {
+            public void run( int start, int stop ) {
+                for( int i = start; i < stop; i++ )
+                    text[i] = rank[sequence[i] & 0xFF];
+            }
+        });
+        text[sequence.length] = 0;
+
+        int[] suffixArray = new int[text.length];
+        sais(text,suffixArray,text.length,alphabetSize);
+        return suffixArray;
+    }
+
+    /**
+     * Sorts the suffixes of the text, whose last element must be a unique, smallest sentinel of 0.
+     * @param text The text to sort, over the alphabet 0..alphabetSize-1.
+     * @param suffixArray Output suffix array; must be at least n long.
+     * @param n Length of the text.
+     * @param alphabetSize Size of the alphabet of the text.
+     */
+    private static void sais( int[] text, int[] suffixArray, int n, int alphabetSize ) {
+        if( n == 1 ) {
+            suffixArray[0] = 0;
+            return;
+        }
+
+        // Classify each suffix as S-type (smaller than the suffix that follows it) or L-type.
+        boolean[] isS = new boolean[n];
+        isS[n-1] = true;
+        for( int i = n-2; i >= 0; i-- )
+            isS[i] = text[i] < text[i+1] || (text[i] == text[i+1] && isS[i+1]);
+
+        int[] buckets = new int[alphabetSize];
+        int[] bucketCounts = new int[alphabetSize];
+        for( int i = 0; i < n; i++ )
+            bucketCounts[text[i]]++;
+
+        // Stage 1: sort the LMS substrings by placing them at their bucket ends and inducing.
+        getBucketEnds(bucketCounts,buckets);
+        Arrays.fill(suffixArray,0,n,-1);
+        for( int i = 1; i < n; i++ ) {
+            if( isLMS(isS,i) )
+                suffixArray[--buckets[text[i]]] = i;
+        }
+        induce(text,suffixArray,isS,n,bucketCounts,buckets);
+
+        // Compact the sorted LMS substrings into the front of the suffix array.
+        int numLMS = 0;
+        for( int i = 0; i < n; i++ ) {
+            if( isLMS(isS,suffixArray[i]) )
+                suffixArray[numLMS++] = suffixArray[i];
+        }
+
+        // Name the LMS substrings; equal substrings get equal names.  Names are stashed, indexed by
+        // position/2 (LMS positions are never adjacent), in the back of the suffix array.
+        Arrays.fill(suffixArray,numLMS,n,-1);
+        int numNames = 0;
+        int previous = -1;
+        for( int i = 0; i < numLMS; i++ ) {
+            int position = suffixArray[i];
+            if( previous < 0 || !equalLMSSubstrings(text,isS,n,position,previous) )
+                numNames++;
+            previous = position;
+            suffixArray[numLMS+position/2] = numNames-1;
+        }
+
+        int[] reducedText = new int[numLMS];
+        for( int i = numLMS, j = 0; i < n; i++ ) {
+            if( suffixArray[i] >= 0 )
+                reducedText[j++] = suffixArray[i];
+        }
+
+        // Stage 2: sort the reduced problem, recursing only if the LMS substrings aren't all unique.
+        int[] reducedSuffixArray = new int[numLMS];
+        if( numNames < numLMS )
+            sais(reducedText,reducedSuffixArray,numLMS,numNames);
+        else {
+            for( int i = 0; i < numLMS; i++ )
+                reducedSuffixArray[reducedText[i]] = i;
+        }
+
+        // Stage 3: map the sorted reduced suffixes back onto the LMS positions and induce the full suffix array.
+        for( int i = 1, j = 0; i < n; i++ ) {
+            if( isLMS(isS,i) )
+                reducedText[j++] = i;
+        }
+        for( int i = 0; i < numLMS; i++ )
+            reducedSuffixArray[i] = reducedText[reducedSuffixArray[i]];
+        reducedText = null;
+
+        getBucketEnds(bucketCounts,buckets);
+        Arrays.fill(suffixArray,0,n,-1);
+        for( int i = numLMS-1; i >= 0; i-- ) {
+            int position = reducedSuffixArray[i];
+            suffixArray[--buckets[text[position]]] = position;
+        }
+        induce(text,suffixArray,isS,n,bucketCounts,buckets);
+    }
+
+    /**
+     * Induce the order of the L-type suffixes from the placed LMS suffixes, then of the S-type suffixes from the L-type ones.
+     */
+    private static void induce( int[] text, int[] suffixArray, boolean[] isS, int n, int[] bucketCounts, int[] buckets ) {
+        getBucketStarts(bucketCounts,buckets);
+        for( int i = 0; i < n; i++ ) {
+            int j = suffixArray[i]-1;
+            if( j >= 0 && !isS[j] )
+                suffixArray[buckets[text[j]]++] = j;
+        }
+
+        getBucketEnds(bucketCounts,buckets);
+        for( int i = n-1; i >= 0; i-- ) {
+            int j = suffixArray[i]-1;
+            if( j >= 0 && isS[j] )
+                suffixArray[--buckets[text[j]]] = j;
+        }
+    }
+
+    private static boolean isLMS( boolean[] isS, int position ) {
+        return position > 0 && isS[position] && !isS[position-1];
+    }
+
+    private static boolean equalLMSSubstrings( int[] text, boolean[] isS, int n, int lhs, int rhs ) {
+        for( int offset = 0; ; offset++ ) {
+            // The sentinel is unique, so a substring running into it can never equal another one.
+            if( lhs+offset == n-1 || rhs+offset == n-1 )
+                return false;
+            if( text[lhs+offset] != text[rhs+offset] || isS[lhs+offset] != isS[rhs+offset] )
+                return false;
+            if( offset > 0 && (isLMS(isS,lhs+offset) || isLMS(isS,rhs+offset)) )
+                return isLMS(isS,lhs+offset) && isLMS(isS,rhs+offset);
+        }
+    }
+
+    private static void getBucketStarts( int[] bucketCounts, int[] buckets ) {
+        int sum = 0;
+        for( int i = 0; i < bucketCounts.length; i++ ) {
+            buckets[i] = sum;
+            sum += bucketCounts[i];
+        }
+    }
+
+    private static void getBucketEnds( int[] bucketCounts, int[] buckets ) {
+        int sum = 0;
+        for( int i = 0; i < bucketCounts.length; i++ ) {
+            sum += bucketCounts[i];
+            buckets[i] = sum;
+        }
+    }
+
+    /**
+     * Count the occurrences of every byte value in the sequence, one chunk of the sequence per thread.
+     */
+    private long[] countBases( ExecutorService threadPool, final byte[] sequence ) {
+        final List<long[]> chunkHistograms = new CopyOnWriteArrayList<long[]>();
+        runInChunks(threadPool,sequence.length,new ChunkTask() {
+            public void run( int start, int stop ) {
+                long[] histogram = new long[BYTE_ALPHABET_SIZE];
+                for( int i = start; i < stop; i++ )
+                    histogram[sequence[i] & 0xFF]++;
+                chunkHistograms.add(histogram);
+            }
+        });
+
+        long[] histogram = new long[BYTE_ALPHABET_SIZE];
+        for( long[] chunkHistogram: chunkHistograms ) {
+            for( int value = 0; value < BYTE_ALPHABET_SIZE; value++ )
+                histogram[value] += chunkHistogram[value];
+        }
+        return histogram;
+    }
+
+    /**
+     * Convert a histogram of ASCII bases into occurrence counts.  Packed 2-bit sequences are counted as the
+     * ASCII bases they represent.  Any other byte, such as an N, can't be represented in the occurrence counts,
+     * so sequences containing one are rejected.
+     */
+    private static Counts createCounts( long[] histogram ) {
+        long[] asciiCounts = new long[Bases.size()];
+        long[] packedCounts = new long[Bases.size()];
+        long asciiTotal = 0, packedTotal = 0, total = 0;
+        for( byte base: Bases.allOf() ) {
+            asciiCounts[Bases.toPack(base)] = histogram[base];
+            packedCounts[Bases.toPack(base)] = histogram[PackUtils.packBase(base)];
+            asciiTotal += histogram[base];
+            packedTotal += histogram[PackUtils.packBase(base)];
+        }
+        for( long count: histogram )
+            total += count;
+
+        final boolean packed = asciiTotal == 0;
+        if( (packed ? packedTotal : asciiTotal) != total )
+            throw new ReviewedStingException(String.format("Unable to build a suffix array over a sequence with %d bases other than A,C,G,T",total-(packed ? packedTotal : asciiTotal)));
+        return new Counts(packed ? packedCounts : asciiCounts,false);
+    }
+
+    /**
+     * A pass over one contiguous chunk [start,stop) of a larger array.
+     */
+    private interface ChunkTask {
+        public void run( int start, int stop );
+    }
+
+    /**
+     * Split [0,length) into contiguous chunks and run the task over all of them, blocking until they're all done.
+     */
+    private void runInChunks( ExecutorService threadPool, int length, final ChunkTask task ) {
+        int numChunks = threadPool == null ? 1 : Math.max(1,Math.min(nThreads,length/MIN_CHUNK_SIZE));
+        if( numChunks == 1 ) {
+            task.run(0,length);
+            return;
+        }
+
+        int chunkSize = PackUtils.numberOfPartitions(length,numChunks);
+        List<Callable<Object>> chunks = new ArrayList<Callable<Object>>(numChunks);
+        for( int chunkStart = 0; chunkStart < length; chunkStart += chunkSize ) {
+            final int start = chunkStart;
+            final int stop = Math.min(length,chunkStart+chunkSize);
+            chunks.add(new Callable<Object>() {
+                public Object call() {
+                    task.run(start,stop);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for( Future<Object> result: threadPool.invokeAll(chunks) )
+                result.get();
+        }
+        catch( InterruptedException ex ) {
+            throw new ReviewedStingException("Interrupted while building suffix array", ex);
+        }
+        catch( ExecutionException ex ) {
+            if( ex.getCause() instanceof RuntimeException )
+                throw (RuntimeException)ex.getCause();
+            throw new ReviewedStingException("Unable to build suffix array", ex.getCause());
+        }
+    }
+
+    private ExecutorService createThreadPool() {
+        return nThreads > 1 ? Executors.newFixedThreadPool(nThreads,new NamedThreadFactory("SuffixArrayBuilder-thread-%d")) : null;
+    }
+
+    private static void shutdown( ExecutorService threadPool ) {
+        if( threadPool != null )
+            threadPool.shutdownNow();
+    }
+}
@@ -80,6 +80,8 @@ public final class RodBinding<T extends Feature> {
     final private Class<T> type;
     /** True for all RodBindings except the special UNBOUND binding, which is the default for optional arguments */
     final private boolean bound;
+    /** The RefMetaDataTracker slot of this binding's track, or -1 if it hasn't been resolved yet */
+    private volatile int trackSlot = -1;
 
     /**
      * The name counter.  This is how we create unique names for collections of RodBindings
@@ -189,6 +191,22 @@ public final class RodBinding<T extends Feature> {
         return tribbleType;
     }
 
+    /**
+     * @return the slot of this binding's track in RefMetaDataTracker, or -1 if it hasn't been resolved yet
+     */
+    final public int getTrackSlot() {
+        return trackSlot;
+    }
+
+    /**
+     * Remembers the slot of this binding's track in RefMetaDataTracker, so that it is only looked up by name once
+     * @param trackSlot the slot assigned to the track with this binding's name
+     */
+    @Requires({"trackSlot >= 0"})
+    final public void setTrackSlot(final int trackSlot) {
+        this.trackSlot = trackSlot;
+    }
+
     @Override
     public String toString() {
         return String.format("(RodBinding name=%s source=%s)", getName(), getSource());
@@ -46,6 +46,7 @@ import org.broadinstitute.sting.gatk.io.OutputTracker;
 import org.broadinstitute.sting.gatk.io.stubs.Stub;
 import org.broadinstitute.sting.gatk.iterators.ReadTransformer;
 import org.broadinstitute.sting.gatk.iterators.ReadTransformersMode;
+import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrackBuilder;
 import org.broadinstitute.sting.gatk.refdata.utils.RMDTriplet;
 import org.broadinstitute.sting.gatk.resourcemanagement.ThreadAllocation;
@@ -59,12 +60,14 @@ import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.interval.IntervalUtils;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
 import org.broadinstitute.sting.utils.recalibration.BaseRecalibration;
+import org.broadinstitute.sting.utils.threading.NamedThreadFactory;
 import org.broadinstitute.sting.utils.threading.ThreadEfficiencyMonitor;
 
 import java.io.File;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 /**
  * A GenomeAnalysisEngine that runs a specified walker.
@@ -149,6 +152,11 @@ public class GenomeAnalysisEngine {
 
     private ReadMetrics cumulativeMetrics = null;
 
+    /**
+     * Timings of the hot paths of this run, created on first use
+     */
+    private HotPathMetrics hotPathMetrics = null;
+
     /**
      * A currently hacky unique name for this GATK instance
      */
@@ -757,12 +765,17 @@ public class GenomeAnalysisEngine {
         initializeReadTransformers(walker);
 
         readsDataSource = createReadsDataSource(argCollection,genomeLocParser,referenceDataSource.getReference());
+        readsDataSource.setHotPathMetrics(getHotPathMetrics());
 
         for (ReadFilter filter : filters)
             filter.initialize(this);
 
         // set the sequence dictionary of all of Tribble tracks to the sequence dictionary of our reference
         rodDataSources = getReferenceOrderedDataSources(referenceMetaDataFiles,referenceDataSource.getReference().getSequenceDictionary(),genomeLocParser,argCollection.unsafe);
+
+        // give every track its RefMetaDataTracker slot up front, so the traversals never have to assign one
+        for ( final ReferenceOrderedDataSource dataSource : rodDataSources )
+            RefMetaDataTracker.getTrackSlot(dataSource.getName());
     }
 
     /**
@@ -866,7 +879,8 @@ public class GenomeAnalysisEngine {
                 readTransformers,
                 includeReadsWithDeletionAtLoci(),
                 argCollection.defaultBaseQualities,
-                removeProgramRecords);
+                removeProgramRecords,
+                argCollection.maxOpenBAMReaders);
     }
 
     /**
@@ -890,18 +904,25 @@ public class GenomeAnalysisEngine {
      * @return A list of reference-ordered data sources.
      */
     private List<ReferenceOrderedDataSource> getReferenceOrderedDataSources(Collection<RMDTriplet> referenceMetaDataFiles,
-                                                                            SAMSequenceDictionary sequenceDictionary,
-                                                                            GenomeLocParser genomeLocParser,
+                                                                            final SAMSequenceDictionary sequenceDictionary,
+                                                                            final GenomeLocParser genomeLocParser,
                                                                             ValidationExclusion.TYPE validationExclusionType) {
         final RMDTrackBuilder builder = new RMDTrackBuilder(sequenceDictionary,genomeLocParser, validationExclusionType);
 
-        final List<ReferenceOrderedDataSource> dataSources = new ArrayList<ReferenceOrderedDataSource>();
-        for (RMDTriplet fileDescriptor : referenceMetaDataFiles)
-            dataSources.add(new ReferenceOrderedDataSource(fileDescriptor,
-                                                           builder,
-                                                           sequenceDictionary,
-                                                           genomeLocParser,
-                                                           flashbackData()));
+        // opening a source may mean indexing its file, which can take a long time, so open them all concurrently
+        final List<Callable<ReferenceOrderedDataSource>> openers = new ArrayList<Callable<ReferenceOrderedDataSource>>();
+        for (final RMDTriplet fileDescriptor : referenceMetaDataFiles) {
+            openers.add(new Callable<ReferenceOrderedDataSource>() {
+                public ReferenceOrderedDataSource call() {
+                    return new ReferenceOrderedDataSource(fileDescriptor,
+                                                          builder,
+                                                          sequenceDictionary,
+                                                          genomeLocParser,
+                                                          flashbackData());
+                }
+            });
+        }
+        final List<ReferenceOrderedDataSource> dataSources = openReferenceOrderedDataSources(openers);
 
         // validation: check to make sure everything the walker needs is present, and that all sequence dictionaries match.
         validateSourcesAgainstReference(readsDataSource, referenceDataSource.getReference(), dataSources, builder);
@@ -909,6 +930,44 @@ public class GenomeAnalysisEngine {
         return dataSources;
     }
 
+    /**
+     * Open the reference-ordered data sources, using up to one thread per available processor
+     *
+     * @param openers one callable opening each data source
+     * @return the opened data sources, in the same order as openers
+     */
+    private List<ReferenceOrderedDataSource> openReferenceOrderedDataSources(final List<Callable<ReferenceOrderedDataSource>> openers) {
+        final List<ReferenceOrderedDataSource> dataSources = new ArrayList<ReferenceOrderedDataSource>(openers.size());
+        final int nThreads = Math.min(openers.size(), Runtime.getRuntime().availableProcessors());
+        if ( nThreads <= 1 ) {
+            for ( final Callable<ReferenceOrderedDataSource> opener : openers ) {
+                try {
+                    dataSources.add(opener.call());
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new ReviewedStingException("Failed to open reference-ordered data", e);
+                }
+            }
+            return dataSources;
+        }
+
+        final ExecutorService threadPool = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("RMD-opening-thread-%d"));
+        try {
+            for ( final Future<ReferenceOrderedDataSource> result : threadPool.invokeAll(openers) )
+                dataSources.add(result.get());
+        } catch (InterruptedException e) {
+            throw new ReviewedStingException("Interrupted while opening reference-ordered data", e);
+        } catch (ExecutionException e) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            throw new ReviewedStingException("Failed to open reference-ordered data", e.getCause());
+        } finally {
+            threadPool.shutdownNow();
+        }
+        return dataSources;
+    }
+
     /**
      * Returns the SAM File Header from the input reads' data source file
      * @return the SAM File Header from the input reads' data source file
@@ -1070,6 +1129,22 @@ public class GenomeAnalysisEngine {
         return cumulativeMetrics;
     }
 
+    /**
+     * Gets the registry of hot path metrics for this run.  The registry is enabled only if
+     * the user asked for a hot path metrics log; otherwise it is HotPathMetrics.DISABLED.
+     * Must not be called to create metrics before the arguments have been set.
+     *
+     * @return a non-null registry of hot path metrics
+     */
+    @Ensures("result != null")
+    public synchronized HotPathMetrics getHotPathMetrics() {
+        if ( argCollection == null )
+            return HotPathMetrics.DISABLED;
+        if ( hotPathMetrics == null )
+            hotPathMetrics = argCollection.hotPathMetricsLog == null ? HotPathMetrics.DISABLED : new HotPathMetrics(true);
+        return hotPathMetrics;
+    }
+
     /**
      * Return the global ThreadEfficiencyMonitor, if there is one
      *
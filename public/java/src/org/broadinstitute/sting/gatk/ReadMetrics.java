@@ -94,12 +94,21 @@ public class ReadMetrics implements Cloneable {
 
 
     public void incrementFilter(SamRecordFilter filter) {
+        incrementFilter(filter, 1L);
+    }
+
+    /**
+     * Increments the number of reads rejected by the given filter.
+     * @param filter The filter that rejected the reads.
+     * @param count The number of reads rejected.
+     */
+    public void incrementFilter(SamRecordFilter filter, long count) {
         long c = 0;
         if ( counter.containsKey(filter.getClass()) ) {
             c = counter.get(filter.getClass());
         }
 
-        counter.put(filter.getClass(), c + 1L);
+        counter.put(filter.getClass(), c + count);
     }
 
     public Map<String,Long> getCountsByFilter() {
@@ -235,6 +235,15 @@ public class GATKArgumentCollection {
     @Argument(fullName = "performanceLog", shortName="PF", doc="If provided, a GATK runtime performance log will be written to this file", required = false)
     public File performanceLog = null;
 
+    /**
+     * The file name for the GATK hot path metrics, or null if you don't want them.  When provided, the GATK
+     * times walker map and reduce calls, read transformers, reference fetches, ROD lookups and output writes,
+     * publishes these timings as MBeans while running, and writes them to this file as a GATKReport table
+     * at the end of the run.  Without this argument the timings aren't taken at all.
+     */
+    @Argument(fullName = "hotPathMetricsLog", shortName="HPM", doc="If provided, timings of the GATK's hot paths will be published over JMX and written to this file", required = false)
+    public File hotPathMetricsLog = null;
+
     @Argument(fullName="useOriginalQualities", shortName = "OQ", doc = "If set, use the original base quality scores from the OQ tag when present instead of the standard scores", required=false)
     public Boolean useOriginalBaseQualities = false;
 
@@ -343,6 +352,14 @@ public class GATKArgumentCollection {
     @Argument(fullName = "num_bam_file_handles", shortName = "bfh", doc="The total number of BAM file handles to keep open simultaneously", required=false)
     public Integer numberOfBAMFileHandles = null;
 
+    /**
+     * By default every input BAM is opened when the engine starts, and every thread processing shards holds its own
+     * reader on every BAM.  When set, BAMs are opened only as the shards being processed need them, and each such
+     * thread keeps no more than this many open at once.  Useful when calling across thousands of BAMs.
+     */
+    @Argument(fullName = "max_open_bam_readers", shortName = "maxOpenBAMs", doc="If provided, open BAMs lazily and keep at most this many readers open at once per processing thread", required=false)
+    public Integer maxOpenBAMReaders = null;
+
     @Input(fullName = "read_group_black_list", shortName="rgbl", doc="Filters out read groups matching <TAG>:<STRING> or a .txt file containing the filter strings one per line.", required = false)
     public List<String> readGroupBlackList = null;
 
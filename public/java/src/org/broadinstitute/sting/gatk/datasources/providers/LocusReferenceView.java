@@ -150,7 +150,10 @@ public class LocusReferenceView extends ReferenceView {
      * @param locus
      */
     private void initializeReferenceSequence( GenomeLoc locus ) {
+        final long fetchStart = fetchTimer.start();
         this.referenceSequence = reference.getSubsequenceAt( locus.getContig(), locus.getStart(), locus.getStop() );
+        fetchTimer.stop(fetchStart);
+        fetchedBases.add(locus.size());
     }
 
     protected GenomeLoc trimToBounds(GenomeLoc l) {
@@ -193,8 +196,12 @@ public class LocusReferenceView extends ReferenceView {
             refStart = (int)(window.getStart() - getWindowStart(bounds));
         }
         else {
-            if(referenceSequence == null || referenceSequence.getContigIndex() != genomeLoc.getContigIndex())
+            if(referenceSequence == null || referenceSequence.getContigIndex() != genomeLoc.getContigIndex()) {
+                final long fetchStart = fetchTimer.start();
                 referenceSequence = reference.getSequence(genomeLoc.getContig());
+                fetchTimer.stop(fetchStart);
+                fetchedBases.add(referenceSequence.length());
+            }
             refStart = (int)window.getStart()-1;
         }
 
@@ -6,6 +6,7 @@ import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
 import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODIterator;
 import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
 import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.metrics.HotPathTimer;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -33,14 +34,31 @@ public class ManagingReferenceOrderedView implements ReferenceOrderedView {
      */
     private List<ReferenceOrderedDataState> states = new ArrayList<ReferenceOrderedDataState>();
 
+    /**
+     * Times the lookups of RODs at each locus.
+     */
+    private final HotPathTimer lookupTimer;
+
+    /**
+     * The RefMetaDataTracker slot of each state's track, and scratch space for the tracks at the current locus.
+     */
+    private final int[] trackSlots;
+    private final RODRecordList[] tracksAtLocus;
+
     /**
      * Create a new view of reference-ordered data.
      * @param provider
      */
     public ManagingReferenceOrderedView( LocusShardDataProvider provider ) {
+        lookupTimer = provider.getHotPathMetrics().getTimer("rod", "lookup");
         for( ReferenceOrderedDataSource dataSource: provider.getReferenceOrderedData() )
             states.add(new ReferenceOrderedDataState(dataSource, dataSource.seek(provider.getLocus())));
 
+        trackSlots = new int[states.size()];
+        for ( int i = 0; i < trackSlots.length; i++ )
+            trackSlots[i] = RefMetaDataTracker.getTrackSlot(states.get(i).dataSource.getName());
+        tracksAtLocus = new RODRecordList[states.size()];
+
         provider.register(this);
     }
 
@@ -52,13 +70,18 @@ public class ManagingReferenceOrderedView implements ReferenceOrderedView {
      * @return A tracker containing information about this locus.
      */
     public RefMetaDataTracker getReferenceOrderedDataAtLocus( GenomeLoc loc, ReferenceContext referenceContext ) {
-        List<RODRecordList> bindings = states.isEmpty() ? Collections.<RODRecordList>emptyList() : new ArrayList<RODRecordList>(states.size());
+        if ( states.isEmpty() )
+            return RefMetaDataTracker.EMPTY_TRACKER;
 
-        for ( ReferenceOrderedDataState state: states )
-            // todo -- warning, I removed the reference to the name from states
-            bindings.add( state.iterator.seekForward(loc) );
+        boolean anyBound = false;
+        final long lookupStart = lookupTimer.start();
+        for ( int i = 0; i < tracksAtLocus.length; i++ ) {
+            tracksAtLocus[i] = states.get(i).iterator.seekForward(loc);
+            anyBound |= tracksAtLocus[i] != null && ! tracksAtLocus[i].isEmpty();
+        }
+        lookupTimer.stop(lookupStart);
 
-        return new RefMetaDataTracker(bindings);
+        return anyBound ? new RefMetaDataTracker(trackSlots, tracksAtLocus) : RefMetaDataTracker.EMPTY_TRACKER;
     }
 
     /**
@@ -34,6 +34,8 @@ import org.broadinstitute.sting.gatk.refdata.utils.LocationAwareSeekableRODItera
 import org.broadinstitute.sting.gatk.refdata.utils.RODRecordList;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
+import org.broadinstitute.sting.utils.metrics.HotPathTimer;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -43,7 +45,12 @@ import java.util.List;
 public class ReadBasedReferenceOrderedView implements View {
     // a list of the RMDDataState (location->iterators)
     private final List<RMDDataState> states = new ArrayList<RMDDataState>(1);
-    private final static RefMetaDataTracker EMPTY_TRACKER = new RefMetaDataTracker();
+
+    /**
+     * The RefMetaDataTracker slot of each state's track, and scratch space for the tracks overlapping the current interval
+     */
+    private int[] trackSlots;
+    private RODRecordList[] tracksHere;
 
     /**
      * Used to get genome locs for reads
@@ -56,16 +63,23 @@ public class ReadBasedReferenceOrderedView implements View {
      */
     private final GenomeLoc shardSpan;
 
+    /**
+     * Times the lookups of RODs overlapping reads
+     */
+    private final HotPathTimer lookupTimer;
+
     public ReadBasedReferenceOrderedView(final ShardDataProvider provider) {
         this.genomeLocParser = provider.getGenomeLocParser();
         // conditional to optimize the case where we don't have any ROD data
         this.shardSpan = provider.getReferenceOrderedData() != null ? ((ReadShard)provider.getShard()).getReadsSpan() : null;
+        this.lookupTimer = provider.getHotPathMetrics().getTimer("rod", "lookup");
         provider.register(this);
 
         if ( provider.getReferenceOrderedData() != null && ! shardSpan.isUnmapped() ) {
             for (ReferenceOrderedDataSource dataSource : provider.getReferenceOrderedData())
                 states.add(new RMDDataState(dataSource, dataSource.seek(shardSpan)));
         }
+        initializeTrackSlots();
     }
 
 
@@ -78,8 +92,17 @@ public class ReadBasedReferenceOrderedView implements View {
                                             final List<PeekableIterator<RODRecordList>> featureSources) {
         this.genomeLocParser = genomeLocParser;
         this.shardSpan = shardSpan;
+        this.lookupTimer = HotPathMetrics.DISABLED.getTimer("rod", "lookup");
         for ( int i = 0; i < names.size(); i++ )
             states.add(new RMDDataState(names.get(i), featureSources.get(i)));
+        initializeTrackSlots();
+    }
+
+    private void initializeTrackSlots() {
+        trackSlots = new int[states.size()];
+        for ( int i = 0; i < trackSlots.length; i++ )
+            trackSlots[i] = states.get(i).trackSlot;
+        tracksHere = new RODRecordList[states.size()];
     }
 
     public Collection<Class<? extends View>> getConflictingViews() {
@@ -100,7 +123,7 @@ public class ReadBasedReferenceOrderedView implements View {
     public RefMetaDataTracker getReferenceOrderedDataForRead(final SAMRecord rec) {
         if ( rec.getReadUnmappedFlag() )
             // empty RODs for unmapped reads
-            return new RefMetaDataTracker();
+            return RefMetaDataTracker.EMPTY_TRACKER;
         else
             return getReferenceOrderedDataForInterval(genomeLocParser.createGenomeLoc(rec));
     }
@@ -109,12 +132,16 @@ public class ReadBasedReferenceOrderedView implements View {
     @Ensures("result != null")
     public RefMetaDataTracker getReferenceOrderedDataForInterval(final GenomeLoc interval) {
         if ( states.isEmpty() || shardSpan.isUnmapped() ) // optimization for no bindings (common for read walkers)
-            return EMPTY_TRACKER;
+            return RefMetaDataTracker.EMPTY_TRACKER;
         else {
-            final List<RODRecordList> bindings = new ArrayList<RODRecordList>(states.size());
-            for ( final RMDDataState state : states )
-                bindings.add(state.stream.getOverlapping(interval));
-            return new RefMetaDataTracker(bindings);
+            boolean anyBound = false;
+            final long lookupStart = lookupTimer.start();
+            for ( int i = 0; i < tracksHere.length; i++ ) {
+                tracksHere[i] = states.get(i).stream.getOverlapping(interval);
+                anyBound |= tracksHere[i] != null && ! tracksHere[i].isEmpty();
+            }
+            lookupTimer.stop(lookupStart);
+            return anyBound ? new RefMetaDataTracker(trackSlots, tracksHere) : RefMetaDataTracker.EMPTY_TRACKER;
         }
     }
 
@@ -134,11 +161,13 @@ public class ReadBasedReferenceOrderedView implements View {
         public final ReferenceOrderedDataSource dataSource;
         public final IntervalOverlappingRODsFromStream stream;
         private final LocationAwareSeekableRODIterator iterator;
+        public final int trackSlot;
 
         public RMDDataState(ReferenceOrderedDataSource dataSource, LocationAwareSeekableRODIterator iterator) {
             this.dataSource = dataSource;
             this.iterator = iterator;
             this.stream = new IntervalOverlappingRODsFromStream(dataSource.getName(), new PeekableIterator<RODRecordList>(iterator));
+            this.trackSlot = RefMetaDataTracker.getTrackSlot(dataSource.getName());
         }
 
         /**
@@ -148,6 +177,7 @@ public class ReadBasedReferenceOrderedView implements View {
             this.dataSource = null;
             this.iterator = null;
             this.stream = new IntervalOverlappingRODsFromStream(name, new PeekableIterator<RODRecordList>(iterator));
+            this.trackSlot = RefMetaDataTracker.getTrackSlot(name);
         }
 
         public void close() {
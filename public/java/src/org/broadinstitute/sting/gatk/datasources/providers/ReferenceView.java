@@ -7,6 +7,8 @@ import net.sf.samtools.SAMSequenceRecord;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.metrics.HotPathCounter;
+import org.broadinstitute.sting.utils.metrics.HotPathTimer;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -38,6 +40,12 @@ public class ReferenceView implements View {
      */
     protected IndexedFastaSequenceFile reference = null;
 
+    /**
+     * Times the fetches of bases from the reference, and counts the bases fetched.
+     */
+    protected final HotPathTimer fetchTimer;
+    protected final HotPathCounter fetchedBases;
+
     /**
      * Create a new ReferenceView.
      * @param provider
@@ -45,6 +53,8 @@ public class ReferenceView implements View {
     public ReferenceView( ShardDataProvider provider ) {
         this.genomeLocParser = provider.getGenomeLocParser();
         this.reference = provider.getReference();
+        this.fetchTimer = provider.getHotPathMetrics().getTimer("reference", "fetch");
+        this.fetchedBases = provider.getHotPathMetrics().getCounter("reference", "bases.fetched");
     }
 
     /**
@@ -88,7 +98,10 @@ public class ReferenceView implements View {
         if(stop - start + 1 == 0)
             return new byte[0];
 
+        final long fetchStart = fetchTimer.start();
         ReferenceSequence subsequence = reference.getSubsequenceAt(genomeLoc.getContig(), start, stop);
+        fetchTimer.stop(fetchStart);
+        fetchedBases.add(stop - start + 1);
 
         int overhang = (int)(genomeLoc.getStop() - stop);
         if ( overhang > 0 ) {
@@ -5,6 +5,7 @@ import org.broadinstitute.sting.gatk.datasources.reads.Shard;
 import org.broadinstitute.sting.gatk.datasources.rmd.ReferenceOrderedDataSource;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -52,6 +53,11 @@ public abstract class ShardDataProvider {
      */
     private final Collection<ReferenceOrderedDataSource> referenceOrderedData;
 
+    /**
+     * Where views of this shard should record their timings.
+     */
+    private HotPathMetrics hotPathMetrics = HotPathMetrics.DISABLED;
+
     /**
      * Returns the GenomeLocParser associated with this traversal.
      * @return The associated parser.
@@ -94,6 +100,25 @@ public abstract class ShardDataProvider {
         return referenceOrderedData;        
     }
 
+    /**
+     * Gets the registry in which views should record their timings.  Package protected so that only
+     * views can access it.
+     * @return The hot path metrics for this shard; never null.
+     */
+    HotPathMetrics getHotPathMetrics() {
+        return hotPathMetrics;
+    }
+
+    /**
+     * Sets the registry in which views created after this call will record their timings.
+     * @param hotPathMetrics The hot path metrics of the engine running this shard.
+     */
+    public void setHotPathMetrics(final HotPathMetrics hotPathMetrics) {
+        if ( hotPathMetrics == null )
+            throw new IllegalArgumentException("hotPathMetrics cannot be null");
+        this.hotPathMetrics = hotPathMetrics;
+    }
+
     /**
      * @return true if reference ordered data will be provided by this shard
      */
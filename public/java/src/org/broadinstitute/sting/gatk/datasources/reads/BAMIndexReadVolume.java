@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import net.sf.samtools.LinearIndex;
+import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMSequenceRecord;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates where the reads of a set of indexed BAMs lie, from the linear indices and bin chunks of their BAM
+ * indices alone, as a proxy for how much work processing a region takes.
+ *
+ * The volume of a 16kb window of the genome is the number of compressed bytes the BAMs spend on the reads starting
+ * in that window, summed over all of the BAMs.  Only the indices are read, so estimating the volume of a genome's
+ * worth of BAMs is about as cheap as parsing their headers.
+ */
+public class BAMIndexReadVolume {
+    /**
+     * The genomic span of each window of the linear index.
+     */
+    public static final int WINDOW_SIZE = 1 << LinearIndex.BAM_LIDX_SHIFT;
+
+    /**
+     * The compressed bytes of each window, by contig.
+     */
+    private final Map<String, long[]> bytesPerWindow = new HashMap<String, long[]>();
+
+    /**
+     * Reads the indices of the given BAMs.
+     * @param bams The BAMs, each of which must be indexed.
+     */
+    public BAMIndexReadVolume(final Collection<File> bams) {
+        for(final File bam: bams) {
+            final File indexFile = findIndexFile(bam);
+            if(indexFile == null)
+                throw new UserException.CouldNotReadInputFile(bam, "it has no index, which is needed to estimate where its reads are");
+
+            final SAMFileReader reader = new SAMFileReader(bam);
+            final List<SAMSequenceRecord> sequences;
+            try {
+                reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+                sequences = reader.getFileHeader().getSequenceDictionary().getSequences();
+            } finally {
+                reader.close();
+            }
+
+            final GATKBAMIndex index = new GATKBAMIndex(indexFile);
+            for(final SAMSequenceRecord sequence: sequences)
+                add(sequence.getSequenceName(), index.readReferenceSequence(sequence.getSequenceIndex()).getCompressedBytesPerLinearIndexWindow());
+        }
+    }
+
+    private void add(final String contig, final long[] bytes) {
+        long[] total = bytesPerWindow.get(contig);
+        if(total == null || total.length < bytes.length) {
+            final long[] grown = new long[bytes.length];
+            if(total != null)
+                System.arraycopy(total, 0, grown, 0, total.length);
+            total = grown;
+            bytesPerWindow.put(contig, total);
+        }
+        for(int window = 0; window < bytes.length; window++)
+            total[window] += bytes[window];
+    }
+
+    /**
+     * Gets the compressed bytes of the reads starting in a window of the linear index.
+     * @param contig The contig of the window.
+     * @param window The index of the window, i.e. (position-1) / WINDOW_SIZE.
+     * @return The compressed bytes in the window, or 0 if no BAM has reads there.
+     */
+    public long getCompressedBytes(final String contig, final int window) {
+        final long[] bytes = bytesPerWindow.get(contig);
+        return bytes == null || window >= bytes.length ? 0 : bytes[window];
+    }
+
+    /**
+     * Estimates the compressed bytes of the reads starting in loc, counting each window partially overlapping loc
+     * in proportion to the overlap.
+     * @param loc The region to estimate.
+     * @return The estimated compressed bytes.
+     */
+    public double getCompressedBytes(final GenomeLoc loc) {
+        double bytes = 0;
+        for(int window = (loc.getStart()-1) / WINDOW_SIZE; window <= (loc.getStop()-1) / WINDOW_SIZE; window++) {
+            final int overlapStart = Math.max(loc.getStart(), window * WINDOW_SIZE + 1);
+            final int overlapStop = Math.min(loc.getStop(), (window+1) * WINDOW_SIZE);
+            bytes += getCompressedBytes(loc.getContig(), window) * (double)(overlapStop - overlapStart + 1) / WINDOW_SIZE;
+        }
+        return bytes;
+    }
+
+    /**
+     * Locates the index of a BAM as Picard does, i.e. either foo.bam.bai or foo.bai.
+     * @param bam The BAM.
+     * @return The index, or null if there is none.
+     */
+    private static File findIndexFile(final File bam) {
+        final File index = new File(bam.getPath() + ".bai");
+        if(index.exists())
+            return index;
+
+        final String path = bam.getPath();
+        if(path.endsWith(".bam")) {
+            final File otherIndex = new File(path.substring(0, path.length() - ".bam".length()) + ".bai");
+            if(otherIndex.exists())
+                return otherIndex;
+        }
+        return null;
+    }
+}
@@ -25,6 +25,8 @@
 package org.broadinstitute.sting.gatk.datasources.reads;
 
 import net.sf.samtools.*;
+import net.sf.samtools.util.BlockCompressedFilePointerUtil;
+import net.sf.samtools.util.BlockCompressedStreamConstants;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -89,6 +91,57 @@ public class GATKBAMIndexData {
         return new GATKBAMFileSpan(chunkList.toArray(new GATKChunk[chunkList.size()]));
     }
 
+    /**
+     * Estimates how much of the BAM is taken up by the reads of each 16kb window of the linear index.  The linear
+     * index points at the first read overlapping each window, so the compressed bytes between the entries of two
+     * consecutive windows are roughly the size of the reads starting in the first one.  An entry's position in the
+     * compressed file is interpolated from its offset into its block, assuming the block is full and as big as the
+     * typical gap between the block addresses of the index.  The last window runs up to the end of the last chunk of
+     * this reference, estimated the same way.
+     * @return The number of compressed bytes attributed to each window of the linear index.
+     */
+    public long[] getCompressedBytesPerLinearIndexWindow() {
+        long end = 0;
+        for(GATKBin bin: bins) {
+            // skip the pseudo-bin holding the mapped and unmapped read counts, whose chunks aren't file pointers
+            if(bin == null || bin.getBinNumber() >= GATKBAMIndex.MAX_BINS)
+                continue;
+            for(GATKChunk chunk: bin.getChunkList())
+                end = Math.max(end, chunk.getChunkEnd());
+        }
+
+        // consecutive entries in different blocks are at least a block apart, and dense windows can skip several
+        // blocks at a time, so the smallest gap is the size of one block
+        long blockSize = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+        long lastAddress = -1;
+        for(int window = 0; window < linearIndex.size(); window++) {
+            final long address = BlockCompressedFilePointerUtil.getBlockAddress(linearIndex.get(window));
+            if(linearIndex.get(window) != 0 && address > lastAddress) {
+                if(lastAddress >= 0)
+                    blockSize = Math.min(blockSize, address - lastAddress);
+                lastAddress = address;
+            }
+        }
+
+        final long[] bytes = new long[linearIndex.size()];
+        long next = estimateCompressedPosition(end, blockSize);
+        for(int window = bytes.length-1; window >= 0; window--) {
+            final long entry = linearIndex.get(window);
+            long start = next;
+            // windows without any reads have no entry of their own and start where the next window does
+            if(entry != 0)
+                start = Math.min(estimateCompressedPosition(entry, blockSize), next);
+            bytes[window] = next - start;
+            next = start;
+        }
+        return bytes;
+    }
+
+    private static long estimateCompressedPosition(final long filePointer, final long blockSize) {
+        final double fractionOfBlock = Math.min(1.0, (double)BlockCompressedFilePointerUtil.getBlockOffset(filePointer) / BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE);
+        return BlockCompressedFilePointerUtil.getBlockAddress(filePointer) + (long)(fractionOfBlock * blockSize);
+    }
+
     private List<GATKChunk> optimizeChunkList(final List<GATKChunk> chunks, final long minimumOffset) {
         GATKChunk lastChunk = null;
         Collections.sort(chunks);
@@ -28,6 +28,8 @@ import net.sf.samtools.SAMRecord;
 import net.sf.samtools.util.CloseableIterator;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.metrics.HotPathCounter;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
 import org.broadinstitute.sting.utils.sam.AlignmentUtils;
 
 import java.util.List;
@@ -77,8 +79,18 @@ class IntervalOverlapFilteringIterator implements CloseableIterator<SAMRecord> {
      */
     private int currentBound = 0;
 
+    /**
+     * Counts the reads that overlap none of the intervals.
+     */
+    private final HotPathCounter rejectedReads;
+
     public IntervalOverlapFilteringIterator(CloseableIterator<SAMRecord> iterator, List<GenomeLoc> intervals) {
+        this(iterator, intervals, HotPathMetrics.DISABLED);
+    }
+
+    public IntervalOverlapFilteringIterator(CloseableIterator<SAMRecord> iterator, List<GenomeLoc> intervals, HotPathMetrics hotPathMetrics) {
         this.iterator = iterator;
+        this.rejectedReads = hotPathMetrics.getCounter("readFilter", "IntervalOverlap.rejected");
 
         // Look at the interval list to detect whether we should worry about unmapped reads.
         // If we find a mix of mapped/unmapped intervals, throw an exception.
@@ -162,6 +174,8 @@ class IntervalOverlapFilteringIterator implements CloseableIterator<SAMRecord> {
                 }
             }
 
+            rejectedReads.increment();
+
             // No more reads available.  Stop the search.
             if(!iterator.hasNext())
                 break;
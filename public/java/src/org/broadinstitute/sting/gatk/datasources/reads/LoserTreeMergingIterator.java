@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordCoordinateComparator;
+import net.sf.samtools.util.CloseableIterator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Merges coordinate-sorted streams of reads with a loser tree.
+ *
+ * Each stream is keyed on the (contig index, alignment start) of its next read, packed into a primitive long, with
+ * unmapped reads sorting after every mapped read.  Pulling the next read costs a single pass from one leaf to the
+ * root of the tree, ~log2(k) comparisons of longs for k streams, so merging thousands of BAMs doesn't pay for the
+ * object comparisons of a priority queue of iterators.  Only reads at the same position are compared in full, with
+ * Picard's SAMRecordCoordinateComparator (strand, then read name, ...), so the merged order is the one Picard's
+ * MergingSamRecordIterator produces.  Reads that compare equal are returned in the order of their streams.
+ */
+class LoserTreeMergingIterator implements CloseableIterator<SAMRecord> {
+    /**
+     * The key of an exhausted stream.  Loses to everything.
+     */
+    private static final long EXHAUSTED = Long.MAX_VALUE;
+
+    /**
+     * The streams being merged.
+     */
+    private final List<CloseableIterator<SAMRecord>> sources;
+
+    /**
+     * The next read of each stream, or null if the stream is exhausted.
+     */
+    private final SAMRecord[] heads;
+
+    /**
+     * The packed (contig index, alignment start) of the next read in each stream.
+     */
+    private final long[] keys;
+
+    /**
+     * tree[0] is the stream holding the next read; tree[1..k-1] hold the loser of the match played at that node.
+     */
+    private final int[] tree;
+
+    /**
+     * Breaks ties between reads at the same position.
+     */
+    private final SAMRecordCoordinateComparator comparator = new SAMRecordCoordinateComparator();
+
+    /**
+     * Create a new merging iterator over the given coordinate-sorted streams.
+     * @param sources Streams to merge.  Closed when this iterator is closed.
+     */
+    public LoserTreeMergingIterator(final List<CloseableIterator<SAMRecord>> sources) {
+        this.sources = sources;
+
+        final int k = sources.size();
+        heads = new SAMRecord[k];
+        keys = new long[k];
+        tree = new int[Math.max(k,1)];
+
+        Arrays.fill(tree,-1);
+        for(int i = 0; i < k; i++) {
+            advance(i);
+            replay(i);
+        }
+    }
+
+    public boolean hasNext() {
+        return tree[0] >= 0 && keys[tree[0]] != EXHAUSTED;
+    }
+
+    public SAMRecord next() {
+        if(!hasNext())
+            throw new NoSuchElementException("Unable to retrieve next record from LoserTreeMergingIterator; all inputs are exhausted");
+        final int winner = tree[0];
+        final SAMRecord read = heads[winner];
+        advance(winner);
+        replay(winner);
+        return read;
+    }
+
+    public void close() {
+        for(CloseableIterator<SAMRecord> source: sources)
+            source.close();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("Unable to remove from a LoserTreeMergingIterator");
+    }
+
+    /**
+     * Packs the sort key of a read into a long.
+     * @param read Read to key.
+     * @return (contig index, alignment start), with unmapped reads sorting last.
+     */
+    static long getKey(final SAMRecord read) {
+        final int contigIndex = read.getReferenceIndex();
+        final long contig = contigIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX ? Integer.MAX_VALUE : contigIndex;
+        return (contig << 32) | (read.getAlignmentStart() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Loads the next read of the given stream.
+     * @param source Index of the stream.
+     */
+    private void advance(final int source) {
+        final CloseableIterator<SAMRecord> iterator = sources.get(source);
+        if(iterator.hasNext()) {
+            heads[source] = iterator.next();
+            keys[source] = getKey(heads[source]);
+        }
+        else {
+            heads[source] = null;
+            keys[source] = EXHAUSTED;
+        }
+    }
+
+    /**
+     * Does stream a come before stream b?  Reads at the same position are ordered by the full coordinate comparator,
+     * and reads that compare equal go to the earlier stream.
+     */
+    private boolean beats(final int a, final int b) {
+        if(keys[a] != keys[b])
+            return keys[a] < keys[b];
+        if(keys[a] != EXHAUSTED) {
+            final int comparison = comparator.compare(heads[a],heads[b]);
+            if(comparison != 0)
+                return comparison < 0;
+        }
+        return a < b;
+    }
+
+    /**
+     * Replays the matches on the path from the given stream's leaf to the root.  While the tree is being
+     * built, the first candidate to reach an empty node waits there for its opponent.
+     * @param source Index of the stream whose key changed.
+     */
+    private void replay(final int source) {
+        int winner = source;
+        for(int node = (source + sources.size()) >> 1; node > 0; node >>= 1) {
+            if(tree[node] < 0) {
+                tree[node] = winner;
+                return;
+            }
+            if(beats(tree[node],winner)) {
+                final int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+}
@@ -50,13 +50,46 @@ public class ReadShard extends Shard {
      */
     public static int MAX_READS = DEFAULT_MAX_READS;
 
+    /**
+     * The approximate size, in bytes of BAM record, of the reads the default buffer sizes were chosen for
+     * (~100bp reads with a handful of tags).  Adaptive buffer sizes hold as many bytes of reads as a buffer
+     * of this many reads of this size would.
+     */
+    protected static final int TYPICAL_RECORD_SIZE = 300;
+
+    /**
+     * An adaptive buffer size never strays further than this factor from the configured buffer size.
+     */
+    protected static final int MAX_ADAPTIVE_SCALING = 4;
+
+    /**
+     * The size of the fixed-length portion of a BAM record.
+     */
+    private static final int FIXED_RECORD_SIZE = 32;
+
+    /**
+     * The maximum number of reads per BAM file which should go into this particular shard.
+     */
+    private final int maxReads;
+
     /**
      * The reads making up this shard.
      */
-    private final Collection<SAMRecord> reads = new ArrayList<SAMRecord>(MAX_READS);
+    private final Collection<SAMRecord> reads;
+
+    /**
+     * The approximate total size of the reads in this shard, in bytes of BAM record.
+     */
+    private long bufferedRecordBytes = 0;
 
     public ReadShard(GenomeLocParser parser, SAMDataSource readsDataSource, Map<SAMReaderID,SAMFileSpan> fileSpans, List<GenomeLoc> loci, boolean isUnmapped) {
+        this(parser, readsDataSource, fileSpans, loci, isUnmapped, MAX_READS);
+    }
+
+    public ReadShard(GenomeLocParser parser, SAMDataSource readsDataSource, Map<SAMReaderID,SAMFileSpan> fileSpans, List<GenomeLoc> loci, boolean isUnmapped, int maxReads) {
         super(parser, ShardType.READ, loci, readsDataSource, fileSpans, isUnmapped);
+        this.maxReads = maxReads;
+        this.reads = new ArrayList<SAMRecord>(maxReads);
     }
 
     /**
@@ -80,6 +113,69 @@ public class ReadShard extends Shard {
         return MAX_READS;
     }
 
+    /**
+     * Tunes a read buffer size to the reads seen so far, so that each shard holds roughly the same number of
+     * bytes of reads no matter how long the reads are: short reads get bigger buffers (and fewer shards), long
+     * reads smaller ones.  The tuned size stays within a factor of MAX_ADAPTIVE_SCALING of the base size.
+     *
+     * @param baseBufferSize the configured buffer size, sized for reads of TYPICAL_RECORD_SIZE bytes
+     * @param readsSeen the number of reads seen so far
+     * @param recordBytesSeen the approximate total size of those reads, as computed by getApproximateRecordSize()
+     * @return the number of reads to buffer in the next shard
+     */
+    public static int getAdaptiveReadBufferSize(final int baseBufferSize, final long readsSeen, final long recordBytesSeen) {
+        if ( readsSeen == 0 || recordBytesSeen == 0 )
+            return baseBufferSize;
+
+        final double meanRecordSize = (double)recordBytesSeen / readsSeen;
+        final long tunedBufferSize = Math.round(baseBufferSize * TYPICAL_RECORD_SIZE / meanRecordSize);
+        final long minBufferSize = Math.max(1, baseBufferSize / MAX_ADAPTIVE_SCALING);
+        final long maxBufferSize = (long)baseBufferSize * MAX_ADAPTIVE_SCALING;
+        return (int)Math.max(minBufferSize, Math.min(maxBufferSize, tunedBufferSize));
+    }
+
+    /**
+     * Approximates the size of a read as stored in a BAM file, without decoding any of its lazily-decoded fields.
+     *
+     * @param read the read
+     * @return the approximate size of the read, in bytes
+     */
+    public static int getApproximateRecordSize(final SAMRecord read) {
+        if ( read instanceof BAMRecord ) {
+            final byte[] variableBinaryData = ((BAMRecord)read).getVariableBinaryRepresentation();
+            if ( variableBinaryData != null )
+                return FIXED_RECORD_SIZE + variableBinaryData.length;
+        }
+
+        // the read has been modified since it was decoded, or didn't come from a BAM file at all
+        final int readLength = read.getReadLength();
+        return FIXED_RECORD_SIZE + read.getReadNameLength() + 1 + 4 * read.getCigarLength() + (readLength + 1) / 2 + readLength;
+    }
+
+    /**
+     * The maximum number of reads buffered by this shard.
+     * @return The maximum number of reads (which may be exceeded to keep reads sharing a start position together).
+     */
+    public int getMaxReads() {
+        return maxReads;
+    }
+
+    /**
+     * The approximate total size of the reads buffered by this shard.
+     * @return The sum of getApproximateRecordSize() over the reads in this shard.
+     */
+    public long getBufferedRecordBytes() {
+        return bufferedRecordBytes;
+    }
+
+    /**
+     * The number of reads buffered by this shard.
+     * @return The number of reads currently in the buffer.
+     */
+    public int getNumBufferedReads() {
+        return reads.size();
+    }
+
     /**
      * Returns true if this shard is meant to buffer reads, rather
      * than just holding pointers to their locations.
@@ -102,7 +198,7 @@ public class ReadShard extends Shard {
      * @return True if this shard's buffer is full (and the shard can buffer reads).
      */
     public boolean isBufferFull() {
-        return reads.size() > ReadShard.MAX_READS;
+        return reads.size() > maxReads;
     }
 
     /**
@@ -113,6 +209,7 @@ public class ReadShard extends Shard {
         // DO NOT validate that the buffer is full.  Paired read sharding will occasionally have to stuff another
         // read or two into the buffer.
         reads.add(read);
+        bufferedRecordBytes += getApproximateRecordSize(read);
     }
 
     /**
@@ -54,6 +54,14 @@ import java.util.*;
  *    the downsampling process is never interrupted by FilePointer or Shard boundaries, and never
  *    loses crucial state information while downsampling within a contig.
  *
+ * 3. Reads are streamed from shard to shard. Each shard picks up exactly where the previous shard
+ *    on the same contig left off, so we never re-seek into the files at shard boundaries and the
+ *    BGZF blocks that straddle a boundary are only ever decompressed once.
+ *
+ * Unless a read buffer size has been explicitly requested, the number of reads buffered per shard
+ * is also tuned on the fly to the size of the reads seen so far, so that shards hold a roughly
+ * constant amount of read data whether the reads are short or long.
+ *
  * TODO: There is also at least one important disadvantage:
  *
  * 1. We load more BAM index data into memory at once, and this work is done upfront before processing
@@ -99,6 +107,18 @@ public class ReadShardBalancer extends ShardBalancer {
              */
             private boolean encounteredMonolithicFilePointer = false;
 
+            /**
+             * How many reads (and approximately how many bytes of reads) have we buffered into shards so far?
+             * Used to tune the read buffer size when the data source allows it.
+             */
+            private long totalReadsBuffered = 0;
+            private long totalRecordBytesBuffered = 0;
+
+            /**
+             * The number of reads to buffer in the next shard.
+             */
+            private int readBufferSize = ReadShard.getReadBufferSize();
+
 
             {
                 createNextContigFilePointer();
@@ -140,7 +160,7 @@ public class ReadShardBalancer extends ShardBalancer {
                     // At this point our currentContigReadsIterator may be null or non-null depending on whether or not
                     // this is our first shard for this file pointer.
                     if ( currentContigFilePointer != null ) {
-                        Shard shard = new ReadShard(parser,readsDataSource, currentContigFilePointer.fileSpans, currentContigFilePointer.locations, currentContigFilePointer.isRegionUnmapped);
+                        ReadShard shard = new ReadShard(parser,readsDataSource, currentContigFilePointer.fileSpans, currentContigFilePointer.locations, currentContigFilePointer.isRegionUnmapped, readBufferSize);
 
                         // Create a new reads iterator only when we've just advanced to the file pointer for the next
                         // contig. It's essential that the iterators persist across all shards that share the same contig
@@ -152,11 +172,27 @@ public class ReadShardBalancer extends ShardBalancer {
                         if ( currentContigReadsIterator.hasNext() ) {
                             shard.fill(currentContigReadsIterator);
                             nextShard = shard;
+                            updateReadBufferSize(shard);
                         }
                     }
                 }
             }
 
+            /**
+             * Folds the reads of a freshly-filled shard into our estimate of the typical read size, and
+             * re-tunes the size of the read buffer for the next shard accordingly.
+             *
+             * @param shard the shard that was just filled
+             */
+            private void updateReadBufferSize( final ReadShard shard ) {
+                if ( ! readsDataSource.isReadBufferSizeAdaptive() )
+                    return;
+
+                totalReadsBuffered += shard.getNumBufferedReads();
+                totalRecordBytesBuffered += shard.getBufferedRecordBytes();
+                readBufferSize = ReadShard.getAdaptiveReadBufferSize(ReadShard.getReadBufferSize(), totalReadsBuffered, totalRecordBytesBuffered);
+            }
+
             /**
              * Aggregate all FilePointers for the next contig together into one monolithic FilePointer
              * to avoid boundary issues with visiting the same file regions more than once (since more
@@ -38,12 +38,14 @@ import org.broadinstitute.sting.gatk.filters.CountingFilteringIterator;
 import org.broadinstitute.sting.gatk.filters.ReadFilter;
 import org.broadinstitute.sting.gatk.iterators.*;
 import org.broadinstitute.sting.gatk.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 import org.broadinstitute.sting.utils.GenomeLocSortedSet;
 import org.broadinstitute.sting.utils.SimpleTimer;
 import org.broadinstitute.sting.utils.baq.ReadTransformingIterator;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
 import org.broadinstitute.sting.utils.sam.GATKSamRecordFactory;
 
 import java.io.File;
@@ -70,6 +72,11 @@ public class SAMDataSource {
      */
     private final ReadMetrics readMetrics;
 
+    /**
+     * Where the filtering iterators should record their timings.
+     */
+    private HotPathMetrics hotPathMetrics = HotPathMetrics.DISABLED;
+
     /**
      * Tools for parsing GenomeLocs, for verifying BAM ordering against general ordering.
      */
@@ -102,6 +109,17 @@ public class SAMDataSource {
      */
     private final Map<SAMReaderID,GATKBAMFileSpan> readerPositions = new HashMap<SAMReaderID,GATKBAMFileSpan>();
 
+    /**
+     * The start positions of the first chunk of reads for all BAM files.
+     */
+    private final Map<SAMReaderID,GATKBAMFileSpan> initialReaderPositions = new HashMap<SAMReaderID,GATKBAMFileSpan>();
+
+    /**
+     * Merger of the headers of all input files.  When readers are opened eagerly, this is the merger built by the
+     * first set of readers in the resource pool.
+     */
+    private final SamFileHeaderMerger headerMerger;
+
     /**
      * The merged header.
      */
@@ -136,6 +154,18 @@ public class SAMDataSource {
      */
     private final Map<SAMReaderID,ReadGroupMapping> originalToMergedReadGroupMappings = new HashMap<SAMReaderID,ReadGroupMapping>();
 
+    /**
+     * How to rewrite the reads of each input file in terms of the merged header.  Only used when readers are opened lazily;
+     * otherwise Picard's merging iterator does this for us.
+     */
+    private final Map<SAMReaderID,MergedHeaderRemapping> mergedHeaderRemappings = new HashMap<SAMReaderID,MergedHeaderRemapping>();
+
+    /**
+     * The id of every reader opened by this data source.  Readers don't override equals(), so this is an identity map,
+     * and readers closed by the lazy reader sets drop out of it once they're no longer referenced by any read.
+     */
+    private final Map<SAMFileReader,SAMReaderID> readerIDsByReader = Collections.synchronizedMap(new WeakHashMap<SAMFileReader,SAMReaderID>());
+
     /** our log, which we want to capture anything from this class */
     private static Logger logger = Logger.getLogger(SAMDataSource.class);
 
@@ -154,6 +184,18 @@ public class SAMDataSource {
      */
     private final ThreadAllocation threadAllocation;
 
+    /**
+     * Should the number of reads buffered per read shard be tuned to the size of the reads actually
+     * seen in the files?  Only the case when the user didn't explicitly ask for a read buffer size.
+     */
+    private final boolean adaptiveReadBufferSize;
+
+    /**
+     * If non-null, readers are opened only when a shard needs them, and each set of readers in the resource pool
+     * keeps at most this many open at once.  If null, every reader is opened up front.
+     */
+    private final Integer maxOpenReaders;
+
     /**
      * Create a new SAM data source given the supplied read metadata.
      * @param samFiles list of reads files.
@@ -233,6 +275,60 @@ public class SAMDataSource {
             boolean includeReadsWithDeletionAtLoci,
             byte defaultBaseQualities,
             boolean removeProgramRecords) {
+        this(   samFiles,
+                threadAllocation,
+                numFileHandles,
+                genomeLocParser,
+                useOriginalBaseQualities,
+                strictness,
+                readBufferSize,
+                downsamplingMethod,
+                exclusionList,
+                supplementalFilters,
+                readTransformers,
+                includeReadsWithDeletionAtLoci,
+                defaultBaseQualities,
+                removeProgramRecords,
+                null);
+    }
+
+    /**
+     * Create a new SAM data source given the supplied read metadata.
+     * @param samFiles list of reads files.
+     * @param useOriginalBaseQualities True if original base qualities should be used.
+     * @param strictness Stringency of reads file parsing.
+     * @param readBufferSize Number of reads to hold in memory per BAM.
+     * @param downsamplingMethod Method for downsampling reads at a given locus.
+     * @param exclusionList what safety checks we're willing to let slide
+     * @param supplementalFilters additional filters to dynamically apply.
+     * @param includeReadsWithDeletionAtLoci if 'true', the base pileups sent to the walker's map() method
+     *         will explicitly list reads with deletion over the current reference base; otherwise, only observed
+     *        bases will be seen in the pileups, and the deletions will be skipped silently.
+     * @param defaultBaseQualities if the reads have incomplete quality scores, set them all to defaultBaseQuality.
+     * @param removeProgramRecords indicate whether to clear program records from the readers
+     * @param maxOpenReaders if non-null, open readers only as shards need them and keep at most this many open
+     *        per concurrently processed shard.  If null, all readers are opened up front.
+     */
+    public SAMDataSource(
+            Collection<SAMReaderID> samFiles,
+            ThreadAllocation threadAllocation,
+            Integer numFileHandles,
+            GenomeLocParser genomeLocParser,
+            boolean useOriginalBaseQualities,
+            SAMFileReader.ValidationStringency strictness,
+            Integer readBufferSize,
+            DownsamplingMethod downsamplingMethod,
+            ValidationExclusion exclusionList,
+            Collection<ReadFilter> supplementalFilters,
+            List<ReadTransformer> readTransformers,
+            boolean includeReadsWithDeletionAtLoci,
+            byte defaultBaseQualities,
+            boolean removeProgramRecords,
+            Integer maxOpenReaders) {
+        if(maxOpenReaders != null && maxOpenReaders < 1)
+            throw new UserException.BadArgumentValue("max_open_bam_readers", "must be at least 1, but was " + maxOpenReaders);
+        this.maxOpenReaders = maxOpenReaders;
+
         this.readMetrics = new ReadMetrics();
         this.genomeLocParser = genomeLocParser;
 
@@ -249,6 +345,7 @@ public class SAMDataSource {
 
         validationStringency = strictness;
         this.removeProgramRecords = removeProgramRecords;
+        adaptiveReadBufferSize = readBufferSize == null;
         if(readBufferSize != null)
             ReadShard.setReadBufferSize(readBufferSize);   // TODO: use of non-final static variable here is just awful, especially for parallel tests
         else {
@@ -257,10 +354,14 @@ public class SAMDataSource {
             ReadShard.setReadBufferSize(Math.min(10000*samFiles.size(),250000));
         }
 
+        if(maxOpenReaders != null)
+            logger.info(String.format("Opening BAM readers lazily; at most %d will be open at once per shard", maxOpenReaders));
+
         resourcePool = new SAMResourcePool(Integer.MAX_VALUE);
         SAMReaders readers = resourcePool.getAvailableReaders();
 
         // Determine the sort order.
+        final List<SAMFileHeader> orderedHeaders = new ArrayList<SAMFileHeader>(readerIDs.size());
         for(SAMReaderID readerID: readerIDs) {
             if (! readerID.samFile.canRead() )
                 throw new UserException.CouldNotReadInputFile(readerID.samFile,"file is not present or user does not have appropriate permissions.  " +
@@ -271,9 +372,11 @@ public class SAMDataSource {
             SAMFileHeader header = reader.getFileHeader();
 
             headers.put(readerID,header);
+            orderedHeaders.add(header);
+            initialReaderPositions.put(readerID,new GATKBAMFileSpan(reader.getFilePointerSpanningReads()));
 
             if ( header.getReadGroups().isEmpty() ) {
-                throw new UserException.MalformedBAM(readers.getReaderID(reader).samFile,
+                throw new UserException.MalformedBAM(readerID.samFile,
                         "SAM file doesn't have any read groups defined in the header.  The GATK no longer supports SAM files without read groups");
             }
 
@@ -287,10 +390,12 @@ public class SAMDataSource {
             this.sortOrder = sortOrder;
         }
 
-        initializeReaderPositions(readers);
+        readerPositions.putAll(initialReaderPositions);
 
-        mergedHeader = readers.getMergedHeader();
-        hasReadGroupCollisions = readers.hasReadGroupCollisions();
+        // eager reader sets already merged the headers of their readers; lazy ones leave it to us
+        headerMerger = maxOpenReaders == null ? readers.headerMerger : new SamFileHeaderMerger(SAMFileHeader.SortOrder.coordinate,orderedHeaders,true);
+        mergedHeader = headerMerger.getMergedHeader();
+        hasReadGroupCollisions = headerMerger.hasReadGroupCollisions();
 
         readProperties = new ReadProperties(
                 samFiles,
@@ -308,14 +413,14 @@ public class SAMDataSource {
         // cache the read group id (original) -> read group id (merged)
         // and read group id (merged) -> read group id (original) mappings.
         for(SAMReaderID id: readerIDs) {
-            SAMFileReader reader = readers.getReader(id);
+            SAMFileHeader header = headers.get(id);
             ReadGroupMapping mappingToMerged = new ReadGroupMapping();
 
-            List<SAMReadGroupRecord> readGroups = reader.getFileHeader().getReadGroups();
+            List<SAMReadGroupRecord> readGroups = header.getReadGroups();
             for(SAMReadGroupRecord readGroup: readGroups) {
                 if(hasReadGroupCollisions) {
-                    mappingToMerged.put(readGroup.getReadGroupId(),readers.getReadGroupId(id,readGroup.getReadGroupId()));
-                    mergedToOriginalReadGroupMappings.put(readers.getReadGroupId(id,readGroup.getReadGroupId()),readGroup.getReadGroupId());
+                    mappingToMerged.put(readGroup.getReadGroupId(),headerMerger.getReadGroupId(header,readGroup.getReadGroupId()));
+                    mergedToOriginalReadGroupMappings.put(headerMerger.getReadGroupId(header,readGroup.getReadGroupId()),readGroup.getReadGroupId());
                 } else {
                     mappingToMerged.put(readGroup.getReadGroupId(),readGroup.getReadGroupId());
                     mergedToOriginalReadGroupMappings.put(readGroup.getReadGroupId(),readGroup.getReadGroupId());
@@ -323,6 +428,9 @@ public class SAMDataSource {
             }
 
             originalToMergedReadGroupMappings.put(id,mappingToMerged);
+
+            if(maxOpenReaders != null)
+                mergedHeaderRemappings.put(id,new MergedHeaderRemapping(header,mappingToMerged));
         }
 
         for(SAMReaderID id: readerIDs) {
@@ -341,6 +449,14 @@ public class SAMDataSource {
      */
     public ReadProperties getReadsInfo() { return readProperties; }
 
+    /**
+     * Is the read shard buffer size free to be tuned from the observed size of the reads?
+     * @return True if no explicit read buffer size was requested for this data source.
+     */
+    public boolean isReadBufferSizeAdaptive() {
+        return adaptiveReadBufferSize;
+    }
+
     /**
      * Checks to see whether any reads files are supplying data.
      * @return True if no reads files are supplying data to the traversal; false otherwise.
@@ -372,7 +488,10 @@ public class SAMDataSource {
      * @return ID of the reader.
      */
     public SAMReaderID getReaderID(SAMRecord read) {
-        return resourcePool.getReaderID(read.getFileSource().getReader());
+        final SAMReaderID id = readerIDsByReader.get(read.getFileSource().getReader());
+        if(id == null)
+            throw new ReviewedStingException("No such reader id is available");
+        return id;
     }
 
     /**
@@ -463,6 +582,16 @@ public class SAMDataSource {
         }
     }
 
+    /**
+     * Sets the registry in which the filtering iterators created after this call will record their timings.
+     * @param hotPathMetrics The hot path metrics of the engine reading from this data source.
+     */
+    public void setHotPathMetrics(final HotPathMetrics hotPathMetrics) {
+        if ( hotPathMetrics == null )
+            throw new IllegalArgumentException("hotPathMetrics cannot be null");
+        this.hotPathMetrics = hotPathMetrics;
+    }
+
     /**
      * Legacy method to fill the given buffering shard with reads.
      *
@@ -484,35 +613,39 @@ public class SAMDataSource {
         Map<SAMFileReader,GATKBAMFileSpan> positionUpdates = new IdentityHashMap<SAMFileReader,GATKBAMFileSpan>();
 
         CloseableIterator<SAMRecord> iterator = getIterator(readers,shard,sortOrder == SAMFileHeader.SortOrder.coordinate);
-        while(!shard.isBufferFull() && iterator.hasNext()) {
-            final SAMRecord nextRead = iterator.next();
-            if ( read == null || (nextRead.getReferenceIndex().equals(read.getReferenceIndex())) ) {
-                // only add reads to the shard if they are on the same contig
-                read = nextRead;
-                shard.addRead(read);
-                noteFilePositionUpdate(positionUpdates,read);
-            } else {
-                break;
+        try {
+            while(!shard.isBufferFull() && iterator.hasNext()) {
+                final SAMRecord nextRead = iterator.next();
+                if ( read == null || (nextRead.getReferenceIndex().equals(read.getReferenceIndex())) ) {
+                    // only add reads to the shard if they are on the same contig
+                    read = nextRead;
+                    shard.addRead(read);
+                    noteFilePositionUpdate(positionUpdates,read);
+                } else {
+                    break;
+                }
             }
-        }
 
-        // If the reads are sorted in queryname order, ensure that all reads
-        // having the same queryname become part of the same shard.
-        if(sortOrder == SAMFileHeader.SortOrder.queryname) {
-            while(iterator.hasNext()) {
-                SAMRecord nextRead = iterator.next();
-                if(read == null || !read.getReadName().equals(nextRead.getReadName()))
-                    break;
-                shard.addRead(nextRead);
-                noteFilePositionUpdate(positionUpdates,nextRead);
+            // If the reads are sorted in queryname order, ensure that all reads
+            // having the same queryname become part of the same shard.
+            if(sortOrder == SAMFileHeader.SortOrder.queryname) {
+                while(iterator.hasNext()) {
+                    SAMRecord nextRead = iterator.next();
+                    if(read == null || !read.getReadName().equals(nextRead.getReadName()))
+                        break;
+                    shard.addRead(nextRead);
+                    noteFilePositionUpdate(positionUpdates,nextRead);
+                }
             }
         }
-
-        iterator.close();
+        finally {
+            // Unpins the readers used by the shard and returns them to the pool, even if the fill failed.
+            iterator.close();
+        }
 
         // Make the updates specified by the reader.
         for(Map.Entry<SAMFileReader,GATKBAMFileSpan> positionUpdate: positionUpdates.entrySet())
-            readerPositions.put(readers.getReaderID(positionUpdate.getKey()),positionUpdate.getValue());
+            readerPositions.put(readerIDsByReader.get(positionUpdate.getKey()),positionUpdate.getValue());
     }
 
     /*
@@ -534,47 +667,21 @@ public class SAMDataSource {
     }
 
     /**
-     * Gets the reader associated with the given read.
-     * @param readers Available readers.
-     * @param read
-     * @return
-     */
-    private SAMReaderID getReaderID(SAMReaders readers, SAMRecord read) {
-        for(SAMReaderID id: getReaderIDs()) {
-            if(readers.getReader(id) == read.getFileSource().getReader())
-                return id;
-        }
-        throw new ReviewedStingException("Unable to find id for reader associated with read " + read.getReadName());
-    }
-
-    /**
-     * Initialize the current reader positions
-     *
-     * TODO: delete this once the experimental downsampling engine fork collapses
+     * Get the initial reader positions across all BAM files
      *
-     * @param readers
+     * @return the start positions of the first chunk of reads for all BAM files
      */
-    @Deprecated
-    private void initializeReaderPositions(SAMReaders readers) {
-        for(SAMReaderID id: getReaderIDs())
-            readerPositions.put(id,new GATKBAMFileSpan(readers.getReader(id).getFilePointerSpanningReads()));
+    protected Map<SAMReaderID, GATKBAMFileSpan> getInitialReaderPositions() {
+        return new HashMap<SAMReaderID, GATKBAMFileSpan>(initialReaderPositions);
     }
 
     /**
-     * Get the initial reader positions across all BAM files
+     * Gets the files that currently have an open reader, in any set of readers in the resource pool.
      *
-     * @return the start positions of the first chunk of reads for all BAM files
+     * @return the ids of the open readers.  Used to check the lazy reader sets in tests.
      */
-    protected Map<SAMReaderID, GATKBAMFileSpan> getInitialReaderPositions() {
-        Map<SAMReaderID, GATKBAMFileSpan> initialPositions = new HashMap<SAMReaderID, GATKBAMFileSpan>();
-        SAMReaders readers = resourcePool.getAvailableReaders();
-
-        for ( SAMReaderID id: getReaderIDs() ) {
-            initialPositions.put(id, new GATKBAMFileSpan(readers.getReader(id).getFilePointerSpanningReads()));
-        }
-
-        resourcePool.releaseReaders(readers);
-        return initialPositions;
+    Set<SAMReaderID> getOpenReaderIDs() {
+        return resourcePool.getOpenReaderIDs();
     }
 
     /**
@@ -595,40 +702,17 @@ public class SAMDataSource {
      * @return An iterator over the selected data.
      */
     private StingSAMIterator getIterator(SAMReaders readers, Shard shard, boolean enableVerification) {
-        // Set up merging to dynamically merge together multiple BAMs.
-        Map<SAMFileReader,CloseableIterator<SAMRecord>> iteratorMap = new HashMap<SAMFileReader,CloseableIterator<SAMRecord>>();
-
-        for(SAMReaderID id: getReaderIDs()) {
-            CloseableIterator<SAMRecord> iterator = null;
-
-            // TODO: null used to be the signal for unmapped, but we've replaced that with a simple index query for the last bin.
-            // TODO: Kill this check once we've proven that the design elements are gone.
-            if(shard.getFileSpans().get(id) == null)
-                throw new ReviewedStingException("SAMDataSource: received null location for reader " + id + ", but null locations are no longer supported.");
-
-            try {
-                if(threadAllocation.getNumIOThreads() > 0) {
-                    BlockInputStream inputStream = readers.getInputStream(id);
-                    inputStream.submitAccessPlan(new BAMAccessPlan(id, inputStream, (GATKBAMFileSpan) shard.getFileSpans().get(id)));
-                    BAMRecordCodec codec = new BAMRecordCodec(getHeader(id),factory);
-                    codec.setInputStream(inputStream);
-                    iterator = new BAMCodecIterator(inputStream,readers.getReader(id),codec);
-                }
-                else {
-                    iterator = readers.getReader(id).iterator(shard.getFileSpans().get(id));
-                }
-            } catch ( RuntimeException e ) { // we need to catch RuntimeExceptions here because the Picard code is throwing them (among SAMFormatExceptions) sometimes
-                throw new UserException.MalformedBAM(id.samFile, e.getMessage());
-            }
-
-            iterator = new MalformedBAMErrorReformatingIterator(id.samFile, iterator);
-            if(shard.getGenomeLocs().size() > 0)
-                iterator = new IntervalOverlapFilteringIterator(iterator,shard.getGenomeLocs());
-
-            iteratorMap.put(readers.getReader(id), iterator);
+        final CloseableIterator<SAMRecord> mergingIterator;
+
+        if(maxOpenReaders == null) {
+            // Set up merging to dynamically merge together multiple BAMs.
+            Map<SAMFileReader,CloseableIterator<SAMRecord>> iteratorMap = new HashMap<SAMFileReader,CloseableIterator<SAMRecord>>();
+            for(SAMReaderID id: getReaderIDs())
+                iteratorMap.put(readers.getReader(id), getReaderIterator(readers,id,shard));
+            mergingIterator = readers.createMergingIterator(iteratorMap);
         }
-
-        MergingSamRecordIterator mergingIterator = readers.createMergingIterator(iteratorMap);
+        else
+            mergingIterator = createLazyMergingIterator(readers,shard);
 
         return applyDecoratingIterators(shard.getReadMetrics(),
                 enableVerification,
@@ -642,6 +726,160 @@ public class SAMDataSource {
                 shard instanceof LocusShard);
     }
 
+    /**
+     * Get an iterator over the part of the shard stored in a single file.
+     * @param readers Readers from which to load data.
+     * @param id The file to read.
+     * @param shard The shard specifying the data limits.
+     * @return An iterator over the selected data from the given file.
+     */
+    private CloseableIterator<SAMRecord> getReaderIterator(SAMReaders readers, SAMReaderID id, Shard shard) {
+        // TODO: null used to be the signal for unmapped, but we've replaced that with a simple index query for the last bin.
+        // TODO: Kill this check once we've proven that the design elements are gone.
+        if(shard.getFileSpans().get(id) == null)
+            throw new ReviewedStingException("SAMDataSource: received null location for reader " + id + ", but null locations are no longer supported.");
+
+        return getReaderIterator(readers,id,shard.getFileSpans().get(id),shard.getGenomeLocs());
+    }
+
+    /**
+     * Get an iterator over part of a single file.
+     * @param readers Readers from which to load data.
+     * @param id The file to read.
+     * @param fileSpan The part of the file to read.
+     * @param loci If not empty, only reads overlapping these loci are returned.
+     * @return An iterator over the selected data from the given file.
+     */
+    private CloseableIterator<SAMRecord> getReaderIterator(SAMReaders readers, SAMReaderID id, SAMFileSpan fileSpan, List<GenomeLoc> loci) {
+        CloseableIterator<SAMRecord> iterator = null;
+
+        try {
+            if(threadAllocation.getNumIOThreads() > 0) {
+                SAMFileReader reader = readers.getReader(id);
+                BlockInputStream inputStream = readers.getInputStream(id);
+                inputStream.submitAccessPlan(new BAMAccessPlan(id, inputStream, (GATKBAMFileSpan) fileSpan));
+                BAMRecordCodec codec = new BAMRecordCodec(getHeader(id),factory);
+                codec.setInputStream(inputStream);
+                iterator = new BAMCodecIterator(inputStream,reader,codec);
+            }
+            else {
+                iterator = readers.getReader(id).iterator(fileSpan);
+            }
+        } catch ( RuntimeException e ) { // we need to catch RuntimeExceptions here because the Picard code is throwing them (among SAMFormatExceptions) sometimes
+            throw new UserException.MalformedBAM(id.samFile, e.getMessage());
+        }
+
+        iterator = new MalformedBAMErrorReformatingIterator(id.samFile, iterator);
+        if(loci.size() > 0)
+            iterator = new IntervalOverlapFilteringIterator(iterator,loci,hotPathMetrics);
+
+        return iterator;
+    }
+
+    /**
+     * Merge the files touched by the shard, holding no more than maxOpenReaders readers open at once.
+     *
+     * Files with nothing in this shard aren't opened at all.  If the shard touches more files than we may hold open,
+     * all but one of the open slots stream their files, and the remaining files share the last slot, each reopening
+     * its file and seeking past its last read whenever it runs out of buffered reads.  A shard can cover a whole
+     * contig, so no more than a read shard's worth of reads are buffered from each of those files at a time.
+     *
+     * @param readers Readers from which to load data.
+     * @param shard The shard specifying the data limits.
+     * @return An iterator merging the reads of every file in the shard.
+     */
+    private CloseableIterator<SAMRecord> createLazyMergingIterator(SAMReaders readers, Shard shard) {
+        final List<SAMReaderID> idsInShard = new ArrayList<SAMReaderID>();
+        for(SAMReaderID id: getReaderIDs()) {
+            if(shard.getFileSpans().get(id) == null)
+                throw new ReviewedStingException("SAMDataSource: received null location for reader " + id + ", but null locations are no longer supported.");
+            if(!shard.getFileSpans().get(id).isEmpty())
+                idsInShard.add(id);
+        }
+
+        final int maxStreamed = idsInShard.size() <= maxOpenReaders ? idsInShard.size() : maxOpenReaders - 1;
+        final List<CloseableIterator<SAMRecord>> iterators = new ArrayList<CloseableIterator<SAMRecord>>(idsInShard.size());
+        for(int i = 0; i < idsInShard.size(); i++) {
+            final SAMReaderID id = idsInShard.get(i);
+            CloseableIterator<SAMRecord> iterator;
+            if(i < maxStreamed) {
+                readers.pin(id);
+                iterator = getReaderIterator(readers,id,shard);
+            }
+            else
+                iterator = new ReopeningIterator(readers,id,shard,ReadShard.getReadBufferSize());
+            iterators.add(new MergedHeaderRemappingIterator(mergedHeaderRemappings.get(id),iterator));
+        }
+
+        return new LoserTreeMergingIterator(iterators);
+    }
+
+    /**
+     * Reads a file that doesn't have an open reader to itself, a buffer at a time.  Each refill reopens the file if
+     * it has been closed to make room for another, reads on from just past the last read returned, and closes its
+     * iterator again, so that the reader isn't needed between refills.
+     */
+    private class ReopeningIterator implements CloseableIterator<SAMRecord> {
+        private final SAMReaders readers;
+        private final SAMReaderID id;
+        private final List<GenomeLoc> loci;
+        private final int bufferSize;
+
+        /**
+         * The part of the shard in this file that hasn't been read into the buffer yet.
+         */
+        private GATKBAMFileSpan remaining;
+
+        private final LinkedList<SAMRecord> buffer = new LinkedList<SAMRecord>();
+
+        private ReopeningIterator(final SAMReaders readers, final SAMReaderID id, final Shard shard, final int bufferSize) {
+            this.readers = readers;
+            this.id = id;
+            this.loci = shard.getGenomeLocs();
+            this.bufferSize = bufferSize;
+            this.remaining = new GATKBAMFileSpan(shard.getFileSpans().get(id));
+        }
+
+        public boolean hasNext() {
+            if(buffer.isEmpty() && !remaining.isEmpty())
+                fillBuffer();
+            return !buffer.isEmpty();
+        }
+
+        public SAMRecord next() {
+            if(!hasNext())
+                throw new NoSuchElementException("No next read available from " + id.samFile);
+            return buffer.removeFirst();
+        }
+
+        public void close() {
+            buffer.clear();
+            remaining = new GATKBAMFileSpan();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Can't remove from a ReopeningIterator");
+        }
+
+        private void fillBuffer() {
+            final CloseableIterator<SAMRecord> iterator = getReaderIterator(readers,id,remaining,loci);
+            try {
+                SAMRecord read = null;
+                while(buffer.size() < bufferSize && iterator.hasNext()) {
+                    read = iterator.next();
+                    buffer.add(read);
+                }
+                if(read != null && iterator.hasNext())
+                    remaining = remaining.intersection(new GATKBAMFileSpan(read.getFileSource().getFilePointer().getContentsFollowing()));
+                else
+                    remaining = new GATKBAMFileSpan();
+            }
+            finally {
+                iterator.close();
+            }
+        }
+    }
+
     private class BAMCodecIterator implements CloseableIterator<SAMRecord> {
         private final BlockInputStream inputStream;
         private final SAMFileReader reader;
@@ -715,7 +953,7 @@ public class SAMDataSource {
         // *     (otherwise we will process something that we may end up throwing away)                   * //
         // ************************************************************************************************ //
 
-        wrappedIterator = StingSAMIteratorAdapter.adapt(new CountingFilteringIterator(readMetrics,wrappedIterator,supplementalFilters));
+        wrappedIterator = StingSAMIteratorAdapter.adapt(new CountingFilteringIterator(readMetrics,wrappedIterator,supplementalFilters,hotPathMetrics));
 
         // If we're using the new downsampling implementation, apply downsampling iterators at this
         // point in the read stream for most (but not all) cases
@@ -783,11 +1021,11 @@ public class SAMDataSource {
 
             if ( readProperties.getDownsamplingMethod().type == DownsampleType.BY_SAMPLE ) {
                 return new PerSampleDownsamplingReadsIterator(wrappedIterator,
-                                                              new SimplePositionalDownsamplerFactory<SAMRecord>(readProperties.getDownsamplingMethod().toCoverage));
+                                                              new CompactPositionalDownsamplerFactory<SAMRecord>(readProperties.getDownsamplingMethod().toCoverage));
             }
             else if ( readProperties.getDownsamplingMethod().type == DownsampleType.ALL_READS ) {
                 return new DownsamplingReadsIterator(wrappedIterator,
-                                                     new SimplePositionalDownsampler<SAMRecord>(readProperties.getDownsamplingMethod().toCoverage));
+                                                     new CompactPositionalDownsampler<SAMRecord>(readProperties.getDownsamplingMethod().toCoverage));
             }
         }
 
@@ -833,18 +1071,11 @@ public class SAMDataSource {
             availableResources.add(readers);
         }
 
-        /**
-         * Gets the reader id for the given reader.
-         * @param reader Reader for which to determine the id.
-         * @return id of the given reader.
-         */
-        protected synchronized SAMReaderID getReaderID(SAMFileReader reader) {
-            for(SAMReaders readers: allResources) {
-                SAMReaderID id = readers.getReaderID(reader);
-                if(id != null)
-                    return id;
-            }
-            throw new ReviewedStingException("No such reader id is available");
+        public synchronized Set<SAMReaderID> getOpenReaderIDs() {
+            Set<SAMReaderID> openReaderIDs = new HashSet<SAMReaderID>();
+            for(SAMReaders readers: allResources)
+                openReaderIDs.addAll(readers.getOpenReaderIDs());
+            return openReaderIDs;
         }
 
         private synchronized void createNewResource() {
@@ -858,18 +1089,26 @@ public class SAMDataSource {
     }
 
     /**
-     * A collection of readers derived from a reads metadata structure.
+     * A collection of readers derived from a reads metadata structure.  If maxOpenReaders is set, readers are opened
+     * as they're requested, and the least recently used readers not pinned by the current shard are closed to make
+     * room for them.
      */
     private class SAMReaders implements Iterable<SAMFileReader> {
         /**
-         * Cached representation of the merged header used to generate a merging iterator.
+         * Cached representation of the merged header used to generate a merging iterator.  Null when opening readers
+         * lazily, as the shared merger of the data source is used instead.
          */
         private final SamFileHeaderMerger headerMerger;
 
         /**
-         * Internal storage for a map of id -> reader.
+         * Internal storage for a map of id -> reader.  In access order when opening readers lazily.
+         */
+        private final Map<SAMReaderID,SAMFileReader> readers;
+
+        /**
+         * Readers streaming data for the current shard, which mustn't be closed until the shard is done.
          */
-        private final Map<SAMReaderID,SAMFileReader> readers = new LinkedHashMap<SAMReaderID,SAMFileReader>();
+        private final Set<SAMReaderID> pinnedReaders = new HashSet<SAMReaderID>();
 
         /**
          * The inptu streams backing
@@ -884,6 +1123,12 @@ public class SAMDataSource {
          * @param removeProgramRecords indicate whether to clear program records from the readers
          */
         public SAMReaders(Collection<SAMReaderID> readerIDs, SAMFileReader.ValidationStringency validationStringency, boolean removeProgramRecords) {
+            readers = new LinkedHashMap<SAMReaderID,SAMFileReader>(16,0.75f,maxOpenReaders != null);
+            if(maxOpenReaders != null) {
+                headerMerger = null;
+                return;
+            }
+
             final int totalNumberOfFiles = readerIDs.size();
             int readerNumber = 1;
             final SimpleTimer timer = new SimpleTimer().start();
@@ -903,6 +1148,7 @@ public class SAMDataSource {
 
                 logger.debug(String.format("Processing file (%d of %d) %s...", readerNumber++, totalNumberOfFiles,  readerID.samFile));
                 readers.put(init.readerID,init.reader);
+                readerIDsByReader.put(init.reader,init.readerID);
                 if ( ++nExecutedTotal % tickSize == 0) {
                     double tickInSec = (timer.currentTime() - lastTick) / 1000.0;
                     printReaderPerformance(nExecutedTotal, tickSize, totalNumberOfFiles, timer, tickInSec);
@@ -935,50 +1181,91 @@ public class SAMDataSource {
         }
 
         /**
-         * Return the header derived from the merging of these BAM files.
-         * @return the merged header.
+         * Creates a new merging iterator from the given map, with the given header.
+         * @param iteratorMap A map of readers to iterators.
+         * @return An iterator which will merge those individual iterators.
          */
-        public SAMFileHeader getMergedHeader() {
-            return headerMerger.getMergedHeader();
+        public MergingSamRecordIterator createMergingIterator(final Map<SAMFileReader,CloseableIterator<SAMRecord>> iteratorMap) {
+            return new MergingSamRecordIterator(headerMerger,iteratorMap,true);
         }
 
         /**
-         * Do multiple read groups collide in this dataset?
-         * @return True if multiple read groups collide; false otherwis.
+         * Retrieve the reader from the data structure.
+         * @param id The ID of the reader to retrieve.
+         * @return the reader associated with the given id.
          */
-        public boolean hasReadGroupCollisions() {
-            return headerMerger.hasReadGroupCollisions();
+        public SAMFileReader getReader(SAMReaderID id) {
+            SAMFileReader reader = readers.get(id);
+            if(reader == null) {
+                if(maxOpenReaders == null)
+                    throw new NoSuchElementException("No reader is associated with id " + id);
+                closeIdleReaders(maxOpenReaders - 1);
+                reader = openReader(id);
+            }
+            return reader;
         }
 
         /**
-         * Get the newly mapped read group ID for the given read group.
-         * @param readerID Reader for which to discern the transformed ID.
-         * @param originalReadGroupID Original read group.
-         * @return Remapped read group.
+         * Opens the reader for the given file on behalf of a lazy reader set.
+         * @param id The ID of the reader to open.
+         * @return the newly opened reader.
          */
-        public String getReadGroupId(final SAMReaderID readerID, final String originalReadGroupID) {
-            SAMFileHeader header = readers.get(readerID).getFileHeader();
-            return headerMerger.getReadGroupId(header,originalReadGroupID);
+        private SAMFileReader openReader(SAMReaderID id) {
+            final ReaderInitializer init = new ReaderInitializer(id).call();
+            if (removeProgramRecords) {
+                init.reader.getFileHeader().setProgramRecords(new ArrayList<SAMProgramRecord>());
+            }
+            if (threadAllocation.getNumIOThreads() > 0) {
+                inputStreams.put(id, init.blockInputStream);
+            }
+            readers.put(id,init.reader);
+            readerIDsByReader.put(init.reader,id);
+            return init.reader;
         }
 
         /**
-         * Creates a new merging iterator from the given map, with the given header.
-         * @param iteratorMap A map of readers to iterators.
-         * @return An iterator which will merge those individual iterators.
+         * Closes the least recently used readers not pinned by the current shard until no more than the given number are open.
+         * @param maxReaders Number of readers to leave open.
          */
-        public MergingSamRecordIterator createMergingIterator(final Map<SAMFileReader,CloseableIterator<SAMRecord>> iteratorMap) {
-            return new MergingSamRecordIterator(headerMerger,iteratorMap,true);
+        private void closeIdleReaders(int maxReaders) {
+            Iterator<Map.Entry<SAMReaderID,SAMFileReader>> entries = readers.entrySet().iterator();
+            while(readers.size() > maxReaders && entries.hasNext()) {
+                Map.Entry<SAMReaderID,SAMFileReader> entry = entries.next();
+                if(pinnedReaders.contains(entry.getKey()))
+                    continue;
+                entry.getValue().close();
+                BlockInputStream inputStream = inputStreams.remove(entry.getKey());
+                if(inputStream != null)
+                    inputStream.close();
+                entries.remove();
+            }
         }
 
         /**
-         * Retrieve the reader from the data structure.
-         * @param id The ID of the reader to retrieve.
-         * @return the reader associated with the given id.
+         * Keeps the given reader open until the current shard is released.
+         * @param id The ID of the reader streaming data for the current shard.
          */
-        public SAMFileReader getReader(SAMReaderID id) {
-            if(!readers.containsKey(id))
-                throw new NoSuchElementException("No reader is associated with id " + id);
-            return readers.get(id);
+        public void pin(SAMReaderID id) {
+            pinnedReaders.add(id);
+        }
+
+        /**
+         * Called when the current shard is done with these readers.  Unpins all readers, leaving no more than
+         * maxOpenReaders of them open for the next shard.
+         */
+        public void release() {
+            if(maxOpenReaders == null)
+                return;
+            pinnedReaders.clear();
+            closeIdleReaders(maxOpenReaders);
+        }
+
+        /**
+         * Gets the files that have a reader open in this set.
+         * @return the ids of the open readers.
+         */
+        public Set<SAMReaderID> getOpenReaderIDs() {
+            return new HashSet<SAMReaderID>(readers.keySet());
         }
 
         /**
@@ -990,20 +1277,6 @@ public class SAMDataSource {
             return inputStreams.get(id);
         }
 
-        /**
-         * Searches for the reader id of this reader.
-         * @param reader Reader for which to search.
-         * @return The id associated the given reader, or null if the reader is not present in this collection.
-         */
-        protected SAMReaderID getReaderID(SAMFileReader reader) {
-            for(Map.Entry<SAMReaderID,SAMFileReader> entry: readers.entrySet()) {
-                if(reader == entry.getValue())
-                    return entry.getKey();
-            }
-            // Not found? return null.
-            return null;
-        }
-
         /**
          * Returns an iterator over all readers in this structure.
          * @return An iterator over readers.
@@ -1080,6 +1353,7 @@ public class SAMDataSource {
 
         public void close() {
             wrappedIterator.close();
+            resource.release();
             resourcePool.releaseReaders(resource);
         }
 
@@ -1097,6 +1371,101 @@ public class SAMDataSource {
      */
     private class ReadGroupMapping extends HashMap<String,String> {}
 
+    /**
+     * How to rewrite the reads of one input file in terms of the merged header: the same fixes Picard's
+     * MergingSamRecordIterator makes, looked up once per file rather than per read.
+     */
+    private class MergedHeaderRemapping {
+        /**
+         * Original -> merged read group ids, or null if no read groups collide.
+         */
+        private final Map<String,String> readGroupIds;
+
+        /**
+         * Original -> merged program group ids, or null if no program groups collide.
+         */
+        private final Map<String,String> programGroupIds;
+
+        /**
+         * Original -> merged sequence indices, or null if the sequence dictionaries didn't need merging.
+         */
+        private final int[] sequenceIndices;
+
+        public MergedHeaderRemapping(final SAMFileHeader header, final ReadGroupMapping readGroupMapping) {
+            readGroupIds = headerMerger.hasReadGroupCollisions() ? readGroupMapping : null;
+
+            if(headerMerger.hasProgramGroupCollisions()) {
+                programGroupIds = new HashMap<String,String>();
+                for(SAMProgramRecord programRecord: header.getProgramRecords())
+                    programGroupIds.put(programRecord.getProgramGroupId(),headerMerger.getProgramGroupId(header,programRecord.getProgramGroupId()));
+            }
+            else
+                programGroupIds = null;
+
+            if(headerMerger.hasMergedSequenceDictionary()) {
+                sequenceIndices = new int[header.getSequenceDictionary().size()];
+                for(int i = 0; i < sequenceIndices.length; i++)
+                    sequenceIndices[i] = headerMerger.getMergedSequenceIndex(header,i);
+            }
+            else
+                sequenceIndices = null;
+        }
+
+        public void remap(final SAMRecord read) {
+            read.setHeader(mergedHeader);
+
+            if(readGroupIds != null) {
+                final String readGroupId = (String)read.getAttribute(SAMTag.RG.name());
+                if(readGroupId != null)
+                    read.setAttribute(SAMTag.RG.name(),readGroupIds.get(readGroupId));
+            }
+
+            if(programGroupIds != null) {
+                final String programGroupId = (String)read.getAttribute(SAMTag.PG.name());
+                if(programGroupId != null)
+                    read.setAttribute(SAMTag.PG.name(),programGroupIds.get(programGroupId));
+            }
+
+            if(sequenceIndices != null) {
+                if(read.getReferenceIndex() != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+                    read.setReferenceIndex(sequenceIndices[read.getReferenceIndex()]);
+                if(read.getReadPairedFlag() && read.getMateReferenceIndex() != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX)
+                    read.setMateReferenceIndex(sequenceIndices[read.getMateReferenceIndex()]);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the reads of one input file in terms of the merged header as they're read.
+     */
+    private class MergedHeaderRemappingIterator implements CloseableIterator<SAMRecord> {
+        private final MergedHeaderRemapping remapping;
+        private final CloseableIterator<SAMRecord> wrappedIterator;
+
+        public MergedHeaderRemappingIterator(final MergedHeaderRemapping remapping, final CloseableIterator<SAMRecord> wrapped) {
+            this.remapping = remapping;
+            this.wrappedIterator = wrapped;
+        }
+
+        public boolean hasNext() {
+            return wrappedIterator.hasNext();
+        }
+
+        public SAMRecord next() {
+            final SAMRecord read = wrappedIterator.next();
+            remapping.remap(read);
+            return read;
+        }
+
+        public void close() {
+            wrappedIterator.close();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Unable to remove from a MergedHeaderRemappingIterator");
+        }
+    }
+
     /**
      * Locates the index file alongside the given BAM, if present.
      * TODO: This is currently a hachetjob that reaches into Picard and pulls out its index file locator.  Replace with something more permanent.
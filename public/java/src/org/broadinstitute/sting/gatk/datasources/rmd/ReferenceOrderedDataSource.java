@@ -176,6 +176,17 @@ public class ReferenceOrderedDataSource {
         iteratorPool.release(iterator);
     }
 
+    /**
+     * Opens a new track over the underlying file, outside of the iterator pool, for walkers that read the
+     * file directly rather than locus by locus.  The caller is responsible for closing the track.
+     * @return A new track over this data source's file.
+     */
+    public RMDTrack createTrack() {
+        if (fileDescriptor.getStorageType() == RMDTriplet.RMDStorageType.STREAM)
+            throw new UserException.CouldNotReadInputFile(getFile(), "streamed inputs can only be read once, by the engine");
+        return builder.createInstanceOfTrack(fileDescriptor);
+    }
+
 }
 
 /**
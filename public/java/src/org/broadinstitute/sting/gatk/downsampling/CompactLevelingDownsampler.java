@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.downsampling;
+
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+
+import java.util.*;
+
+/**
+ * Compact Leveling Downsampler: a drop-in replacement for the LevelingDownsampler that does its work without
+ * allocating per item.
+ *
+ * The groups are leveled exactly as the LevelingDownsampler levels them (and given the same random seed, exactly the
+ * same items survive), but:
+ *
+ * - the target size of each group is computed a whole round of removals at a time rather than one item at a time
+ * - the items to keep are picked by shuffling a reusable int array of indices (consuming random numbers just like
+ *   Collections.shuffle() does) instead of a fresh list of boxed Integers
+ * - RandomAccess groups are compacted in place instead of being copied out to a new list and back
+ *
+ * @param <T> the List type representing the stacks to be leveled
+ * @param <E> the type of the elements of each List
+ */
+public class CompactLevelingDownsampler<T extends List<E>, E> implements Downsampler<T> {
+
+    private int targetSize;
+
+    private List<T> groups;
+
+    private boolean groupsAreFinalized;
+
+    private int numDiscardedItems;
+
+    // scratch space, reused (and grown as needed) from one leveling to the next
+    private int[] groupSizes = new int[0];
+    private int[] shuffledIndices = new int[0];
+    private boolean[] itemsToKeep = new boolean[0];
+
+    /**
+     * Construct a CompactLevelingDownsampler
+     *
+     * @param targetSize the sum of the sizes of all individual Lists this downsampler is fed may not exceed
+     *                   this value -- if it does, items are removed from Lists evenly until the total size
+     *                   is <= this value
+     */
+    public CompactLevelingDownsampler( int targetSize ) {
+        this.targetSize = targetSize;
+        clear();
+        reset();
+    }
+
+    public void submit( T item ) {
+        groups.add(item);
+    }
+
+    public void submit( Collection<T> items ){
+        groups.addAll(items);
+    }
+
+    public boolean hasFinalizedItems() {
+        return groupsAreFinalized && groups.size() > 0;
+    }
+
+    public List<T> consumeFinalizedItems() {
+        if ( ! hasFinalizedItems() ) {
+            return new ArrayList<T>();
+        }
+
+        // pass by reference rather than make a copy, for speed
+        List<T> toReturn = groups;
+        clear();
+        return toReturn;
+    }
+
+    public boolean hasPendingItems() {
+        return ! groupsAreFinalized && groups.size() > 0;
+    }
+
+    public T peekFinalized() {
+        return hasFinalizedItems() ? groups.get(0) : null;
+    }
+
+    public T peekPending() {
+        return hasPendingItems() ? groups.get(0) : null;
+    }
+
+    public int getNumberOfDiscardedItems() {
+        return numDiscardedItems;
+    }
+
+    public void signalEndOfInput() {
+        levelGroups();
+        groupsAreFinalized = true;
+    }
+
+    public void clear() {
+        groups = new ArrayList<T>();
+        groupsAreFinalized = false;
+    }
+
+    public void reset() {
+        numDiscardedItems = 0;
+    }
+
+    private void levelGroups() {
+        final int numGroups = groups.size();
+        if ( groupSizes.length < numGroups ) {
+            groupSizes = new int[Math.max(numGroups, 2 * groupSizes.length)];
+        }
+
+        int totalSize = 0;
+        int currentGroupIndex = 0;
+        for ( T group : groups ) {
+            groupSizes[currentGroupIndex] = group.size();
+            totalSize += groupSizes[currentGroupIndex];
+            currentGroupIndex++;
+        }
+
+        if ( totalSize <= targetSize ) {
+            return;    // no need to eliminate any items
+        }
+
+        // We will try to remove exactly this many items, however we will refuse to allow any
+        // one group to fall below size 1, and so might end up removing fewer items than this
+        int numItemsToRemove = totalSize - targetSize;
+
+        // The LevelingDownsampler removes one item at a time from each group in turn (skipping groups that are down
+        // to one item), cycling over the groups until it is done.  Every full cycle removes exactly one item from each
+        // group that still has more than one, so we can do as many full cycles at once as the smallest such group allows.
+        while ( numItemsToRemove > 0 ) {
+            int numReducibleGroups = 0;
+            int smallestReducibleGroupSize = Integer.MAX_VALUE;
+            for ( int i = 0; i < numGroups; i++ ) {
+                if ( groupSizes[i] > 1 ) {
+                    numReducibleGroups++;
+                    smallestReducibleGroupSize = Math.min(smallestReducibleGroupSize, groupSizes[i]);
+                }
+            }
+
+            if ( numReducibleGroups == 0 ) {
+                break;
+            }
+
+            if ( numItemsToRemove >= numReducibleGroups ) {
+                final int numCycles = Math.min(smallestReducibleGroupSize - 1, numItemsToRemove / numReducibleGroups);
+                for ( int i = 0; i < numGroups; i++ ) {
+                    if ( groupSizes[i] > 1 ) {
+                        groupSizes[i] -= numCycles;
+                    }
+                }
+                numItemsToRemove -= numCycles * numReducibleGroups;
+            }
+            else {
+                // the final, partial cycle always starts back at the first group
+                for ( int i = 0; i < numGroups && numItemsToRemove > 0; i++ ) {
+                    if ( groupSizes[i] > 1 ) {
+                        groupSizes[i]--;
+                        numItemsToRemove--;
+                    }
+                }
+            }
+        }
+
+        // Now we actually go through and reduce each group to its new count as specified in groupSizes
+        currentGroupIndex = 0;
+        for ( T group : groups ) {
+            downsampleOneGroup(group, groupSizes[currentGroupIndex]);
+            currentGroupIndex++;
+        }
+    }
+
+    private void downsampleOneGroup( T group, int numItemsToKeep ) {
+        final int groupSize = group.size();
+        if ( numItemsToKeep >= groupSize ) {
+            return;
+        }
+
+        numDiscardedItems += groupSize - numItemsToKeep;
+
+        selectItemsToKeep(groupSize, numItemsToKeep);
+
+        if ( group instanceof RandomAccess ) {
+            // compact the kept items to the front of the list, then chop off the rest
+            int keptIndex = 0;
+            for ( int currentIndex = 0; currentIndex < groupSize; currentIndex++ ) {
+                if ( itemsToKeep[currentIndex] ) {
+                    if ( keptIndex != currentIndex ) {
+                        group.set(keptIndex, group.get(currentIndex));
+                    }
+                    keptIndex++;
+                }
+            }
+            group.subList(numItemsToKeep, groupSize).clear();
+        }
+        else {
+            // a linked list (or similar) can remove the desired items in a single O(n) pass with an iterator
+            int currentIndex = 0;
+            Iterator<E> iter = group.iterator();
+            while ( iter.hasNext() ) {
+                iter.next();
+
+                if ( ! itemsToKeep[currentIndex] ) {
+                    iter.remove();
+                }
+
+                currentIndex++;
+            }
+        }
+    }
+
+    /**
+     * Flags a random subset of numItemsToKeep of the indices [0, groupSize) in itemsToKeep.  This draws from the random
+     * generator exactly as MathUtils.sampleIndicesWithoutReplacement() does, so the same subset is chosen.
+     *
+     * @param groupSize       the number of items in the group
+     * @param numItemsToKeep  the number of items to keep
+     */
+    private void selectItemsToKeep( final int groupSize, final int numItemsToKeep ) {
+        if ( shuffledIndices.length < groupSize ) {
+            final int newCapacity = Math.max(groupSize, 2 * shuffledIndices.length);
+            shuffledIndices = new int[newCapacity];
+            itemsToKeep = new boolean[newCapacity];
+        }
+
+        for ( int i = 0; i < groupSize; i++ ) {
+            shuffledIndices[i] = i;
+            itemsToKeep[i] = false;
+        }
+
+        // the same swaps as Collections.shuffle()
+        final Random random = GenomeAnalysisEngine.getRandomGenerator();
+        for ( int i = groupSize; i > 1; i-- ) {
+            final int j = random.nextInt(i);
+            final int tmp = shuffledIndices[i - 1];
+            shuffledIndices[i - 1] = shuffledIndices[j];
+            shuffledIndices[j] = tmp;
+        }
+
+        for ( int i = 0; i < numItemsToKeep; i++ ) {
+            itemsToKeep[shuffledIndices[i]] = true;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.downsampling;
+
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.util.*;
+
+/**
+ * Compact Positional Downsampler: Downsample each stack of reads at each alignment start to a size <= a target coverage.
+ *
+ * Does exactly what the SimplePositionalDownsampler does (and given the same random seed, keeps exactly the same
+ * reads), but instead of creating a new ReservoirDownsampler list for every alignment start it keeps the reads at
+ * the current alignment start in a single fixed-capacity array that is allocated once and reused for every position.
+ * With many per-sample downsamplers running at high coverage this saves a lot of garbage.
+ */
+public class CompactPositionalDownsampler<T extends SAMRecord> implements ReadsDownsampler<T> {
+
+    private final int targetCoverage;
+
+    // the reservoir for the current alignment start: slots [0, reservoirSize) are filled
+    private final Object[] reservoir;
+
+    private int reservoirSize;
+
+    private int readsSeenAtCurrentPosition;
+
+    private int currentContigIndex;
+
+    private int currentAlignmentStart;
+
+    private boolean positionEstablished;
+
+    private boolean unmappedReadsReached;
+
+    private ArrayList<T> finalizedReads;
+
+    private int numDiscardedItems;
+
+    /**
+     * Construct a CompactPositionalDownsampler
+     *
+     * @param targetCoverage Maximum number of reads that may share any given alignment start position
+     */
+    public CompactPositionalDownsampler( int targetCoverage ) {
+        if ( targetCoverage <= 0 ) {
+            throw new ReviewedStingException("Cannot do positional downsampling with a target coverage <= 0");
+        }
+
+        this.targetCoverage = targetCoverage;
+        reservoir = new Object[targetCoverage];
+        finalizedReads = new ArrayList<T>();
+        clear();
+        reset();
+    }
+
+    public void submit( T newRead ) {
+        updatePositionalState(newRead);
+
+        if ( unmappedReadsReached ) {    // don't downsample the unmapped reads at the end of the stream
+            finalizedReads.add(newRead);
+        }
+        else {
+            addToReservoir(newRead);
+        }
+    }
+
+    public void submit( Collection<T> newReads ) {
+        for ( T read : newReads ) {
+            submit(read);
+        }
+    }
+
+    public boolean hasFinalizedItems() {
+        return finalizedReads.size() > 0;
+    }
+
+    public List<T> consumeFinalizedItems() {
+        // pass by reference rather than make a copy, for speed
+        List<T> toReturn = finalizedReads;
+        finalizedReads = new ArrayList<T>();
+        return toReturn;
+    }
+
+    public boolean hasPendingItems() {
+        return reservoirSize > 0;
+    }
+
+    public T peekFinalized() {
+        return finalizedReads.isEmpty() ? null : finalizedReads.get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public T peekPending() {
+        return reservoirSize > 0 ? (T)reservoir[0] : null;
+    }
+
+    public int getNumberOfDiscardedItems() {
+        return numDiscardedItems;
+    }
+
+    public void signalEndOfInput() {
+        finalizeReservoir();
+    }
+
+    public void clear() {
+        clearReservoir();
+        finalizedReads.clear();
+        positionEstablished = false;
+        unmappedReadsReached = false;
+    }
+
+    public void reset() {
+        numDiscardedItems = 0;
+    }
+
+    public boolean requiresCoordinateSortOrder() {
+        return true;
+    }
+
+    public void signalNoMoreReadsBefore( T read ) {
+        updatePositionalState(read);
+    }
+
+    /**
+     * "Algorithm R" reservoir sampling over the reads at the current alignment start, drawing from the random
+     * generator exactly as the ReservoirDownsampler does
+     *
+     * @param newRead the read to consider for inclusion in the reservoir
+     */
+    private void addToReservoir( T newRead ) {
+        readsSeenAtCurrentPosition++;
+
+        if ( readsSeenAtCurrentPosition <= targetCoverage ) {
+            reservoir[reservoirSize++] = newRead;
+        }
+        else {
+            int randomSlot = GenomeAnalysisEngine.getRandomGenerator().nextInt(readsSeenAtCurrentPosition);
+            if ( randomSlot < targetCoverage ) {
+                reservoir[randomSlot] = newRead;
+            }
+            numDiscardedItems++;
+        }
+    }
+
+    private void updatePositionalState( T newRead ) {
+        if ( readIsPastCurrentPosition(newRead) ) {
+            if ( reservoirSize > 0 ) {
+                finalizeReservoir();
+            }
+
+            setCurrentPosition(newRead);
+
+            if ( newRead.getReadUnmappedFlag() ) {
+                unmappedReadsReached = true;
+            }
+        }
+    }
+
+    private void setCurrentPosition( T read ) {
+        currentContigIndex = read.getReferenceIndex();
+        currentAlignmentStart = read.getAlignmentStart();
+        positionEstablished = true;
+    }
+
+    private boolean readIsPastCurrentPosition( T read ) {
+        return ! positionEstablished ||
+               read.getReferenceIndex() > currentContigIndex ||
+               read.getAlignmentStart() > currentAlignmentStart ||
+               (read.getReadUnmappedFlag() && ! unmappedReadsReached);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void finalizeReservoir() {
+        finalizedReads.ensureCapacity(finalizedReads.size() + reservoirSize);
+        for ( int i = 0; i < reservoirSize; i++ ) {
+            finalizedReads.add((T)reservoir[i]);
+        }
+        clearReservoir();
+    }
+
+    private void clearReservoir() {
+        // null out the slots so that we don't hold on to reads that have already been handed off
+        Arrays.fill(reservoir, 0, reservoirSize, null);
+        reservoirSize = 0;
+        readsSeenAtCurrentPosition = 0;
+    }
+}
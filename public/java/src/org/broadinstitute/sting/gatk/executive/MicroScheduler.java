@@ -43,6 +43,7 @@ import org.broadinstitute.sting.utils.AutoFormattingTime;
 import org.broadinstitute.sting.utils.MathUtils;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
 import org.broadinstitute.sting.utils.progressmeter.ProgressMeter;
 import org.broadinstitute.sting.utils.threading.ThreadEfficiencyMonitor;
 
@@ -50,6 +51,8 @@ import javax.management.JMException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
@@ -122,6 +125,11 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
 
     final ProgressMeter progressMeter;
 
+    /**
+     * Timings of the hot paths of this run, written out when execution is done
+     */
+    final HotPathMetrics hotPathMetrics;
+
     /**
      * MicroScheduler factory function.  Create a microscheduler appropriate for reducing the
      * selected walker.
@@ -197,6 +205,7 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         this.rods = rods;
 
         final File progressLogFile = engine.getArguments() == null ? null : engine.getArguments().performanceLog;
+        this.hotPathMetrics = engine.getHotPathMetrics();
 
         // Creates uninitialized TraversalEngines appropriate for walker and threadAllocation,
         // and adds it to the list of created engines for later shutdown.
@@ -264,10 +273,16 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     /**
      * Inform this Microscheduler to use the efficiency monitor used to create threads in subclasses
      *
+     * The calling thread is registered with the monitor, as it's the one that will call executionIsDone(),
+     * and the monitor is handed on to the progress meter so it can log thread states as we go.
+     *
      * @param threadEfficiencyMonitor
      */
     public void setThreadEfficiencyMonitor(final ThreadEfficiencyMonitor threadEfficiencyMonitor) {
         this.threadEfficiencyMonitor = threadEfficiencyMonitor;
+        if ( threadEfficiencyMonitor != null )
+            threadEfficiencyMonitor.threadIsStarted(Thread.currentThread());
+        progressMeter.setThreadEfficiencyMonitor(threadEfficiencyMonitor);
     }
 
     /**
@@ -322,6 +337,7 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         progressMeter.notifyDone(engine.getCumulativeMetrics().getNumIterations());
         printReadFilteringStats();
         shutdownTraversalEngines();
+        writeHotPathMetrics();
 
         // Print out the threading efficiency of this HMS, if state monitoring is enabled
         if ( threadEfficiencyMonitor != null ) {
@@ -380,6 +396,23 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         }
     }
 
+    /**
+     * Writes the hot path metrics of this run as a GATKReport to the hot path metrics log, if metrics are enabled
+     */
+    private void writeHotPathMetrics() {
+        if ( ! hotPathMetrics.isEnabled() )
+            return;
+
+        final File hotPathMetricsLog = engine.getArguments().hotPathMetricsLog;
+        try {
+            final PrintStream out = new PrintStream(hotPathMetricsLog);
+            hotPathMetrics.toReport().print(out);
+            out.close();
+        } catch (FileNotFoundException e) {
+            throw new UserException.CouldNotCreateOutputFile(hotPathMetricsLog, e);
+        }
+    }
+
     /**
      * Gets the engine that created this microscheduler.
      * @return The engine owning this microscheduler.
@@ -401,6 +434,7 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     protected void cleanup() {
         try {
             mBeanServer.unregisterMBean(mBeanName);
+            hotPathMetrics.unregisterMBeans();
         }
         catch (JMException ex) {
             throw new ReviewedStingException("Unable to unregister microscheduler with JMX", ex);
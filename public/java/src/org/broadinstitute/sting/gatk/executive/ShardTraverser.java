@@ -70,6 +70,7 @@ public class ShardTraverser implements Callable {
 
             for(WindowMaker.WindowMakerIterator iterator: windowMaker) {
                 final ShardDataProvider dataProvider = new LocusShardDataProvider(shard,iterator.getSourceInfo(),microScheduler.getEngine().getGenomeLocParser(),iterator.getLocus(),iterator,microScheduler.reference,microScheduler.rods);
+                dataProvider.setHotPathMetrics(microScheduler.hotPathMetrics);
                 accumulator = traversalEngine.traverse(walker, dataProvider, accumulator);
                 dataProvider.close();
             }
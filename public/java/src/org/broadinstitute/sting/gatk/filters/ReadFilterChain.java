@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.broadinstitute.sting.gatk.filters;
+
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.gatk.ReadMetrics;
+import org.broadinstitute.sting.utils.metrics.HotPathCounter;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
+import org.broadinstitute.sting.utils.metrics.HotPathTimer;
+
+import java.util.*;
+
+/**
+ * A set of read filters compiled into the order in which they're cheapest to apply.
+ *
+ * Only filters known to be free of side effects are reordered: these neither modify the read nor throw, so running
+ * them in a different order can't change which reads are kept.  Any other filter, such as one that reassigns the
+ * mapping quality or one that rejects malformed reads with an error, stays exactly where it was given, and the known
+ * filters on either side of it are only reordered amongst themselves.
+ *
+ * Within each run of known filters, those that only test bits of the SAM flag word are folded into a single mask
+ * test against the raw flags.  The rest are grouped by how much of the read they have to look at, and within each
+ * group the filters that have rejected the most reads so far are run first.  A read rejected by several filters is
+ * attributed to the first one run, so the per-filter counts can differ from those of the order in which the filters
+ * were given.
+ *
+ * Counts of rejected reads are kept locally and only added to the ReadMetrics, and to the per-filter counters of the
+ * hot path metrics, when flushed.
+ */
+public class ReadFilterChain {
+    /**
+     * How many reads to filter between reorderings of the filters.
+     */
+    private static final int REORDER_INTERVAL = 4096;
+
+    /**
+     * Filters which only look at a single bit of the flag word, and the bit at which they look.
+     */
+    private static final Map<Class<? extends ReadFilter>, Integer> FLAG_FILTERS = new HashMap<Class<? extends ReadFilter>, Integer>();
+
+    /**
+     * Filters which only look at the fixed length fields of the read.
+     */
+    private static final Set<Class<? extends ReadFilter>> FIXED_FIELD_FILTERS = new HashSet<Class<? extends ReadFilter>>();
+
+    /**
+     * Filters which look at the variable length fields of the read, but are otherwise free of side effects.
+     */
+    private static final Set<Class<? extends ReadFilter>> VARIABLE_FIELD_FILTERS = new HashSet<Class<? extends ReadFilter>>();
+
+    static {
+        FLAG_FILTERS.put(NotPrimaryAlignmentFilter.class, 0x100);
+        FLAG_FILTERS.put(FailsVendorQualityCheckFilter.class, 0x200);
+        FLAG_FILTERS.put(DuplicateReadFilter.class, 0x400);
+
+        FIXED_FIELD_FILTERS.add(UnmappedReadFilter.class);
+        FIXED_FIELD_FILTERS.add(MappingQualityFilter.class);
+        FIXED_FIELD_FILTERS.add(MappingQualityUnavailableFilter.class);
+        FIXED_FIELD_FILTERS.add(MappingQualityZeroFilter.class);
+        FIXED_FIELD_FILTERS.add(MaxReadLengthFilter.class);
+        FIXED_FIELD_FILTERS.add(MaxInsertSizeFilter.class);
+        FIXED_FIELD_FILTERS.add(MateSameStrandFilter.class);
+        FIXED_FIELD_FILTERS.add(ReadStrandFilter.class);
+
+        VARIABLE_FIELD_FILTERS.add(BadCigarFilter.class);
+        VARIABLE_FIELD_FILTERS.add(BadMateFilter.class);
+        VARIABLE_FIELD_FILTERS.add(MissingReadGroupFilter.class);
+        VARIABLE_FIELD_FILTERS.add(NoOriginalQualityScoresFilter.class);
+        VARIABLE_FIELD_FILTERS.add(PlatformFilter.class);
+        VARIABLE_FIELD_FILTERS.add(ReadGroupBlackListFilter.class);
+        VARIABLE_FIELD_FILTERS.add(ReadNameFilter.class);
+        VARIABLE_FIELD_FILTERS.add(SampleFilter.class);
+        VARIABLE_FIELD_FILTERS.add(SingleReadGroupFilter.class);
+    }
+
+    /**
+     * Cost of running a filter.  Filters are always run cheapest first.
+     */
+    private enum Cost { FIXED_FIELDS, VARIABLE_FIELDS }
+
+    /**
+     * The filters, split into segments which are run in the order in which the filters were given.
+     */
+    private final Segment[] segments;
+
+    /**
+     * Times each read through the whole chain.
+     */
+    private final HotPathTimer filterTimer;
+
+    private int readsUntilReorder = REORDER_INTERVAL;
+
+    /**
+     * Compile the given filters, recording no hot path metrics.
+     * @param filters Filters to apply to every read, in the order in which they were given.
+     */
+    public ReadFilterChain(final Collection<ReadFilter> filters) {
+        this(filters, HotPathMetrics.DISABLED);
+    }
+
+    /**
+     * Compile the given filters.
+     * @param filters Filters to apply to every read, in the order in which they were given.
+     * @param hotPathMetrics Where to record the time taken to filter each read and the reads rejected by each filter.
+     */
+    public ReadFilterChain(final Collection<ReadFilter> filters, final HotPathMetrics hotPathMetrics) {
+        if ( hotPathMetrics == null )
+            throw new IllegalArgumentException("hotPathMetrics cannot be null");
+
+        final List<Segment> segments = new ArrayList<Segment>();
+        final List<Stage> flagStages = new ArrayList<Stage>();
+        final List<Stage> stages = new ArrayList<Stage>();
+
+        for ( final ReadFilter filter : filters ) {
+            // Only the filters themselves are known to be free of side effects; subclasses may do anything.
+            final Class<? extends ReadFilter> type = filter.getClass();
+            if ( FLAG_FILTERS.containsKey(type) )
+                flagStages.add(new Stage(filter, hotPathMetrics, null, FLAG_FILTERS.get(type)));
+            else if ( FIXED_FIELD_FILTERS.contains(type) )
+                stages.add(new Stage(filter, hotPathMetrics, Cost.FIXED_FIELDS, 0));
+            else if ( VARIABLE_FIELD_FILTERS.contains(type) )
+                stages.add(new Stage(filter, hotPathMetrics, Cost.VARIABLE_FIELDS, 0));
+            else {
+                // An unknown filter can't be moved past, so it gets a segment of its own.
+                addSegment(segments, flagStages, stages);
+                stages.add(new Stage(filter, hotPathMetrics, Cost.VARIABLE_FIELDS, 0));
+                addSegment(segments, flagStages, stages);
+            }
+        }
+        addSegment(segments, flagStages, stages);
+
+        this.segments = segments.toArray(new Segment[segments.size()]);
+        this.filterTimer = hotPathMetrics.getTimer("readFilter", "chain");
+        reorder();
+    }
+
+    /**
+     * Should the given read be filtered out?
+     * @param read The read to test.
+     * @return true if any of the filters rejects the read.
+     */
+    public boolean filterOut(final SAMRecord read) {
+        if ( --readsUntilReorder == 0 ) {
+            reorder();
+            readsUntilReorder = REORDER_INTERVAL;
+        }
+
+        final long filterStart = filterTimer.start();
+        boolean filterOut = false;
+        for ( final Segment segment : segments ) {
+            if ( segment.filterOut(read) ) {
+                filterOut = true;
+                break;
+            }
+        }
+        filterTimer.stop(filterStart);
+
+        return filterOut;
+    }
+
+    /**
+     * Add the reads rejected by each filter since the last flush to the given metrics and to the hot path metrics.
+     * @param metrics Metrics to which to add the counts.
+     */
+    public void flushFilterCounts(final ReadMetrics metrics) {
+        for ( final Segment segment : segments ) {
+            flushFilterCounts(segment.flagStages, metrics);
+            flushFilterCounts(segment.stages, metrics);
+        }
+    }
+
+    /**
+     * Gets the filters other than the flag filters, in the order in which they're currently run.
+     * @return The filters.
+     */
+    protected List<ReadFilter> getOrderedFilters() {
+        final List<ReadFilter> filters = new ArrayList<ReadFilter>();
+        for ( final Segment segment : segments ) {
+            for ( final Stage stage : segment.stages )
+                filters.add(stage.filter);
+        }
+        return filters;
+    }
+
+    private static void addSegment(final List<Segment> segments, final List<Stage> flagStages, final List<Stage> stages) {
+        if ( flagStages.isEmpty() && stages.isEmpty() )
+            return;
+        segments.add(new Segment(flagStages.toArray(new Stage[flagStages.size()]), stages.toArray(new Stage[stages.size()])));
+        flagStages.clear();
+        stages.clear();
+    }
+
+    private static void flushFilterCounts(final Stage[] stages, final ReadMetrics metrics) {
+        for ( final Stage stage : stages ) {
+            if ( stage.unflushedRejections > 0 ) {
+                metrics.incrementFilter(stage.filter, stage.unflushedRejections);
+                stage.rejectedCounter.add(stage.unflushedRejections);
+                stage.unflushedRejections = 0;
+            }
+        }
+    }
+
+    /**
+     * Move the filters that reject the most reads towards the front of their cost group.
+     */
+    private void reorder() {
+        for ( final Segment segment : segments )
+            Arrays.sort(segment.stages, STAGE_ORDER);
+    }
+
+    private static final Comparator<Stage> STAGE_ORDER = new Comparator<Stage>() {
+        @Override
+        public int compare(final Stage a, final Stage b) {
+            if ( a.cost != b.cost )
+                return a.cost.compareTo(b.cost);
+            return Double.compare(b.getRejectionRate(), a.getRejectionRate());
+        }
+    };
+
+    /**
+     * Either a run of filters that may be reordered amongst themselves, or a single filter that may not.
+     */
+    private static final class Segment {
+        /**
+         * Union of the flag bits tested by the flag filters.
+         */
+        private final int flagMask;
+
+        /**
+         * The flag filters, in the order in which they were given.
+         */
+        private final Stage[] flagStages;
+
+        /**
+         * The other filters, in the order in which they're run.
+         */
+        private final Stage[] stages;
+
+        private Segment(final Stage[] flagStages, final Stage[] stages) {
+            int flagMask = 0;
+            for ( final Stage stage : flagStages )
+                flagMask |= stage.flag;
+            this.flagMask = flagMask;
+            this.flagStages = flagStages;
+            this.stages = stages;
+        }
+
+        private boolean filterOut(final SAMRecord read) {
+            final int flags = read.getFlags() & flagMask;
+            if ( flags != 0 ) {
+                for ( final Stage stage : flagStages ) {
+                    if ( (flags & stage.flag) != 0 ) {
+                        stage.rejected++;
+                        stage.unflushedRejections++;
+                        return true;
+                    }
+                }
+            }
+
+            for ( final Stage stage : stages ) {
+                stage.evaluated++;
+                if ( stage.filter.filterOut(read) ) {
+                    stage.rejected++;
+                    stage.unflushedRejections++;
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    private static final class Stage {
+        private final ReadFilter filter;
+        private final Cost cost;
+        private final int flag;
+        private final HotPathCounter rejectedCounter;
+
+        private long evaluated = 0;
+        private long rejected = 0;
+        private long unflushedRejections = 0;
+
+        private Stage(final ReadFilter filter, final HotPathMetrics hotPathMetrics, final Cost cost, final int flag) {
+            this.filter = filter;
+            this.cost = cost;
+            this.flag = flag;
+            // Anonymous filters have no simple name
+            final String name = filter.getClass().getSimpleName().isEmpty() ? filter.getClass().getName() : filter.getClass().getSimpleName();
+            this.rejectedCounter = hotPathMetrics.getCounter("readFilter", name + ".rejected");
+        }
+
+        private double getRejectionRate() {
+            // Smoothed, so that filters that have yet to be run don't sort to either end
+            return (rejected + 1.0) / (evaluated + 2.0);
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.broadinstitute.sting.gatk.iterators.ReadTransformer;
 import org.broadinstitute.sting.utils.baq.BAQ;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.metrics.HotPathTimer;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
 import java.io.File;
@@ -122,6 +123,11 @@ public class SAMFileWriterStub implements Stub<SAMFileWriter>, StingSAMFileWrite
 
     private List<ReadTransformer> onOutputReadTransformers = null;
 
+    /**
+     * Times the writes of reads to storage, created on the first write
+     */
+    private HotPathTimer writeTimer = null;
+
     /**
      * Create a new stub given the requested SAM file and compression level.
      * @param engine source of header data, maybe other data about input files.
@@ -294,17 +300,21 @@ public class SAMFileWriterStub implements Stub<SAMFileWriter>, StingSAMFileWrite
      * @{inheritDoc}
      */
     public void addAlignment( final SAMRecord readIn ) {
-        if ( onOutputReadTransformers == null )
+        if ( onOutputReadTransformers == null ) {
             initializeReadTransformers();
+            writeTimer = engine.getHotPathMetrics().getTimer("output", "reads");
+        }
 
         GATKSAMRecord workingRead = (GATKSAMRecord)readIn;
 
         // run on output read transformers
         for ( final ReadTransformer transform : onOutputReadTransformers )
-            workingRead = transform.apply(workingRead);
+            workingRead = transform.transform(workingRead);
 
         writeStarted = true;
+        final long writeStart = writeTimer.start();
         outputTracker.getStorage(this).addAlignment(workingRead);
+        writeTimer.stop(writeStart);
     }
 
     /**
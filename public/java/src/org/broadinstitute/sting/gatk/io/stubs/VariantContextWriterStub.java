@@ -32,6 +32,7 @@ import org.broadinstitute.sting.utils.classloader.JVMUtils;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeader;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLine;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFUtils;
+import org.broadinstitute.sting.utils.metrics.HotPathTimer;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 import org.broadinstitute.sting.utils.variantcontext.writer.Options;
 import org.broadinstitute.sting.utils.variantcontext.writer.VariantContextWriter;
@@ -108,6 +109,11 @@ public class VariantContextWriterStub implements Stub<VariantContextWriter>, Var
      */
     protected OutputTracker outputTracker = null;
 
+    /**
+     * Times the writes of variants to storage, created on the first write
+     */
+    private HotPathTimer writeTimer = null;
+
     /**
      * Create a new stub given the requested file.
      *
@@ -242,7 +248,12 @@ public class VariantContextWriterStub implements Stub<VariantContextWriter>, Var
      * @{inheritDoc}
      */
     public void add(VariantContext vc) {
+        if ( writeTimer == null )
+            writeTimer = engine.getHotPathMetrics().getTimer("output", "variants");
+
+        final long writeStart = writeTimer.start();
         outputTracker.getStorage(this).add(vc);
+        writeTimer.stop(writeStart);
     }
 
     /**
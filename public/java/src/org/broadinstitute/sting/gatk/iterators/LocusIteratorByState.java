@@ -543,7 +543,7 @@ public class LocusIteratorByState extends LocusIterator {
             private int thisSampleReadStates = 0;
             private Downsampler<LinkedList<SAMRecordState>> levelingDownsampler =
                       performDownsampling ?
-                      new LevelingDownsampler<LinkedList<SAMRecordState>, SAMRecordState>(readInfo.getDownsamplingMethod().toCoverage) :
+                      new CompactLevelingDownsampler<LinkedList<SAMRecordState>, SAMRecordState>(readInfo.getDownsamplingMethod().toCoverage) :
                       null;
 
             public void addStatesAtNextAlignmentStart(Collection<SAMRecordState> states) {
@@ -4,6 +4,8 @@ import com.google.java.contract.Ensures;
 import com.google.java.contract.Requires;
 import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
 import org.broadinstitute.sting.gatk.walkers.Walker;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
+import org.broadinstitute.sting.utils.metrics.HotPathTimer;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
 /**
@@ -38,6 +40,11 @@ abstract public class ReadTransformer {
      */
     private boolean initialized = false;
 
+    /**
+     * Times the calls to apply() made through transform(), once we know the engine's hot path metrics
+     */
+    private HotPathTimer applyTimer = HotPathMetrics.DISABLED.getTimer("readTransformer", "uninitialized");
+
     protected ReadTransformer() {}
 
     /**
@@ -55,6 +62,7 @@ abstract public class ReadTransformer {
 
         this.applicationTime = initializeSub(engine, walker);
         if ( overrideTime != null ) this.applicationTime = overrideTime;
+        this.applyTimer = engine.getHotPathMetrics().getTimer("readTransformer", toString());
         initialized = true;
     }
 
@@ -112,6 +120,24 @@ abstract public class ReadTransformer {
     @Ensures("result != null")
     abstract public GATKSAMRecord apply(final GATKSAMRecord read);
 
+    /**
+     * Apply this read transform to read, recording the time taken in the engine's hot path metrics
+     *
+     * The GATK engine calls this rather than apply() directly, so that the cost of each read transformer is
+     * visible in the hot path metrics
+     *
+     * @param read the read to transform
+     * @return the transformed read
+     */
+    @Requires("read != null")
+    @Ensures("result != null")
+    public final GATKSAMRecord transform(final GATKSAMRecord read) {
+        final long start = applyTimer.start();
+        final GATKSAMRecord result = apply(read);
+        applyTimer.stop(start);
+        return result;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName();
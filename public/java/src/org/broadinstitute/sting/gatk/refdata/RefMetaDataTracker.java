@@ -11,6 +11,8 @@ import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class represents the Reference Metadata available at a particular site in the genome.  It can be
@@ -26,6 +28,10 @@ import java.util.*;
  * Note that this is an immutable class.  Once created the underlying data structures
  * cannot be modified
  *
+ * Every track is assigned a dense integer slot the first time its name is seen (the engine registers
+ * all of the ROD tracks at startup), and the tracker stores the data bound at this site in an array
+ * indexed by slot.  RodBindings remember their slot, so looking them up doesn't involve any hashing.
+ *
  * User: mdepristo
  * Date: Apr 3, 2009
  * Time: 3:05:23 PM
@@ -34,7 +40,20 @@ public class RefMetaDataTracker {
     // TODO: this should be a list, not a bindings, actually
     private final static RODRecordList EMPTY_ROD_RECORD_LIST = new RODRecordListImpl("EMPTY");
 
-    final Map<String, RODRecordList> bindings;
+    private final static RODRecordList[] NO_BINDINGS = new RODRecordList[0];
+
+    /**
+     * A tracker with no bindings, shared by every site without any reference-ordered data
+     */
+    public final static RefMetaDataTracker EMPTY_TRACKER = new RefMetaDataTracker();
+
+    // the slot assigned to each canonical track name, and the number of slots assigned so far
+    private final static ConcurrentMap<String, Integer> trackSlots = new ConcurrentHashMap<String, Integer>();
+    private static int nTrackSlots = 0;
+
+    // the non-empty tracks bound here, indexed by slot; null for the tracks without features here
+    final RODRecordList[] bindings;
+    final int nBoundTracks;
     final protected static Logger logger = Logger.getLogger(RefMetaDataTracker.class);
 
     // ------------------------------------------------------------------------------------------
@@ -49,25 +68,85 @@ public class RefMetaDataTracker {
      * Create an tracker with no bindings
      */
     public RefMetaDataTracker() {
-        bindings = Collections.emptyMap();
+        bindings = NO_BINDINGS;
+        nBoundTracks = 0;
     }
 
+    /**
+     * Create a tracker from tracks identified by name.  Slower than RefMetaDataTracker(int[], RODRecordList[])
+     * as the slot of each track has to be looked up by name.
+     *
+     * @param allBindings the data of each track at this site
+     */
     public RefMetaDataTracker(final Collection<RODRecordList> allBindings) {
-        // set up the bindings
-        if ( allBindings.isEmpty() )
-            bindings = Collections.emptyMap();
-        else {
-            final Map<String, RODRecordList> tmap = new HashMap<String, RODRecordList>(allBindings.size());
-            for ( RODRecordList rod : allBindings ) {
-                if ( rod != null && ! rod.isEmpty() )
-                    tmap.put(canonicalName(rod.getName()), rod);
+        this(getTrackSlots(allBindings), allBindings.toArray(new RODRecordList[allBindings.size()]));
+    }
+
+    /**
+     * Create a tracker from tracks whose slots have already been resolved with getTrackSlot().  Neither array
+     * is kept by the tracker, so callers can reuse them from one site to the next.
+     *
+     * @param slots  the slot of each track
+     * @param tracks the data of each track at this site; null or empty for tracks without any data here
+     */
+    @Requires({"slots != null", "tracks != null", "slots.length >= tracks.length"})
+    public RefMetaDataTracker(final int[] slots, final RODRecordList[] tracks) {
+        int maxSlot = -1;
+        for ( int i = 0; i < tracks.length; i++ ) {
+            if ( tracks[i] != null && ! tracks[i].isEmpty() )
+                maxSlot = Math.max(maxSlot, slots[i]);
+        }
+
+        if ( maxSlot < 0 ) {
+            bindings = NO_BINDINGS;
+            nBoundTracks = 0;
+        } else {
+            bindings = new RODRecordList[maxSlot + 1];
+            for ( int i = 0; i < tracks.length; i++ ) {
+                if ( tracks[i] != null && ! tracks[i].isEmpty() )
+                    bindings[slots[i]] = tracks[i];
             }
 
-            // ensure that no one modifies the bindings itself
-            bindings = Collections.unmodifiableMap(tmap);
+            // tracks sharing a name replace one another, so count what's left
+            int n = 0;
+            for ( final RODRecordList rod : bindings )
+                if ( rod != null ) n++;
+            nBoundTracks = n;
+        }
+    }
+
+    /**
+     * Returns the dense slot of the track with this name, assigning it the next free slot if it hasn't been seen before.
+     * Track names are case insensitive.
+     *
+     * @param name the name of the track
+     * @return the slot of the track
+     */
+    @Requires("name != null")
+    @Ensures("result >= 0")
+    public static int getTrackSlot(final String name) {
+        final String canonicalName = canonicalName(name);
+        final Integer slot = trackSlots.get(canonicalName);
+        if ( slot != null )
+            return slot;
+
+        synchronized ( trackSlots ) {
+            final Integer existing = trackSlots.get(canonicalName);
+            if ( existing != null )
+                return existing;
+            trackSlots.put(canonicalName, nTrackSlots);
+            return nTrackSlots++;
         }
     }
 
+    private static int[] getTrackSlots(final Collection<RODRecordList> tracks) {
+        final int[] slots = new int[tracks.size()];
+        int i = 0;
+        for ( final RODRecordList rod : tracks )
+            slots[i++] = rod == null || rod.isEmpty() ? -1 : getTrackSlot(rod.getName());
+        return slots;
+    }
+
     // ------------------------------------------------------------------------------------------
     //
     //
@@ -94,7 +173,7 @@ public class RefMetaDataTracker {
     @Requires({"type != null"})
     @Ensures("result != null")
     public <T extends Feature> List<T> getValues(final Class<T> type) {
-        return addValues(bindings.keySet(), type, new ArrayList<T>(), null, false, false);
+        return addValues(type, new ArrayList<T>(), null, false, false);
     }
 
     /**
@@ -109,7 +188,7 @@ public class RefMetaDataTracker {
     @Requires({"type != null", "onlyAtThisLoc != null"})
     @Ensures("result != null")
     public <T extends Feature> List<T> getValues(final Class<T> type, final GenomeLoc onlyAtThisLoc) {
-        return addValues(bindings.keySet(), type, new ArrayList<T>(), onlyAtThisLoc, true, false);
+        return addValues(type, new ArrayList<T>(), onlyAtThisLoc, true, false);
     }
 
     /**
@@ -161,7 +240,7 @@ public class RefMetaDataTracker {
     @Requires({"rodBinding != null"})
     @Ensures("result != null")
     public <T extends Feature> List<T> getValues(final RodBinding<T> rodBinding) {
-        return addValues(rodBinding.getName(), rodBinding.getType(), new ArrayList<T>(1), getTrackDataByName(rodBinding), null, false, false);
+        return addValues(rodBinding.getName(), rodBinding.getType(), new ArrayList<T>(1), getTrackData(rodBinding), null, false, false);
     }
 
     /**
@@ -195,7 +274,7 @@ public class RefMetaDataTracker {
     @Requires({"rodBinding != null", "onlyAtThisLoc != null"})
     @Ensures("result != null")
     public <T extends Feature> List<T> getValues(final RodBinding<T> rodBinding, final GenomeLoc onlyAtThisLoc) {
-        return addValues(rodBinding.getName(), rodBinding.getType(), new ArrayList<T>(1), getTrackDataByName(rodBinding), onlyAtThisLoc, true, false);
+        return addValues(rodBinding.getName(), rodBinding.getType(), new ArrayList<T>(1), getTrackData(rodBinding), onlyAtThisLoc, true, false);
     }
 
     /**
@@ -226,7 +305,7 @@ public class RefMetaDataTracker {
      */
     @Requires({"rodBinding != null"})
     public <T extends Feature> T getFirstValue(final RodBinding<T> rodBinding) {
-        return safeGetFirst(addValues(rodBinding.getName(), rodBinding.getType(), null, getTrackDataByName(rodBinding), null, false, true));
+        return safeGetFirst(addValues(rodBinding.getName(), rodBinding.getType(), null, getTrackData(rodBinding), null, false, true));
     }
 
     /**
@@ -241,7 +320,7 @@ public class RefMetaDataTracker {
      */
     @Requires({"rodBinding != null", "onlyAtThisLoc != null"})
     public <T extends Feature> T getFirstValue(final RodBinding<T> rodBinding, final GenomeLoc onlyAtThisLoc) {
-        return safeGetFirst(addValues(rodBinding.getName(), rodBinding.getType(), null, getTrackDataByName(rodBinding), onlyAtThisLoc, true, true));
+        return safeGetFirst(addValues(rodBinding.getName(), rodBinding.getType(), null, getTrackData(rodBinding), onlyAtThisLoc, true, true));
     }
 
     /**
@@ -291,7 +370,7 @@ public class RefMetaDataTracker {
      */
     @Requires({"rodBinding != null"})
     public boolean hasValues(final RodBinding rodBinding) {
-        return bindings.containsKey(canonicalName(rodBinding.getName()));
+        return getTrackData(rodBinding) != EMPTY_ROD_RECORD_LIST;
     }
 
     /**
@@ -301,7 +380,10 @@ public class RefMetaDataTracker {
      * @return List of all tracks
      */
     public List<RODRecordList> getBoundRodTracks() {
-        return new ArrayList<RODRecordList>(bindings.values());
+        final List<RODRecordList> tracks = new ArrayList<RODRecordList>(nBoundTracks);
+        for ( final RODRecordList rod : bindings )
+            if ( rod != null ) tracks.add(rod);
+        return tracks;
     }
 
     /**
@@ -309,7 +391,7 @@ public class RefMetaDataTracker {
      * @return the number of tracks with at least one bound Feature
      */
     public int getNTracksWithBoundFeatures() {
-        return bindings.size();
+        return nBoundTracks;
     }
 
     // ------------------------------------------------------------------------------------------
@@ -317,7 +399,7 @@ public class RefMetaDataTracker {
     // ------------------------------------------------------------------------------------------
 
     protected boolean hasValues(final String name) {
-        return bindings.containsKey(canonicalName(name));
+        return getTrackDataByName(name) != EMPTY_ROD_RECORD_LIST;
     }
 
     protected <T extends Feature> List<T> getValues(final Class<T> type, final String name) {
@@ -357,15 +439,15 @@ public class RefMetaDataTracker {
         return l.isEmpty() ? null : l.get(0);
     }
 
-    private <T extends Feature> List<T> addValues(final Collection<String> names,
-                                                  final Class<T> type,
+    private <T extends Feature> List<T> addValues(final Class<T> type,
                                                   List<T> values,
                                                   final GenomeLoc curLocation,
                                                   final boolean requireStartHere,
                                                   final boolean takeFirstOnly ) {
-        for ( String name : names ) {
-            RODRecordList rodList = getTrackDataByName(name); // require that the name is an exact match
-            values = addValues(name, type, values, rodList, curLocation, requireStartHere, takeFirstOnly );
+        for ( final RODRecordList rodList : bindings ) {
+            if ( rodList == null )
+                continue;
+            values = addValues(canonicalName(rodList.getName()), type, values, rodList, curLocation, requireStartHere, takeFirstOnly );
             if ( takeFirstOnly && ! values.isEmpty() )
                 break;
         }
@@ -421,13 +503,26 @@ public class RefMetaDataTracker {
      * @return track data for the given rod
      */
     private RODRecordList getTrackDataByName(final String name) {
-        final String luName = canonicalName(name);
-        RODRecordList l = bindings.get(luName);
-        return l == null ? EMPTY_ROD_RECORD_LIST : l;
+        // only look the name up, so that querying unknown tracks doesn't use up slots
+        final Integer slot = trackSlots.get(canonicalName(name));
+        return slot == null ? EMPTY_ROD_RECORD_LIST : getTrackDataBySlot(slot);
     }
 
-    private RODRecordList getTrackDataByName(final RodBinding binding) {
-        return getTrackDataByName(binding.getName());
+    private RODRecordList getTrackData(final RodBinding binding) {
+        int slot = binding.getTrackSlot();
+        if ( slot < 0 ) {
+            final Integer registered = trackSlots.get(canonicalName(binding.getName()));
+            if ( registered == null )
+                return EMPTY_ROD_RECORD_LIST;
+            slot = registered;
+            binding.setTrackSlot(slot);
+        }
+        return getTrackDataBySlot(slot);
+    }
+
+    private RODRecordList getTrackDataBySlot(final int slot) {
+        final RODRecordList l = slot < bindings.length ? bindings[slot] : null;
+        return l == null ? EMPTY_ROD_RECORD_LIST : l;
     }
 
     /**
@@ -435,7 +530,7 @@ public class RefMetaDataTracker {
      * @param name the name of the rod
      * @return canonical name of the rod
      */
-    private String canonicalName(final String name) {
+    private static String canonicalName(final String name) {
         // todo -- remove me after switch to RodBinding syntax
         return name.toLowerCase();
     }
@@ -50,6 +50,8 @@ import org.broadinstitute.sting.utils.instrumentation.Sizeof;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 
 /**
@@ -61,6 +63,11 @@ import java.io.IOException;
  * This class keeps track of the available codecs, and knows how to put together a track of
  * that gets iterators from the FeatureReader using Tribble.
  *
+ * Tracks may be created from several threads at once.  Indices are loaded or built under a lock
+ * per index file, so different files are indexed concurrently, and every index is cached for the
+ * life of the builder so that repeated bindings of an unchanged file share a single index.  As the
+ * cache belongs to the builder, a cached index is only ever updated with this builder's dictionary.
+ *
  */
 public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
     /**
@@ -83,6 +90,17 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
 
     private final FeatureManager featureManager;
 
+    /**
+     * The indices loaded or created so far by this builder, keyed by the input file they index
+     */
+    private final ConcurrentMap<IndexCacheKey, Index> loadedIndices = new ConcurrentHashMap<IndexCacheKey, Index>();
+
+    /**
+     * One monitor per index file (by absolute path).  FSLockWithShared locks are held by the whole JVM, so two
+     * threads locking the same index file would fail rather than wait; they synchronize on this monitor first.
+     */
+    private final static ConcurrentMap<String, Object> indexFileMonitors = new ConcurrentHashMap<String, Object>();
+
     /**
      * Construct an RMDTrackerBuilder, allowing the user to define tracks to build after-the-fact.  This is generally
      * used when walkers want to directly manage the ROD system for whatever reason.  Before using this constructor,
@@ -204,19 +222,22 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
                 try { logger.info(String.format("  Index for %s has size in bytes %d", inputFile, Sizeof.getObjectGraphSize(index))); }
                 catch (ReviewedStingException e) { }
 
-                sequenceDictionary = IndexDictionaryUtils.getSequenceDictionaryFromProperties(index);
+                // the index may be shared with other bindings of this file by this builder, so only one of us may update it at a time
+                File indexFile = Tribble.indexFile(inputFile);
+                synchronized (getIndexFileMonitor(indexFile)) {
+                    sequenceDictionary = IndexDictionaryUtils.getSequenceDictionaryFromProperties(index);
 
-                // if we don't have a dictionary in the Tribble file, and we've set a dictionary for this builder, set it in the file if they match
-                if (sequenceDictionary.size() == 0 && dict != null) {
-                    File indexFile = Tribble.indexFile(inputFile);
-                    validateAndUpdateIndexSequenceDictionary(inputFile, index, dict);
-                    try { // re-write the index
-                        writeIndexToDisk(index,indexFile,new FSLockWithShared(indexFile));
-                    } catch (IOException e) {
-                        logger.warn("Unable to update index with the sequence dictionary for file " + indexFile + "; this will not effect your run of the GATK");
-                    }
+                    // if we don't have a dictionary in the Tribble file, and we've set a dictionary for this builder, set it in the file if they match
+                    if (sequenceDictionary.size() == 0 && dict != null) {
+                        validateAndUpdateIndexSequenceDictionary(inputFile, index, dict);
+                        try { // re-write the index
+                            writeIndexToDisk(index,indexFile,new FSLockWithShared(indexFile));
+                        } catch (IOException e) {
+                            logger.warn("Unable to update index with the sequence dictionary for file " + indexFile + "; this will not effect your run of the GATK");
+                        }
 
-                    sequenceDictionary = IndexDictionaryUtils.getSequenceDictionaryFromProperties(index);
+                        sequenceDictionary = IndexDictionaryUtils.getSequenceDictionaryFromProperties(index);
+                    }
                 }
 
                 featureSource = AbstractFeatureReader.getFeatureReader(inputFile.getAbsolutePath(), createCodec(descriptor, name), index);
@@ -236,15 +257,59 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
     }
 
     /**
-     * create an index for the input file
+     * get the index for the input file, reusing the index from an earlier call if the file hasn't changed since,
+     * and otherwise loading it from disk or creating it.  Calls for different files may run concurrently.
      * @param inputFile the input file
      * @param codec the codec to use
      * @return a linear index for the specified type
      * @throws IOException if we cannot write the index file
      */
-    public synchronized Index loadIndex(File inputFile, FeatureCodec codec) throws IOException {
-        // create the index file name, locking on the index file name
+    public Index loadIndex(File inputFile, FeatureCodec codec) throws IOException {
+        final IndexCacheKey key = new IndexCacheKey(inputFile);
+        Index idx = loadedIndices.get(key);
+        if (idx != null) {
+            logger.info("Reusing already loaded Tribble index for file " + inputFile);
+            return idx;
+        }
+
         File indexFile = Tribble.indexFile(inputFile);
+        synchronized (getIndexFileMonitor(indexFile)) {
+            // another thread may have loaded this index while we were waiting
+            idx = loadedIndices.get(key);
+            if (idx == null) {
+                idx = loadOrCreateIndex(inputFile, codec, indexFile);
+                loadedIndices.put(key, idx);
+            }
+            return idx;
+        }
+    }
+
+    /**
+     * get the monitor on which threads in this JVM synchronize before locking indexFile
+     * @param indexFile the index file
+     * @return the one monitor for that file
+     */
+    private static Object getIndexFileMonitor(File indexFile) {
+        final String path = indexFile.getAbsolutePath();
+        final Object monitor = indexFileMonitors.get(path);
+        if (monitor != null)
+            return monitor;
+        final Object newMonitor = new Object();
+        final Object existing = indexFileMonitors.putIfAbsent(path, newMonitor);
+        return existing == null ? newMonitor : existing;
+    }
+
+    /**
+     * load the index for the input file from disk, or if that isn't possible create it and write it to disk.
+     * Must be called holding the monitor for indexFile.
+     * @param inputFile the input file
+     * @param codec the codec to use
+     * @param indexFile the index file for the input file
+     * @return a linear index for the specified type
+     * @throws IOException if we cannot write the index file
+     */
+    private Index loadOrCreateIndex(File inputFile, FeatureCodec codec, File indexFile) throws IOException {
+        // lock on the index file name
         FSLockWithShared lock = new FSLockWithShared(indexFile);
 
         // acquire a lock on the file
@@ -387,4 +452,36 @@ public class RMDTrackBuilder { // extends PluginManager<FeatureCodec> {
                                                 final SAMSequenceDictionary referenceDict ) {
         IndexDictionaryUtils.validateTrackSequenceDictionary(trackName, trackDict, referenceDict, validationExclusionType);
     }
+
+    /**
+     * Identifies a version of an input file by its path, length and modification time, so that an index
+     * cached for the file is no longer used once the file changes
+     */
+    private static final class IndexCacheKey {
+        private final String path;
+        private final long length;
+        private final long lastModified;
+
+        public IndexCacheKey(final File inputFile) {
+            this.path = inputFile.getAbsolutePath();
+            this.length = inputFile.length();
+            this.lastModified = inputFile.lastModified();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if ( this == o ) return true;
+            if ( ! (o instanceof IndexCacheKey) ) return false;
+            final IndexCacheKey that = (IndexCacheKey)o;
+            return length == that.length && lastModified == that.lastModified && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int)(length ^ (length >>> 32));
+            result = 31 * result + (int)(lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+    }
 }
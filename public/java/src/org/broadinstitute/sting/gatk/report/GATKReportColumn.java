@@ -100,6 +100,20 @@ public class GATKReportColumn {
      * @return The string representation of the column
      */
     private String formatValue(final Object obj) {
+        return formatValue(format, obj);
+    }
+
+    /**
+     * Returns a string version of the value as it should be written out in the table.
+     *
+     * @param obj The object to convert to a string
+     * @return The string representation of the value
+     */
+    String formatValueForWriting(final Object obj) {
+        return formatValue(getFormat(), obj);
+    }
+
+    private String formatValue(final String format, final Object obj) {
         String value;
         if (obj == null) {
             value = "null";
@@ -107,12 +121,24 @@ public class GATKReportColumn {
         else if ( dataType.equals(GATKReportDataType.Unknown) && (obj instanceof Double || obj instanceof Float) ) {
             value = String.format("%.8f", obj);
         }
+        else if ( isPlainFormat(format, obj) ) {
+            // shortcut the formatter for the common cases that are just the value itself
+            value = obj.toString();
+        }
         else
             value = String.format(format, obj);
 
         return value;
     }
 
+    private static boolean isPlainFormat(final String format, final Object obj) {
+        if ( format.equals("%s") )
+            return obj instanceof String || obj instanceof Number || obj instanceof Boolean || obj instanceof Character;
+        if ( format.equals("%d") )
+            return obj instanceof Long || obj instanceof Integer || obj instanceof Short || obj instanceof Byte;
+        return false;
+    }
+
     public GATKReportDataType getDataType() {
         return dataType;
     }
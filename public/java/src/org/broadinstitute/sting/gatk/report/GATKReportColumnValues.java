@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.report;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Column-oriented, typed storage for the values of a single GATK report table column.
+ *
+ * Integral and floating point values are kept in primitive arrays and strings are interned into a per-column
+ * dictionary, so that a table with millions of rows doesn't hold millions of boxed objects.  The storage is picked
+ * from the first value put into the column; if a value of another class shows up later on the column falls back to
+ * plain object storage.  Values always come back out boxed as the same class that went in (e.g. an Integer stays an
+ * Integer), so this is invisible to the users of GATKReportTable.
+ */
+abstract class GATKReportColumnValues {
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Once a string column has this many distinct values it is no longer worth interning them
+     */
+    private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    /**
+     * @return storage that hasn't seen any values yet and that will pick its representation from the first one
+     */
+    static GATKReportColumnValues empty() {
+        return EmptyValues.INSTANCE;
+    }
+
+    /**
+     * Creates storage for a column whose values are known to be those produced by GATKReportDataType.Parse()
+     *
+     * @param dataType   the data type of the column
+     * @param capacity   the expected number of rows
+     * @return the storage
+     */
+    static GATKReportColumnValues forParsedType(final GATKReportDataType dataType, final int capacity) {
+        switch ( dataType ) {
+            case Integer: return new LongValues(Long.class, capacity);
+            case Decimal: return new DoubleValues(capacity);
+            case String: return new StringValues(capacity);
+            default: return empty();
+        }
+    }
+
+    /**
+     * @param row    the row index
+     * @return the value in the given row, or null if it has never been set
+     */
+    abstract Object get(final int row);
+
+    /**
+     * Sets the value in the given row, growing the storage as needed
+     *
+     * @param row    the row index
+     * @param value  the value
+     * @return the storage that now holds the values of the column: either this one or, if the value didn't fit, a more general one
+     */
+    abstract GATKReportColumnValues set(final int row, final Object value);
+
+    protected static int grow(final int capacity, final int row) {
+        return Math.max(Math.max(MIN_CAPACITY, 2 * capacity), row + 1);
+    }
+
+    /**
+     * Storage for a column without any values
+     */
+    private static final class EmptyValues extends GATKReportColumnValues {
+        private static final EmptyValues INSTANCE = new EmptyValues();
+
+        @Override
+        Object get(final int row) {
+            return null;
+        }
+
+        @Override
+        GATKReportColumnValues set(final int row, final Object value) {
+            final GATKReportColumnValues values;
+            if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte )
+                values = new LongValues(value.getClass(), row + 1);
+            else if ( value instanceof Double )
+                values = new DoubleValues(row + 1);
+            else if ( value instanceof String )
+                values = new StringValues(row + 1);
+            else
+                values = new ObjectValues(row + 1);
+            return values.set(row, value);
+        }
+    }
+
+    /**
+     * Storage for any kind of value
+     */
+    private static final class ObjectValues extends GATKReportColumnValues {
+        private Object[] values;
+
+        private ObjectValues(final int capacity) {
+            values = new Object[Math.max(MIN_CAPACITY, capacity)];
+        }
+
+        private ObjectValues(final GATKReportColumnValues source, final int size) {
+            this(size);
+            for ( int row = 0; row < size; row++ )
+                values[row] = source.get(row);
+        }
+
+        @Override
+        Object get(final int row) {
+            return row < values.length ? values[row] : null;
+        }
+
+        @Override
+        GATKReportColumnValues set(final int row, final Object value) {
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = value;
+            return this;
+        }
+    }
+
+    /**
+     * Storage for integral values, all of the same boxed class
+     */
+    private static final class LongValues extends GATKReportColumnValues {
+        private final Class<?> boxedClass;
+        private long[] values;
+        private final BitSet isSet = new BitSet();
+
+        private LongValues(final Class<?> boxedClass, final int capacity) {
+            this.boxedClass = boxedClass;
+            values = new long[Math.max(MIN_CAPACITY, capacity)];
+        }
+
+        @Override
+        Object get(final int row) {
+            if ( !isSet.get(row) )
+                return null;
+
+            final long value = values[row];
+            if ( boxedClass == Long.class )
+                return value;
+            if ( boxedClass == Integer.class )
+                return (int)value;
+            if ( boxedClass == Short.class )
+                return (short)value;
+            return (byte)value;
+        }
+
+        @Override
+        GATKReportColumnValues set(final int row, final Object value) {
+            if ( value == null || value.getClass() != boxedClass )
+                return new ObjectValues(this, Math.max(isSet.length(), row + 1)).set(row, value);
+
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = ((Number)value).longValue();
+            isSet.set(row);
+            return this;
+        }
+    }
+
+    /**
+     * Storage for Double values
+     */
+    private static final class DoubleValues extends GATKReportColumnValues {
+        private double[] values;
+        private final BitSet isSet = new BitSet();
+
+        private DoubleValues(final int capacity) {
+            values = new double[Math.max(MIN_CAPACITY, capacity)];
+        }
+
+        @Override
+        Object get(final int row) {
+            return isSet.get(row) ? values[row] : null;
+        }
+
+        @Override
+        GATKReportColumnValues set(final int row, final Object value) {
+            if ( !(value instanceof Double) )
+                return new ObjectValues(this, Math.max(isSet.length(), row + 1)).set(row, value);
+
+            if ( row >= values.length )
+                values = Arrays.copyOf(values, grow(values.length, row));
+            values[row] = (Double)value;
+            isSet.set(row);
+            return this;
+        }
+    }
+
+    /**
+     * Storage for String values, interned into a dictionary of the distinct values seen in the column
+     */
+    private static final class StringValues extends GATKReportColumnValues {
+        private static final int UNSET = -1;
+
+        private int[] codes;
+        private int size = 0;
+        private final List<String> dictionary = new ArrayList<String>();
+        private final HashMap<String, Integer> codeOf = new HashMap<String, Integer>();
+
+        private StringValues(final int capacity) {
+            codes = new int[Math.max(MIN_CAPACITY, capacity)];
+            Arrays.fill(codes, UNSET);
+        }
+
+        @Override
+        Object get(final int row) {
+            if ( row >= codes.length || codes[row] == UNSET )
+                return null;
+            return dictionary.get(codes[row]);
+        }
+
+        @Override
+        GATKReportColumnValues set(final int row, final Object value) {
+            if ( !(value instanceof String) )
+                return new ObjectValues(this, Math.max(size, row + 1)).set(row, value);
+
+            Integer code = codeOf.get(value);
+            if ( code == null ) {
+                if ( dictionary.size() == MAX_DICTIONARY_SIZE )
+                    return new ObjectValues(this, Math.max(size, row + 1)).set(row, value);
+                code = dictionary.size();
+                dictionary.add((String)value);
+                codeOf.put((String)value, code);
+            }
+
+            if ( row >= codes.length ) {
+                final int oldCapacity = codes.length;
+                codes = Arrays.copyOf(codes, grow(oldCapacity, row));
+                Arrays.fill(codes, oldCapacity, codes.length, UNSET);
+            }
+            codes[row] = code;
+            size = Math.max(size, row + 1);
+            return this;
+        }
+    }
+}
@@ -48,10 +48,18 @@ public class GATKReportTable {
 
     private final boolean sortByRowID;
 
-    private List<Object[]> underlyingData;
+    // the data is stored by column, each column in the storage best suited to its values
+    private int nRows = 0;
+    private final List<GATKReportColumnValues> columnValues;
     private final List<GATKReportColumn> columnInfo;
     private final Map<Object, Integer> columnNameToIndex;
-    private final HashMap<Object, Integer> rowIdToIndex;
+
+    // the row ID mappings; null as long as every row ID is simply the row index (e.g. for tables read from a file)
+    private HashMap<Object, Integer> rowIdToIndex = null;
+
+    // true as long as the rows were added in row ID order, in which case there's no need to sort them before writing
+    private boolean rowIdsInSortedOrder = true;
+    private Object lastRowID = null;
 
     private static final String COULD_NOT_READ_HEADER = "Could not read the header of this file -- ";
     private static final String COULD_NOT_READ_COLUMN_NAMES = "Could not read the column names of this file -- ";
@@ -59,7 +67,6 @@ public class GATKReportTable {
     private static final String COULD_NOT_READ_EMPTY_LINE = "Could not read the last empty line of this table -- ";
     private static final String OLD_GATK_TABLE_VERSION = "We no longer support older versions of the GATK Tables";
 
-    private static final int INITITAL_ARRAY_SIZE = 10000;
     private static final String NUMBER_CONVERSION_EXCEPTION = "String is a number but is not a long or a double: ";
 
     protected enum TableDataHeaderFields {
@@ -110,16 +117,11 @@ public class GATKReportTable {
 
                 // initialize the data
                 final int nColumns = Integer.parseInt(tableData[TableDataHeaderFields.COLS.index()]);
-                final int nRows = Integer.parseInt(tableData[TableDataHeaderFields.ROWS.index()]);
-                underlyingData = new ArrayList<Object[]>(nRows);
+                final int nRowsToRead = Integer.parseInt(tableData[TableDataHeaderFields.ROWS.index()]);
+                columnValues = new ArrayList<GATKReportColumnValues>(nColumns);
                 columnInfo = new ArrayList<GATKReportColumn>(nColumns);
                 columnNameToIndex = new HashMap<Object, Integer>(nColumns);
 
-                // when reading from a file, the row ID mapping is just the index
-                rowIdToIndex = new HashMap<Object, Integer>();
-                for ( int i = 0; i < nRows; i++ )
-                    rowIdToIndex.put(i, i);
-
                 // read the column names
                 final String columnLine;
                 try {
@@ -128,30 +130,34 @@ public class GATKReportTable {
                     throw new ReviewedStingException(COULD_NOT_READ_COLUMN_NAMES);
                 }
 
-                final List<Integer> columnStarts = TextFormattingUtils.getWordStarts(columnLine);
-                final String[] columnNames = TextFormattingUtils.splitFixedWidth(columnLine, columnStarts);
+                final List<Integer> columnStartList = TextFormattingUtils.getWordStarts(columnLine);
+                final String[] columnNames = TextFormattingUtils.splitFixedWidth(columnLine, columnStartList);
+                final int[] columnStarts = new int[columnStartList.size()];
+                for ( int i = 0; i < columnStarts.length; i++ )
+                    columnStarts[i] = columnStartList.get(i);
 
                 // Put in columns using the format string from the header
                 for ( int i = 0; i < nColumns; i++ ) {
                     final String format = tableData[TableDataHeaderFields.FORMAT_START.index() + i];
                     addColumn(columnNames[i], format);
+                    columnValues.set(i, GATKReportColumnValues.forParsedType(columnInfo.get(i).getDataType(), nRowsToRead));
                 }
 
-                // fill in the table
+                // fill in the table; the values are parsed straight into their columns since they are known to be of the right type
                 try {
-                    for ( int i = 0; i < nRows; i++ ) {
+                    for ( int i = 0; i < nRowsToRead; i++ ) {
                         // read a data line
                         final String dataLine = reader.readLine();
-                        final List<String> lineSplits = Arrays.asList(TextFormattingUtils.splitFixedWidth(dataLine, columnStarts));
+                        if ( dataLine == null )
+                            throw new ReviewedStingException(COULD_NOT_READ_DATA_LINE + "expected " + nRowsToRead + " rows but found only " + i);
 
-                        underlyingData.add(new Object[nColumns]);
                         for ( int columnIndex = 0; columnIndex < nColumns; columnIndex++ ) {
-
-                            final GATKReportDataType type = columnInfo.get(columnIndex).getDataType();
-                            final String columnName = columnNames[columnIndex];
-                            set(i, columnName, type.Parse(lineSplits.get(columnIndex)));
-
+                            final GATKReportColumn column = columnInfo.get(columnIndex);
+                            final Object value = column.getDataType().Parse(getFixedWidthField(dataLine, columnStarts, columnIndex));
+                            columnValues.set(columnIndex, columnValues.get(columnIndex).set(i, value));
+                            column.updateFormatting(value);
                         }
+                        nRows++;
                     }
                 } catch (IOException e) {
                     throw new ReviewedStingException(COULD_NOT_READ_DATA_LINE + e.getMessage());
@@ -201,10 +207,9 @@ public class GATKReportTable {
         this.tableDescription = tableDescription;
         this.sortByRowID = sortByRowID;
 
-        underlyingData = new ArrayList<Object[]>(INITITAL_ARRAY_SIZE);
+        columnValues = new ArrayList<GATKReportColumnValues>(numColumns);
         columnInfo = new ArrayList<GATKReportColumn>(numColumns);
         columnNameToIndex = new HashMap<Object, Integer>(numColumns);
-        rowIdToIndex = new HashMap<Object, Integer>();
     }
 
     /**
@@ -245,6 +250,21 @@ public class GATKReportTable {
         return !m.find();
     }
 
+    /**
+     * Returns the trimmed value of a column of a fixed width line; equivalent to TextFormattingUtils.splitFixedWidth()
+     * but without splitting the whole line up front.
+     *
+     * @param line          the line
+     * @param columnStarts  the column starting positions within line, excluding the first position 0
+     * @param columnIndex   the index of the column
+     * @return the trimmed value
+     */
+    private static String getFixedWidthField(final String line, final int[] columnStarts, final int columnIndex) {
+        final int start = columnIndex == 0 ? 0 : columnStarts[columnIndex - 1];
+        final int stop = columnIndex == columnStarts.length ? line.length() : columnStarts[columnIndex];
+        return line.substring(start, stop).trim();
+    }
+
     /**
      * Add a mapping from ID to the index of a new row added to the table.
      *
@@ -261,7 +281,7 @@ public class GATKReportTable {
      * @param populateFirstColumn   should we automatically populate the first column with the row's ID?
      */
     public void addRowID(final String ID, final boolean populateFirstColumn) {
-        addRowIDMapping(ID, underlyingData.size(), populateFirstColumn);
+        addRowIDMapping(ID, nRows, populateFirstColumn);
     }
 
     /**
@@ -283,7 +303,7 @@ public class GATKReportTable {
      */
     public void addRowIDMapping(final Object ID, final int index, final boolean populateFirstColumn) {
         expandTo(index, false);
-        rowIdToIndex.put(ID, index);
+        putRowIDMapping(ID, index);
 
         if ( populateFirstColumn )
             set(index, 0, ID);
@@ -295,7 +315,79 @@ public class GATKReportTable {
      * @param ID   the row ID
      */
     public void removeRowIDMapping(final Object ID) {
-        rowIdToIndex.remove(ID);
+        getRowIdMap().remove(ID);
+        rowIdsInSortedOrder = false;
+    }
+
+    /**
+     * Returns the explicit row ID mappings, creating them from the implicit index -> index mappings if needed
+     *
+     * @return the row ID to row index map
+     */
+    private HashMap<Object, Integer> getRowIdMap() {
+        if ( rowIdToIndex == null ) {
+            rowIdToIndex = new HashMap<Object, Integer>();
+            for ( int i = 0; i < nRows; i++ )
+                rowIdToIndex.put(i, i);
+            lastRowID = nRows == 0 ? null : nRows - 1;
+        }
+        return rowIdToIndex;
+    }
+
+    /**
+     * Maps the ID to the row index, keeping track of whether the rows are still in row ID order
+     *
+     * @param ID      the row ID
+     * @param index   the row index
+     */
+    private void putRowIDMapping(final Object ID, final int index) {
+        final HashMap<Object, Integer> rowIdMap = getRowIdMap();
+        final Integer previousIndex = rowIdMap.put(ID, index);
+        if ( rowIdsInSortedOrder )
+            rowIdsInSortedOrder = previousIndex == null && index == rowIdMap.size() - 1 && isInOrder(lastRowID, ID);
+        lastRowID = ID;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean isInOrder(final Object previousID, final Object ID) {
+        if ( previousID == null )
+            return true;
+        if ( ID == null || previousID.getClass() != ID.getClass() || !(ID instanceof Comparable) )
+            return false;
+        try {
+            return ((Comparable<Object>)previousID).compareTo(ID) < 0;
+        } catch (ClassCastException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param rowID   the row ID
+     * @return the index of the row with the given ID, or null if there is no such row
+     */
+    private Integer getRowIndex(final Object rowID) {
+        if ( rowIdToIndex != null )
+            return rowIdToIndex.get(rowID);
+        if ( rowID instanceof Integer && (Integer)rowID >= 0 && (Integer)rowID < nRows )
+            return (Integer)rowID;
+        return null;
+    }
+
+    /**
+     * Returns the index of the row with the given ID, adding a new row with that ID if there is none
+     *
+     * @param rowID   the row ID
+     * @return the row index
+     */
+    private int getOrAddRowIndex(final Object rowID) {
+        final Integer index = getRowIndex(rowID);
+        if ( index != null )
+            return index;
+
+        // adding row N with ID N keeps the row IDs implicit
+        if ( rowIdToIndex != null || !Integer.valueOf(nRows).equals(rowID) )
+            putRowIDMapping(rowID, nRows);
+        return nRows++;
     }
 
     /**
@@ -316,6 +408,7 @@ public class GATKReportTable {
     public void addColumn(String columnName, String format) {
         columnNameToIndex.put(columnName, columnInfo.size());
         columnInfo.add(new GATKReportColumn(columnName, format));
+        columnValues.add(GATKReportColumnValues.empty());
     }
 
     /**
@@ -336,15 +429,15 @@ public class GATKReportTable {
      * @param updateRowIdMap  should we update the row ID map?
      */
     private void expandTo(final int rowIndex, final boolean updateRowIdMap) {
-        int currentSize = underlyingData.size();
-        if ( rowIndex >= currentSize ) {
-            final int numNewRows = rowIndex - currentSize + 1;
-            for ( int i = 0; i < numNewRows; i++ ) {
-                if ( updateRowIdMap )
-                    rowIdToIndex.put(currentSize, currentSize);
-                underlyingData.add(new Object[getNumColumns()]);
-                currentSize++;
+        if ( rowIndex >= nRows ) {
+            if ( !updateRowIdMap ) {
+                // the new rows won't have IDs, so the IDs can no longer be implicit
+                getRowIdMap();
+            } else if ( rowIdToIndex != null ) {
+                for ( int i = nRows; i <= rowIndex; i++ )
+                    putRowIDMapping(i, i);
             }
+            nRows = rowIndex + 1;
         }
     }
 
@@ -357,11 +450,8 @@ public class GATKReportTable {
      * @param value        the value to set
      */
     public void set(final Object rowID, final String columnName, final Object value) {
-        if ( !rowIdToIndex.containsKey(rowID) ) {
-            rowIdToIndex.put(rowID, underlyingData.size());
-            expandTo(underlyingData.size(), false);
-        }
-        set(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName), value);
+        final int rowIndex = getOrAddRowIndex(rowID);
+        set(rowIndex, columnNameToIndex.get(columnName), value);
     }
 
     /**
@@ -384,7 +474,7 @@ public class GATKReportTable {
             value = fixType(value, column);
 
         if ( column.getDataType().equals(GATKReportDataType.fromObject(value)) || column.getDataType().equals(GATKReportDataType.Unknown) ) {
-            underlyingData.get(rowIndex)[colIndex] = value;
+            columnValues.set(colIndex, columnValues.get(colIndex).set(rowIndex, value));
             column.updateFormatting(value);
         } else {
             throw new ReviewedStingException(String.format("Tried to add an object of type: %s to a column of type: %s", GATKReportDataType.fromObject(value).name(), column.getDataType().name()));
@@ -397,7 +487,7 @@ public class GATKReportTable {
      * @param rowID        the row ID
      */
     public boolean containsRowID(final Object rowID) {
-        return rowIdToIndex.containsKey(rowID);
+        return getRowIndex(rowID) != null;
     }
 
     /**
@@ -405,7 +495,7 @@ public class GATKReportTable {
      *
      */
     public Collection<Object> getRowIDs() {
-        return rowIdToIndex.keySet();
+        return getRowIdMap().keySet();
     }
 
     /**
@@ -416,19 +506,20 @@ public class GATKReportTable {
     * @param columnName   the name of the column
     */
     public void increment(final Object rowID, final String columnName) {
+        final int colIndex = columnNameToIndex.get(columnName);
+        final Integer existingRowIndex = getRowIndex(rowID);
+
         int prevValue;
-        if ( !rowIdToIndex.containsKey(rowID) ) {
-            rowIdToIndex.put(rowID, underlyingData.size());
-            underlyingData.add(new Object[getNumColumns()]);
+        if ( existingRowIndex == null ) {
             prevValue = 0;
         } else {
-            Object obj = get(rowID, columnName);
+            Object obj = get(existingRowIndex, colIndex);
             if ( !(obj instanceof Integer) )
                 throw new ReviewedStingException("Attempting to increment a value in a cell that is not an integer");
             prevValue = (Integer)obj;
         }
 
-        set(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName), prevValue + 1);
+        set(getOrAddRowIndex(rowID), colIndex, prevValue + 1);
     }
 
     /**
@@ -442,13 +533,11 @@ public class GATKReportTable {
         if ( columnValues == null || columnValues.length == 0 || columnValues.length > getNumColumns() )
             return -1;
 
-        for ( int rowIndex = 0; rowIndex < underlyingData.size(); rowIndex++ ) {
-
-            final Object[] row = underlyingData.get(rowIndex);
+        for ( int rowIndex = 0; rowIndex < nRows; rowIndex++ ) {
 
             boolean matches = true;
             for ( int colIndex = 0; colIndex < columnValues.length; colIndex++ ) {
-                if ( !columnValues[colIndex].equals(row[colIndex]) ) {
+                if ( !columnValues[colIndex].equals(this.columnValues.get(colIndex).get(rowIndex)) ) {
                     matches = false;
                     break;
                 }
@@ -499,7 +588,7 @@ public class GATKReportTable {
      * @return the value stored at the specified position in the table
      */
     public Object get(final Object rowID, final String columnName) {
-        return get(rowIdToIndex.get(rowID), columnNameToIndex.get(columnName));
+        return get(getRowIndex(rowID), columnNameToIndex.get(columnName));
     }
 
     /**
@@ -522,12 +611,17 @@ public class GATKReportTable {
      */
     public Object get(int rowIndex, int columnIndex) {
         verifyEntry(rowIndex, columnIndex);
-        return underlyingData.get(rowIndex)[columnIndex];
+        if ( rowIndex >= nRows )
+            throw new IndexOutOfBoundsException("Index: " + rowIndex + ", Size: " + nRows);
+        return columnValues.get(columnIndex).get(rowIndex);
     }
 
     /**
      * Write the table to the PrintStream, formatted nicely to be human-readable, AWK-able, and R-friendly.
      *
+     * The rows are streamed out one by one straight from the column storage; they only need to be sorted first
+     * if they weren't added in row ID order.
+     *
      * @param out the PrintStream to which the table should be written
      */
      void write(final PrintStream out) {
@@ -563,54 +657,70 @@ public class GATKReportTable {
         out.println();
 
         // write the table body
-        if ( sortByRowID ) {
+        int[] rowOrder = null;
+        if ( sortByRowID && rowIdToIndex != null ) {
             // make sure that there are exactly the correct number of ID mappings
-            if ( rowIdToIndex.size() != underlyingData.size() )
+            if ( rowIdToIndex.size() != nRows )
                 throw new ReviewedStingException("There isn't a 1-to-1 mapping from row ID to index; this can happen when rows are not created consistently");
 
-            final TreeMap<Object, Integer> sortedMap;
             try {
-                sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
+                rowOrder = getSortedRowOrder();
             } catch (ClassCastException e) {
                 throw new ReviewedStingException("Unable to sort the rows based on the row IDs because the ID Objects are of different types");
             }
-            for ( final Map.Entry<Object, Integer> rowKey : sortedMap.entrySet() )
-                writeRow(out, underlyingData.get(rowKey.getValue()));
-        } else {
-            for ( final Object[] row : underlyingData )
-                writeRow(out, row);
         }
 
-        out.println();
-    }
+        final GATKReportColumnFormat[] columnFormats = new GATKReportColumnFormat[getNumColumns()];
+        for ( int i = 0; i < columnFormats.length; i++ )
+            columnFormats[i] = columnInfo.get(i).getColumnFormat();
 
-    private void writeRow(final PrintStream out, final Object[] row) {
-        boolean needsPadding = false;
-        for ( int i = 0; i < row.length; i++ ) {
-            if ( needsPadding )
-                out.printf("  ");
-            needsPadding = true;
+        final StringBuilder line = new StringBuilder();
+        for ( int i = 0; i < nRows; i++ ) {
+            line.setLength(0);
+            appendRow(line, rowOrder == null ? i : rowOrder[i], columnFormats);
+            out.println(line);
+        }
 
-            final Object obj = row[i];
-            final String value;
+        out.println();
+    }
 
-            final GATKReportColumn info = columnInfo.get(i);
+    private void appendRow(final StringBuilder line, final int rowIndex, final GATKReportColumnFormat[] columnFormats) {
+        for ( int i = 0; i < columnFormats.length; i++ ) {
+            if ( i > 0 )
+                line.append("  ");
 
-            if ( obj == null )
-                value = "null";
-            else if ( info.getDataType().equals(GATKReportDataType.Unknown) && (obj instanceof Double || obj instanceof Float) )
-                value = String.format("%.8f", obj);
-            else
-                value = String.format(info.getFormat(), obj);
+            final String value = columnInfo.get(i).formatValueForWriting(columnValues.get(i).get(rowIndex));
+            final int padding = columnFormats[i].getWidth() - value.length();
 
-            out.printf(info.getColumnFormat().getValueFormat(), value);
+            if ( columnFormats[i].getAlignment() == GATKReportColumnFormat.Alignment.LEFT )
+                line.append(value);
+            for ( int j = 0; j < padding; j++ )
+                line.append(' ');
+            if ( columnFormats[i].getAlignment() == GATKReportColumnFormat.Alignment.RIGHT )
+                line.append(value);
         }
+    }
 
-        out.println();
+    /**
+     * Returns the row indices ordered by row ID, or null if the rows are already in row ID order
+     *
+     * @return the row indices in the order in which they should be written
+     * @throws ClassCastException if the row IDs can't be compared to each other
+     */
+    private int[] getSortedRowOrder() {
+        if ( !sortByRowID || rowIdToIndex == null || rowIdsInSortedOrder )
+            return null;
+
+        final TreeMap<Object, Integer> sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
+        final int[] rowOrder = new int[sortedMap.size()];
+        int i = 0;
+        for ( final int rowIndex : sortedMap.values() )
+            rowOrder[i++] = rowIndex;
+        return rowOrder;
     }
 
     public int getNumRows() {
-        return underlyingData.size();
+        return nRows;
     }
 
     public int getNumColumns() {
@@ -639,12 +749,26 @@ public class GATKReportTable {
             throw new ReviewedStingException("Error trying to concatenate tables with different formats");
 
         // add the data
-        underlyingData.addAll(table.underlyingData);
-
-        // update the row index map
         final int currentNumRows = getNumRows();
-        for ( Map.Entry<Object, Integer> entry : table.rowIdToIndex.entrySet() )
-            rowIdToIndex.put(entry.getKey(), entry.getValue() + currentNumRows);
+        for ( int columnIndex = 0; columnIndex < getNumColumns(); columnIndex++ ) {
+            GATKReportColumnValues values = columnValues.get(columnIndex);
+            final GATKReportColumnValues otherValues = table.columnValues.get(columnIndex);
+            for ( int i = 0; i < table.nRows; i++ ) {
+                final Object value = otherValues.get(i);
+                if ( value != null )
+                    values = values.set(currentNumRows + i, value);
+            }
+            columnValues.set(columnIndex, values);
+        }
+        nRows += table.nRows;
+
+        // update the row index map; if both tables use implicit row IDs, so does the concatenation
+        if ( rowIdToIndex != null || table.rowIdToIndex != null ) {
+            final HashMap<Object, Integer> rowIdMap = getRowIdMap();
+            for ( Map.Entry<Object, Integer> entry : table.getRowIdMap().entrySet() )
+                rowIdMap.put(entry.getKey(), entry.getValue() + currentNumRows);
+            rowIdsInSortedOrder = false;
+        }
     }
 
     /**
@@ -678,17 +802,17 @@ public class GATKReportTable {
      */
     public boolean equals(final GATKReportTable table) {
         if ( !isSameFormat(table) ||
-                underlyingData.size() != table.underlyingData.size() )
+                nRows != table.nRows )
             return false;
 
-        final List<Object[]> myOrderedRows = getOrderedRows();
-        final List<Object[]> otherOrderedRows = table.getOrderedRows();
+        final int[] myRowOrder = getOrderedRows();
+        final int[] otherRowOrder = table.getOrderedRows();
 
-        for ( int i = 0; i < underlyingData.size(); i++ ) {
-            final Object[] myData = myOrderedRows.get(i);
-            final Object[] otherData = otherOrderedRows.get(i);
-            for ( int j = 0; j < myData.length; j++ ) {
-                if ( !myData[j].toString().equals(otherData[j].toString()) )       // need to deal with different typing (e.g. Long vs. Integer)
+        for ( int i = 0; i < nRows; i++ ) {
+            final int myRow = myRowOrder == null ? i : myRowOrder[i];
+            final int otherRow = otherRowOrder == null ? i : otherRowOrder[i];
+            for ( int j = 0; j < columnValues.size(); j++ ) {
+                if ( !columnValues.get(j).get(myRow).toString().equals(table.columnValues.get(j).get(otherRow).toString()) )       // need to deal with different typing (e.g. Long vs. Integer)
                     return false;
             }
         }
@@ -696,21 +820,11 @@ public class GATKReportTable {
         return true;
     }
 
-    private List<Object[]> getOrderedRows() {
-        if ( !sortByRowID )
-            return underlyingData;
-
-        final TreeMap<Object, Integer> sortedMap;
+    private int[] getOrderedRows() {
         try {
-            sortedMap = new TreeMap<Object, Integer>(rowIdToIndex);
+            return getSortedRowOrder();
         } catch (ClassCastException e) {
-            return underlyingData;
+            return null;
         }
-
-        final List<Object[]> orderedData = new ArrayList<Object[]>(underlyingData.size());
-        for ( final int rowKey : sortedMap.values() )
-            orderedData.add(underlyingData.get(rowKey));
-
-        return orderedData;
     }
 }
@@ -32,6 +32,7 @@ import org.broadinstitute.sting.gatk.datasources.reads.Shard;
 import org.broadinstitute.sting.gatk.walkers.Walker;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.metrics.HotPathTimer;
 import org.broadinstitute.sting.utils.progressmeter.ProgressMeter;
 
 public abstract class TraversalEngine<M,T,WalkerType extends Walker<M,T>,ProviderType extends ShardDataProvider> {
@@ -41,6 +42,13 @@ public abstract class TraversalEngine<M,T,WalkerType extends Walker<M,T>,Provide
     protected GenomeAnalysisEngine engine;
     private ProgressMeter progressMeter;
 
+    /**
+     * Timers for the walker's map and reduce calls, from the engine's hot path metrics.  Shared by
+     * all traversal engines of the run, so they report totals over all threads.
+     */
+    protected HotPathTimer mapTimer;
+    protected HotPathTimer reduceTimer;
+
     // ----------------------------------------------------------------------------------------------------
     //
     // ABSTRACT METHODS
@@ -79,6 +87,8 @@ public abstract class TraversalEngine<M,T,WalkerType extends Walker<M,T>,Provide
 
         this.engine = engine;
         this.progressMeter = progressMeter;
+        this.mapTimer = engine.getHotPathMetrics().getTimer("walker", "map");
+        this.reduceTimer = engine.getHotPathMetrics().getTimer("walker", "reduce");
     }
 
     /**
@@ -282,8 +282,14 @@ public class TraverseActiveRegions <M,T> extends TraversalEngine<M,T,ActiveRegio
         // WARNING: This hashset relies on reads being exactly equal when they are placed in the list as when they are removed. So the ActiveRegionWalker can't modify the reads in any way.
 
         logger.debug(">> Map call with " + activeRegion.getReads().size() + " " + (activeRegion.isActive ? "active" : "inactive") + " reads @ " + activeRegion.getLocation() + " with full extent: " + activeRegion.getReferenceLoc());
+        final long mapStart = mapTimer.start();
         final M x = walker.map( activeRegion, null );
-        return walker.reduce( x, sum );
+        mapTimer.stop(mapStart);
+
+        final long reduceStart = reduceTimer.start();
+        final T result = walker.reduce( x, sum );
+        reduceTimer.stop(reduceStart);
+        return result;
     }
 
     /**
@@ -192,8 +192,13 @@ public class TraverseDuplicates<M,T> extends TraversalEngine<M,T,DuplicateWalker
             // actually call filter and map, accumulating sum
             final boolean keepMeP = walker.filter(site, locus, readSets);
             if (keepMeP) {
+                final long mapStart = mapTimer.start();
                 M x = walker.map(site, locus, readSets);
+                mapTimer.stop(mapStart);
+
+                final long reduceStart = reduceTimer.start();
                 sum = walker.reduce(x, sum);
+                reduceTimer.stop(reduceStart);
             }
 
             updateCumulativeMetrics(dataProvider.getShard());
@@ -240,7 +240,9 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
             if ( ! walker.isDone() ) {
                 final boolean keepMeP = walker.filter(data.tracker, data.refContext, data.alignmentContext);
                 if (keepMeP) {
+                    final long mapStart = mapTimer.start();
                     final M x = walker.map(data.tracker, data.refContext, data.alignmentContext);
+                    mapTimer.stop(mapStart);
                     return new MapResult(x);
                 }
             }
@@ -262,10 +264,13 @@ public class TraverseLociNano<M,T> extends TraversalEngine<M,T,LocusWalker<M,T>,
 
         @Override
         public T apply(MapResult one, T sum) {
-            if ( one.reduceMe )
+            if ( one.reduceMe ) {
                 // only run reduce on values that aren't DONE or FAILED
-                return walker.reduce(one.value, sum);
-            else
+                final long reduceStart = reduceTimer.start();
+                final T result = walker.reduce(one.value, sum);
+                reduceTimer.stop(reduceStart);
+                return result;
+            } else
                 return sum;
         }
     }
@@ -96,8 +96,13 @@ public class TraverseReadPairs<M,T> extends TraversalEngine<M,T, ReadPairWalker<
 
         final boolean keepMeP = walker.filter(reads);
         if (keepMeP) {
+            final long mapStart = mapTimer.start();
             M x = walker.map(reads);
+            mapTimer.stop(mapStart);
+
+            final long reduceStart = reduceTimer.start();
             sum = walker.reduce(x, sum);
+            reduceTimer.stop(reduceStart);
         }
 
         return sum;
@@ -199,8 +199,12 @@ public class TraverseReadsNano<M,T> extends TraversalEngine<M,T,ReadWalker<M,T>,
         public MapResult apply(final MapData data) {
             if ( ! walker.isDone() ) {
                 final boolean keepMeP = walker.filter(data.refContext, data.read);
-                if (keepMeP)
-                    return new MapResult(walker.map(data.refContext, data.read, data.tracker));
+                if (keepMeP) {
+                    final long mapStart = mapTimer.start();
+                    final M x = walker.map(data.refContext, data.read, data.tracker);
+                    mapTimer.stop(mapStart);
+                    return new MapResult(x);
+                }
             }
 
             return SKIP_REDUCE;
@@ -221,10 +225,13 @@ public class TraverseReadsNano<M,T> extends TraversalEngine<M,T,ReadWalker<M,T>,
 
         @Override
         public T apply(MapResult one, T sum) {
-            if ( one.reduceMe )
+            if ( one.reduceMe ) {
                 // only run reduce on values that aren't DONE or FAILED
-                return walker.reduce(one.value, sum);
-            else
+                final long reduceStart = reduceTimer.start();
+                final T result = walker.reduce(one.value, sum);
+                reduceTimer.stop(reduceStart);
+                return result;
+            } else
                 return sum;
         }
     }
@@ -228,7 +228,7 @@ public class PrintReads extends ReadWalker<GATKSAMRecord, SAMFileWriter> impleme
         GATKSAMRecord workingRead = readIn;
 
         for ( final ReadTransformer transformer : readTransformers ) {
-            workingRead = transformer.apply(workingRead);
+            workingRead = transformer.transform(workingRead);
         }
 
         if ( simplifyReads ) workingRead = workingRead.simplify();
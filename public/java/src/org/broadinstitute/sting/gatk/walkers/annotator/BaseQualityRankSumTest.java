@@ -1,11 +1,8 @@
 package org.broadinstitute.sting.gatk.walkers.annotator;
 
 import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.StandardAnnotation;
-import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLineType;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
-import org.broadinstitute.sting.utils.pileup.PileupElement;
-import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
 
 import java.util.*;
@@ -20,35 +17,35 @@ public class BaseQualityRankSumTest extends RankSumTest implements StandardAnnot
 
     public List<VCFInfoHeaderLine> getDescriptions() { return Arrays.asList(new VCFInfoHeaderLine("BaseQRankSum", 1, VCFHeaderLineType.Float, "Z-score from Wilcoxon rank sum test of Alt Vs. Ref base qualities")); }
 
-    protected void fillQualsFromPileup(final List<Allele> allAlleles, final int refLoc,
-                                       final ReadBackedPileup pileup,
-                                       final PerReadAlleleLikelihoodMap alleleLikelihoodMap,
-                                       final List<Double> refQuals, final List<Double> altQuals){
+    protected void fillQualsFromFeatures(final List<Allele> allAlleles,
+                                         final SiteAnnotationContext.PileupFeatures pileupFeatures,
+                                         final SiteAnnotationContext.LikelihoodFeatures likelihoodFeatures,
+                                         final List<Double> refQuals, final List<Double> altQuals){
 
-        if (alleleLikelihoodMap == null) {
+        if (likelihoodFeatures == null) {
             // use fast SNP-based version if we don't have per-read allele likelihoods
-            for ( final PileupElement p : pileup ) {
-                if ( isUsableBase(p) ) {
-                    if ( allAlleles.get(0).equals(Allele.create(p.getBase(),true)) ) {
-                        refQuals.add((double)p.getQual());
-                    } else if ( allAlleles.contains(Allele.create(p.getBase()))) {
-                        altQuals.add((double)p.getQual());
-                    }
+            final int[] alleleIndices = pileupFeatures.getAlleleIndices();
+            final byte[] baseQuals = pileupFeatures.getBaseQuals();
+            for ( int i = 0; i < pileupFeatures.size(); i++ ) {
+                if ( alleleIndices[i] == 0 ) {
+                    refQuals.add((double)baseQuals[i]);
+                } else if ( alleleIndices[i] > 0 ) {
+                    altQuals.add((double)baseQuals[i]);
                 }
             }
             return;
         }
 
-        for (Map<Allele,Double> el : alleleLikelihoodMap.getLikelihoodMapValues()) {
-            final Allele a = PerReadAlleleLikelihoodMap.getMostLikelyAllele(el);
+        final Allele[] mostLikelyAlleles = likelihoodFeatures.getMostLikelyAlleles();
+        final double[] mostLikelyLikelihoods = likelihoodFeatures.getMostLikelyLikelihoods();
+        for ( int i = 0; i < likelihoodFeatures.size(); i++ ) {
+            final Allele a = mostLikelyAlleles[i];
             if (a.isNoCall())
                 continue; // read is non-informative
             if (a.isReference())
-                refQuals.add(-10.0*(double)el.get(a));
+                refQuals.add(-10.0*mostLikelyLikelihoods[i]);
             else if (allAlleles.contains(a))
-                altQuals.add(-10.0*(double)el.get(a));
-
-
+                altQuals.add(-10.0*mostLikelyLikelihoods[i]);
         }
     }
 
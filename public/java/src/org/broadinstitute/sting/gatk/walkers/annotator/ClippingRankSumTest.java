@@ -1,11 +1,7 @@
 package org.broadinstitute.sting.gatk.walkers.annotator;
 
-import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLineType;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
-import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
-import org.broadinstitute.sting.utils.sam.AlignmentUtils;
-import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
 
 import java.util.*;
@@ -27,24 +23,24 @@ public class ClippingRankSumTest extends RankSumTest {
     public List<VCFInfoHeaderLine> getDescriptions() { return Arrays.asList(new VCFInfoHeaderLine("ClippingRankSum", 1, VCFHeaderLineType.Float, "Z-score From Wilcoxon rank sum test of Alt vs. Ref number of hard clipped bases")); }
 
 
-    protected void fillQualsFromPileup(final List<Allele> allAlleles,
-                                       final int refLoc,
-                                       final ReadBackedPileup pileup,
-                                       final PerReadAlleleLikelihoodMap likelihoodMap, final List<Double> refQuals, final List<Double> altQuals) {
+    protected void fillQualsFromFeatures(final List<Allele> allAlleles,
+                                         final SiteAnnotationContext.PileupFeatures pileupFeatures,
+                                         final SiteAnnotationContext.LikelihoodFeatures likelihoodFeatures,
+                                         final List<Double> refQuals, final List<Double> altQuals) {
         // todo - only support non-pileup case for now, e.g. active-region based version
-        if (pileup != null || likelihoodMap == null)
+        if (pileupFeatures != null || likelihoodFeatures == null)
             return;
 
-        for (Map.Entry<GATKSAMRecord,Map<Allele,Double>> el : likelihoodMap.getLikelihoodReadMap().entrySet()) {
-
-            final Allele a = PerReadAlleleLikelihoodMap.getMostLikelyAllele(el.getValue());
+        final Allele[] mostLikelyAlleles = likelihoodFeatures.getMostLikelyAlleles();
+        final int[] hardClippedBases = likelihoodFeatures.getHardClippedBases();
+        for ( int i = 0; i < likelihoodFeatures.size(); i++ ) {
+            final Allele a = mostLikelyAlleles[i];
             if (a.isNoCall())
                 continue; // read is non-informative
             if (a.isReference())
-                refQuals.add((double)AlignmentUtils.getNumHardClippedBases(el.getKey()));
+                refQuals.add((double)hardClippedBases[i]);
             else if (allAlleles.contains(a))
-                altQuals.add((double)AlignmentUtils.getNumHardClippedBases(el.getKey()));
-
+                altQuals.add((double)hardClippedBases[i]);
         }
     }
 
@@ -11,9 +11,6 @@ import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFConstants;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFStandardHeaderLines;
-import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
-import org.broadinstitute.sting.utils.sam.ReadUtils;
-import org.broadinstitute.sting.utils.variantcontext.Allele;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 
 import java.util.Arrays;
@@ -37,24 +34,32 @@ public class DepthOfCoverage extends InfoFieldAnnotation implements StandardAnno
                                         final Map<String, AlignmentContext> stratifiedContexts,
                                         final VariantContext vc,
                                         final Map<String, PerReadAlleleLikelihoodMap> perReadAlleleLikelihoodMap ) {
+        return annotate(tracker, walker, ref, new SiteAnnotationContext(stratifiedContexts, vc, perReadAlleleLikelihoodMap));
+    }
+
+    public Map<String, Object> annotate(final RefMetaDataTracker tracker,
+                                        final AnnotatorCompatible walker,
+                                        final ReferenceContext ref,
+                                        final SiteAnnotationContext siteContext) {
 
         int depth = 0;
-        if (stratifiedContexts != null) {
-            if ( stratifiedContexts.size() == 0 )
+        if (siteContext.hasPileups()) {
+            if ( siteContext.getPileupSamples().size() == 0 )
                 return null;
 
-            for ( Map.Entry<String, AlignmentContext> sample : stratifiedContexts.entrySet() )
-                depth += sample.getValue().getBasePileup().depthOfCoverage();
+            for ( final String sample : siteContext.getPileupSamples() )
+                depth += siteContext.getPileupFeatures(sample).getDepthOfCoverage();
         }
-        else if (perReadAlleleLikelihoodMap != null) {
-            if ( perReadAlleleLikelihoodMap.size() == 0 )
+        else if (siteContext.hasLikelihoods()) {
+            if ( siteContext.getLikelihoodSamples().size() == 0 )
                 return null;
 
-            for (PerReadAlleleLikelihoodMap maps : perReadAlleleLikelihoodMap.values() ) {
-                for (Map.Entry<GATKSAMRecord,Map<Allele,Double>> el : maps.getLikelihoodReadMap().entrySet()) {
-                    final GATKSAMRecord read = el.getKey();
-                    depth += (read.isReducedRead() ? read.getReducedCount(ReadUtils.getReadCoordinateForReferenceCoordinate(read, vc.getStart(), ReadUtils.ClippingTail.RIGHT_TAIL)) : 1);
-                }
+            for ( final String sample : siteContext.getLikelihoodSamples() ) {
+                final SiteAnnotationContext.LikelihoodFeatures features = siteContext.getLikelihoodFeatures(sample);
+                if ( features == null )
+                    continue;
+                for ( final int representativeCount : features.getRepresentativeCounts() )
+                    depth += representativeCount;
             }
         }
         else
@@ -36,9 +36,6 @@ import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
 import org.broadinstitute.sting.utils.QualityUtils;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLineType;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
-import org.broadinstitute.sting.utils.pileup.PileupElement;
-import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
-import org.broadinstitute.sting.utils.sam.ReadUtils;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 
@@ -62,17 +59,26 @@ public class FisherStrand extends InfoFieldAnnotation implements StandardAnnotat
                                         final Map<String, AlignmentContext> stratifiedContexts,
                                         final VariantContext vc,
                                         final Map<String, PerReadAlleleLikelihoodMap> stratifiedPerReadAlleleLikelihoodMap) {
+        return annotate(tracker, walker, ref, new SiteAnnotationContext(stratifiedContexts, vc, stratifiedPerReadAlleleLikelihoodMap));
+    }
+
+    public Map<String, Object> annotate(final RefMetaDataTracker tracker,
+                                        final AnnotatorCompatible walker,
+                                        final ReferenceContext ref,
+                                        final SiteAnnotationContext siteContext) {
+        final VariantContext vc = siteContext.getVariantContext();
         if ( !vc.isVariant() )
             return null;
 
-        if (vc.isSNP() && stratifiedContexts != null) {
-            final int[][] tableNoFiltering = getSNPContingencyTable(stratifiedContexts, vc.getReference(), vc.getAltAlleleWithHighestAlleleCount(), -1);
-            final int[][] tableFiltering = getSNPContingencyTable(stratifiedContexts, vc.getReference(), vc.getAltAlleleWithHighestAlleleCount(), MIN_QUAL_FOR_FILTERED_TEST);
+        if (vc.isSNP() && siteContext.hasPileups()) {
+            final int altIndex = vc.getAlleles().indexOf(vc.getAltAlleleWithHighestAlleleCount());
+            final int[][] tableNoFiltering = getSNPContingencyTable(siteContext, altIndex, -1);
+            final int[][] tableFiltering = getSNPContingencyTable(siteContext, altIndex, MIN_QUAL_FOR_FILTERED_TEST);
             return pValueForBestTable(tableFiltering, tableNoFiltering);
         }
-        else if (stratifiedPerReadAlleleLikelihoodMap != null) {
+        else if (siteContext.hasLikelihoods()) {
             // either SNP with no alignment context, or indels: per-read likelihood map needed
-            final int[][] table = getContingencyTable(stratifiedPerReadAlleleLikelihoodMap, vc);
+            final int[][] table = getContingencyTable(siteContext, vc);
             return pValueForBestTable(table, null);
         }
         else
@@ -236,26 +242,32 @@ public class FisherStrand extends InfoFieldAnnotation implements StandardAnnotat
      *   allele2   #       #
      * @return a 2x2 contingency table
      */
-    private static int[][] getContingencyTable( final Map<String, PerReadAlleleLikelihoodMap> stratifiedPerReadAlleleLikelihoodMap, final VariantContext vc) {
+    private static int[][] getContingencyTable( final SiteAnnotationContext siteContext, final VariantContext vc) {
         final Allele ref = vc.getReference();
         final Allele alt = vc.getAltAlleleWithHighestAlleleCount();
         int[][] table = new int[2][2];
 
-        for (PerReadAlleleLikelihoodMap maps : stratifiedPerReadAlleleLikelihoodMap.values() ) {
-            for (Map.Entry<GATKSAMRecord,Map<Allele,Double>> el : maps.getLikelihoodReadMap().entrySet()) {
-                final boolean matchesRef = PerReadAlleleLikelihoodMap.getMostLikelyAllele(el.getValue()).equals(ref,true);
-                final boolean matchesAlt = PerReadAlleleLikelihoodMap.getMostLikelyAllele(el.getValue()).equals(alt,true);
+        for ( final String sample : siteContext.getLikelihoodSamples() ) {
+            final SiteAnnotationContext.LikelihoodFeatures features = siteContext.getLikelihoodFeatures(sample);
+            if ( features == null )
+                continue;
+
+            final Allele[] mostLikelyAlleles = features.getMostLikelyAlleles();
+            final boolean[] negativeStrand = features.getNegativeStrand();
+            final int[] representativeCounts = features.getRepresentativeCounts();
+            for ( int i = 0; i < features.size(); i++ ) {
+                final boolean matchesRef = mostLikelyAlleles[i].equals(ref,true);
+                final boolean matchesAlt = mostLikelyAlleles[i].equals(alt,true);
 
                 if ( !matchesRef && !matchesAlt )
                     continue;
 
-                boolean isFW = el.getKey().getReadNegativeStrandFlag();
+                boolean isFW = negativeStrand[i];
 
                 int row = matchesRef ? 0 : 1;
                 int column = isFW ? 0 : 1;
 
-                final GATKSAMRecord read = el.getKey();
-                table[row][column] += (read.isReducedRead() ? read.getReducedCount(ReadUtils.getReadCoordinateForReferenceCoordinate(read, vc.getStart(), ReadUtils.ClippingTail.RIGHT_TAIL)) : 1);
+                table[row][column] += representativeCounts[i];
             }
         }
 
@@ -268,36 +280,43 @@ public class FisherStrand extends InfoFieldAnnotation implements StandardAnnotat
      *   allele2   #       #
      * @return a 2x2 contingency table
      */
-    private static int[][] getSNPContingencyTable(final Map<String, AlignmentContext> stratifiedContexts,
-                                                  final Allele ref,
-                                                  final Allele alt,
+    private static int[][] getSNPContingencyTable(final SiteAnnotationContext siteContext,
+                                                  final int altIndex,
                                                   final int minQScoreToConsider ) {
         int[][] table = new int[2][2];
 
-        for ( Map.Entry<String, AlignmentContext> sample : stratifiedContexts.entrySet() ) {
-            for (PileupElement p : sample.getValue().getBasePileup()) {
+        for ( final String sample : siteContext.getPileupSamples() ) {
+            final SiteAnnotationContext.PileupFeatures features = siteContext.getPileupFeatures(sample);
+            final boolean[] reducedRead = features.getReducedRead();
+            final boolean[] usable = features.getUsable();
+            final byte[] baseQuals = features.getBaseQuals();
+            final int[] mappingQuals = features.getMappingQuals();
+            final int[] alleleIndices = features.getAlleleIndices();
+            final boolean[] negativeStrand = features.getNegativeStrand();
+            final int[] representativeCounts = features.getRepresentativeCounts();
+
+            for ( int i = 0; i < features.size(); i++ ) {
 
                 // ignore reduced reads because they are always on the forward strand!
                 // TODO -- when het compression is enabled in RR, we somehow need to allow those reads through into the Fisher test
-                if ( p.getRead().isReducedRead() )
+                if ( reducedRead[i] )
                     continue;
 
-                if ( ! RankSumTest.isUsableBase(p, false) ) // ignore deletions
+                if ( ! usable[i] ) // ignore deletions
                     continue;
 
-                if ( p.getQual() < minQScoreToConsider || p.getMappingQual() < minQScoreToConsider )
+                if ( baseQuals[i] < minQScoreToConsider || mappingQuals[i] < minQScoreToConsider )
                     continue;
 
-                final Allele base = Allele.create(p.getBase(), false);
-                final boolean isFW = !p.getRead().getReadNegativeStrandFlag();
+                final boolean isFW = !negativeStrand[i];
 
-                final boolean matchesRef = ref.equals(base, true);
-                final boolean matchesAlt = alt.equals(base, true);
+                final boolean matchesRef = alleleIndices[i] == 0;
+                final boolean matchesAlt = alleleIndices[i] == altIndex;
                 if ( matchesRef || matchesAlt ) {
                     int row = matchesRef ? 0 : 1;
                     int column = isFW ? 0 : 1;
 
-                    table[row][column] += p.getRepresentativeCount();
+                    table[row][column] += representativeCounts[i];
                 }
             }
         }
@@ -1,12 +1,8 @@
 package org.broadinstitute.sting.gatk.walkers.annotator;
 
 import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.StandardAnnotation;
-import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLineType;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
-import org.broadinstitute.sting.utils.pileup.PileupElement;
-import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
-import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
 
 import java.util.*;
@@ -22,34 +18,36 @@ public class MappingQualityRankSumTest extends RankSumTest implements StandardAn
 
     public List<VCFInfoHeaderLine> getDescriptions() { return Arrays.asList(new VCFInfoHeaderLine("MQRankSum", 1, VCFHeaderLineType.Float, "Z-score From Wilcoxon rank sum test of Alt vs. Ref read mapping qualities")); }
 
-    protected void fillQualsFromPileup(final List<Allele> allAlleles,
-                                       final int refLoc,
-                                       final ReadBackedPileup pileup,
-                                       final PerReadAlleleLikelihoodMap likelihoodMap,
-                                       final List<Double> refQuals, final List<Double> altQuals) {
+    protected void fillQualsFromFeatures(final List<Allele> allAlleles,
+                                         final SiteAnnotationContext.PileupFeatures pileupFeatures,
+                                         final SiteAnnotationContext.LikelihoodFeatures likelihoodFeatures,
+                                         final List<Double> refQuals, final List<Double> altQuals) {
 
-        if (pileup != null && likelihoodMap == null) {
+        if (pileupFeatures != null && likelihoodFeatures == null) {
             // old UG snp-only path through the annotations
-            for ( final PileupElement p : pileup ) {
-                if ( isUsableBase(p) ) {
-                    if ( allAlleles.get(0).equals(Allele.create(p.getBase(), true)) ) {
-                        refQuals.add((double)p.getMappingQual());
-                    } else if ( allAlleles.contains(Allele.create(p.getBase()))) {
-                        altQuals.add((double)p.getMappingQual());
-                    }
+            final int[] alleleIndices = pileupFeatures.getAlleleIndices();
+            final int[] mappingQuals = pileupFeatures.getMappingQuals();
+            for ( int i = 0; i < pileupFeatures.size(); i++ ) {
+                if ( alleleIndices[i] == 0 ) {
+                    refQuals.add((double)mappingQuals[i]);
+                } else if ( alleleIndices[i] > 0 ) {
+                    altQuals.add((double)mappingQuals[i]);
                 }
             }
             return;
         }
-        for (Map.Entry<GATKSAMRecord,Map<Allele,Double>> el : likelihoodMap.getLikelihoodReadMap().entrySet()) {
-            final Allele a = PerReadAlleleLikelihoodMap.getMostLikelyAllele(el.getValue());
+
+        final Allele[] mostLikelyAlleles = likelihoodFeatures.getMostLikelyAlleles();
+        final int[] mappingQuals = likelihoodFeatures.getMappingQuals();
+        for ( int i = 0; i < likelihoodFeatures.size(); i++ ) {
+            final Allele a = mostLikelyAlleles[i];
             // BUGBUG: There needs to be a comparable isUsableBase check here
             if (a.isNoCall())
                 continue; // read is non-informative
             if (a.isReference())
-                refQuals.add((double)el.getKey().getMappingQuality());
+                refQuals.add((double)mappingQuals[i]);
             else if (allAlleles.contains(a))
-                altQuals.add((double)el.getKey().getMappingQuality());
+                altQuals.add((double)mappingQuals[i]);
         }
     }
 
@@ -11,9 +11,6 @@ import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFConstants;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFStandardHeaderLines;
-import org.broadinstitute.sting.utils.pileup.PileupElement;
-import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
-import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 
 import java.util.Arrays;
@@ -33,26 +30,31 @@ public class MappingQualityZero extends InfoFieldAnnotation implements StandardA
                                         final Map<String, AlignmentContext> stratifiedContexts,
                                         final VariantContext vc,
                                         final Map<String, PerReadAlleleLikelihoodMap> stratifiedPerReadAlleleLikelihoodMap) {
-        if ((vc.isSNP() || !vc.isVariant()) && stratifiedContexts != null)
-            return annotatePileup(ref, stratifiedContexts, vc);
-        else if (stratifiedPerReadAlleleLikelihoodMap != null && vc.isVariant())
-            return annotateWithLikelihoods(stratifiedPerReadAlleleLikelihoodMap, vc);
+        return annotate(tracker, walker, ref, new SiteAnnotationContext(stratifiedContexts, vc, stratifiedPerReadAlleleLikelihoodMap));
+    }
+
+    public Map<String, Object> annotate(final RefMetaDataTracker tracker,
+                                        final AnnotatorCompatible walker,
+                                        final ReferenceContext ref,
+                                        final SiteAnnotationContext siteContext) {
+        final VariantContext vc = siteContext.getVariantContext();
+        if ((vc.isSNP() || !vc.isVariant()) && siteContext.hasPileups())
+            return annotatePileup(siteContext);
+        else if (siteContext.hasLikelihoods() && vc.isVariant())
+            return annotateWithLikelihoods(siteContext);
         else
             return null;
     }
 
-    private Map<String, Object> annotatePileup(final ReferenceContext ref,
-                                               final Map<String, AlignmentContext> stratifiedContexts,
-                                               final VariantContext vc) {
-        if ( stratifiedContexts.size() == 0 )
+    private Map<String, Object> annotatePileup(final SiteAnnotationContext siteContext) {
+        if ( siteContext.getPileupSamples().size() == 0 )
             return null;
 
         int mq0 = 0;
-        for ( Map.Entry<String, AlignmentContext> sample : stratifiedContexts.entrySet() ) {
-            final AlignmentContext context = sample.getValue();
-            final ReadBackedPileup pileup = context.getBasePileup();
-            for (PileupElement p : pileup ) {
-                if ( p.getMappingQual() == 0 )
+        for ( final String sample : siteContext.getPileupSamples() ) {
+            final SiteAnnotationContext.PileupFeatures features = siteContext.getPileupFeatures(sample);
+            for ( final int mappingQual : features.getMappingQuals() ) {
+                if ( mappingQual == 0 )
                     mq0++;
             }
         }
@@ -61,16 +63,15 @@ public class MappingQualityZero extends InfoFieldAnnotation implements StandardA
         return map;
     }
 
-    private Map<String, Object> annotateWithLikelihoods(final Map<String, PerReadAlleleLikelihoodMap> stratifiedPerReadAlleleLikelihoodMap,
-                                                        final VariantContext vc) {
-        if (stratifiedPerReadAlleleLikelihoodMap == null)
-            return null;
-
+    private Map<String, Object> annotateWithLikelihoods(final SiteAnnotationContext siteContext) {
         int mq0 = 0;
-        for ( PerReadAlleleLikelihoodMap likelihoodMap : stratifiedPerReadAlleleLikelihoodMap.values() ) {
-            for (GATKSAMRecord read : likelihoodMap.getLikelihoodReadMap().keySet()) {
+        for ( final String sample : siteContext.getLikelihoodSamples() ) {
+            final SiteAnnotationContext.LikelihoodFeatures features = siteContext.getLikelihoodFeatures(sample);
+            if ( features == null )
+                continue;
 
-                 if (read.getMappingQuality() == 0 )
+            for ( final int mappingQual : features.getMappingQuals() ) {
+                if ( mappingQual == 0 )
                     mq0++;
             }
         }
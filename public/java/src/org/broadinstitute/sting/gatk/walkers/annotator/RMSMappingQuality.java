@@ -13,8 +13,6 @@ import org.broadinstitute.sting.utils.QualityUtils;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFConstants;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFStandardHeaderLines;
-import org.broadinstitute.sting.utils.pileup.PileupElement;
-import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 
 import java.util.*;
@@ -31,37 +29,43 @@ public class RMSMappingQuality extends InfoFieldAnnotation implements StandardAn
                                         final Map<String, AlignmentContext> stratifiedContexts,
                                         final VariantContext vc,
                                         final Map<String, PerReadAlleleLikelihoodMap> perReadAlleleLikelihoodMap ) {
+        return annotate(tracker, walker, ref, new SiteAnnotationContext(stratifiedContexts, vc, perReadAlleleLikelihoodMap));
+    }
+
+    public Map<String, Object> annotate(final RefMetaDataTracker tracker,
+                                        final AnnotatorCompatible walker,
+                                        final ReferenceContext ref,
+                                        final SiteAnnotationContext siteContext) {
         int totalSize = 0, index = 0;
         int qualities[];
-        if (stratifiedContexts != null) {
-            if ( stratifiedContexts.size() == 0 )
+        if (siteContext.hasPileups()) {
+            if ( siteContext.getPileupSamples().size() == 0 )
                 return null;
 
-            for ( AlignmentContext context : stratifiedContexts.values() )
-                totalSize += context.size();
+            for ( final String sample : siteContext.getPileupSamples() )
+                totalSize += siteContext.getPileupFeatures(sample).size();
 
             qualities = new int[totalSize];
 
-            for ( Map.Entry<String, AlignmentContext> sample : stratifiedContexts.entrySet() ) {
-                AlignmentContext context = sample.getValue();
-                for (PileupElement p : context.getBasePileup() )
-                    index = fillMappingQualitiesFromPileupAndUpdateIndex(p.getRead(), index, qualities);
-            }
+            for ( final String sample : siteContext.getPileupSamples() )
+                index = fillMappingQualitiesAndUpdateIndex(siteContext.getPileupFeatures(sample).getMappingQuals(), index, qualities);
         }
-        else if (perReadAlleleLikelihoodMap != null) {
-            if ( perReadAlleleLikelihoodMap.size() == 0 )
+        else if (siteContext.hasLikelihoods()) {
+            if ( siteContext.getLikelihoodSamples().size() == 0 )
                 return null;
 
-            for ( PerReadAlleleLikelihoodMap perReadLikelihoods : perReadAlleleLikelihoodMap.values() )
-                totalSize += perReadLikelihoods.size();
+            final List<SiteAnnotationContext.LikelihoodFeatures> likelihoodFeatures = new ArrayList<SiteAnnotationContext.LikelihoodFeatures>();
+            for ( final String sample : siteContext.getLikelihoodSamples() ) {
+                final SiteAnnotationContext.LikelihoodFeatures features = siteContext.getLikelihoodFeatures(sample);
+                if ( features != null ) {
+                    likelihoodFeatures.add(features);
+                    totalSize += features.size();
+                }
+            }
 
             qualities = new int[totalSize];
-            for ( PerReadAlleleLikelihoodMap perReadLikelihoods : perReadAlleleLikelihoodMap.values() ) {
-                for (GATKSAMRecord read : perReadLikelihoods.getStoredElements())
-                    index = fillMappingQualitiesFromPileupAndUpdateIndex(read, index, qualities);
-
-
-        }
+            for ( final SiteAnnotationContext.LikelihoodFeatures features : likelihoodFeatures )
+                index = fillMappingQualitiesAndUpdateIndex(features.getMappingQuals(), index, qualities);
         }
         else
             return null;
@@ -74,10 +78,12 @@ public class RMSMappingQuality extends InfoFieldAnnotation implements StandardAn
         return map;
     }
 
-    private static int fillMappingQualitiesFromPileupAndUpdateIndex(final GATKSAMRecord read, final int inputIdx, final int[] qualities) {
+    private static int fillMappingQualitiesAndUpdateIndex(final int[] mappingQuals, final int inputIdx, final int[] qualities) {
         int outputIdx = inputIdx;
-        if ( read.getMappingQuality() != QualityUtils.MAPPING_QUALITY_UNAVAILABLE )
-            qualities[outputIdx++] = read.getMappingQuality();
+        for ( final int mappingQual : mappingQuals ) {
+            if ( mappingQual != QualityUtils.MAPPING_QUALITY_UNAVAILABLE )
+                qualities[outputIdx++] = mappingQual;
+        }
 
         return outputIdx;
     }
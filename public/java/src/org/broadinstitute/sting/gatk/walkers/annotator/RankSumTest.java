@@ -13,7 +13,6 @@ import org.broadinstitute.sting.utils.QualityUtils;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLine;
 import org.broadinstitute.sting.utils.collections.Pair;
 import org.broadinstitute.sting.utils.pileup.PileupElement;
-import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
 import org.broadinstitute.sting.utils.variantcontext.Genotype;
 import org.broadinstitute.sting.utils.variantcontext.GenotypesContext;
@@ -35,7 +34,15 @@ public abstract class RankSumTest extends InfoFieldAnnotation implements ActiveR
                                         final Map<String, AlignmentContext> stratifiedContexts,
                                         final VariantContext vc,
                                         final Map<String, PerReadAlleleLikelihoodMap> stratifiedPerReadAlleleLikelihoodMap) {
-        // either stratifiedContexts or  stratifiedPerReadAlleleLikelihoodMap has to be non-null
+        return annotate(tracker, walker, ref, new SiteAnnotationContext(stratifiedContexts, vc, stratifiedPerReadAlleleLikelihoodMap));
+    }
+
+    public Map<String, Object> annotate(final RefMetaDataTracker tracker,
+                                        final AnnotatorCompatible walker,
+                                        final ReferenceContext ref,
+                                        final SiteAnnotationContext siteContext) {
+        // either the pileups or the per-read likelihoods of the site have to be available
+        final VariantContext vc = siteContext.getVariantContext();
 
         final GenotypesContext genotypes = vc.getGenotypes();
         if (genotypes == null || genotypes.size() == 0)
@@ -45,25 +52,15 @@ public abstract class RankSumTest extends InfoFieldAnnotation implements ActiveR
         final ArrayList<Double> altQuals = new ArrayList<Double>();
 
         for ( final Genotype genotype : genotypes.iterateInSampleNameOrder() ) {
-            PerReadAlleleLikelihoodMap indelLikelihoodMap = null;
-            ReadBackedPileup pileup = null;
-
-
-            if (stratifiedContexts != null) { // the old UG SNP-only path through the annotations
-                final AlignmentContext context = stratifiedContexts.get(genotype.getSampleName());
-                if ( context != null )
-                    pileup = context.getBasePileup();
-            }
-            if (stratifiedPerReadAlleleLikelihoodMap != null )
-                indelLikelihoodMap = stratifiedPerReadAlleleLikelihoodMap.get(genotype.getSampleName());
-
-            if (indelLikelihoodMap != null && indelLikelihoodMap.isEmpty())
-                indelLikelihoodMap = null;
-            // treat an empty likelihood map as a null reference - will simplify contract with fillQualsFromPileup
-            if (indelLikelihoodMap == null && pileup == null)
+            // the pileup features are those of the old UG SNP-only path through the annotations
+            final SiteAnnotationContext.PileupFeatures pileupFeatures = siteContext.getPileupFeatures(genotype.getSampleName());
+
+            // an empty likelihood map has null features - will simplify contract with fillQualsFromFeatures
+            final SiteAnnotationContext.LikelihoodFeatures likelihoodFeatures = siteContext.getLikelihoodFeatures(genotype.getSampleName());
+            if (likelihoodFeatures == null && pileupFeatures == null)
                 continue;
 
-            fillQualsFromPileup(vc.getAlleles(), vc.getStart(), pileup, indelLikelihoodMap, refQuals, altQuals );
+            fillQualsFromFeatures(vc.getAlleles(), pileupFeatures, likelihoodFeatures, refQuals, altQuals);
         }
         if (refQuals.isEmpty() && altQuals.isEmpty())
             return null;
@@ -96,12 +93,20 @@ public abstract class RankSumTest extends InfoFieldAnnotation implements ActiveR
         return map;
     }
 
-     protected abstract void fillQualsFromPileup(final List<Allele> alleles,
-                                                final int refLoc,
-                                                final ReadBackedPileup readBackedPileup,
-                                                final PerReadAlleleLikelihoodMap alleleLikelihoodMap,
-                                                final List<Double> refQuals,
-                                                final List<Double> altQuals);
+    /**
+     * Add the values of the ref and alt reads of one sample to refQuals and altQuals
+     *
+     * @param alleles the alleles of the site
+     * @param pileupFeatures the features of the sample's pileup, or null if there is none
+     * @param likelihoodFeatures the features of the sample's per-read likelihoods, or null if there are none
+     * @param refQuals the values of the reads supporting the reference allele
+     * @param altQuals the values of the reads supporting an alternate allele
+     */
+    protected abstract void fillQualsFromFeatures(final List<Allele> alleles,
+                                                  final SiteAnnotationContext.PileupFeatures pileupFeatures,
+                                                  final SiteAnnotationContext.LikelihoodFeatures likelihoodFeatures,
+                                                  final List<Double> refQuals,
+                                                  final List<Double> altQuals);
 
     /**
      * Can the base in this pileup element be used in comparative tests between ref / alt bases?
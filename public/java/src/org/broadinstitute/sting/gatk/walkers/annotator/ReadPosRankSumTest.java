@@ -5,15 +5,10 @@ import net.sf.samtools.CigarElement;
 import net.sf.samtools.CigarOperator;
 import net.sf.samtools.SAMRecord;
 import org.broadinstitute.sting.gatk.walkers.annotator.interfaces.StandardAnnotation;
-import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
 import org.broadinstitute.sting.gatk.walkers.indels.PairHMMIndelErrorModel;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFHeaderLineType;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
-import org.broadinstitute.sting.utils.pileup.PileupElement;
-import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
-import org.broadinstitute.sting.utils.sam.AlignmentUtils;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
-import org.broadinstitute.sting.utils.sam.ReadUtils;
 import org.broadinstitute.sting.utils.variantcontext.Allele;
 
 import java.util.*;
@@ -32,55 +27,42 @@ public class ReadPosRankSumTest extends RankSumTest implements StandardAnnotatio
         return Arrays.asList(new VCFInfoHeaderLine("ReadPosRankSum", 1, VCFHeaderLineType.Float, "Z-score from Wilcoxon rank sum test of Alt vs. Ref read position bias"));
     }
 
-    protected void fillQualsFromPileup(final List<Allele> allAlleles,
-                                       final int refLoc,
-                                       final ReadBackedPileup pileup,
-                                       final PerReadAlleleLikelihoodMap alleleLikelihoodMap,
-                                       final List<Double> refQuals, final List<Double> altQuals) {
+    protected void fillQualsFromFeatures(final List<Allele> allAlleles,
+                                         final SiteAnnotationContext.PileupFeatures pileupFeatures,
+                                         final SiteAnnotationContext.LikelihoodFeatures likelihoodFeatures,
+                                         final List<Double> refQuals, final List<Double> altQuals) {
 
-        if (alleleLikelihoodMap == null) {
+        if (likelihoodFeatures == null) {
             // use old UG SNP-based version if we don't have per-read allele likelihoods
-            for ( final PileupElement p : pileup ) {
-                if ( isUsableBase(p) ) {
-                    int readPos = AlignmentUtils.calcAlignmentByteArrayOffset(p.getRead().getCigar(), p, 0, 0);
-
-                    readPos = getFinalReadPosition(p.getRead(),readPos);
-
-                    if ( allAlleles.get(0).equals(Allele.create(p.getBase(), true)) ) {
-                        refQuals.add((double)readPos);
-                    } else if ( allAlleles.contains(Allele.create(p.getBase()))) {
-                        altQuals.add((double)readPos);
-                    }
+            final int[] alleleIndices = pileupFeatures.getAlleleIndices();
+            final int[] readPositions = pileupFeatures.getReadPositions();
+            for ( int i = 0; i < pileupFeatures.size(); i++ ) {
+                if ( alleleIndices[i] == 0 ) {
+                    refQuals.add((double)readPositions[i]);
+                } else if ( alleleIndices[i] > 0 ) {
+                    altQuals.add((double)readPositions[i]);
                 }
             }
             return;
         }
 
-        for (Map.Entry<GATKSAMRecord,Map<Allele,Double>> el : alleleLikelihoodMap.getLikelihoodReadMap().entrySet()) {
-            final GATKSAMRecord read = el.getKey();
-            final int offset = ReadUtils.getReadCoordinateForReferenceCoordinate( read.getSoftStart(), read.getCigar(), refLoc, ReadUtils.ClippingTail.RIGHT_TAIL, true );
-            if ( offset == ReadUtils.CLIPPING_GOAL_NOT_REACHED )
+        final Allele[] mostLikelyAlleles = likelihoodFeatures.getMostLikelyAlleles();
+        final int[] readPositions = likelihoodFeatures.getReadPositions();
+        for ( int i = 0; i < likelihoodFeatures.size(); i++ ) {
+            if ( readPositions[i] == SiteAnnotationContext.NO_READ_POSITION )
                 continue;
-            int readPos = AlignmentUtils.calcAlignmentByteArrayOffset( read.getCigar(), offset, false, false, 0, 0 );
-            final int numAlignedBases = AlignmentUtils.getNumAlignedBasesCountingSoftClips( read );
-            if (readPos > numAlignedBases / 2)
-                readPos = numAlignedBases - (readPos + 1);
 
-//            int readPos = getOffsetFromClippedReadStart(el.getKey(), el.getKey().getOffset());
-  //          readPos = getFinalReadPosition(el.getKey().getRead(),readPos);
-
-            final Allele a = PerReadAlleleLikelihoodMap.getMostLikelyAllele(el.getValue());
+            final Allele a = mostLikelyAlleles[i];
             if (a.isNoCall())
                 continue; // read is non-informative
             if (a.isReference())
-                refQuals.add((double)readPos);
+                refQuals.add((double)readPositions[i]);
             else if (allAlleles.contains(a))
-                altQuals.add((double)readPos);
-
+                altQuals.add((double)readPositions[i]);
         }
     }
 
-    int getFinalReadPosition(GATKSAMRecord read, int initialReadPosition) {
+    static int getFinalReadPosition(GATKSAMRecord read, int initialReadPosition) {
         final int numAlignedBases = getNumAlignedBases(read);
 
         int readPos = initialReadPosition;
@@ -90,7 +72,7 @@ public class ReadPosRankSumTest extends RankSumTest implements StandardAnnotatio
         return readPos;
 
     }
-    int getNumClippedBasesAtStart(SAMRecord read) {
+    static int getNumClippedBasesAtStart(SAMRecord read) {
         // compute total number of clipped bases (soft or hard clipped)
         // check for hard clips (never consider these bases):
         final Cigar c = read.getCigar();
@@ -116,11 +98,11 @@ public class ReadPosRankSumTest extends RankSumTest implements StandardAnnotatio
         return numStartClippedBases;
     }
 
-    int getNumAlignedBases(SAMRecord read) {
+    static int getNumAlignedBases(SAMRecord read) {
         return read.getReadLength() - getNumClippedBasesAtStart(read) - getNumClippedBasesAtEnd(read);
     }
 
-    int getNumClippedBasesAtEnd(SAMRecord read) {
+    static int getNumClippedBasesAtEnd(SAMRecord read) {
         // compute total number of clipped bases (soft or hard clipped)
         // check for hard clips (never consider these bases):
         final Cigar c = read.getCigar();
@@ -146,7 +128,7 @@ public class ReadPosRankSumTest extends RankSumTest implements StandardAnnotatio
         return numEndClippedBases;
     }
 
-    int getOffsetFromClippedReadStart(SAMRecord read, int offset) {
+    static int getOffsetFromClippedReadStart(SAMRecord read, int offset) {
         return offset - getNumClippedBasesAtStart(read);
     }
 }
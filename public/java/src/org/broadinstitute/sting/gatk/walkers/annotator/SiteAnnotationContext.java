@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2012 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.annotator;
+
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.sam.AlignmentUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.broadinstitute.sting.utils.sam.ReadUtils;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+
+import java.util.*;
+
+/**
+ * The per-read features of a single site that the read-based annotations share.
+ *
+ * The VariantAnnotatorEngine creates one of these for each site it annotates.  The first annotation to ask for the
+ * reads of a sample extracts their features (mapping and base qualities, strand, read position, clipping, allele
+ * assignment) into primitive columns, and every other annotation at the site computes from those columns instead
+ * of walking the pileups and per-read likelihood maps again.  Columns that only some annotations need are extracted
+ * on first use.
+ *
+ * The columns of a sample are in the iteration order of its pileup or likelihood map, so annotations that depend on
+ * the order of the reads see them exactly as before.
+ */
+public class SiteAnnotationContext {
+    /** allele index of reads and bases that match none of the alleles of the site, or that were not usable */
+    public static final int NO_ALLELE = -1;
+
+    /** read position of likelihood map reads that do not overlap the site */
+    public static final int NO_READ_POSITION = Integer.MIN_VALUE;
+
+    private final Map<String, AlignmentContext> stratifiedContexts;
+    private final Map<String, PerReadAlleleLikelihoodMap> stratifiedPerReadAlleleLikelihoodMap;
+    private final VariantContext vc;
+
+    private final Map<String, PileupFeatures> pileupFeatures = new HashMap<String, PileupFeatures>();
+    private final Map<String, LikelihoodFeatures> likelihoodFeatures = new HashMap<String, LikelihoodFeatures>();
+
+    public SiteAnnotationContext(final Map<String, AlignmentContext> stratifiedContexts,
+                                 final VariantContext vc,
+                                 final Map<String, PerReadAlleleLikelihoodMap> stratifiedPerReadAlleleLikelihoodMap) {
+        this.stratifiedContexts = stratifiedContexts;
+        this.vc = vc;
+        this.stratifiedPerReadAlleleLikelihoodMap = stratifiedPerReadAlleleLikelihoodMap;
+    }
+
+    public VariantContext getVariantContext() {
+        return vc;
+    }
+
+    public Map<String, AlignmentContext> getStratifiedContexts() {
+        return stratifiedContexts;
+    }
+
+    public Map<String, PerReadAlleleLikelihoodMap> getStratifiedPerReadAlleleLikelihoodMap() {
+        return stratifiedPerReadAlleleLikelihoodMap;
+    }
+
+    public boolean hasPileups() {
+        return stratifiedContexts != null;
+    }
+
+    public boolean hasLikelihoods() {
+        return stratifiedPerReadAlleleLikelihoodMap != null;
+    }
+
+    /**
+     * @return the samples with an alignment context at this site, or an empty set if there are no pileups
+     */
+    public Set<String> getPileupSamples() {
+        return stratifiedContexts == null ? Collections.<String>emptySet() : stratifiedContexts.keySet();
+    }
+
+    /**
+     * @return the samples with a per-read likelihood map at this site, or an empty set if there are no likelihoods
+     */
+    public Set<String> getLikelihoodSamples() {
+        return stratifiedPerReadAlleleLikelihoodMap == null ? Collections.<String>emptySet() : stratifiedPerReadAlleleLikelihoodMap.keySet();
+    }
+
+    /**
+     * @param sample the sample
+     * @return the features of the pileup of sample, or null if sample has no alignment context at this site
+     */
+    public PileupFeatures getPileupFeatures(final String sample) {
+        if ( stratifiedContexts == null )
+            return null;
+
+        PileupFeatures features = pileupFeatures.get(sample);
+        if ( features == null ) {
+            final AlignmentContext context = stratifiedContexts.get(sample);
+            if ( context == null )
+                return null;
+            features = new PileupFeatures(context.getBasePileup());
+            pileupFeatures.put(sample, features);
+        }
+        return features;
+    }
+
+    /**
+     * @param sample the sample
+     * @return the features of the per-read likelihoods of sample, or null if sample has no (or an empty) likelihood map at this site
+     */
+    public LikelihoodFeatures getLikelihoodFeatures(final String sample) {
+        if ( stratifiedPerReadAlleleLikelihoodMap == null )
+            return null;
+
+        LikelihoodFeatures features = likelihoodFeatures.get(sample);
+        if ( features == null ) {
+            final PerReadAlleleLikelihoodMap likelihoodMap = stratifiedPerReadAlleleLikelihoodMap.get(sample);
+            if ( likelihoodMap == null || likelihoodMap.isEmpty() )
+                return null;
+            features = new LikelihoodFeatures(likelihoodMap);
+            likelihoodFeatures.put(sample, features);
+        }
+        return features;
+    }
+
+    /**
+     * @param base a read base
+     * @return the index in the alleles of the site of the single-base allele base, or NO_ALLELE if there is none
+     */
+    private int alleleIndexOfBase(final byte base) {
+        final Allele baseAllele = Allele.create(base, false);
+        final List<Allele> alleles = vc.getAlleles();
+        for ( int i = 0; i < alleles.size(); i++ ) {
+            if ( alleles.get(i).equals(baseAllele, true) )
+                return i;
+        }
+        return NO_ALLELE;
+    }
+
+    /**
+     * The features of the elements of one sample's pileup at this site
+     */
+    public final class PileupFeatures {
+        private final PileupElement[] elements;
+        private final int depthOfCoverage;
+
+        private final byte[] bases;
+        private final byte[] baseQuals;
+        private final int[] mappingQuals;
+        private final boolean[] negativeStrand;
+        private final boolean[] reducedRead;
+        private final int[] representativeCounts;
+        private final boolean[] usable;
+
+        private int[] alleleIndices = null;
+        private int[] readPositions = null;
+
+        private PileupFeatures(final ReadBackedPileup pileup) {
+            this.depthOfCoverage = pileup.depthOfCoverage();
+
+            final int size = pileup.getNumberOfElements();
+            elements = new PileupElement[size];
+            bases = new byte[size];
+            baseQuals = new byte[size];
+            mappingQuals = new int[size];
+            negativeStrand = new boolean[size];
+            reducedRead = new boolean[size];
+            representativeCounts = new int[size];
+            usable = new boolean[size];
+
+            int i = 0;
+            for ( final PileupElement p : pileup ) {
+                final GATKSAMRecord read = p.getRead();
+                elements[i] = p;
+                bases[i] = p.getBase();
+                baseQuals[i] = p.getQual();
+                mappingQuals[i] = p.getMappingQual();
+                negativeStrand[i] = read.getReadNegativeStrandFlag();
+                reducedRead[i] = read.isReducedRead();
+                representativeCounts[i] = p.getRepresentativeCount();
+                usable[i] = RankSumTest.isUsableBase(p, false);
+                i++;
+            }
+        }
+
+        public int size() { return elements.length; }
+        public int getDepthOfCoverage() { return depthOfCoverage; }
+        public byte[] getBaseQuals() { return baseQuals; }
+        public int[] getMappingQuals() { return mappingQuals; }
+        public boolean[] getNegativeStrand() { return negativeStrand; }
+        public boolean[] getReducedRead() { return reducedRead; }
+        public int[] getRepresentativeCounts() { return representativeCounts; }
+
+        /**
+         * @return whether each element can be used in comparative tests between ref / alt bases [see RankSumTest.isUsableBase()]
+         */
+        public boolean[] getUsable() { return usable; }
+
+        /**
+         * @return the index in the alleles of the site of the base of each usable element, or NO_ALLELE
+         */
+        public int[] getAlleleIndices() {
+            if ( alleleIndices == null ) {
+                alleleIndices = new int[elements.length];
+                for ( int i = 0; i < elements.length; i++ )
+                    alleleIndices[i] = usable[i] ? alleleIndexOfBase(bases[i]) : NO_ALLELE;
+            }
+            return alleleIndices;
+        }
+
+        /**
+         * @return the position of each usable element within its read, measured from the nearer end of the aligned bases
+         */
+        public int[] getReadPositions() {
+            if ( readPositions == null ) {
+                readPositions = new int[elements.length];
+                for ( int i = 0; i < elements.length; i++ ) {
+                    if ( usable[i] ) {
+                        final PileupElement p = elements[i];
+                        final int readPos = AlignmentUtils.calcAlignmentByteArrayOffset(p.getRead().getCigar(), p, 0, 0);
+                        readPositions[i] = ReadPosRankSumTest.getFinalReadPosition(p.getRead(), readPos);
+                    }
+                    else
+                        readPositions[i] = NO_READ_POSITION;
+                }
+            }
+            return readPositions;
+        }
+    }
+
+    /**
+     * The features of the reads in one sample's per-read allele likelihood map at this site
+     */
+    public final class LikelihoodFeatures {
+        private final GATKSAMRecord[] reads;
+
+        private final Allele[] mostLikelyAlleles;
+        private final double[] mostLikelyLikelihoods;
+        private final int[] mappingQuals;
+        private final boolean[] negativeStrand;
+
+        private int[] representativeCounts = null;
+        private int[] readPositions = null;
+        private int[] hardClippedBases = null;
+
+        private LikelihoodFeatures(final PerReadAlleleLikelihoodMap likelihoodMap) {
+            final int size = likelihoodMap.size();
+            reads = new GATKSAMRecord[size];
+            mostLikelyAlleles = new Allele[size];
+            mostLikelyLikelihoods = new double[size];
+            mappingQuals = new int[size];
+            negativeStrand = new boolean[size];
+
+            int i = 0;
+            for ( final Map.Entry<GATKSAMRecord, Map<Allele, Double>> el : likelihoodMap.getLikelihoodReadMap().entrySet() ) {
+                final GATKSAMRecord read = el.getKey();
+                final Allele a = PerReadAlleleLikelihoodMap.getMostLikelyAllele(el.getValue());
+                reads[i] = read;
+                mostLikelyAlleles[i] = a;
+                mostLikelyLikelihoods[i] = a.isNoCall() ? Double.NaN : el.getValue().get(a);
+                mappingQuals[i] = read.getMappingQuality();
+                negativeStrand[i] = read.getReadNegativeStrandFlag();
+                i++;
+            }
+        }
+
+        public int size() { return reads.length; }
+        public int[] getMappingQuals() { return mappingQuals; }
+        public boolean[] getNegativeStrand() { return negativeStrand; }
+
+        /**
+         * @return the most likely allele of each read, which is the no-call allele for non-informative reads
+         */
+        public Allele[] getMostLikelyAlleles() { return mostLikelyAlleles; }
+
+        /**
+         * @return the log10 likelihood of the most likely allele of each read, or NaN for non-informative reads
+         */
+        public double[] getMostLikelyLikelihoods() { return mostLikelyLikelihoods; }
+
+        /**
+         * @return the number of reads each read represents at the start of the site [reduced reads may represent many]
+         */
+        public int[] getRepresentativeCounts() {
+            if ( representativeCounts == null ) {
+                representativeCounts = new int[reads.length];
+                for ( int i = 0; i < reads.length; i++ ) {
+                    final GATKSAMRecord read = reads[i];
+                    representativeCounts[i] = read.isReducedRead() ? read.getReducedCount(ReadUtils.getReadCoordinateForReferenceCoordinate(read, vc.getStart(), ReadUtils.ClippingTail.RIGHT_TAIL)) : 1;
+                }
+            }
+            return representativeCounts;
+        }
+
+        /**
+         * @return the position of the start of the site within each read, measured from the nearer end of the aligned bases, or NO_READ_POSITION
+         */
+        public int[] getReadPositions() {
+            if ( readPositions == null ) {
+                readPositions = new int[reads.length];
+                for ( int i = 0; i < reads.length; i++ ) {
+                    final GATKSAMRecord read = reads[i];
+                    final int offset = ReadUtils.getReadCoordinateForReferenceCoordinate( read.getSoftStart(), read.getCigar(), vc.getStart(), ReadUtils.ClippingTail.RIGHT_TAIL, true );
+                    if ( offset == ReadUtils.CLIPPING_GOAL_NOT_REACHED ) {
+                        readPositions[i] = NO_READ_POSITION;
+                        continue;
+                    }
+                    int readPos = AlignmentUtils.calcAlignmentByteArrayOffset( read.getCigar(), offset, false, false, 0, 0 );
+                    final int numAlignedBases = AlignmentUtils.getNumAlignedBasesCountingSoftClips( read );
+                    if (readPos > numAlignedBases / 2)
+                        readPos = numAlignedBases - (readPos + 1);
+                    readPositions[i] = readPos;
+                }
+            }
+            return readPositions;
+        }
+
+        /**
+         * @return the number of hard clipped bases of each read
+         */
+        public int[] getHardClippedBases() {
+            if ( hardClippedBases == null ) {
+                hardClippedBases = new int[reads.length];
+                for ( int i = 0; i < reads.length; i++ )
+                    hardClippedBases[i] = AlignmentUtils.getNumHardClippedBases(reads[i]);
+            }
+            return hardClippedBases;
+        }
+    }
+}
@@ -198,9 +198,10 @@ public class VariantAnnotatorEngine {
         // annotate expressions where available
         annotateExpressions(tracker, ref, infoAnnotations);
 
-        // go through all the requested info annotationTypes
+        // go through all the requested info annotationTypes, which share the per-read features of this site
+        final SiteAnnotationContext siteContext = new SiteAnnotationContext(stratifiedContexts, vc, perReadAlleleLikelihoodMap);
         for ( InfoFieldAnnotation annotationType : requestedInfoAnnotations ) {
-            Map<String, Object> annotationsFromCurrentType = annotationType.annotate(tracker, walker, ref, stratifiedContexts, vc, perReadAlleleLikelihoodMap);
+            Map<String, Object> annotationsFromCurrentType = annotationType.annotate(tracker, walker, ref, siteContext);
             if ( annotationsFromCurrentType != null )
                 infoAnnotations.putAll(annotationsFromCurrentType);
         }
@@ -215,12 +216,13 @@ public class VariantAnnotatorEngine {
     public VariantContext annotateContext(final Map<String, PerReadAlleleLikelihoodMap> perReadAlleleLikelihoodMap, VariantContext vc) {
         Map<String, Object> infoAnnotations = new LinkedHashMap<String, Object>(vc.getAttributes());
 
-        // go through all the requested info annotationTypes
+        // go through all the requested info annotationTypes, which share the per-read features of this site
+        final SiteAnnotationContext siteContext = new SiteAnnotationContext(null, vc, perReadAlleleLikelihoodMap);
         for ( InfoFieldAnnotation annotationType : requestedInfoAnnotations ) {
             if ( !(annotationType instanceof ActiveRegionBasedAnnotation) )
                 continue;
 
-            Map<String, Object> annotationsFromCurrentType = annotationType.annotate(perReadAlleleLikelihoodMap, vc);
+            Map<String, Object> annotationsFromCurrentType = annotationType.annotate(null, null, null, siteContext);
             if ( annotationsFromCurrentType != null ) {
                 infoAnnotations.putAll(annotationsFromCurrentType);
             }
@@ -3,6 +3,7 @@ package org.broadinstitute.sting.gatk.walkers.annotator.interfaces;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.walkers.annotator.SiteAnnotationContext;
 import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
 import org.broadinstitute.sting.utils.codecs.vcf.VCFInfoHeaderLine;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
@@ -24,6 +25,15 @@ public abstract class InfoFieldAnnotation extends VariantAnnotatorAnnotation {
         return annotate(null, null, null, null, vc, perReadAlleleLikelihoodMap);
     }
 
+    // return annotations computed from the per-read features shared by all annotations at the site;
+    // annotations that read the pileups or per-read likelihoods should override this to use the shared features
+    public Map<String, Object> annotate(final RefMetaDataTracker tracker,
+                                        final AnnotatorCompatible walker,
+                                        final ReferenceContext ref,
+                                        final SiteAnnotationContext siteContext) {
+        return annotate(tracker, walker, ref, siteContext.getStratifiedContexts(), siteContext.getVariantContext(), siteContext.getStratifiedPerReadAlleleLikelihoodMap());
+    }
+
 
     public abstract Map<String, Object> annotate(final RefMetaDataTracker tracker,
                                                  final AnnotatorCompatible walker,
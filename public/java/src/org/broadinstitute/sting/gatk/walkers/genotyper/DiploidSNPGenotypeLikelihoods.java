@@ -34,7 +34,9 @@ import org.broadinstitute.sting.utils.fragments.FragmentCollection;
 import org.broadinstitute.sting.utils.pileup.PileupElement;
 import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static java.lang.Math.log10;
 import static java.lang.Math.pow;
@@ -79,16 +81,13 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
     protected final static double ploidyAdjustment = log10(FIXED_PLOIDY);
     protected final static double log10_3 = log10(3.0);
 
-    protected boolean VERBOSE = false;
-
     //
     // The fundamental data arrays associated with a Genotype Likelihoods object
     //
     protected double[] log10Likelihoods = null;
 
-    // TODO: don't calculate this each time through
-    protected double log10_PCR_error_3;
-    protected double log10_1_minus_PCR_error;
+    // the precomputed likelihoods of every fragment for our PCR error rate
+    private final LikelihoodsTable likelihoodsTable;
 
     /**
      * Create a new GenotypeLikelhoods object with given PCR error rate for each diploid genotype
@@ -96,8 +95,7 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
      * @param PCR_error_rate  the PCR error rate
      */
     public DiploidSNPGenotypeLikelihoods(double PCR_error_rate) {
-        log10_PCR_error_3 = log10(PCR_error_rate) - log10_3;
-        log10_1_minus_PCR_error = log10(1.0 - PCR_error_rate);
+        likelihoodsTable = getLikelihoodsTable(PCR_error_rate);
         setToZero();
     }
 
@@ -134,8 +132,8 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
 
     /**
      * Updates likelihoods and posteriors to reflect the additional observations contained within the
-     * read-based pileup up by calling add(observedBase, qualityScore) for each base / qual in the
-     * pileup
+     * read-based pileup.  Every fragment is first resolved to its precomputed row of genotype likelihoods
+     * and its number of observations, and the rows are then accumulated for the whole pileup at once.
      *
      * @param pileup                    read pileup
      * @param ignoreBadBases            should we ignore bad bases?
@@ -147,13 +145,64 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
         int n = 0;
 
         // for each fragment, add to the likelihoods
-        FragmentCollection<PileupElement> fpile = pileup.toFragments();
+        final FragmentCollection<PileupElement> fpile = pileup.toFragments();
+        final Collection<PileupElement> singletons = fpile.getSingletonReads();
+        final Collection<List<PileupElement>> overlappingPairs = fpile.getOverlappingPairs();
+
+        // the likelihoods of the i-th good fragment are rows[i][rowOffsets[i] + genotype], seen nObs[i] times
+        final int maxObservations = singletons.size() + overlappingPairs.size();
+        final double[][] rows = new double[maxObservations][];
+        final int[] rowOffsets = new int[maxObservations];
+        final int[] nObs = new int[maxObservations];
+        int nObservations = 0;
+
+        for ( final PileupElement p : singletons ) {
+            final byte qual = qualToUse(p, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
+            final int offset = likelihoodsTable.getSingleObservationOffset(p.getBase(), qual);
+            // bad bases, odd bases or deletions => don't use them
+            if ( offset < 0 )
+                continue;
+
+            // reduced reads stand for n identical observations
+            final int count = p.getRead().isReducedRead() ? p.getRepresentativeCount() : 1;
+            rows[nObservations] = likelihoodsTable.singleObservations;
+            rowOffsets[nObservations] = offset;
+            nObs[nObservations++] = count;
+            n += count;
+        }
 
-        for ( PileupElement p : fpile.getSingletonReads() )
-            n += add(p, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
+        for ( final List<PileupElement> overlappingPair : overlappingPairs ) {
+            final PileupElement p1 = overlappingPair.get(0);
+            final PileupElement p2 = overlappingPair.get(1);
+            final byte observedBase1 = p1.getBase();
+            final byte qualityScore1 = qualToUse(p1, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
+            final byte observedBase2 = p2.getBase();
+            final byte qualityScore2 = qualToUse(p2, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
+            final int offset1 = likelihoodsTable.getSingleObservationOffset(observedBase1, qualityScore1);
+            final int offset2 = likelihoodsTable.getSingleObservationOffset(observedBase2, qualityScore2);
+
+            if ( offset1 < 0 && offset2 < 0 ) // skip the fragment if we didn't see any good bases
+                continue;
+
+            if ( offset2 < 0 || offset1 < 0 ) {
+                // only one good base in the fragment, which is a single observation
+                rows[nObservations] = likelihoodsTable.singleObservations;
+                rowOffsets[nObservations] = offset1 < 0 ? offset2 : offset1;
+            } else {
+                rows[nObservations] = likelihoodsTable.getPairedObservations(observedBase1, qualityScore1, observedBase2, qualityScore2);
+                rowOffsets[nObservations] = 0;
+            }
+            nObs[nObservations++] = 1;
+            n++;
+        }
 
-        for ( List<PileupElement> overlappingPair : fpile.getOverlappingPairs() )
-            n += add(overlappingPair, ignoreBadBases, capBaseQualsAtMappingQual, minBaseQual);
+        for ( int i = 0; i < nObservations; i++ ) {
+            final double[] row = rows[i];
+            final int offset = rowOffsets[i];
+            final int count = nObs[i];
+            for ( int g = 0; g < NUM_GENOTYPES; g++ )
+                log10Likelihoods[g] += row[offset + g] * count;
+        }
 
         return n;
     }
@@ -211,27 +260,25 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
     private int add(byte obsBase1, byte qual1, byte obsBase2, byte qual2, int nObs) {
         // TODO-- Right now we assume that there are at most 2 reads per fragment.  This assumption is fine
         // TODO--   given the current state of next-gen sequencing, but may need to be fixed in the future.
-        // TODO--   However, when that happens, we'll need to be a lot smarter about the caching we do here.
-
-        // Just look up the cached result if it's available, or compute and store it
-        DiploidSNPGenotypeLikelihoods gl;
-        if ( ! inCache(obsBase1, qual1, obsBase2, qual2, FIXED_PLOIDY) ) {
-            gl = calculateCachedGenotypeLikelihoods(obsBase1, qual1, obsBase2, qual2, FIXED_PLOIDY);
-        } else {
-            gl = getCachedGenotypeLikelihoods(obsBase1, qual1, obsBase2, qual2, FIXED_PLOIDY);
-        }
+        final int offset1 = likelihoodsTable.getSingleObservationOffset(obsBase1, qual1);
 
         // for bad bases, there are no likelihoods
-        if ( gl == null )
+        if ( offset1 < 0 )
             return 0;
 
-        double[] likelihoods = gl.getLikelihoods();
-
-        for ( DiploidGenotype g : DiploidGenotype.values() ) {
-            double likelihood = likelihoods[g.ordinal()];
-            log10Likelihoods[g.ordinal()] += likelihood * nObs;
+        final double[] likelihoods;
+        final int offset;
+        if ( likelihoodsTable.getSingleObservationOffset(obsBase2, qual2) < 0 ) {
+            likelihoods = likelihoodsTable.singleObservations;
+            offset = offset1;
+        } else {
+            likelihoods = likelihoodsTable.getPairedObservations(obsBase1, qual1, obsBase2, qual2);
+            offset = 0;
         }
 
+        for ( int g = 0; g < NUM_GENOTYPES; g++ )
+            log10Likelihoods[g] += likelihoods[offset + g] * nObs;
+
         return 1;
     }
 
@@ -241,59 +288,70 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
 
     // -------------------------------------------------------------------------------------
     //
-    // Dealing with the cache routines
+    // Dealing with the likelihoods tables
     //
     // -------------------------------------------------------------------------------------
 
-    static DiploidSNPGenotypeLikelihoods[][][][][] CACHE = new DiploidSNPGenotypeLikelihoods[BaseUtils.BASES.length][QualityUtils.MAX_QUAL_SCORE+1][BaseUtils.BASES.length+1][QualityUtils.MAX_QUAL_SCORE+1][MAX_PLOIDY];
-
-    protected boolean inCache(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy) {
-        return getCache(CACHE, observedBase1, qualityScore1, observedBase2, qualityScore2, ploidy) != null;
-    }
-
-    protected DiploidSNPGenotypeLikelihoods getCachedGenotypeLikelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy) {
-        DiploidSNPGenotypeLikelihoods gl = getCache(CACHE, observedBase1, qualityScore1, observedBase2, qualityScore2, ploidy);
-        if ( gl == null )
-            throw new RuntimeException(String.format("BUG: trying to fetch an unset cached genotype likelihood at base1=%c, qual1=%d, base2=%c, qual2=%d, ploidy=%d",
-                    observedBase1, qualityScore1, observedBase2, qualityScore2, ploidy));
-        return gl;
-    }
+    private final static int NUM_GENOTYPES = DiploidGenotype.values().length;
+    private final static int NUM_QUALS = QualityUtils.MAX_QUAL_SCORE + 1;
 
-    protected DiploidSNPGenotypeLikelihoods calculateCachedGenotypeLikelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy) {
-        DiploidSNPGenotypeLikelihoods gl = calculateGenotypeLikelihoods(observedBase1, qualityScore1, observedBase2, qualityScore2);
-        setCache(CACHE, observedBase1, qualityScore1, observedBase2, qualityScore2, ploidy, gl);
-        return gl;
-    }
-
-    protected void setCache( DiploidSNPGenotypeLikelihoods[][][][][] cache,
-                             byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy,
-                             DiploidSNPGenotypeLikelihoods val ) {
-        int i = BaseUtils.simpleBaseToBaseIndex(observedBase1);
-        int j = qualityScore1;
-        int k = qualityScore2 != 0 ? BaseUtils.simpleBaseToBaseIndex(observedBase2) : BaseUtils.BASES.length;
-        int l = qualityScore2;
-        int m = ploidy;
+    /**
+     * The genotype likelihoods of every possible fragment for a given PCR error rate.  Fragments with a single
+     * good base are precomputed in one contiguous [base][qual][genotype] array; overlapping read pairs need a row
+     * per [base1][qual1][base2][qual2] and are much rarer, so those rows are only computed the first time they are
+     * needed (by whichever thread gets there first, as all threads compute the same values).
+     */
+    private static final class LikelihoodsTable {
+        private final double PCR_error_rate;
+        private final double log10_PCR_error_3;
+        private final double log10_1_minus_PCR_error;
+        private final double[] singleObservations;
+        private final AtomicReferenceArray<double[]> pairedObservations;
+
+        private LikelihoodsTable(final double PCR_error_rate) {
+            this.PCR_error_rate = PCR_error_rate;
+            log10_PCR_error_3 = log10(PCR_error_rate) - log10_3;
+            log10_1_minus_PCR_error = log10(1.0 - PCR_error_rate);
+
+            singleObservations = new double[BaseUtils.BASES.length * NUM_QUALS * NUM_GENOTYPES];
+            for ( final byte base : BaseUtils.BASES ) {
+                for ( int qual = 1; qual < NUM_QUALS; qual++ ) {
+                    final double[] likelihoods = calculateGenotypeLikelihoods(base, (byte)qual, (byte)0, (byte)0);
+                    System.arraycopy(likelihoods, 0, singleObservations, getSingleObservationOffset(base, (byte)qual), NUM_GENOTYPES);
+                }
+            }
 
-        cache[i][j][k][l][m] = val;
-    }
+            pairedObservations = new AtomicReferenceArray<double[]>(BaseUtils.BASES.length * NUM_QUALS * BaseUtils.BASES.length * NUM_QUALS);
+        }
 
-    protected DiploidSNPGenotypeLikelihoods getCache(DiploidSNPGenotypeLikelihoods[][][][][] cache,
-                                            byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2, int ploidy) {
-        int i = BaseUtils.simpleBaseToBaseIndex(observedBase1);
-        int j = qualityScore1;
-        int k = qualityScore2 != 0 ? BaseUtils.simpleBaseToBaseIndex(observedBase2) : BaseUtils.BASES.length;
-        int l = qualityScore2;
-        int m = ploidy;
-        return cache[i][j][k][l][m];
-    }
+        /**
+         * @return the offset of the likelihoods of a fragment with a single observation of base with qual in singleObservations,
+         *         or -1 if the base is not good enough to use (Q0 or 'N', for example)
+         */
+        private int getSingleObservationOffset(final byte base, final byte qual) {
+            final int baseIndex = BaseUtils.simpleBaseToBaseIndex(base);
+            if ( qual == 0 || baseIndex == -1 )
+                return -1;
+            return (baseIndex * NUM_QUALS + qual) * NUM_GENOTYPES;
+        }
 
-    protected DiploidSNPGenotypeLikelihoods calculateGenotypeLikelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2) {
-        double[] log10FourBaseLikelihoods = computeLog10Likelihoods(observedBase1, qualityScore1, observedBase2, qualityScore2);
+        /**
+         * @return the likelihoods of a fragment made of two good overlapping observations
+         */
+        private double[] getPairedObservations(final byte base1, final byte qual1, final byte base2, final byte qual2) {
+            final int index = ((BaseUtils.simpleBaseToBaseIndex(base1) * NUM_QUALS + qual1) * BaseUtils.BASES.length + BaseUtils.simpleBaseToBaseIndex(base2)) * NUM_QUALS + qual2;
+            double[] likelihoods = pairedObservations.get(index);
+            if ( likelihoods == null ) {
+                likelihoods = calculateGenotypeLikelihoods(base1, qual1, base2, qual2);
+                pairedObservations.set(index, likelihoods);
+            }
+            return likelihoods;
+        }
 
-        try {
+        private double[] calculateGenotypeLikelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2) {
+            double[] log10FourBaseLikelihoods = computeLog10Likelihoods(observedBase1, qualityScore1, observedBase2, qualityScore2, log10_PCR_error_3, log10_1_minus_PCR_error);
 
-            DiploidSNPGenotypeLikelihoods gl = (DiploidSNPGenotypeLikelihoods)this.clone();
-            gl.setToZero();
+            final double[] likelihoods = genotypeZeros.clone();
 
             // we need to adjust for ploidy.  We take the raw p(obs | chrom) / ploidy, which is -log10(ploidy) in log space
             for ( DiploidGenotype g : DiploidGenotype.values() ) {
@@ -304,21 +362,23 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
                 p_base += pow(10, log10FourBaseLikelihoods[BaseUtils.simpleBaseToBaseIndex(g.base2)] - ploidyAdjustment);
 
                 final double likelihood = log10(p_base);
-                gl.log10Likelihoods[g.ordinal()] += likelihood;
+                likelihoods[g.ordinal()] += likelihood;
             }
 
-            if ( VERBOSE ) {
-                for ( DiploidGenotype g : DiploidGenotype.values() ) { System.out.printf("%s\t", g); }
-                System.out.println();
-            for ( DiploidGenotype g : DiploidGenotype.values() ) { System.out.printf("%.2f\t", gl.log10Likelihoods[g.ordinal()]); }
-                System.out.println();
-            }
+            return likelihoods;
+        }
+    }
 
-            return gl;
+    // the table for the PCR error rate in use; there is only ever one of them in practice
+    private static volatile LikelihoodsTable lastLikelihoodsTable = null;
 
-         } catch ( CloneNotSupportedException e ) {
-             throw new RuntimeException(e);
-         }
+    private static LikelihoodsTable getLikelihoodsTable(final double PCR_error_rate) {
+        LikelihoodsTable table = lastLikelihoodsTable;
+        if ( table == null || table.PCR_error_rate != PCR_error_rate ) {
+            table = new LikelihoodsTable(PCR_error_rate);
+            lastLikelihoodsTable = table;
+        }
+        return table;
     }
 
     /**
@@ -329,9 +389,12 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
      * @param qualityScore1  the qual of the base on the 1st read of the fragment, or zero if NA
      * @param observedBase2  the base observed on the 2nd read of the fragment
      * @param qualityScore2  the qual of the base on the 2nd read of the fragment, or zero if NA
+     * @param log10_PCR_error_3        log10 of a third of the PCR error rate
+     * @param log10_1_minus_PCR_error  log10 of one minus the PCR error rate
      * @return likelihoods for this observation or null if the base was not considered good enough to add to the likelihoods (Q0 or 'N', for example)
      */
-    protected double[] computeLog10Likelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2) {
+    protected static double[] computeLog10Likelihoods(byte observedBase1, byte qualityScore1, byte observedBase2, byte qualityScore2,
+                                                      double log10_PCR_error_3, double log10_1_minus_PCR_error) {
         double[] log10FourBaseLikelihoods = baseZeros.clone();
 
         for ( byte trueBase : BaseUtils.BASES ) {
@@ -367,7 +430,7 @@ public class DiploidSNPGenotypeLikelihoods implements Cloneable {
      * @param qual         base quality
      * @return log10 likelihood
      */
-    protected double log10PofObservingBaseGivenChromosome(byte observedBase, byte chromBase, byte qual) {
+    protected static double log10PofObservingBaseGivenChromosome(byte observedBase, byte chromBase, byte qual) {
 
         double logP;
 
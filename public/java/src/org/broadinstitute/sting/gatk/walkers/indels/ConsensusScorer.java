@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2012 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.indels;
+
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.broadinstitute.sting.utils.threading.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores every (alternate consensus, read) pair of a realignment interval, optionally across a pool of worker threads.
+ *
+ * The unclipped bases and qualities of all of the reads in the interval are packed into two contiguous byte arrays
+ * (with per-read offsets and lengths), and the best offset / mismatch score of each pair is written into a flat
+ * int array at a fixed slot.  Because every pair always lands in the same slot no matter which thread computed it,
+ * the cleaning decisions made from these results are identical to those of the serial code path.
+ *
+ * All of the backing arrays are reused (and grown as needed) from interval to interval, so scoring itself doesn't
+ * allocate.  The results are the same as those of IndelRealigner.findBestOffset() except that no early termination
+ * across reads is done here; the caller is still free to stop consuming the results early.
+ */
+class ConsensusScorer {
+
+    private static final int MAX_QUAL = 99;
+
+    // the number of pairs a worker claims at a time; small enough to balance load, big enough to amortize the atomic
+    private static final int PAIRS_PER_CHUNK = 16;
+
+    // below this many pairs it isn't worth waking up the pool
+    private static final int MIN_PAIRS_FOR_PARALLEL_SCORING = 256;
+
+    private final int nThreads;
+    private final ExecutorService threadPool;
+    private final List<Callable<Object>> workers;
+
+    // the packed reads
+    private int nReads = 0;
+    private int[] readStarts = new int[256];
+    private int[] readLengths = new int[256];
+    private int[] originalAlignments = new int[256];
+    private byte[] packedBases = new byte[256 * 128];
+    private byte[] packedQuals = new byte[256 * 128];
+    private int packedSize = 0;
+
+    // the consensuses being scored
+    private final List<byte[]> consensuses = new ArrayList<byte[]>();
+
+    // the results, indexed by consensus * nReads + read
+    private int[] bestOffsets = new int[0];
+    private int[] bestScores = new int[0];
+
+    // the next pair to be claimed by a worker
+    private final AtomicInteger nextPair = new AtomicInteger(0);
+
+    public ConsensusScorer(final int nThreads) {
+        if ( nThreads < 1 )
+            throw new ReviewedStingException("The number of consensus scoring threads must be at least 1 but was " + nThreads);
+
+        this.nThreads = nThreads;
+        if ( nThreads > 1 ) {
+            threadPool = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("IndelRealigner-consensus-scoring-thread-%d"));
+            workers = new ArrayList<Callable<Object>>(nThreads);
+            for ( int i = 0; i < nThreads; i++ ) {
+                workers.add(new Callable<Object>() {
+                    public Object call() {
+                        scoreClaimedPairs();
+                        return null;
+                    }
+                });
+            }
+        } else {
+            threadPool = null;
+            workers = null;
+        }
+    }
+
+    /**
+     * Forgets all of the reads and consensuses of the previous interval (but keeps the backing arrays)
+     */
+    public void clear() {
+        nReads = 0;
+        packedSize = 0;
+        consensuses.clear();
+    }
+
+    /**
+     * Packs the unclipped bases and qualities of the next read
+     *
+     * @param bases              the unclipped bases of the read
+     * @param quals              the unclipped base qualities of the read
+     * @param originalAlignment  the original alignment start of the read relative to the start of the reference
+     */
+    public void addRead(final byte[] bases, final byte[] quals, final int originalAlignment) {
+        if ( nReads == readStarts.length ) {
+            final int newCapacity = 2 * readStarts.length;
+            readStarts = Arrays.copyOf(readStarts, newCapacity);
+            readLengths = Arrays.copyOf(readLengths, newCapacity);
+            originalAlignments = Arrays.copyOf(originalAlignments, newCapacity);
+        }
+        final int length = bases.length;
+        if ( packedSize + length > packedBases.length ) {
+            final int newCapacity = Math.max(2 * packedBases.length, packedSize + length);
+            packedBases = Arrays.copyOf(packedBases, newCapacity);
+            packedQuals = Arrays.copyOf(packedQuals, newCapacity);
+        }
+
+        System.arraycopy(bases, 0, packedBases, packedSize, length);
+        System.arraycopy(quals, 0, packedQuals, packedSize, length);
+        readStarts[nReads] = packedSize;
+        readLengths[nReads] = length;
+        originalAlignments[nReads] = originalAlignment;
+        packedSize += length;
+        nReads++;
+    }
+
+    /**
+     * Adds the next consensus to be scored; consensuses are indexed in the order in which they are added
+     *
+     * @param consensus the bases of the consensus
+     */
+    public void addConsensus(final byte[] consensus) {
+        consensuses.add(consensus);
+    }
+
+    public int getNumReads() {
+        return nReads;
+    }
+
+    public int getNumConsensuses() {
+        return consensuses.size();
+    }
+
+    /**
+     * Scores all of the consensuses against all of the reads.  Blocks until every pair has been scored.
+     */
+    public void score() {
+        final int nPairs = nReads * consensuses.size();
+        if ( bestOffsets.length < nPairs ) {
+            bestOffsets = new int[nPairs];
+            bestScores = new int[nPairs];
+        }
+
+        nextPair.set(0);
+        if ( threadPool == null || nPairs < MIN_PAIRS_FOR_PARALLEL_SCORING ) {
+            scoreClaimedPairs();
+            return;
+        }
+
+        try {
+            for ( final Future<Object> result : threadPool.invokeAll(workers) )
+                result.get();
+        } catch (InterruptedException e) {
+            throw new ReviewedStingException("Interrupted while scoring alternate consensuses", e);
+        } catch (ExecutionException e) {
+            if ( e.getCause() instanceof RuntimeException )
+                throw (RuntimeException)e.getCause();
+            throw new ReviewedStingException("Failed to score alternate consensuses", e.getCause());
+        }
+    }
+
+    /**
+     * @param consensusIndex the index of the consensus
+     * @param readIndex      the index of the read
+     * @return the offset on the consensus at which the read aligns best
+     */
+    public int getBestOffset(final int consensusIndex, final int readIndex) {
+        return bestOffsets[consensusIndex * nReads + readIndex];
+    }
+
+    /**
+     * @param consensusIndex the index of the consensus
+     * @param readIndex      the index of the read
+     * @return the mismatch quality sum of the read at its best offset on the consensus
+     */
+    public int getBestScore(final int consensusIndex, final int readIndex) {
+        return bestScores[consensusIndex * nReads + readIndex];
+    }
+
+    /**
+     * Shuts down the worker threads
+     */
+    public void close() {
+        if ( threadPool != null )
+            threadPool.shutdownNow();
+    }
+
+    public int getNumThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Repeatedly claims a chunk of pairs and scores them until there are none left
+     */
+    private void scoreClaimedPairs() {
+        final int nPairs = nReads * consensuses.size();
+        int start;
+        while ( (start = nextPair.getAndAdd(PAIRS_PER_CHUNK)) < nPairs ) {
+            final int stop = Math.min(start + PAIRS_PER_CHUNK, nPairs);
+            for ( int pair = start; pair < stop; pair++ )
+                scorePair(pair, consensuses.get(pair / nReads), pair % nReads);
+        }
+    }
+
+    /**
+     * Finds the best offset of the read on the consensus; this mirrors IndelRealigner.findBestOffset()
+     */
+    private void scorePair(final int pair, final byte[] ref, final int read) {
+
+        // optimization: try the most likely alignment first (to get a low score to beat)
+        final int originalAlignment = originalAlignments[read];
+        int bestScore = mismatchQualitySum(read, ref, originalAlignment, Integer.MAX_VALUE);
+        int bestIndex = originalAlignment;
+
+        // optimization: the correct alignment shouldn't be too far from the original one (or else the read wouldn't have aligned in the first place)
+        for ( int i = 0; i < originalAlignment && bestScore != 0; i++ ) {
+            final int score = mismatchQualitySum(read, ref, i, bestScore);
+            if ( score < bestScore ) {
+                bestScore = score;
+                bestIndex = i;
+            }
+        }
+
+        final int maxPossibleStart = ref.length - readLengths[read];
+        for ( int i = originalAlignment + 1; i <= maxPossibleStart && bestScore != 0; i++ ) {
+            final int score = mismatchQualitySum(read, ref, i, bestScore);
+            if ( score < bestScore ) {
+                bestScore = score;
+                bestIndex = i;
+            }
+        }
+
+        bestOffsets[pair] = bestIndex;
+        bestScores[pair] = bestScore;
+    }
+
+    /**
+     * The packed-array equivalent of IndelRealigner.mismatchQualitySumIgnoreCigar()
+     */
+    private int mismatchQualitySum(final int read, final byte[] refSeq, int refIndex, final int quitAboveThisValue) {
+        final int start = readStarts[read];
+        final int stop = start + readLengths[read];
+        int sum = 0;
+        for ( int readIndex = start; readIndex < stop; refIndex++, readIndex++ ) {
+            if ( refIndex >= refSeq.length ) {
+                sum += MAX_QUAL;
+                // optimization: once we pass the threshold, stop calculating
+                if ( sum > quitAboveThisValue )
+                    return sum;
+            } else {
+                final byte refChr = refSeq[refIndex];
+                final byte readChr = packedBases[readIndex];
+                if ( !BaseUtils.isRegularBase(readChr) || !BaseUtils.isRegularBase(refChr) )
+                    continue; // do not count Ns/Xs/etc ?
+                if ( readChr != refChr ) {
+                    sum += (int)packedQuals[readIndex];
+                    // optimization: once we pass the threshold, stop calculating
+                    if ( sum > quitAboveThisValue )
+                        return sum;
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -226,6 +226,15 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     @Argument(fullName="maxReadsForRealignment", shortName="maxReads", doc="max reads allowed at an interval for realignment", required=false)
     protected int MAX_READS = 20000;
 
+    /**
+     * For expert users only!  Scores the alternate consensuses against the reads of each target interval across this many threads.
+     * The realignment decisions do not depend on the number of threads used; this only helps with very deep intervals, where
+     * scoring dominates the running time.
+     */
+    @Advanced
+    @Argument(fullName="consensusScoringThreads", shortName="cst", doc="number of threads used to score alternate consensuses against the reads in each interval", required=false)
+    protected int CONSENSUS_SCORING_THREADS = 1;
+
     @Advanced
     @Argument(fullName="noOriginalAlignmentTags", shortName="noTags", required=false, doc="Don't output the original cigar or alignment start tags for each realigned read in the output bam")
     protected boolean NO_ORIGINAL_ALIGNMENT_TAGS = false;
@@ -306,6 +315,9 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
     // TODO -- make this a command-line argument if the need arises
     private static final int REFERENCE_PADDING = 30;
 
+    // scores the consensuses against the reads when running with more than one consensus scoring thread
+    private ConsensusScorer consensusScorer = null;
+
     // other output files
     private FileWriter indelOutput = null;
     private FileWriter statsOutput = null;
@@ -360,6 +372,10 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
             throw new RuntimeException("LOD threshold cannot be a negative number");
         if ( MISMATCH_THRESHOLD <= 0.0 || MISMATCH_THRESHOLD > 1.0 )
             throw new RuntimeException("Entropy threshold must be a fraction between 0 and 1");
+        if ( CONSENSUS_SCORING_THREADS < 1 )
+            throw new UserException.BadArgumentValue("consensusScoringThreads", "must be at least 1");
+        if ( CONSENSUS_SCORING_THREADS > 1 )
+            consensusScorer = new ConsensusScorer(CONSENSUS_SCORING_THREADS);
 
         try {
             referenceReader = new CachingIndexedFastaSequenceFile(getToolkit().getArguments().referenceFile);
@@ -585,6 +601,9 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         knownIndelsToTry.clear();
         indelRodsSeen.clear();
 
+        if ( consensusScorer != null )
+            consensusScorer.close();
+
         if ( OUT_INDELS != null ) {
             try {
                 indelOutput.close();
@@ -681,11 +700,18 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
 
         // if ( debugOn ) System.out.println("------\nChecking consenses...\n--------\n");
 
+        // when running with multiple scoring threads, score all of the consensus x read pairs up front;
+        // the decisions below consume the results in exactly the same order as the serial code path
+        if ( consensusScorer != null )
+            scoreConsensuses(consensusScorer, altConsenses, altReads, leftmostIndex);
+
         Consensus bestConsensus = null;
         Iterator<Consensus> iter = altConsenses.iterator();
+        int consensusIndex = -1;
 
         while ( iter.hasNext() ) {
             Consensus consensus = iter.next();
+            consensusIndex++;
             //logger.debug("Trying new consensus: " + consensus.cigar + " " + new String(consensus.str));
 
 //            if ( DEBUG ) {
@@ -702,17 +728,25 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
 
             for ( int j = 0; j < altReads.size(); j++ ) {
                 AlignedRead toTest = altReads.get(j);
-                Pair<Integer, Integer> altAlignment = findBestOffset(consensus.str, toTest, leftmostIndex);
+                final int bestOffset, bestScore;
+                if ( consensusScorer != null ) {
+                    bestOffset = consensusScorer.getBestOffset(consensusIndex, j);
+                    bestScore = consensusScorer.getBestScore(consensusIndex, j);
+                } else {
+                    final Pair<Integer, Integer> altAlignment = findBestOffset(consensus.str, toTest, leftmostIndex);
+                    bestOffset = altAlignment.first;
+                    bestScore = altAlignment.second;
+                }
 
                 // the mismatch score is the min of its alignment vs. the reference and vs. the alternate
-                int myScore = altAlignment.second;
+                int myScore = bestScore;
 
                 if ( myScore > toTest.getAlignerMismatchScore() || myScore >= toTest.getMismatchScoreToReference() )
                     myScore = toTest.getMismatchScoreToReference();
                 // keep track of reads that align better to the alternate consensus.
                 // By pushing alignments with equal scores to the alternate, it means we'll over-call (het -> hom non ref) but are less likely to under-call (het -> ref, het non ref -> het)
                 else
-                    consensus.readIndexes.add(new Pair<Integer, Integer>(j, altAlignment.first));
+                    consensus.readIndexes.add(new Pair<Integer, Integer>(j, bestOffset));
 
                 //logger.debug(consensus.cigar +  " vs. " + toTest.getRead().getReadName() + "-" + toTest.getRead().getReadString() + " => " + myScore + " vs. " + toTest.getMismatchScoreToReference());
                 if ( !toTest.getRead().getDuplicateReadFlag() )
@@ -863,6 +897,15 @@ public class IndelRealigner extends ReadWalker<Integer, Integer> {
         }
     }
 
+    private static void scoreConsensuses(final ConsensusScorer scorer, final Set<Consensus> altConsenses, final List<AlignedRead> altReads, final int leftmostIndex) {
+        scorer.clear();
+        for ( final AlignedRead aRead : altReads )
+            scorer.addRead(aRead.getReadBases(), aRead.getBaseQualities(), aRead.getOriginalAlignmentStart() - leftmostIndex);
+        for ( final Consensus consensus : altConsenses )
+            scorer.addConsensus(consensus.str);
+        scorer.score();
+    }
+
     private void generateAlternateConsensesFromKnownIndels(final Set<Consensus> altConsensesToPopulate, final int leftmostIndex, final byte[] reference) {
         for ( VariantContext knownIndel : knownIndelsToTry ) {
             if ( knownIndel == null || !knownIndel.isIndel() || knownIndel.isComplexIndel() )
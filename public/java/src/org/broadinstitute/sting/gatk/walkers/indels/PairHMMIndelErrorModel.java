@@ -69,7 +69,33 @@ public class PairHMMIndelErrorModel {
     private final byte[] GAP_OPEN_PROB_TABLE;
     private final byte[] GAP_CONT_PROB_TABLE;
 
-    private final PairHMM pairHMM;
+    // the maximum number of read x haplotype likelihoods each thread keeps around for reuse at nearby indel sites
+    private static final int MAX_CACHED_READ_HAPLOTYPE_LIKELIHOODS = 10000;
+
+    private final PairHMM.HMM_IMPLEMENTATION hmmType;
+
+    /**
+     * The pair HMM keeps its matrices between haplotypes, so each thread gets its own one rather than locking the model
+     */
+    private final ThreadLocal<PairHMM> pairHMM = new ThreadLocal<PairHMM>() {
+        @Override protected PairHMM initialValue() {
+            return createPairHMM(hmmType);
+        }
+    };
+
+    /**
+     * Per-thread cache of read likelihoods given haplotype, so that a read isn't scored again against the same
+     * haplotype bases when candidate indels cluster within a few bases of each other
+     */
+    private final ThreadLocal<Map<ReadHaplotypeKey, Double>> likelihoodCache = new ThreadLocal<Map<ReadHaplotypeKey, Double>>() {
+        @Override protected Map<ReadHaplotypeKey, Double> initialValue() {
+            return new LinkedHashMap<ReadHaplotypeKey, Double>(MAX_CACHED_READ_HAPLOTYPE_LIKELIHOODS, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<ReadHaplotypeKey, Double> eldest) {
+                    return size() > MAX_CACHED_READ_HAPLOTYPE_LIKELIHOODS;
+                }
+            };
+        }
+    };
 
     /////////////////////////////
     // Private Member Variables
@@ -92,18 +118,9 @@ public class PairHMMIndelErrorModel {
     public PairHMMIndelErrorModel(byte indelGOP, byte indelGCP, boolean deb, final PairHMM.HMM_IMPLEMENTATION hmmType ) {
         this.DEBUG = deb;
 
-        switch (hmmType) {
-            case EXACT:
-                pairHMM = new ExactPairHMM();
-                break;
-            case ORIGINAL:
-                pairHMM = new OriginalPairHMM();
-                break;
-            case CACHING:
-            case LOGLESS_CACHING:
-            default:
-                throw new UserException.BadArgumentValue("pairHMM", "Specified pairHMM implementation is unrecognized or incompatible with the UnifiedGenotyper. Acceptable options are ORIGINAL and EXACT.");
-        }
+        // fail up front on an incompatible implementation rather than in the first thread that needs one
+        createPairHMM(hmmType);
+        this.hmmType = hmmType;
 
         // fill gap penalty table, affine naive model:
         this.GAP_CONT_PROB_TABLE = new byte[MAX_HRUN_GAP_IDX];
@@ -135,6 +152,19 @@ public class PairHMMIndelErrorModel {
 
     }
 
+    private static PairHMM createPairHMM(final PairHMM.HMM_IMPLEMENTATION hmmType) {
+        switch (hmmType) {
+            case EXACT:
+                return new ExactPairHMM();
+            case ORIGINAL:
+                return new OriginalPairHMM();
+            case CACHING:
+            case LOGLESS_CACHING:
+            default:
+                throw new UserException.BadArgumentValue("pairHMM", "Specified pairHMM implementation is unrecognized or incompatible with the UnifiedGenotyper. Acceptable options are ORIGINAL and EXACT.");
+        }
+    }
+
     static private void getContextHomopolymerLength(final byte[] refBytes, final int[] hrunArray) {
         // compute forward hrun length, example:
         // AGGTGACCCCCCTGAGAG
@@ -184,7 +214,7 @@ public class PairHMMIndelErrorModel {
     }
 
 
-    public synchronized double[] computeDiploidReadHaplotypeLikelihoods(final ReadBackedPileup pileup,
+    public double[] computeDiploidReadHaplotypeLikelihoods(final ReadBackedPileup pileup,
                                                                         final LinkedHashMap<Allele, Haplotype> haplotypeMap,
                                                                         final ReferenceContext ref,
                                                                         final int eventLength,
@@ -201,13 +231,15 @@ public class PairHMMIndelErrorModel {
     }
 
     @Ensures("result != null && result.length == pileup.getNumberOfElements()")
-    public synchronized double[][] computeGeneralReadHaplotypeLikelihoods(final ReadBackedPileup pileup,
+    public double[][] computeGeneralReadHaplotypeLikelihoods(final ReadBackedPileup pileup,
                                                                           final LinkedHashMap<Allele, Haplotype> haplotypeMap, 
                                                                           final ReferenceContext ref,
                                                                           final int eventLength, 
                                                                           final PerReadAlleleLikelihoodMap perReadAlleleLikelihoodMap,
                                                                           final int[] readCounts) {
         final double readLikelihoods[][] = new double[pileup.getNumberOfElements()][haplotypeMap.size()];
+        final PairHMM pairHMM = this.pairHMM.get();
+        final Map<ReadHaplotypeKey, Double> likelihoodCache = this.likelihoodCache.get();
 
         int readIdx=0;
         for (PileupElement p: pileup) {
@@ -332,6 +364,9 @@ public class PairHMMIndelErrorModel {
                     getContextHomopolymerLength(readBases,hrunProfile);
                     fillGapProbabilities(hrunProfile, contextLogGapOpenProbabilities, contextLogGapContinuationProbabilities);
 
+                    final byte[] insertionGOP = read.hasBaseIndelQualities() ? read.getBaseInsertionQualities() : contextLogGapOpenProbabilities;
+                    final byte[] deletionGOP = read.hasBaseIndelQualities() ? read.getBaseDeletionQualities() : contextLogGapOpenProbabilities;
+
                     for (Allele a: haplotypeMap.keySet()) {
 
                         Haplotype haplotype = haplotypeMap.get(a);
@@ -355,30 +390,39 @@ public class PairHMMIndelErrorModel {
                         final byte[] haplotypeBases = Arrays.copyOfRange(haplotype.getBases(),
                                 (int)indStart, (int)indStop);
 
-                        final int X_METRIC_LENGTH = readBases.length+2;
-                        final int Y_METRIC_LENGTH = haplotypeBases.length+2;
-
-                        if (previousHaplotypeSeen == null) {
-                            //no need to reallocate arrays for each new haplotype, as length won't change
-                            pairHMM.initialize(X_METRIC_LENGTH, Y_METRIC_LENGTH);
+                        // the likelihood only depends on the bases, qualities and gap penalties being aligned, so a read with the
+                        // same content already scored against these haplotype bases (here or at a nearby site) doesn't need to go
+                        // through the HMM again
+                        final ReadHaplotypeKey key = new ReadHaplotypeKey(haplotypeBases, readBases, readQuals, insertionGOP, deletionGOP, contextLogGapContinuationProbabilities);
+                        final Double cachedLikelihood = likelihoodCache.get(key);
+                        if (cachedLikelihood != null) {
+                            readLikelihood = cachedLikelihood;
                         }
-
-                        int startIndexInHaplotype = 0;
-                        if (previousHaplotypeSeen != null)
-                            startIndexInHaplotype = computeFirstDifferingPosition(haplotypeBases, previousHaplotypeSeen);
-                        previousHaplotypeSeen = haplotypeBases.clone();
-
-                        readLikelihood = pairHMM.computeReadLikelihoodGivenHaplotypeLog10(haplotypeBases, readBases, readQuals,
-                                (read.hasBaseIndelQualities() ? read.getBaseInsertionQualities() : contextLogGapOpenProbabilities),
-                                (read.hasBaseIndelQualities() ? read.getBaseDeletionQualities() : contextLogGapOpenProbabilities),
-                                contextLogGapContinuationProbabilities, startIndexInHaplotype, false);
-
-
-                        if (DEBUG) {
-                            System.out.println("H:"+new String(haplotypeBases));
-                            System.out.println("R:"+new String(readBases));
-                            System.out.format("L:%4.2f\n",readLikelihood);
-                            System.out.format("StPos:%d\n", startIndexInHaplotype);
+                        else {
+                            final int X_METRIC_LENGTH = readBases.length+2;
+                            final int Y_METRIC_LENGTH = haplotypeBases.length+2;
+
+                            if (previousHaplotypeSeen == null) {
+                                //no need to reallocate arrays for each new haplotype, as length won't change
+                                pairHMM.initialize(X_METRIC_LENGTH, Y_METRIC_LENGTH);
+                            }
+
+                            // the HMM matrices hold the last haplotype actually computed, so only that one can be used to skip columns
+                            int startIndexInHaplotype = 0;
+                            if (previousHaplotypeSeen != null)
+                                startIndexInHaplotype = computeFirstDifferingPosition(haplotypeBases, previousHaplotypeSeen);
+                            previousHaplotypeSeen = haplotypeBases;
+
+                            readLikelihood = pairHMM.computeReadLikelihoodGivenHaplotypeLog10(haplotypeBases, readBases, readQuals,
+                                    insertionGOP, deletionGOP, contextLogGapContinuationProbabilities, startIndexInHaplotype, false);
+                            likelihoodCache.put(key, readLikelihood);
+
+                            if (DEBUG) {
+                                System.out.println("H:"+new String(haplotypeBases));
+                                System.out.println("R:"+new String(readBases));
+                                System.out.format("L:%4.2f\n",readLikelihood);
+                                System.out.format("StPos:%d\n", startIndexInHaplotype);
+                            }
                         }
 
                         perReadAlleleLikelihoodMap.add(p, a, readLikelihood);
@@ -418,6 +462,53 @@ public class PairHMMIndelErrorModel {
         return b1.length;
     }
 
+    /**
+     * Identifies the likelihood of a read given a haplotype by the inputs the HMM was run with: the haplotype bases and
+     * the clipped read bases, qualities and gap penalties.  The key holds no reference to the read itself, so a cached
+     * entry doesn't keep the read alive and reads with identical content share it.  The arrays are never modified once
+     * the key is built; they are shared by the keys of all the haplotypes of a read.
+     */
+    private static final class ReadHaplotypeKey {
+        private final byte[] haplotypeBases;
+        private final byte[] readBases;
+        private final byte[] readQuals;
+        private final byte[] insertionGOP;
+        private final byte[] deletionGOP;
+        private final byte[] overallGCP;
+        private final int hashCode;
+
+        private ReadHaplotypeKey(final byte[] haplotypeBases, final byte[] readBases, final byte[] readQuals,
+                                 final byte[] insertionGOP, final byte[] deletionGOP, final byte[] overallGCP) {
+            this.haplotypeBases = haplotypeBases;
+            this.readBases = readBases;
+            this.readQuals = readQuals;
+            this.insertionGOP = insertionGOP;
+            this.deletionGOP = deletionGOP;
+            this.overallGCP = overallGCP;
+            this.hashCode = 31 * (31 * Arrays.hashCode(haplotypeBases) + Arrays.hashCode(readBases)) + Arrays.hashCode(readQuals);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ReadHaplotypeKey)) return false;
+
+            final ReadHaplotypeKey other = (ReadHaplotypeKey) o;
+            return hashCode == other.hashCode
+                    && Arrays.equals(haplotypeBases, other.haplotypeBases)
+                    && Arrays.equals(readBases, other.readBases)
+                    && Arrays.equals(readQuals, other.readQuals)
+                    && Arrays.equals(insertionGOP, other.insertionGOP)
+                    && Arrays.equals(deletionGOP, other.deletionGOP)
+                    && Arrays.equals(overallGCP, other.overallGCP);
+        }
+    }
+
     private static double[] getDiploidHaplotypeLikelihoods(final int numHaplotypes, final int readCounts[], final double readLikelihoods[][]) {
         final double[][] haplotypeLikehoodMatrix = new double[numHaplotypes][numHaplotypes];
 
@@ -14,12 +14,15 @@ import org.broadinstitute.sting.utils.MathUtils;
 import org.broadinstitute.sting.utils.SampleUtils;
 import org.broadinstitute.sting.utils.codecs.vcf.*;
 import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
+import org.broadinstitute.sting.utils.threading.NamedThreadFactory;
 import org.broadinstitute.sting.utils.variantcontext.writer.VariantContextWriter;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.variantcontext.*;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Computes the most likely genotype combination and phases trios and parent/child pairs
@@ -55,6 +58,7 @@ import java.util.*;
  *         combination will be reported there. Information reported: chromosome, position, filter, allele count in VCF, family, transmission probability,
  *         and each individual genotype, depth, allelic depth and likelihoods.</li>
  *         <li>DeNovoPrior: Mutation prio; default is 1e-8</li>
+ *         <li>NumTrioThreads: Number of threads used to phase the trios and parent/child pairs at each site; default is 1</li>
  *     </ul>
  * </p>
  *
@@ -75,7 +79,7 @@ import java.util.*;
  *
  */
 @DocumentedGATKFeature( groupName = "Variant Discovery Tools", extraDocs = {CommandLineGATK.class} )
-public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMap<Byte,Integer>> {
+public class PhaseByTransmission extends RodWalker<int[], int[]> {
 
     @ArgumentCollection
     protected StandardVariantContextInputArgumentCollection variantCollection = new StandardVariantContextInputArgumentCollection();
@@ -89,6 +93,13 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
     @Argument(shortName = "fatherAlleleFirst",required = false,fullName = "FatherAlleleFirst", doc="Ouputs the father allele as the first allele in phased child genotype. i.e. father|mother rather than mother|father.")
     private boolean fatherFAlleleFirst=false;
 
+    /**
+     * The trios and parent/child pairs at a site are phased independently of one another, so with more than one thread they are
+     * split in contiguous blocks that are phased concurrently; the phased genotypes are then applied to the site in trio order.
+     */
+    @Argument(shortName = "trioThreads",required = false,fullName = "NumTrioThreads", doc="Number of threads used to phase the trios and parent/child pairs at each site concurrently. Default: 1")
+    private int numTrioThreads=1;
+
     @Output
     protected VariantContextWriter vcfWriter = null;
 
@@ -99,25 +110,41 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
 
     private ArrayList<Sample> trios = new ArrayList<Sample>();
 
-    //Matrix of priors for all genotype combinations
-    private EnumMap<GenotypeType,EnumMap<GenotypeType,EnumMap<GenotypeType,Integer>>> mvCountMatrix;
-
-    //Matrix of allele transmission
-    private EnumMap<GenotypeType,EnumMap<GenotypeType,EnumMap<GenotypeType,TrioPhase>>> transmissionMatrix;
-
-    //Metrics counters hash keys
-    private final Byte NUM_TRIO_GENOTYPES_CALLED = 0;
-    private final Byte NUM_TRIO_GENOTYPES_NOCALL = 1;
-    private final Byte NUM_TRIO_GENOTYPES_PHASED = 2;
-    private final Byte NUM_TRIO_HET_HET_HET = 3;
-    private final Byte NUM_TRIO_VIOLATIONS = 4;
-    private final Byte NUM_TRIO_DOUBLE_VIOLATIONS = 10;
-    private final Byte NUM_PAIR_GENOTYPES_CALLED = 5;
-    private final Byte NUM_PAIR_GENOTYPES_NOCALL = 6;
-    private final Byte NUM_PAIR_GENOTYPES_PHASED = 7;
-    private final Byte NUM_PAIR_HET_HET = 8;
-    private final Byte NUM_PAIR_VIOLATIONS = 9;
-    private final Byte NUM_GENOTYPES_MODIFIED = 11;
+    private ExecutorService trioExecutor = null;
+
+    //Number of genotype types; the transmission tables are flat mother x father x child arrays over all of them (see getCombinationIndex)
+    private static final int NUM_GENOTYPE_TYPES = GenotypeType.values().length;
+
+    //Genotypes that carry likelihoods, in the order of the likelihoods vector (HOM_REF, HET, HOM_VAR)
+    private static final int NUM_CALLED_GENOTYPES = 3;
+    private static final int FIRST_CALLED_GENOTYPE = GenotypeType.HOM_REF.ordinal();
+
+    //Likelihoods used for null, unavailable and no call genotypes
+    private static final double[] UNINFORMATIVE_LIKELIHOODS = {1.0/3.0, 1.0/3.0, 1.0/3.0};
+
+    //Number of Mendelian violations of each genotype combination
+    private int[] mvCountTable;
+
+    //Prior of each genotype combination given the de novo mutation prior
+    private double[] transmissionPriorTable;
+
+    //Allele transmission of each genotype combination
+    private TrioPhase[] transmissionTable;
+
+    //Metrics counters indices
+    private static final int NUM_TRIO_GENOTYPES_CALLED = 0;
+    private static final int NUM_TRIO_GENOTYPES_NOCALL = 1;
+    private static final int NUM_TRIO_GENOTYPES_PHASED = 2;
+    private static final int NUM_TRIO_HET_HET_HET = 3;
+    private static final int NUM_TRIO_VIOLATIONS = 4;
+    private static final int NUM_TRIO_DOUBLE_VIOLATIONS = 10;
+    private static final int NUM_PAIR_GENOTYPES_CALLED = 5;
+    private static final int NUM_PAIR_GENOTYPES_NOCALL = 6;
+    private static final int NUM_PAIR_GENOTYPES_PHASED = 7;
+    private static final int NUM_PAIR_HET_HET = 8;
+    private static final int NUM_PAIR_VIOLATIONS = 9;
+    private static final int NUM_GENOTYPES_MODIFIED = 11;
+    private static final int NUM_METRICS_COUNTERS = 12;
 
     //Random number generator
     private Random rand = new Random();
@@ -394,6 +421,9 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
      * Parse the familial relationship specification, build the transmission matrices and initialize VCF writer
      */
     public void initialize() {
+        if(numTrioThreads < 1)
+            throw new UserException.BadArgumentValue("NumTrioThreads", "must be at least 1, but was " + numTrioThreads);
+
         ArrayList<String> rodNames = new ArrayList<String>();
         rodNames.add(variantCollection.variants.getName());
         Map<String, VCFHeader> vcfRods = VCFUtils.getVCFHeadersFromRods(getToolkit(), rodNames);
@@ -416,6 +446,9 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
         if(mvFile != null)
             mvFile.println("CHROM\tPOS\tAC\tFAMILY\tTP\tMOTHER_GT\tMOTHER_DP\tMOTHER_AD\tMOTHER_PL\tFATHER_GT\tFATHER_DP\tFATHER_AD\tFATHER_PL\tCHILD_GT\tCHILD_DP\tCHILD_AD\tCHILD_PL");
 
+        if(numTrioThreads > 1 && trios.size() > 1)
+            trioExecutor = Executors.newFixedThreadPool(numTrioThreads, new NamedThreadFactory("PhaseByTransmission-thread-%d"));
+
     }
 
     /**
@@ -450,24 +483,31 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
 
     }
 
-    //Create the transmission matrices
+    //Create the transmission tables
+    //All tables are computed once for every mother x father x child genotype combination so that scoring a trio only takes array lookups
     private void buildMatrices(){
-        mvCountMatrix = new EnumMap<GenotypeType,EnumMap<GenotypeType,EnumMap<GenotypeType,Integer>>>(GenotypeType.class);
-        transmissionMatrix = new EnumMap<GenotypeType,EnumMap<GenotypeType,EnumMap<GenotypeType,TrioPhase>>>(GenotypeType.class);
+        final int numCombinations = NUM_GENOTYPE_TYPES * NUM_GENOTYPE_TYPES * NUM_GENOTYPE_TYPES;
+        mvCountTable = new int[numCombinations];
+        transmissionPriorTable = new double[numCombinations];
+        transmissionTable = new TrioPhase[numCombinations];
         for(GenotypeType mother : GenotypeType.values()){
-            mvCountMatrix.put(mother,new EnumMap<GenotypeType,EnumMap<GenotypeType,Integer>>(GenotypeType.class));
-            transmissionMatrix.put(mother,new EnumMap<GenotypeType,EnumMap<GenotypeType,TrioPhase>>(GenotypeType.class));
             for(GenotypeType father : GenotypeType.values()){
-                mvCountMatrix.get(mother).put(father,new EnumMap<GenotypeType, Integer>(GenotypeType.class));
-                transmissionMatrix.get(mother).put(father,new EnumMap<GenotypeType,TrioPhase>(GenotypeType.class));
                 for(GenotypeType child : GenotypeType.values()){
-                    mvCountMatrix.get(mother).get(father).put(child, getCombinationMVCount(mother, father, child));
-                    transmissionMatrix.get(mother).get(father).put(child,new TrioPhase(mother,father,child));
+                    final int combination = getCombinationIndex(mother.ordinal(), father.ordinal(), child.ordinal());
+                    final int mvCount = getCombinationMVCount(mother, father, child);
+                    mvCountTable[combination] = mvCount;
+                    transmissionPriorTable[combination] = mvCount>0 ? Math.pow(deNovoPrior,mvCount) : 1.0-11*deNovoPrior;
+                    transmissionTable[combination] = new TrioPhase(mother,father,child);
                 }
             }
         }
     }
 
+    //Returns the index of a mother x father x child genotype combination (given as GenotypeType ordinals) in the transmission tables
+    private static int getCombinationIndex(int mother, int father, int child){
+        return (mother * NUM_GENOTYPE_TYPES + father) * NUM_GENOTYPE_TYPES + child;
+    }
+
     //Returns the number of Mendelian Violations for a given genotype combination.
     //If one of the parents genotype is missing, it will consider it as a parent/child pair
     //If the child genotype or both parents genotypes are missing, 0 is returned.
@@ -538,17 +578,12 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
         return count;
     }
 
-    //Get a Map of genotype likelihoods.
+    //Get the normalized genotype likelihoods in HOM_REF, HET, HOM_VAR order.
     //In case of null, unavailable or no call, all likelihoods are 1/3.
-    private EnumMap<GenotypeType,Double> getLikelihoodsAsMapSafeNull(Genotype genotype){
-        if(genotype == null || !genotype.isCalled() || genotype.getLikelihoods() == null){
-            EnumMap<GenotypeType,Double> likelihoods = new EnumMap<GenotypeType, Double>(GenotypeType.class);
-            likelihoods.put(GenotypeType.HOM_REF,1.0/3.0);
-            likelihoods.put(GenotypeType.HET,1.0/3.0);
-            likelihoods.put(GenotypeType.HOM_VAR,1.0/3.0);
-            return likelihoods;
-        }
-        return genotype.getLikelihoods().getAsMap(true);
+    private double[] getLikelihoodsSafeNull(Genotype genotype){
+        if(genotype == null || !genotype.isCalled() || genotype.getLikelihoods() == null)
+            return UNINFORMATIVE_LIKELIHOODS;
+        return MathUtils.normalizeFromLog10(genotype.getLikelihoods().getAsVector());
     }
 
     //Returns the GenotypeType; returns UNVAILABLE if given null
@@ -575,81 +610,79 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
         //Always assign the first parent as the parent having genotype information in pairs
         //Always assign the mother as the first parent in trios
         int parentsCalled = 0;
-        Map<GenotypeType,Double> firstParentLikelihoods;
-        Map<GenotypeType,Double> secondParentLikelihoods;
-        ArrayList<GenotypeType> bestFirstParentGenotype = new ArrayList<GenotypeType>();
-        ArrayList<GenotypeType> bestSecondParentGenotype = new ArrayList<GenotypeType>();
-        ArrayList<GenotypeType> bestChildGenotype = new ArrayList<GenotypeType>();
-        GenotypeType pairSecondParentGenotype = null;
+        double[] firstParentLikelihoods;
+        double[] secondParentLikelihoods;
+        int firstParentType;
+        int secondParentType;
+        int pairSecondParentType = GenotypeType.UNAVAILABLE.ordinal();
         if(mother == null || !mother.isCalled()){
-            firstParentLikelihoods = getLikelihoodsAsMapSafeNull(father);
-            secondParentLikelihoods = getLikelihoodsAsMapSafeNull(mother);
-            bestFirstParentGenotype.add(getTypeSafeNull(father));
-            bestSecondParentGenotype.add(getTypeSafeNull(mother));
-            pairSecondParentGenotype = mother == null ? GenotypeType.UNAVAILABLE : mother.getType();
+            firstParentLikelihoods = getLikelihoodsSafeNull(father);
+            secondParentLikelihoods = getLikelihoodsSafeNull(mother);
+            firstParentType = getTypeSafeNull(father).ordinal();
+            secondParentType = getTypeSafeNull(mother).ordinal();
+            pairSecondParentType = secondParentType;
             if(father != null && father.isCalled())
                 parentsCalled = 1;
         }
         else{
-            firstParentLikelihoods = getLikelihoodsAsMapSafeNull(mother);
-            secondParentLikelihoods = getLikelihoodsAsMapSafeNull(father);
-            bestFirstParentGenotype.add(getTypeSafeNull(mother));
-            bestSecondParentGenotype.add(getTypeSafeNull(father));
+            firstParentLikelihoods = getLikelihoodsSafeNull(mother);
+            secondParentLikelihoods = getLikelihoodsSafeNull(father);
+            firstParentType = getTypeSafeNull(mother).ordinal();
+            secondParentType = getTypeSafeNull(father).ordinal();
             if(father == null || !father.isCalled()){
                 parentsCalled = 1;
-                pairSecondParentGenotype = father == null ? GenotypeType.UNAVAILABLE : father.getType();
+                pairSecondParentType = secondParentType;
             }else{
                 parentsCalled = 2;
             }
         }
-        Map<GenotypeType,Double> childLikelihoods = getLikelihoodsAsMapSafeNull(child);
-        bestChildGenotype.add(getTypeSafeNull(child));
+        double[] childLikelihoods = getLikelihoodsSafeNull(child);
+
+        //Equally likely combinations (first parent x second parent x child indices in the transmission tables) and their MV counts.
+        //The original genotypes are the first candidate.
+        final int[] bestCombinations = new int[NUM_CALLED_GENOTYPES * NUM_CALLED_GENOTYPES * NUM_CALLED_GENOTYPES + 1];
+        final int[] bestMVCount = new int[bestCombinations.length];
+        bestCombinations[0] = getCombinationIndex(firstParentType, secondParentType, getTypeSafeNull(child).ordinal());
+        int numBestCombinations = 1;
 
         //Prior vars
         double bestConfigurationLikelihood = 0.0;
         double norm = 0.0;
         int configuration_index =0;
-        ArrayList<Integer> bestMVCount = new ArrayList<Integer>();
-        bestMVCount.add(0);
 
         //Get the most likely combination
         //Only check for most likely combination if at least a parent and the child have genotypes
         if(child.isCalled() && parentsCalled > 0){
-            int mvCount;
             int cumulativeMVCount = 0;
             double configurationLikelihood = 0;
-            for(Map.Entry<GenotypeType,Double> childGenotype : childLikelihoods.entrySet()){
-                for(Map.Entry<GenotypeType,Double> firstParentGenotype : firstParentLikelihoods.entrySet()){
-                    for(Map.Entry<GenotypeType,Double> secondParentGenotype : secondParentLikelihoods.entrySet()){
-                        mvCount = mvCountMatrix.get(firstParentGenotype.getKey()).get(secondParentGenotype.getKey()).get(childGenotype.getKey());
+            for(int childGenotype = 0; childGenotype < NUM_CALLED_GENOTYPES; childGenotype++){
+                final double childLikelihood = childLikelihoods[childGenotype];
+                final int childType = FIRST_CALLED_GENOTYPE + childGenotype;
+                for(int firstParentGenotype = 0; firstParentGenotype < NUM_CALLED_GENOTYPES; firstParentGenotype++){
+                    final double firstParentLikelihood = firstParentLikelihoods[firstParentGenotype];
+                    final int firstType = FIRST_CALLED_GENOTYPE + firstParentGenotype;
+                    for(int secondParentGenotype = 0; secondParentGenotype < NUM_CALLED_GENOTYPES; secondParentGenotype++){
+                        final int combination = getCombinationIndex(firstType, FIRST_CALLED_GENOTYPE + secondParentGenotype, childType);
+                        final int mvCount = mvCountTable[combination];
                         //For parent/child pairs, sum over the possible genotype configurations of the missing parent
                         if(parentsCalled<2){
                             cumulativeMVCount += mvCount;
-                            configurationLikelihood += mvCount>0 ? Math.pow(deNovoPrior,mvCount)*firstParentGenotype.getValue()*secondParentGenotype.getValue()*childGenotype.getValue() : (1.0-11*deNovoPrior)*firstParentGenotype.getValue()*secondParentGenotype.getValue()*childGenotype.getValue();
+                            configurationLikelihood += transmissionPriorTable[combination]*firstParentLikelihood*secondParentLikelihoods[secondParentGenotype]*childLikelihood;
                         }
                         //Evaluate configurations of trios
                         else{
-                            configurationLikelihood =  mvCount>0 ? Math.pow(deNovoPrior,mvCount)*firstParentGenotype.getValue()*secondParentGenotype.getValue()*childGenotype.getValue() : (1.0-11*deNovoPrior)*firstParentGenotype.getValue()*secondParentGenotype.getValue()*childGenotype.getValue();
+                            configurationLikelihood = transmissionPriorTable[combination]*firstParentLikelihood*secondParentLikelihoods[secondParentGenotype]*childLikelihood;
                             norm += configurationLikelihood;
                             //Keep this combination if
                             //It has a better likelihood
                             //Or it has the same likelihood but requires less changes from original genotypes
                             if (configurationLikelihood > bestConfigurationLikelihood){
                                 bestConfigurationLikelihood = configurationLikelihood;
-                                bestMVCount.clear();
-                                bestMVCount.add(mvCount);
-                                bestFirstParentGenotype.clear();
-                                bestFirstParentGenotype.add(firstParentGenotype.getKey());
-                                bestSecondParentGenotype.clear();
-                                bestSecondParentGenotype.add(secondParentGenotype.getKey());
-                                bestChildGenotype.clear();
-                                bestChildGenotype.add(childGenotype.getKey());
+                                numBestCombinations = 0;
                             }
-                            else if(configurationLikelihood == bestConfigurationLikelihood) {
-                                bestFirstParentGenotype.add(firstParentGenotype.getKey());
-                                bestSecondParentGenotype.add(secondParentGenotype.getKey());
-                                bestChildGenotype.add(childGenotype.getKey());
-                                bestMVCount.add(mvCount);
+                            if (configurationLikelihood == bestConfigurationLikelihood){
+                                bestCombinations[numBestCombinations] = combination;
+                                bestMVCount[numBestCombinations++] = mvCount;
                             }
                         }
                     }
@@ -661,20 +694,11 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
                         //Or it has the same likelihood but requires less changes from original genotypes
                         if (configurationLikelihood > bestConfigurationLikelihood){
                             bestConfigurationLikelihood = configurationLikelihood;
-                            bestMVCount.clear();
-                            bestMVCount.add(cumulativeMVCount/3);
-                            bestChildGenotype.clear();
-                            bestFirstParentGenotype.clear();
-                            bestSecondParentGenotype.clear();
-                            bestChildGenotype.add(childGenotype.getKey());
-                            bestFirstParentGenotype.add(firstParentGenotype.getKey());
-                            bestSecondParentGenotype.add(pairSecondParentGenotype);
+                            numBestCombinations = 0;
                         }
-                        else if(configurationLikelihood == bestConfigurationLikelihood) {
-                            bestFirstParentGenotype.add(firstParentGenotype.getKey());
-                            bestSecondParentGenotype.add(pairSecondParentGenotype);
-                            bestChildGenotype.add(childGenotype.getKey());
-                            bestMVCount.add(cumulativeMVCount/3);
+                        if(configurationLikelihood == bestConfigurationLikelihood) {
+                            bestCombinations[numBestCombinations] = getCombinationIndex(firstType, pairSecondParentType, childType);
+                            bestMVCount[numBestCombinations++] = cumulativeMVCount/3;
                         }
                         configurationLikelihood = 0;
                     }
@@ -685,8 +709,8 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
             bestConfigurationLikelihood = bestConfigurationLikelihood / norm;
 
             //In case of multiple equally likely combinations, take a random one
-            if(bestFirstParentGenotype.size()>1){
-                configuration_index = rand.nextInt(bestFirstParentGenotype.size()-1);
+            if(numBestCombinations>1){
+                configuration_index = rand.nextInt(numBestCombinations-1);
             }
 
         }
@@ -694,58 +718,126 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
             bestConfigurationLikelihood = NO_TRANSMISSION_PROB;
         }
 
+        //The transmission table is addressed by mother x father x child, so swap the parents back if the father was evaluated first
+        final int bestCombination = bestCombinations[configuration_index];
         TrioPhase phasedTrioGenotypes;
-        if(parentsCalled < 2 && mother == null || !mother.isCalled())
-            phasedTrioGenotypes = transmissionMatrix.get(bestSecondParentGenotype.get(configuration_index)).get(bestFirstParentGenotype.get(configuration_index)).get(bestChildGenotype.get(configuration_index));
+        if(parentsCalled < 2 && mother == null || !mother.isCalled()){
+            final int bestChildType = bestCombination % NUM_GENOTYPE_TYPES;
+            final int bestSecondParentType = (bestCombination / NUM_GENOTYPE_TYPES) % NUM_GENOTYPE_TYPES;
+            final int bestFirstParentType = bestCombination / (NUM_GENOTYPE_TYPES * NUM_GENOTYPE_TYPES);
+            phasedTrioGenotypes = transmissionTable[getCombinationIndex(bestSecondParentType, bestFirstParentType, bestChildType)];
+        }
         else
-            phasedTrioGenotypes = transmissionMatrix.get(bestFirstParentGenotype.get(configuration_index)).get(bestSecondParentGenotype.get(configuration_index)).get(bestChildGenotype.get(configuration_index));
+            phasedTrioGenotypes = transmissionTable[bestCombination];
 
         //Return the phased genotypes
         phasedTrioGenotypes.getPhasedGenotypes(ref,alt,mother,father,child,bestConfigurationLikelihood,finalGenotypes);
-        return bestMVCount.get(configuration_index);
+        return bestMVCount[configuration_index];
 
     }
 
 
-    private void updatePairMetricsCounters(Genotype parent, Genotype child, int mvCount, HashMap<Byte,Integer> counters){
+    private void updatePairMetricsCounters(Genotype parent, Genotype child, int mvCount, int[] counters){
 
         //Increment metrics counters
         if(parent.isCalled() && child.isCalled()){
-            counters.put(NUM_PAIR_GENOTYPES_CALLED,counters.get(NUM_PAIR_GENOTYPES_CALLED)+1);
+            counters[NUM_PAIR_GENOTYPES_CALLED]++;
             if(parent.isPhased())
-                counters.put(NUM_PAIR_GENOTYPES_PHASED,counters.get(NUM_PAIR_GENOTYPES_PHASED)+1);
+                counters[NUM_PAIR_GENOTYPES_PHASED]++;
             else{
-                counters.put(NUM_PAIR_VIOLATIONS,counters.get(NUM_PAIR_VIOLATIONS)+mvCount);
+                counters[NUM_PAIR_VIOLATIONS] += mvCount;
                 if(parent.isHet() && child.isHet())
-                    counters.put(NUM_PAIR_HET_HET,counters.get(NUM_PAIR_HET_HET)+1);
+                    counters[NUM_PAIR_HET_HET]++;
             }
         }else{
-            counters.put(NUM_PAIR_GENOTYPES_NOCALL,counters.get(NUM_PAIR_GENOTYPES_NOCALL)+1);
+            counters[NUM_PAIR_GENOTYPES_NOCALL]++;
         }
 
     }
 
-    private void updateTrioMetricsCounters(Genotype mother, Genotype father, Genotype child, int mvCount, HashMap<Byte,Integer> counters){
+    private void updateTrioMetricsCounters(Genotype mother, Genotype father, Genotype child, int mvCount, int[] counters){
 
         //Increment metrics counters
         if(mother.isCalled() && father.isCalled() && child.isCalled()){
-            counters.put(NUM_TRIO_GENOTYPES_CALLED,counters.get(NUM_TRIO_GENOTYPES_CALLED)+1);
+            counters[NUM_TRIO_GENOTYPES_CALLED]++;
             if(mother.isPhased())
-                counters.put(NUM_TRIO_GENOTYPES_PHASED,counters.get(NUM_TRIO_GENOTYPES_PHASED)+1);
+                counters[NUM_TRIO_GENOTYPES_PHASED]++;
 
             else{
                 if(mvCount > 0){
                     if(mvCount >1)
-                        counters.put(NUM_TRIO_DOUBLE_VIOLATIONS,counters.get(NUM_TRIO_DOUBLE_VIOLATIONS)+1);
+                        counters[NUM_TRIO_DOUBLE_VIOLATIONS]++;
                     else
-                        counters.put(NUM_TRIO_VIOLATIONS,counters.get(NUM_TRIO_VIOLATIONS)+1);
+                        counters[NUM_TRIO_VIOLATIONS]++;
                 }
                 else if(mother.isHet() && father.isHet() && child.isHet())
-                    counters.put(NUM_TRIO_HET_HET_HET,counters.get(NUM_TRIO_HET_HET_HET)+1);
+                    counters[NUM_TRIO_HET_HET_HET]++;
 
             }
         }else{
-            counters.put(NUM_TRIO_GENOTYPES_NOCALL,counters.get(NUM_TRIO_GENOTYPES_NOCALL)+1);
+            counters[NUM_TRIO_GENOTYPES_NOCALL]++;
+        }
+    }
+
+    //The genotypes of a trio or parent/child pair at a site, along with their phasing by transmission
+    private static class FamilyGenotypes {
+        private final Sample sample;
+        private final Genotype mother;
+        private final Genotype father;
+        private final Genotype child;
+        private final ArrayList<Genotype> phasedGenotypes = new ArrayList<Genotype>(3);
+        private int mvCount;
+
+        private FamilyGenotypes(Sample sample, Genotype mother, Genotype father, Genotype child){
+            this.sample = sample;
+            this.mother = mother;
+            this.father = father;
+            this.child = child;
+        }
+    }
+
+    //Phases a contiguous block of the families at a site
+    private class FamilyPhaser implements Callable<List<FamilyGenotypes>> {
+        private final Allele ref;
+        private final Allele alt;
+        private final List<FamilyGenotypes> families;
+
+        private FamilyPhaser(Allele ref, Allele alt, List<FamilyGenotypes> families){
+            this.ref = ref;
+            this.alt = alt;
+            this.families = families;
+        }
+
+        public List<FamilyGenotypes> call(){
+            for(FamilyGenotypes family : families)
+                family.mvCount = phaseTrioGenotypes(ref, alt, family.mother, family.father, family.child, family.phasedGenotypes);
+            return families;
+        }
+    }
+
+    //Phases all the families at a site, concurrently if more than one thread was requested
+    private void phaseFamilies(final VariantContext vc, final List<FamilyGenotypes> families){
+        final Allele ref = vc.getReference();
+        final Allele alt = vc.getAltAlleleWithHighestAlleleCount();
+        if(trioExecutor == null || families.size() < 2){
+            new FamilyPhaser(ref, alt, families).call();
+            return;
+        }
+
+        final int blockSize = (families.size() + numTrioThreads - 1) / numTrioThreads;
+        final List<FamilyPhaser> phasers = new ArrayList<FamilyPhaser>(numTrioThreads);
+        for(int start = 0; start < families.size(); start += blockSize)
+            phasers.add(new FamilyPhaser(ref, alt, families.subList(start, Math.min(start + blockSize, families.size()))));
+
+        try {
+            for(Future<List<FamilyGenotypes>> phased : trioExecutor.invokeAll(phasers))
+                phased.get();
+        } catch (InterruptedException e) {
+            throw new ReviewedStingException(String.format("Interrupted while phasing the families at %s:%d", vc.getChr(), vc.getStart()), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new ReviewedStingException(String.format("Failed to phase the families at %s:%d", vc.getChr(), vc.getStart()), e.getCause());
         }
     }
 
@@ -758,23 +850,9 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
      * @return null
      */
     @Override
-    public HashMap<Byte,Integer> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
-
-        HashMap<Byte,Integer> metricsCounters = new HashMap<Byte, Integer>(10);
-        metricsCounters.put(NUM_TRIO_GENOTYPES_CALLED,0);
-        metricsCounters.put(NUM_TRIO_GENOTYPES_NOCALL,0);
-        metricsCounters.put(NUM_TRIO_GENOTYPES_PHASED,0);
-        metricsCounters.put(NUM_TRIO_HET_HET_HET,0);
-        metricsCounters.put(NUM_TRIO_VIOLATIONS,0);
-        metricsCounters.put(NUM_PAIR_GENOTYPES_CALLED,0);
-        metricsCounters.put(NUM_PAIR_GENOTYPES_NOCALL,0);
-        metricsCounters.put(NUM_PAIR_GENOTYPES_PHASED,0);
-        metricsCounters.put(NUM_PAIR_HET_HET,0);
-        metricsCounters.put(NUM_PAIR_VIOLATIONS,0);
-        metricsCounters.put(NUM_TRIO_DOUBLE_VIOLATIONS,0);
-        metricsCounters.put(NUM_GENOTYPES_MODIFIED,0);
-
-        String mvfLine;
+    public int[] map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+
+        int[] metricsCounters = new int[NUM_METRICS_COUNTERS];
 
         if (tracker == null)
             return metricsCounters;
@@ -786,6 +864,9 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
         final VariantContextBuilder builder = new VariantContextBuilder(vc);
 
         final GenotypesContext genotypesContext = GenotypesContext.copy(vc.getGenotypes());
+
+        //Genotypes are looked up here rather than in the phasing threads as the genotypes of a site may be decoded lazily
+        final List<FamilyGenotypes> families = new ArrayList<FamilyGenotypes>(trios.size());
         for (Sample sample : trios) {
             Genotype mother = vc.getGenotype(sample.getMaternalID());
             Genotype father = vc.getGenotype(sample.getPaternalID());
@@ -795,12 +876,26 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
             if(mother == null && father == null || child == null)
                 continue;
 
-            ArrayList<Genotype> trioGenotypes = new ArrayList<Genotype>(3);
-            final int mvCount = phaseTrioGenotypes(vc.getReference(), vc.getAltAlleleWithHighestAlleleCount(), mother, father, child,trioGenotypes);
+            families.add(new FamilyGenotypes(sample, mother, father, child));
+        }
+
+        phaseFamilies(vc, families);
 
-            Genotype phasedMother = trioGenotypes.get(0);
-            Genotype phasedFather = trioGenotypes.get(1);
-            Genotype phasedChild = trioGenotypes.get(2);
+        //Report violation if set so
+        //TODO: ADAPT FOR PAIRS TOO!!
+        final boolean reportViolations = mvFile != null && !vc.isFiltered();
+
+        for (FamilyGenotypes family : families) {
+            final Sample sample = family.sample;
+            final Genotype mother = family.mother;
+            final Genotype father = family.father;
+            final Genotype child = family.child;
+            final int mvCount = family.mvCount;
+            final boolean reportViolation = reportViolations && mvCount>0;
+
+            Genotype phasedMother = family.phasedGenotypes.get(0);
+            Genotype phasedFather = family.phasedGenotypes.get(1);
+            Genotype phasedChild = family.phasedGenotypes.get(2);
 
             //Fill the genotype map with the new genotypes and increment metrics counters
             genotypesContext.replace(phasedChild);
@@ -809,39 +904,37 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
                 if(father != null){
                     genotypesContext.replace(phasedFather);
                     updateTrioMetricsCounters(phasedMother,phasedFather,phasedChild,mvCount,metricsCounters);
-                    mvfLine = String.format("%s\t%d\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s",
+                    if(reportViolation)
+                        mvFile.println(String.format("%s\t%d\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s",
                             vc.getChr(),vc.getStart(),vc.getAttribute(VCFConstants.ALLELE_COUNT_KEY),sample.getFamilyID(),
                             phasedMother.getExtendedAttribute(TRANSMISSION_PROBABILITY_TAG_NAME),phasedMother.getGenotypeString(),phasedMother.getDP(),printAD(phasedMother.getAD()),
                             phasedMother.getLikelihoodsString(), phasedFather.getGenotypeString(),phasedFather.getDP(),printAD(phasedFather.getAD()),phasedFather.getLikelihoodsString(),
-                            phasedChild.getGenotypeString(),phasedChild.getDP(),printAD(phasedChild.getAD()),phasedChild.getLikelihoodsString());
+                            phasedChild.getGenotypeString(),phasedChild.getDP(),printAD(phasedChild.getAD()),phasedChild.getLikelihoodsString()));
                     if(!(phasedMother.getType()==mother.getType() && phasedFather.getType()==father.getType() && phasedChild.getType()==child.getType()))
-                        metricsCounters.put(NUM_GENOTYPES_MODIFIED,metricsCounters.get(NUM_GENOTYPES_MODIFIED)+1);
+                        metricsCounters[NUM_GENOTYPES_MODIFIED]++;
                 }
                 else{
                     updatePairMetricsCounters(phasedMother,phasedChild,mvCount,metricsCounters);
                     if(!(phasedMother.getType()==mother.getType() && phasedChild.getType()==child.getType()))
-                        metricsCounters.put(NUM_GENOTYPES_MODIFIED,metricsCounters.get(NUM_GENOTYPES_MODIFIED)+1);
-                    mvfLine = String.format("%s\t%d\t%s\t%s\t%s\t%s:%s:%s:%s\t.\t.\t.\t.\t%s\t%s\t%s\t%s",
+                        metricsCounters[NUM_GENOTYPES_MODIFIED]++;
+                    if(reportViolation)
+                        mvFile.println(String.format("%s\t%d\t%s\t%s\t%s\t%s:%s:%s:%s\t.\t.\t.\t.\t%s\t%s\t%s\t%s",
                             vc.getChr(),vc.getStart(),vc.getAttribute(VCFConstants.ALLELE_COUNT_KEY),sample.getFamilyID(),
                             phasedMother.getExtendedAttribute(TRANSMISSION_PROBABILITY_TAG_NAME),phasedMother.getGenotypeString(),phasedMother.getDP(),printAD(phasedMother.getAD()),phasedMother.getLikelihoodsString(),
-                            phasedChild.getGenotypeString(),phasedChild.getDP(),printAD(phasedChild.getAD()),phasedChild.getLikelihoodsString());
+                            phasedChild.getGenotypeString(),phasedChild.getDP(),printAD(phasedChild.getAD()),phasedChild.getLikelihoodsString()));
                 }
             }
             else{
                 genotypesContext.replace(phasedFather);
                 updatePairMetricsCounters(phasedFather,phasedChild,mvCount,metricsCounters);
                 if(!(phasedFather.getType()==father.getType() && phasedChild.getType()==child.getType()))
-                    metricsCounters.put(NUM_GENOTYPES_MODIFIED,metricsCounters.get(NUM_GENOTYPES_MODIFIED)+1);
-                mvfLine =   String.format("%s\t%d\t%s\t%s\t%s\t.\t.\t.\t.\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s",
+                    metricsCounters[NUM_GENOTYPES_MODIFIED]++;
+                if(reportViolation)
+                    mvFile.println(String.format("%s\t%d\t%s\t%s\t%s\t.\t.\t.\t.\t%s\t%s\t%s\t%s\t%s\t%s\t%s\t%s",
                         vc.getChr(),vc.getStart(),vc.getAttribute(VCFConstants.ALLELE_COUNT_KEY),sample.getFamilyID(),
                         phasedFather.getExtendedAttribute(TRANSMISSION_PROBABILITY_TAG_NAME),phasedFather.getGenotypeString(),phasedFather.getDP(),printAD(phasedFather.getAD()),phasedFather.getLikelihoodsString(),
-                        phasedChild.getGenotypeString(),phasedChild.getDP(),printAD(phasedChild.getAD()),phasedChild.getLikelihoodsString());
+                        phasedChild.getGenotypeString(),phasedChild.getDP(),printAD(phasedChild.getAD()),phasedChild.getLikelihoodsString()));
             }
-
-            //Report violation if set so
-            //TODO: ADAPT FOR PAIRS TOO!!
-            if(mvCount>0 && mvFile != null && !vc.isFiltered())
-                mvFile.println(mvfLine);
         }
 
         builder.genotypes(genotypesContext);
@@ -868,22 +961,8 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
      * @return All counters initialized to 0
      */
     @Override
-    public HashMap<Byte,Integer> reduceInit() {
-        HashMap<Byte,Integer> metricsCounters = new HashMap<Byte, Integer>(10);
-        metricsCounters.put(NUM_TRIO_GENOTYPES_CALLED,0);
-        metricsCounters.put(NUM_TRIO_GENOTYPES_NOCALL,0);
-        metricsCounters.put(NUM_TRIO_GENOTYPES_PHASED,0);
-        metricsCounters.put(NUM_TRIO_HET_HET_HET,0);
-        metricsCounters.put(NUM_TRIO_VIOLATIONS,0);
-        metricsCounters.put(NUM_PAIR_GENOTYPES_CALLED,0);
-        metricsCounters.put(NUM_PAIR_GENOTYPES_NOCALL,0);
-        metricsCounters.put(NUM_PAIR_GENOTYPES_PHASED,0);
-        metricsCounters.put(NUM_PAIR_HET_HET,0);
-        metricsCounters.put(NUM_PAIR_VIOLATIONS,0);
-        metricsCounters.put(NUM_TRIO_DOUBLE_VIOLATIONS,0);
-        metricsCounters.put(NUM_GENOTYPES_MODIFIED,0);
-
-        return metricsCounters;
+    public int[] reduceInit() {
+        return new int[NUM_METRICS_COUNTERS];
     }
 
     /**
@@ -894,19 +973,9 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
      * @return accumulator with result of the map taken into account.
      */
     @Override
-    public HashMap<Byte,Integer> reduce(HashMap<Byte,Integer> value, HashMap<Byte,Integer> sum) {
-        sum.put(NUM_TRIO_GENOTYPES_CALLED,value.get(NUM_TRIO_GENOTYPES_CALLED)+sum.get(NUM_TRIO_GENOTYPES_CALLED));
-        sum.put(NUM_TRIO_GENOTYPES_NOCALL,value.get(NUM_TRIO_GENOTYPES_NOCALL)+sum.get(NUM_TRIO_GENOTYPES_NOCALL));
-        sum.put(NUM_TRIO_GENOTYPES_PHASED,value.get(NUM_TRIO_GENOTYPES_PHASED)+sum.get(NUM_TRIO_GENOTYPES_PHASED));
-        sum.put(NUM_TRIO_HET_HET_HET,value.get(NUM_TRIO_HET_HET_HET)+sum.get(NUM_TRIO_HET_HET_HET));
-        sum.put(NUM_TRIO_VIOLATIONS,value.get(NUM_TRIO_VIOLATIONS)+sum.get(NUM_TRIO_VIOLATIONS));
-        sum.put(NUM_PAIR_GENOTYPES_CALLED,value.get(NUM_PAIR_GENOTYPES_CALLED)+sum.get(NUM_PAIR_GENOTYPES_CALLED));
-        sum.put(NUM_PAIR_GENOTYPES_NOCALL,value.get(NUM_PAIR_GENOTYPES_NOCALL)+sum.get(NUM_PAIR_GENOTYPES_NOCALL));
-        sum.put(NUM_PAIR_GENOTYPES_PHASED,value.get(NUM_PAIR_GENOTYPES_PHASED)+sum.get(NUM_PAIR_GENOTYPES_PHASED));
-        sum.put(NUM_PAIR_HET_HET,value.get(NUM_PAIR_HET_HET)+sum.get(NUM_PAIR_HET_HET));
-        sum.put(NUM_PAIR_VIOLATIONS,value.get(NUM_PAIR_VIOLATIONS)+sum.get(NUM_PAIR_VIOLATIONS));
-        sum.put(NUM_TRIO_DOUBLE_VIOLATIONS,value.get(NUM_TRIO_DOUBLE_VIOLATIONS)+sum.get(NUM_TRIO_DOUBLE_VIOLATIONS));
-        sum.put(NUM_GENOTYPES_MODIFIED,value.get(NUM_GENOTYPES_MODIFIED)+sum.get(NUM_GENOTYPES_MODIFIED));
+    public int[] reduce(int[] value, int[] sum) {
+        for(int i = 0; i < NUM_METRICS_COUNTERS; i++)
+            sum[i] += value[i];
 
         return sum;
     }
@@ -917,19 +986,22 @@ public class PhaseByTransmission extends RodWalker<HashMap<Byte,Integer>, HashMa
      * @param result Accumulator with all counters.
      */
     @Override
-    public void onTraversalDone(HashMap<Byte,Integer> result) {
-        logger.info("Number of complete trio-genotypes: " + result.get(NUM_TRIO_GENOTYPES_CALLED));
-        logger.info("Number of trio-genotypes containing no call(s): " + result.get(NUM_TRIO_GENOTYPES_NOCALL));
-        logger.info("Number of trio-genotypes phased: " + result.get(NUM_TRIO_GENOTYPES_PHASED));
-        logger.info("Number of resulting Het/Het/Het trios: " + result.get(NUM_TRIO_HET_HET_HET));
-        logger.info("Number of remaining single mendelian violations in trios: " + result.get(NUM_TRIO_VIOLATIONS));
-        logger.info("Number of remaining double mendelian violations in trios: " + result.get(NUM_TRIO_DOUBLE_VIOLATIONS));
-        logger.info("Number of complete pair-genotypes: " + result.get(NUM_PAIR_GENOTYPES_CALLED));
-        logger.info("Number of pair-genotypes containing no call(s): " + result.get(NUM_PAIR_GENOTYPES_NOCALL));
-        logger.info("Number of pair-genotypes phased: " + result.get(NUM_PAIR_GENOTYPES_PHASED));
-        logger.info("Number of resulting Het/Het pairs: " + result.get(NUM_PAIR_HET_HET));
-        logger.info("Number of remaining mendelian violations in pairs: " + result.get(NUM_PAIR_VIOLATIONS));
-        logger.info("Number of genotypes updated: " + result.get(NUM_GENOTYPES_MODIFIED));
+    public void onTraversalDone(int[] result) {
+        if(trioExecutor != null)
+            trioExecutor.shutdown();
+
+        logger.info("Number of complete trio-genotypes: " + result[NUM_TRIO_GENOTYPES_CALLED]);
+        logger.info("Number of trio-genotypes containing no call(s): " + result[NUM_TRIO_GENOTYPES_NOCALL]);
+        logger.info("Number of trio-genotypes phased: " + result[NUM_TRIO_GENOTYPES_PHASED]);
+        logger.info("Number of resulting Het/Het/Het trios: " + result[NUM_TRIO_HET_HET_HET]);
+        logger.info("Number of remaining single mendelian violations in trios: " + result[NUM_TRIO_VIOLATIONS]);
+        logger.info("Number of remaining double mendelian violations in trios: " + result[NUM_TRIO_DOUBLE_VIOLATIONS]);
+        logger.info("Number of complete pair-genotypes: " + result[NUM_PAIR_GENOTYPES_CALLED]);
+        logger.info("Number of pair-genotypes containing no call(s): " + result[NUM_PAIR_GENOTYPES_NOCALL]);
+        logger.info("Number of pair-genotypes phased: " + result[NUM_PAIR_GENOTYPES_PHASED]);
+        logger.info("Number of resulting Het/Het pairs: " + result[NUM_PAIR_HET_HET]);
+        logger.info("Number of remaining mendelian violations in pairs: " + result[NUM_PAIR_VIOLATIONS]);
+        logger.info("Number of genotypes updated: " + result[NUM_GENOTYPES_MODIFIED]);
 
     }
 }
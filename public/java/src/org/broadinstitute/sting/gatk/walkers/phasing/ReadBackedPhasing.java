@@ -44,12 +44,14 @@ import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
 import org.broadinstitute.sting.utils.pileup.PileupElement;
 import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.threading.NamedThreadFactory;
 import org.broadinstitute.sting.utils.variantcontext.*;
 import org.broadinstitute.sting.utils.variantcontext.writer.VariantContextWriter;
 import org.broadinstitute.sting.utils.variantcontext.writer.VariantContextWriterFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.broadinstitute.sting.utils.codecs.vcf.VCFUtils.getVCFHeadersFromRods;
 
@@ -167,7 +169,18 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
     protected File outputMultipleBaseCountsFile = null;
     private MultipleBaseCountsWriter outputMultipleBaseCountsWriter = null;
 
+    /**
+     * The het genotypes of each sample at a site are phased independently of one another, so with more than one thread the
+     * phasing windows of all samples at a site are built and scored concurrently, and their results are then applied in sample order.
+     */
+    @Argument(fullName = "numPhasingThreads", shortName = "phasingThreads", doc = "The number of threads used to phase the samples at each site concurrently", required = false)
+    protected int numPhasingThreads = 1;
+    private ExecutorService phasingExecutor = null;
+
     public void initialize() {
+        if (numPhasingThreads < 1)
+            throw new UserException.BadArgumentValue("numPhasingThreads", "must be at least 1, but was " + numPhasingThreads);
+
         if (maxPhaseSites <= 2)
             maxPhaseSites = 2; // by definition, must phase a site relative to previous site [thus, 2 in total]
 
@@ -190,6 +203,9 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
 
         if (outputMultipleBaseCountsFile != null)
             outputMultipleBaseCountsWriter = new MultipleBaseCountsWriter(outputMultipleBaseCountsFile);
+
+        if (numPhasingThreads > 1)
+            phasingExecutor = Executors.newFixedThreadPool(numPhasingThreads, new NamedThreadFactory("ReadBackedPhasing-thread-%d"));
     }
 
     private void initializeVcfWriter() {
@@ -368,7 +384,10 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
         UnfinishedVariantAndReads uvr = new UnfinishedVariantAndReads(vr);
         UnfinishedVariantContext uvc = uvr.unfinishedVariant;
 
-        // Perform per-sample phasing:
+        // Phase each het sample against its phasing window [concurrently, if requested]; this only reads the site queues:
+        Iterator<PhasingWindow> hetSampleWindows = phaseHetSamples(vr).iterator();
+
+        // Apply the per-sample phasing results, in sample order:
         GenotypesContext sampGenotypes = vc.getGenotypes();
         Map<String, PhaseCounts> samplePhaseStats = new TreeMap<String, PhaseCounts>();
         for (final Genotype gt : sampGenotypes) {
@@ -382,7 +401,7 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
                     uvc.setGenotype(samp, phasedGt);
                 }
                 else if (gt.isHet()) { // Attempt to phase this het genotype relative to the previous het genotype
-                    PhasingWindow phaseWindow = new PhasingWindow(vr, samp);
+                    PhasingWindow phaseWindow = hetSampleWindows.next();
                     if (phaseWindow.hasPreviousHets()) { // Otherwise, nothing to phase this against
                         SNPallelePair allelePair = new SNPallelePair(gt);
                         if (DEBUG) logger.debug("Want to phase TOP vs. BOTTOM for: " + "\n" + allelePair);
@@ -395,7 +414,7 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
                         UnfinishedVariantContext prevUvc = prevHetAndInteriorIt.next().unfinishedVariant;
                         Genotype prevHetGenotype = prevUvc.getGenotype(samp);
 
-                        PhaseResult pr = phaseSampleAtSite(phaseWindow);
+                        PhaseResult pr = phaseWindow.phaseResult;
                         boolean genotypesArePhased = passesPhasingThreshold(pr.phaseQuality);
 
                         if (pr.phasingContainsInconsistencies) {
@@ -441,7 +460,7 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
                         }
 
                         if (statsWriter != null)
-                            statsWriter.addStat(samp, VariantContextUtils.getLocation(getToolkit().getGenomeLocParser(), vc), startDistance(prevUvc, vc), pr.phaseQuality, phaseWindow.readsAtHetSites.size(), phaseWindow.hetGenotypes.length);
+                            statsWriter.addStat(samp, VariantContextUtils.getLocation(getToolkit().getGenomeLocParser(), vc), startDistance(prevUvc, vc), pr.phaseQuality, phaseWindow.numReadsAtHetSites, phaseWindow.hetGenotypes.length);
 
                         PhaseCounts sampPhaseCounts = samplePhaseStats.get(samp);
                         if (sampPhaseCounts == null) {
@@ -468,6 +487,58 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
         phaseStats.addIn(new PhasingStats(samplePhaseStats));
     }
 
+    /* Build the phasing window of each het sample at vr, and phase the sample within it.
+
+       Each sample's window only reads the genotypes and reads of that sample in partiallyPhasedSites and unphasedSiteQueue,
+       and neither is modified until phaseSite applies the results, so the samples can be phased concurrently.
+
+       Returns the windows in the order of the het samples in vr.variant.getGenotypes().
+     */
+
+    private List<PhasingWindow> phaseHetSamples(VariantAndReads vr) {
+        List<SamplePhaser> phasers = new ArrayList<SamplePhaser>();
+        for (final Genotype gt : vr.variant.getGenotypes()) {
+            if (isUnfilteredCalledDiploidGenotype(gt) && gt.isHet())
+                phasers.add(new SamplePhaser(vr, gt.getSampleName()));
+        }
+
+        List<PhasingWindow> windows = new ArrayList<PhasingWindow>(phasers.size());
+        if (phasingExecutor == null || phasers.size() < 2) {
+            for (SamplePhaser phaser : phasers)
+                windows.add(phaser.call());
+            return windows;
+        }
+
+        try {
+            for (Future<PhasingWindow> window : phasingExecutor.invokeAll(phasers))
+                windows.add(window.get());
+        } catch (InterruptedException e) {
+            throw new ReviewedStingException("Interrupted while phasing samples at " + VariantContextUtils.getLocation(getToolkit().getGenomeLocParser(), vr.variant), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new ReviewedStingException("Failed to phase samples at " + VariantContextUtils.getLocation(getToolkit().getGenomeLocParser(), vr.variant), e.getCause());
+        }
+        return windows;
+    }
+
+    private class SamplePhaser implements Callable<PhasingWindow> {
+        private VariantAndReads vr;
+        private String sample;
+
+        public SamplePhaser(VariantAndReads vr, String sample) {
+            this.vr = vr;
+            this.sample = sample;
+        }
+
+        public PhasingWindow call() {
+            PhasingWindow phaseWindow = new PhasingWindow(vr, sample);
+            if (phaseWindow.hasPreviousHets()) // Otherwise, nothing to phase this against
+                phaseWindow.phaseResult = phaseSampleAtSite(phaseWindow);
+            return phaseWindow;
+        }
+    }
+
     public boolean passesPhasingThreshold(double PQ) {
         return PQ >= phaseQualityThresh;
     }
@@ -476,6 +547,7 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
         public Genotype genotype;
         public ReadBasesAtPosition readBases;
         public GenomeLoc loc;
+        public int[] readIndices = null; // the window's dense index of each read in readBases [in iteration order]
 
         public GenotypeAndReadBases(Genotype genotype, ReadBasesAtPosition readBases, GenomeLoc loc) {
             this.genotype = genotype;
@@ -488,13 +560,27 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
         private Genotype[] hetGenotypes = null;
         private CloneableIteratorLinkedList.CloneableIterator<UnfinishedVariantAndReads> prevHetAndInteriorIt = null;
         private int phasingSiteIndex = -1;
-        private Map<String, PhasingRead> readsAtHetSites = null;
+
+        // Reads are indexed densely [in order of first appearance in the window], and readsAtHetSites[i] is null for each removed read i:
+        private List<String> readNames = null;
+        private PhasingRead[] readsAtHetSites = null;
+        private int numReadsAtHetSites = 0;
+
+        // The indices of the reads in readsAtHetSites, in the order in which they were added to it:
+        private int[] readsInBuildOrder = null;
+        private int numReadsBuilt = 0;
+
+        private PhaseResult phaseResult = null;
 
         private void clearFields() {
             hetGenotypes = null;
             prevHetAndInteriorIt = null;
             phasingSiteIndex = -1;
+            readNames = null;
             readsAtHetSites = null;
+            numReadsAtHetSites = 0;
+            readsInBuildOrder = null;
+            numReadsBuilt = 0;
         }
 
         public boolean hasPreviousHets() {
@@ -559,11 +645,14 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
                 }
             }
 
+            // Assign each read in the window a dense index, so that the phasing graph need not be keyed by read names:
+            indexReads(listHetGenotypes);
+
             // First, assemble the "sub-reads" from the COMPLETE WINDOW-BASED SET of heterozygous positions for this sample:
             buildReadsAtHetSites(listHetGenotypes, sample, grbPhase.loc);
 
             // Remove extraneous reads (those that do not "connect" the two core phasing sites):
-            Set<String> onlyKeepReads = removeExtraneousReads(listHetGenotypes.size());
+            BitSet onlyKeepReads = removeExtraneousReads(listHetGenotypes.size());
 
             // Dynamically modify the window to only include sites which have a non-empty set of reads:
             listHetGenotypes = removeExtraneousSites(listHetGenotypes);
@@ -591,34 +680,62 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
                 hetGenotypes[index++] = copyGrb.genotype;
         }
 
+        private void indexReads(List<GenotypeAndReadBases> listHetGenotypes) {
+            Map<String, Integer> readNameToIndex = new HashMap<String, Integer>();
+            readNames = new ArrayList<String>();
+
+            for (GenotypeAndReadBases grb : listHetGenotypes) {
+                ReadBasesAtPosition readBases = grb.readBases;
+                if (readBases != null) {
+                    grb.readIndices = new int[readBases.size()];
+                    int i = 0;
+                    for (ReadBase rb : readBases) {
+                        Integer readIndex = readNameToIndex.get(rb.readName);
+                        if (readIndex == null) {
+                            readIndex = readNames.size();
+                            readNameToIndex.put(rb.readName, readIndex);
+                            readNames.add(rb.readName);
+                        }
+                        grb.readIndices[i++] = readIndex;
+                    }
+                }
+            }
+        }
+
         private void buildReadsAtHetSites(List<GenotypeAndReadBases> listHetGenotypes, String sample, GenomeLoc phasingLoc) {
             buildReadsAtHetSites(listHetGenotypes, sample, phasingLoc, null);
         }
 
-        private void buildReadsAtHetSites(List<GenotypeAndReadBases> listHetGenotypes, Set<String> onlyKeepReads) {
+        private void buildReadsAtHetSites(List<GenotypeAndReadBases> listHetGenotypes, BitSet onlyKeepReads) {
             buildReadsAtHetSites(listHetGenotypes, null, null, onlyKeepReads);
         }
 
-        private void buildReadsAtHetSites(List<GenotypeAndReadBases> listHetGenotypes, String sample, GenomeLoc phasingLoc, Set<String> onlyKeepReads) {
-            readsAtHetSites = new HashMap<String, PhasingRead>();
+        private void buildReadsAtHetSites(List<GenotypeAndReadBases> listHetGenotypes, String sample, GenomeLoc phasingLoc, BitSet onlyKeepReads) {
+            readsAtHetSites = new PhasingRead[readNames.size()];
+            numReadsAtHetSites = 0;
+            readsInBuildOrder = new int[readNames.size()];
+            numReadsBuilt = 0;
 
             int index = 0;
             for (GenotypeAndReadBases grb : listHetGenotypes) {
                 ReadBasesAtPosition readBases = grb.readBases;
                 if (readBases != null) {
+                    int i = 0;
                     for (ReadBase rb : readBases) {
-                        String readName = rb.readName;
-                        if (onlyKeepReads != null && !onlyKeepReads.contains(readName)) // if onlyKeepReads exists, ignore reads not in onlyKeepReads
+                        int readIndex = grb.readIndices[i++];
+                        if (onlyKeepReads != null && !onlyKeepReads.get(readIndex)) // if onlyKeepReads exists, ignore reads not in onlyKeepReads
                             continue;
 
-                        PhasingRead rd = readsAtHetSites.get(readName);
+                        PhasingRead rd = readsAtHetSites[readIndex];
                         if (rd == null) {
                             rd = new PhasingRead(listHetGenotypes.size(), rb.mappingQual);
-                            readsAtHetSites.put(readName, rd);
+                            readsAtHetSites[readIndex] = rd;
+                            numReadsAtHetSites++;
+                            readsInBuildOrder[numReadsBuilt++] = readIndex;
                         }
                         else if (outputMultipleBaseCountsWriter != null && rd.getBase(index) != null // rd already has a base at index
                                 && sample != null && phasingLoc != null) {
-                            outputMultipleBaseCountsWriter.setMultipleBases(new SampleReadLocus(sample, readName, grb.loc), phasingLoc, rd.getBase(index), rb.base);
+                            outputMultipleBaseCountsWriter.setMultipleBases(new SampleReadLocus(sample, rb.readName, grb.loc), phasingLoc, rd.getBase(index), rb.base);
                         }
 
                         // Arbitrarily updates to the last base observed for this sample and read (rb.base):
@@ -631,31 +748,51 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
 
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("ALL READS [phasingSiteIndex = " + phasingSiteIndex + "]:");
-                for (Map.Entry<String, PhasingRead> nameToReads : readsAtHetSites.entrySet()) {
-                    String rdName = nameToReads.getKey();
-                    PhasingRead rd = nameToReads.getValue();
-                    logger.debug(rd + "\t" + rdName);
+                for (int readIndex = 0; readIndex < readsAtHetSites.length; readIndex++) {
+                    if (readsAtHetSites[readIndex] != null)
+                        logger.debug(readsAtHetSites[readIndex] + "\t" + readNames.get(readIndex));
                 }
             }
         }
 
+        /* Returns the indices of the reads in readsAtHetSites, in the order in which a HashMap keyed by read name [and filled in
+           the order in which the reads were added] iterates over them.
+
+           The reads were kept in exactly such a map before they were indexed, and the phase quality and the count of inconsistent
+           reads both depend on the order in which the reads are scored, so scoring them in this order keeps the output unchanged.
+         */
+        private int[] getReadScoringOrder() {
+            Map<String, Integer> readNameToIndex = new HashMap<String, Integer>();
+            for (int i = 0; i < numReadsBuilt; i++) {
+                int readIndex = readsInBuildOrder[i];
+                if (readsAtHetSites[readIndex] != null)
+                    readNameToIndex.put(readNames.get(readIndex), readIndex);
+            }
+
+            int[] scoringOrder = new int[readNameToIndex.size()];
+            int i = 0;
+            for (int readIndex : readNameToIndex.values())
+                scoringOrder[i++] = readIndex;
+            return scoringOrder;
+        }
+
         private class EdgeToReads {
-            private TreeMap<PhasingGraphEdge, List<String>> edgeReads;
+            private TreeMap<PhasingGraphEdge, BitSet> edgeReads;
 
             public EdgeToReads() {
-                this.edgeReads = new TreeMap<PhasingGraphEdge, List<String>>(); // implemented GraphEdge.compareTo()
+                this.edgeReads = new TreeMap<PhasingGraphEdge, BitSet>(); // implemented GraphEdge.compareTo()
             }
 
-            public void addRead(PhasingGraphEdge e, String readName) {
-                List<String> reads = edgeReads.get(e);
+            public void addRead(PhasingGraphEdge e, int readIndex) {
+                BitSet reads = edgeReads.get(e);
                 if (reads == null) {
-                    reads = new LinkedList<String>();
+                    reads = new BitSet(readsAtHetSites.length);
                     edgeReads.put(e, reads);
                 }
-                reads.add(readName);
+                reads.set(readIndex);
             }
 
-            public List<String> getReads(PhasingGraphEdge e) {
+            public BitSet getReads(PhasingGraphEdge e) {
                 return edgeReads.get(e);
             }
         }
@@ -684,24 +821,25 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
             }
         }
 
-        public Set<String> removeExtraneousReads(int numHetSites) {
+        public BitSet removeExtraneousReads(int numHetSites) {
             PhasingGraph readGraph = new PhasingGraph(numHetSites);
             EdgeToReads edgeToReads = new EdgeToReads();
             Set<Integer> sitesWithEdges = new TreeSet<Integer>();
 
-            for (Map.Entry<String, PhasingRead> nameToReads : readsAtHetSites.entrySet()) {
-                String rdName = nameToReads.getKey();
-                PhasingRead rd = nameToReads.getValue();
+            for (int readIndex = 0; readIndex < readsAtHetSites.length; readIndex++) {
+                PhasingRead rd = readsAtHetSites[readIndex];
+                if (rd == null)
+                    continue;
 
                 int[] siteInds = rd.getNonNullIndices();
                 // Connect each pair of non-null sites in rd:
                 for (int i = 0; i < siteInds.length; i++) {
                     for (int j = i + 1; j < siteInds.length; j++) {
                         PhasingGraphEdge e = new PhasingGraphEdge(siteInds[i], siteInds[j]);
-                        if (DEBUG) logger.debug("Read = " + rdName + " is adding edge: " + e);
+                        if (DEBUG) logger.debug("Read = " + readNames.get(readIndex) + " is adding edge: " + e);
                         readGraph.addEdge(e);
 
-                        edgeToReads.addRead(e, rdName);
+                        edgeToReads.addRead(e, readIndex);
 
                         sitesWithEdges.add(e.getV1());
                         sitesWithEdges.add(e.getV2());
@@ -709,7 +847,7 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
                 }
             }
             if (DEBUG) logger.debug("Read graph:\n" + readGraph);
-            Set<String> keepReads = new HashSet<String>();
+            BitSet keepReads = new BitSet(readsAtHetSites.length);
 
             /* Check which Reads are involved in acyclic paths from (phasingSiteIndex - 1) to (phasingSiteIndex):
 
@@ -763,7 +901,8 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
             if (!readGraph.getConnectedComponents().inSameSet(prev, cur)) { // There is NO path between cur and prev
                 if (DEBUG)
                     logger.debug("NO READ PATH between PHASE site [" + cur + "] and UPSTREAM site [" + prev + "]");
-                readsAtHetSites.clear();
+                Arrays.fill(readsAtHetSites, null);
+                numReadsAtHetSites = 0;
                 return keepReads;
             }
 
@@ -802,27 +941,26 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
                 boolean prevTo1and2ToCur = removedSiteSameCCAsPrev[e.getV2()].contains(e.getV1()) && removedSiteSameCCAsCur[e.getV1()].contains(e.getV2());
 
                 if (prevTo2and1ToCur || prevTo1and2ToCur) {
-                    for (String readName : edgeToReads.getReads(e)) {
-                        keepReads.add(readName);
+                    BitSet edgeReads = edgeToReads.getReads(e);
+                    keepReads.or(edgeReads);
 
-                        if (DEBUG && logger.isDebugEnabled()) {
+                    if (DEBUG && logger.isDebugEnabled()) {
+                        for (int readIndex = edgeReads.nextSetBit(0); readIndex >= 0; readIndex = edgeReads.nextSetBit(readIndex + 1)) {
                             if (prevTo2and1ToCur)
-                                logger.debug("Keep read " + readName + " due to path: " + prev + " ---> " + e.getV2() + " -> " + e.getV1() + " ---> " + cur);
+                                logger.debug("Keep read " + readNames.get(readIndex) + " due to path: " + prev + " ---> " + e.getV2() + " -> " + e.getV1() + " ---> " + cur);
                             else
-                                logger.debug("Keep read " + readName + " due to path: " + prev + " ---> " + e.getV1() + " -> " + e.getV2() + " ---> " + cur);
+                                logger.debug("Keep read " + readNames.get(readIndex) + " due to path: " + prev + " ---> " + e.getV1() + " -> " + e.getV2() + " ---> " + cur);
                         }
                     }
                 }
             }
 
             // Retain only the reads that contain an edge in a path connecting prev and cur:
-            Iterator<Map.Entry<String, PhasingRead>> readIt = readsAtHetSites.entrySet().iterator();
-            while (readIt.hasNext()) {
-                Map.Entry<String, PhasingRead> nameToReads = readIt.next();
-                String rdName = nameToReads.getKey();
-                if (!keepReads.contains(rdName)) {
-                    readIt.remove();
-                    if (DEBUG) logger.debug("Removing extraneous read: " + rdName);
+            for (int readIndex = 0; readIndex < readsAtHetSites.length; readIndex++) {
+                if (readsAtHetSites[readIndex] != null && !keepReads.get(readIndex)) {
+                    readsAtHetSites[readIndex] = null;
+                    numReadsAtHetSites--;
+                    if (DEBUG) logger.debug("Removing extraneous read: " + readNames.get(readIndex));
                 }
             }
 
@@ -831,8 +969,9 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
 
         private List<GenotypeAndReadBases> removeExtraneousSites(List<GenotypeAndReadBases> listHetGenotypes) {
             Set<Integer> sitesWithReads = new HashSet<Integer>();
-            for (Map.Entry<String, PhasingRead> nameToReads : readsAtHetSites.entrySet()) {
-                PhasingRead rd = nameToReads.getValue();
+            for (PhasingRead rd : readsAtHetSites) {
+                if (rd == null)
+                    continue;
                 for (int i : rd.getNonNullIndices())
                     sitesWithReads.add(i);
             }
@@ -902,12 +1041,11 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
         PhasingTable sampleHaps = tabCreator.getNewTable();
 
         if (DEBUG && logger.isDebugEnabled()) {
-            logger.debug("Number of USED reads [connecting the two positions to be phased] at sites: " + phaseWindow.readsAtHetSites.size());
+            logger.debug("Number of USED reads [connecting the two positions to be phased] at sites: " + phaseWindow.numReadsAtHetSites);
             logger.debug("USED READS:");
-            for (Map.Entry<String, PhasingRead> nameToReads : phaseWindow.readsAtHetSites.entrySet()) {
-                String rdName = nameToReads.getKey();
-                PhasingRead rd = nameToReads.getValue();
-                logger.debug(rd + "\t" + rdName);
+            for (int readIndex = 0; readIndex < phaseWindow.readsAtHetSites.length; readIndex++) {
+                if (phaseWindow.readsAtHetSites[readIndex] != null)
+                    logger.debug(phaseWindow.readsAtHetSites[readIndex] + "\t" + phaseWindow.readNames.get(readIndex));
             }
         }
 
@@ -920,9 +1058,9 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
         double totalAbsPQchange = 0;
         int numPQchangesObserved = 0;
 
-        for (Map.Entry<String, PhasingRead> nameToReads : phaseWindow.readsAtHetSites.entrySet()) {
-            PhasingRead rd = nameToReads.getValue();
-            if (DEBUG) logger.debug("\nrd = " + rd + "\tname = " + nameToReads.getKey());
+        for (int readIndex : phaseWindow.getReadScoringOrder()) {
+            PhasingRead rd = phaseWindow.readsAtHetSites[readIndex];
+            if (DEBUG) logger.debug("\nrd = " + rd + "\tname = " + phaseWindow.readNames.get(readIndex));
 
             for (PhasingTable.PhasingTableEntry pte : sampleHaps) {
                 PhasingScore score = rd.matchHaplotypeClassScore(pte.getHaplotypeClass());
@@ -959,7 +1097,7 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
         if (DEBUG)
             logger.debug("MAX hap:\t" + maxHapQual.maxEntry.getHaplotypeClass() + "\tposteriorProb:\t" + posteriorProb + "\tphaseQuality:\t" + maxHapQual.phaseQuality);
         if (DEBUG)
-            logger.debug("Number of used reads " + phaseWindow.readsAtHetSites.size() + "; number of high PQ iterations " + numHighQualityIterations + "; number of inconsistencies " + numInconsistentIterations);
+            logger.debug("Number of used reads " + phaseWindow.numReadsAtHetSites + "; number of high PQ iterations " + numHighQualityIterations + "; number of inconsistencies " + numInconsistentIterations);
 
         boolean phasingContainsInconsistencies = false;
         if (numInconsistentIterations / (double) numHighQualityIterations > MAX_FRACTION_OF_INCONSISTENT_READS)
@@ -1062,6 +1200,9 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
         if (outputMultipleBaseCountsWriter != null)
             outputMultipleBaseCountsWriter.close();
 
+        if (phasingExecutor != null)
+            phasingExecutor.shutdown();
+
         System.out.println("Coverage over ALL samples:");
         System.out.println("Number of reads observed: " + result.getNumReads());
         System.out.println("Number of variant sites observed: " + result.getNumVarSites());
@@ -1460,7 +1601,7 @@ public class ReadBackedPhasing extends RodWalker<PhasingStatsAndOutput, PhasingS
             this.multipleBaseCounts = new TreeMap<SampleReadLocus, MultipleBaseCounts>(); // implemented SampleReadLocus.compareTo()
         }
 
-        public void setMultipleBases(SampleReadLocus srl, GenomeLoc phasingLoc, byte prevBase, byte newBase) {
+        public synchronized void setMultipleBases(SampleReadLocus srl, GenomeLoc phasingLoc, byte prevBase, byte newBase) {
             MultipleBaseCounts mbc = multipleBaseCounts.get(srl);
             if (mbc == null) {
                 mbc = new MultipleBaseCounts(phasingLoc);
@@ -45,6 +45,10 @@ class ReadBasesAtPosition implements Iterable<ReadBase> {
         return bases.iterator();
     }
 
+    public int size() {
+        return bases.size();
+    }
+
     public boolean isEmpty() {
         return bases.isEmpty();
     }
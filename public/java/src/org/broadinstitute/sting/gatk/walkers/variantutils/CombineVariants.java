@@ -25,27 +25,35 @@
 
 package org.broadinstitute.sting.gatk.walkers.variantutils;
 
+import net.sf.samtools.util.CloseableIterator;
 import org.broadinstitute.sting.commandline.*;
 import org.broadinstitute.sting.gatk.CommandLineGATK;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
+import org.broadinstitute.sting.gatk.datasources.rmd.ReferenceOrderedDataSource;
 import org.broadinstitute.sting.gatk.io.stubs.VariantContextWriterStub;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.refdata.tracks.RMDTrack;
+import org.broadinstitute.sting.gatk.refdata.utils.GATKFeature;
 import org.broadinstitute.sting.gatk.walkers.Reference;
 import org.broadinstitute.sting.gatk.walkers.RodWalker;
 import org.broadinstitute.sting.gatk.walkers.TreeReducible;
 import org.broadinstitute.sting.gatk.walkers.Window;
 import org.broadinstitute.sting.gatk.walkers.annotator.ChromosomeCounts;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocSortedSet;
 import org.broadinstitute.sting.utils.SampleUtils;
 import org.broadinstitute.sting.utils.codecs.vcf.*;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.help.DocumentedGATKFeature;
+import org.broadinstitute.sting.utils.variantcontext.SampleIndexRemapping;
 import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 import org.broadinstitute.sting.utils.variantcontext.VariantContextBuilder;
 import org.broadinstitute.sting.utils.variantcontext.VariantContextUtils;
 import org.broadinstitute.sting.utils.variantcontext.writer.Options;
 import org.broadinstitute.sting.utils.variantcontext.writer.VariantContextWriter;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -73,6 +81,10 @@ import java.util.*;
  * efficiency.  However, since this merge runs in only one thread, you can quickly reach diminishing
  * returns with the number of parallel threads.  -nt 4 works well but -nt 8 may be too much.
  *
+ * When combining hundreds of VCFs, the locus-by-locus traversal of the inputs dominates the runtime.  With
+ * -streamingMerge, CombineVariants instead reads the (sorted) input files directly and merges their records by
+ * position in a single pass.  The merged records are the same either way, but the streaming merge runs in one thread.
+ *
  * Some fine details about the merging algorithm:
  *   <ul>
  *   <li> As of GATK 2.1, when merging multiple VCF records at a site, the combined VCF record has the QUAL of
@@ -185,8 +197,26 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
     @Argument(fullName="mergeInfoWithMaxAC", shortName="mergeInfoWithMaxAC", doc="If true, when VCF records overlap the info field is taken from the one with the max AC instead of only taking the fields which are identical across the overlapping records.", required=false)
     public boolean MERGE_INFO_WITH_MAX_AC = false;
 
+    /**
+     * Rather than traversing the inputs locus by locus, read the input files directly and k-way merge their
+     * records by position.  The inputs must be sorted in reference order and can't be streams.  This avoids the
+     * traversal overhead entirely, which dominates when combining hundreds of VCFs, but runs in a single thread,
+     * so it can't be combined with -nt.
+     */
+    @Argument(fullName="streamingMerge", shortName="streamingMerge", doc="If true, merge the sorted input files in a single pass instead of traversing them locus by locus", required=false)
+    public boolean STREAMING_MERGE = false;
+
     private List<String> priority = null;
 
+    /** The names of all of the VCF inputs, used to decide which sites are in the intersection */
+    private Set<String> rodNames;
+
+    /** Where each input's samples go in the merged genotypes; null if we're stripping genotypes anyway */
+    private SampleIndexRemapping sampleRemapping = null;
+
+    /** Set once the streaming merge has written everything, so that the traversal has nothing left to do */
+    private boolean streamingMergeIsDone = false;
+
     /** Optimization to strip out genotypes before merging if we are doing a sites_only output */
     private boolean sitesOnlyVCF = false;
     private Set<String> samples;
@@ -200,6 +230,9 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
         } else
             logger.warn("VCF output file not an instance of VCFWriterStub; cannot enable sites only output option");
 
+        if ( STREAMING_MERGE && getToolkit().getArguments().numberOfDataThreads > 1 )
+            throw new UserException.BadArgumentValue("num_threads", "the streaming merge runs in a single thread and can't be combined with -nt; run with -nt 1 or without -streamingMerge");
+
         validateAnnotateUnionArguments();
         if ( PRIORITY_STRING == null && genotypeMergeOption == null) {
             genotypeMergeOption = VariantContextUtils.GenotypeMergeType.UNSORTED;
@@ -208,6 +241,14 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
         }
 
         samples = sitesOnlyVCF ? Collections.<String>emptySet() : SampleUtils.getSampleList(vcfRods, genotypeMergeOption);
+        rodNames = SampleUtils.getRodNamesWithVCFHeader(getToolkit(), null);
+
+        if ( ! sitesOnlyVCF ) {
+            final Map<String, List<String>> samplesByRod = new HashMap<String, List<String>>(vcfRods.size());
+            for ( final Map.Entry<String, VCFHeader> rod : vcfRods.entrySet() )
+                samplesByRod.put(rod.getKey(), rod.getValue().getGenotypeSamples());
+            sampleRemapping = new SampleIndexRemapping(samplesByRod, genotypeMergeOption == VariantContextUtils.GenotypeMergeType.UNIQUIFY);
+        }
 
         if ( SET_KEY.toLowerCase().equals("null") )
             SET_KEY = null;
@@ -220,6 +261,16 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
         VCFHeader vcfHeader = new VCFHeader(headerLines, samples);
         vcfHeader.setWriteCommandLine(!SUPPRESS_COMMAND_LINE_HEADER);
         vcfWriter.writeHeader(vcfHeader);
+
+        if ( STREAMING_MERGE ) {
+            streamingMerge();
+            streamingMergeIsDone = true;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        return streamingMergeIsDone;
     }
 
     private void validateAnnotateUnionArguments() {
@@ -243,11 +294,23 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
         if ( tracker == null ) // RodWalkers can make funky map calls
             return 0;
 
-        Set<String> rodNames = SampleUtils.getRodNamesWithVCFHeader(getToolkit(), null);
+        // everything was already written by the streaming merge; don't rely on the traversal checking isDone()
+        if ( streamingMergeIsDone )
+            return 0;
+
         // get all of the vcf rods at this locus
         // Need to provide reference bases to simpleMerge starting at current locus
-        Collection<VariantContext> vcs = tracker.getValues(variants, context.getLocation());
+        return combine(tracker.getValues(variants, context.getLocation()), context.getLocation());
+    }
 
+    /**
+     * Merges and writes out the records starting at one site.
+     *
+     * @param vcs  the records of all inputs starting at the site, in input order
+     * @param site the site
+     * @return 1 if there were any records at the site, 0 otherwise
+     */
+    private int combine(Collection<VariantContext> vcs, final GenomeLoc site) {
         if ( sitesOnlyVCF ) {
             vcs = VariantContextUtils.sitesOnlyVariantContexts(vcs);
         }
@@ -291,16 +354,16 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
                 if (VCsByType.containsKey(type))
                     mergedVCs.add(VariantContextUtils.simpleMerge(getToolkit().getGenomeLocParser(), VCsByType.get(type),
                             priority, rodNames.size() , filteredRecordsMergeType, genotypeMergeOption, true, printComplexMerges,
-                            SET_KEY, filteredAreUncalled, MERGE_INFO_WITH_MAX_AC));
+                            SET_KEY, filteredAreUncalled, MERGE_INFO_WITH_MAX_AC, sampleRemapping));
             }
         }
         else if (multipleAllelesMergeType == VariantContextUtils.MultipleAllelesMergeType.MIX_TYPES) {
             mergedVCs.add(VariantContextUtils.simpleMerge(getToolkit().getGenomeLocParser(), vcs,
                     priority, rodNames.size(), filteredRecordsMergeType, genotypeMergeOption, true, printComplexMerges,
-                    SET_KEY, filteredAreUncalled, MERGE_INFO_WITH_MAX_AC));
+                    SET_KEY, filteredAreUncalled, MERGE_INFO_WITH_MAX_AC, sampleRemapping));
         }
         else {
-            logger.warn("Ignoring all records at site " + ref.getLocus());
+            logger.warn("Ignoring all records at site " + site);
         }
 
         for ( VariantContext mergedVC : mergedVCs ) {
@@ -319,6 +382,154 @@ public class CombineVariants extends RodWalker<Integer, Integer> implements Tree
         return vcs.isEmpty() ? 0 : 1;
     }
 
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // streaming merge
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Reads every input file directly and merges their records by position, interval by interval if intervals
+     * were given, passing the records at each site to combine() just as the traversal would.
+     */
+    private void streamingMerge() {
+        final List<ReferenceOrderedDataSource> sources = new ArrayList<ReferenceOrderedDataSource>(variants.size());
+        for ( final RodBinding<VariantContext> binding : variants ) {
+            for ( final ReferenceOrderedDataSource source : getToolkit().getRodDataSources() ) {
+                if ( source.getName().equals(binding.getName()) ) {
+                    sources.add(source);
+                    break;
+                }
+            }
+        }
+
+        final List<RMDTrack> tracks = new ArrayList<RMDTrack>(sources.size());
+        try {
+            for ( final ReferenceOrderedDataSource source : sources )
+                tracks.add(source.createTrack());
+
+            int nSites = 0;
+            final GenomeLocSortedSet intervals = getToolkit().getIntervals();
+            if ( intervals == null ) {
+                nSites += mergeInputs(tracks, null);
+            } else {
+                for ( final GenomeLoc interval : intervals )
+                    nSites += mergeInputs(tracks, interval);
+            }
+            logger.info(String.format("Streaming merge of %d inputs wrote records at %d sites", tracks.size(), nSites));
+        } finally {
+            for ( final RMDTrack track : tracks )
+                track.close();
+        }
+    }
+
+    /**
+     * K-way merges the records of all tracks starting within an interval.
+     *
+     * @param tracks   the inputs, in binding order
+     * @param interval the interval to merge, or null to merge the tracks in their entirety
+     * @return the number of sites with records
+     */
+    private int mergeInputs(final List<RMDTrack> tracks, final GenomeLoc interval) {
+        final List<MergeInput> inputs = new ArrayList<MergeInput>(tracks.size());
+        final PriorityQueue<MergeInput> queue = new PriorityQueue<MergeInput>(Math.max(tracks.size(), 1));
+        try {
+            for ( final RMDTrack track : tracks ) {
+                final MergeInput input = new MergeInput(inputs.size(), track, interval);
+                inputs.add(input);
+                if ( input.advance() )
+                    queue.add(input);
+            }
+
+            int nSites = 0;
+            final List<VariantContext> vcs = new ArrayList<VariantContext>(tracks.size());
+            while ( ! queue.isEmpty() ) {
+                final long key = queue.peek().key;
+                final GenomeLoc site = queue.peek().loc;
+
+                // the queue breaks ties by input index, so the records come out in binding order, as from the tracker
+                vcs.clear();
+                while ( ! queue.isEmpty() && queue.peek().key == key ) {
+                    final MergeInput input = queue.poll();
+                    do {
+                        vcs.add(input.vc);
+                    } while ( input.advance() && input.key == key );
+                    if ( input.vc != null )
+                        queue.add(input);
+                }
+
+                nSites += combine(vcs, getToolkit().getGenomeLocParser().createGenomeLoc(site.getContig(), site.getStart()));
+            }
+            return nSites;
+        } finally {
+            for ( final MergeInput input : inputs )
+                input.close();
+        }
+    }
+
+    /**
+     * One input of the streaming merge, positioned at its next record.
+     */
+    private static final class MergeInput implements Comparable<MergeInput> {
+        private final int index;
+        private final RMDTrack track;
+        private final GenomeLoc interval;
+        private final CloseableIterator<GATKFeature> iterator;
+
+        /** The next record, or null if the input is exhausted */
+        VariantContext vc = null;
+        GenomeLoc loc = null;
+
+        /** The (contig index, start) of the next record packed into a long, so ordering is a primitive comparison */
+        long key = Long.MIN_VALUE;
+
+        private MergeInput(final int index, final RMDTrack track, final GenomeLoc interval) {
+            this.index = index;
+            this.track = track;
+            this.interval = interval;
+            try {
+                this.iterator = interval == null ? track.getIterator() : track.query(interval);
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(track.getFile(), "unable to query " + interval, e);
+            }
+        }
+
+        /**
+         * Moves to the next record of this input, skipping records that start before the interval (they were
+         * merged with the interval they start in).
+         * @return true if there is a next record
+         */
+        boolean advance() {
+            while ( iterator.hasNext() ) {
+                final GATKFeature feature = iterator.next();
+                final GenomeLoc next = feature.getLocation();
+                if ( interval != null && next.getStart() < interval.getStart() )
+                    continue;
+
+                final long nextKey = ((long)next.getContigIndex() << 32) | next.getStart();
+                if ( nextKey < key )
+                    throw new UserException.MalformedFile(track.getFile(), String.format("records must be sorted in reference order for -streamingMerge, but %s comes after %s", next, loc));
+
+                vc = (VariantContext)feature.getUnderlyingObject();
+                loc = next;
+                key = nextKey;
+                return true;
+            }
+            vc = null;
+            return false;
+        }
+
+        void close() {
+            iterator.close();
+        }
+
+        public int compareTo(final MergeInput other) {
+            if ( key != other.key )
+                return key < other.key ? -1 : 1;
+            return index - other.index;
+        }
+    }
+
     public Integer reduceInit() {
         return 0;
     }
@@ -723,7 +723,11 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
             newGC = GenotypesContext.create(genotypes);
         }
 
-        builder.genotypes(newGC);
+        // genotypes we haven't touched were already validated by subContextFromSamples, and may still be encoded
+        if ( newGC == sub.getGenotypes() )
+            builder.genotypesNoValidation(newGC);
+        else
+            builder.genotypes(newGC);
 
         addAnnotations(builder, sub);
 
@@ -742,13 +746,16 @@ public class SelectVariants extends RodWalker<Integer, Integer> implements TreeR
                 builder.attribute("AN_Orig", originalVC.getAttribute(VCFConstants.ALLELE_NUMBER_KEY));
         }
 
-        VariantContextUtils.calculateChromosomeCounts(builder, false);
+        // count over a decoded copy of the subset's genotypes, so that if they're still encoded (as with a subset
+        // of BCF2 genotypes) the writer can pass on the encoded data rather than encoding them all over again
+        final VariantContext vc = builder.make();
+        final GenotypesContext genotypes = vc.getGenotypes().isLazyWithData() ? ((LazyGenotypesContext)vc.getGenotypes()).decodeCopy() : vc.getGenotypes();
+        final VariantContext counted = new VariantContextBuilder(vc).genotypesNoValidation(genotypes).make();
+        builder.attributes(VariantContextUtils.calculateChromosomeCounts(counted, new HashMap<String, Object>(vc.getAttributes()), false));
 
         boolean sawDP = false;
         int depth = 0;
-        for (String sample : originalVC.getSampleNames()) {
-            Genotype g = originalVC.getGenotype(sample);
-
+        for ( final Genotype g : originalVC.getGenotypes() == vc.getGenotypes() ? genotypes : originalVC.getGenotypes() ) {
             if ( ! g.isFiltered() ) {
                 if ( g.hasDP() ) {
                     depth += g.getDP();
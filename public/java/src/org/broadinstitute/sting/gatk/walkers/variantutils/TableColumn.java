@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import org.broadinstitute.sting.utils.Utils;
+import org.broadinstitute.sting.utils.codecs.vcf.*;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+import org.broadinstitute.sting.utils.variantcontext.Genotype;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+
+import java.util.*;
+
+/**
+ * A column of the VariantsToTable output, resolved once from its field name to an accessor.
+ *
+ * The original extraction looks every field up by name for every record, and goes through a String for every
+ * value.  A resolved column knows up front whether it is one of the special fields, an INFO field, or a genotype
+ * field, and writes its value straight into a TableOutputBuffer.  When splitting multi-allelic records, a column
+ * writes the value for one line of the record's output: the matching entry of a list with one entry per alternate
+ * allele, or else the whole value.
+ */
+abstract class TableColumn {
+    /**
+     * How the values of a column are written in the binary column output.  Missing values are written as
+     * Integer.MIN_VALUE for INT columns (R's NA_integer_), NaN for DOUBLE columns, and a length of -1 for
+     * STRING columns, which are otherwise written as a 4 byte length followed by the UTF-8 bytes of the value.
+     * All numbers are little-endian.
+     */
+    enum BinaryType { INT, DOUBLE, STRING }
+
+    final static int MISSING_INT = Integer.MIN_VALUE;
+
+    /** the name of this column in the table header */
+    final String name;
+
+    final BinaryType binaryType;
+
+    protected TableColumn(final String name, final BinaryType binaryType) {
+        this.name = name;
+        this.binaryType = binaryType;
+    }
+
+    /**
+     * @return the value of this column for vc, or null if vc doesn't have one
+     */
+    abstract Object getValue(VariantContext vc);
+
+    /**
+     * Writes the text of this column for one line of the output of vc
+     *
+     * @return false if vc has no value for this column, in which case nothing is written
+     */
+    boolean format(final VariantContext vc, final int line, final int nLines, final TableOutputBuffer out) {
+        final Object value = getValueForLine(vc, line, nLines);
+        if ( value == null )
+            return false;
+        out.appendValue(value);
+        return true;
+    }
+
+    /**
+     * Writes the binary value of this column for one line of the output of vc
+     */
+    void formatBinary(final VariantContext vc, final int line, final int nLines, final TableOutputBuffer out) {
+        final Object value = getValueForLine(vc, line, nLines);
+        switch ( binaryType ) {
+            case INT:
+                out.appendIntLE(value == null ? MISSING_INT : toInt(value));
+                break;
+            case DOUBLE:
+                out.appendDoubleLE(value == null ? Double.NaN : toDouble(value));
+                break;
+            default:
+                appendBinaryString(value, out);
+        }
+    }
+
+    private Object getValueForLine(final VariantContext vc, final int line, final int nLines) {
+        final Object value = getValue(vc);
+        if ( nLines > 1 && value instanceof List && ((List)value).size() == nLines )
+            return ((List)value).get(line);
+        return value;
+    }
+
+    protected static void appendBinaryString(final Object value, final TableOutputBuffer out) {
+        if ( value == null ) {
+            out.appendIntLE(-1);
+        } else {
+            final int start = out.size();
+            out.appendIntLE(0);
+            out.appendValue(value);
+            out.putIntLE(start, out.size() - start - 4);
+        }
+    }
+
+    private static int toInt(final Object value) {
+        if ( value instanceof Number )
+            return ((Number)value).intValue();
+        try {
+            return Integer.parseInt(value.toString());
+        } catch ( NumberFormatException e ) {
+            return MISSING_INT;
+        }
+    }
+
+    private static double toDouble(final Object value) {
+        if ( value instanceof Number )
+            return ((Number)value).doubleValue();
+        try {
+            return Double.parseDouble(value.toString());
+        } catch ( NumberFormatException e ) {
+            return Double.NaN;
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    //
+    // resolving fields to columns
+    //
+    // ----------------------------------------------------------------------
+
+    /**
+     * Resolves a site field (-F) to its column
+     *
+     * @param field             the field name, as given on the command line
+     * @param headers           the headers of the input VCFs, for the types of INFO fields
+     * @param splitMultiAllelic will multi-allelic records be split into one line per alternate allele?
+     * @return the column for field
+     */
+    static TableColumn forField(final String field, final Collection<VCFHeader> headers, final boolean splitMultiAllelic) {
+        if ( splitMultiAllelic && field.equals("ALT") )
+            return new SplitAltColumn(field);
+
+        final TableColumn special = forSpecialField(field);
+        if ( special != null )
+            return special;
+
+        if ( field.endsWith("*") )
+            return new WildcardColumn(field);
+
+        VCFCompoundHeaderLine headerLine = null;
+        for ( final VCFHeader header : headers ) {
+            headerLine = header.getInfoHeaderLine(field);
+            if ( headerLine != null )
+                break;
+        }
+        return new InfoColumn(field, getBinaryType(headerLine, splitMultiAllelic));
+    }
+
+    /**
+     * Resolves a genotype field (-GF) of one sample to its column
+     *
+     * @param sample  the sample
+     * @param field   the genotype field
+     * @param headers the headers of the input VCFs, for the types of FORMAT fields
+     * @return the column for field of sample
+     */
+    static TableColumn forGenotypeField(final String sample, final String field, final Collection<VCFHeader> headers) {
+        // spaces in sample names are legal but wreak havoc in R data frames
+        final String name = sample.replace(" ", "_") + "." + field;
+
+        if ( field.equals(VCFConstants.GENOTYPE_KEY) )
+            return new GenotypeColumn(name, sample, BinaryType.STRING) {
+                Object getValue(final Genotype g) { return g.isAvailable() ? g.getGenotypeString(true) : null; }
+            };
+        if ( field.equals(VCFConstants.GENOTYPE_QUALITY_KEY) )
+            return new GenotypeColumn(name, sample, BinaryType.INT) {
+                Object getValue(final Genotype g) { return g.hasGQ() ? g.getGQ() : null; }
+            };
+        if ( field.equals(VCFConstants.DEPTH_KEY) )
+            return new GenotypeColumn(name, sample, BinaryType.INT) {
+                Object getValue(final Genotype g) { return g.hasDP() ? g.getDP() : null; }
+            };
+        if ( field.equals(VCFConstants.GENOTYPE_ALLELE_DEPTHS) )
+            return new GenotypeColumn(name, sample, BinaryType.STRING) {
+                Object getValue(final Genotype g) { return g.hasAD() ? g.getAD() : null; }
+            };
+        if ( field.equals(VCFConstants.GENOTYPE_PL_KEY) )
+            return new GenotypeColumn(name, sample, BinaryType.STRING) {
+                Object getValue(final Genotype g) { return g.hasPL() ? g.getPL() : null; }
+            };
+
+        VCFCompoundHeaderLine headerLine = null;
+        for ( final VCFHeader header : headers ) {
+            headerLine = header.getFormatHeaderLine(field);
+            if ( headerLine != null )
+                break;
+        }
+        return new GenotypeColumn(name, sample, getBinaryType(headerLine, false)) {
+            Object getValue(final Genotype g) { return g.getExtendedAttribute(field); }
+        };
+    }
+
+    /**
+     * Single numbers are written as numbers, everything else as strings
+     */
+    private static BinaryType getBinaryType(final VCFCompoundHeaderLine headerLine, final boolean splitMultiAllelic) {
+        if ( headerLine == null )
+            return BinaryType.STRING;
+
+        final boolean isSingleValue = (headerLine.getCountType() == VCFHeaderLineCount.INTEGER && headerLine.getCount() == 1)
+                || (splitMultiAllelic && headerLine.getCountType() == VCFHeaderLineCount.A);
+        if ( ! isSingleValue )
+            return BinaryType.STRING;
+
+        switch ( headerLine.getType() ) {
+            case Integer: return BinaryType.INT;
+            case Float:   return BinaryType.DOUBLE;
+            default:      return BinaryType.STRING;
+        }
+    }
+
+    /**
+     * The columns of the special fields of VariantsToTable.getters, or null if field isn't one of them.  The int
+     * valued ones are formatted straight from their ints; the rest go through the getter's String, except for QUAL,
+     * which is formatted as in the VCF.
+     */
+    private static TableColumn forSpecialField(final String field) {
+        if ( field.equals("QUAL") )
+            return new QualColumn(field);
+
+        final VariantsToTable.Getter getter = VariantsToTable.getters.get(field);
+        if ( getter == null )
+            return null;
+        if ( getter instanceof VariantsToTable.IntGetter )
+            return new IntColumn(field, (VariantsToTable.IntGetter)getter);
+        return new TableColumn(field, BinaryType.STRING) {
+            Object getValue(final VariantContext vc) { return getter.get(vc); }
+        };
+    }
+
+    // ----------------------------------------------------------------------
+    //
+    // the kinds of columns
+    //
+    // ----------------------------------------------------------------------
+
+    private static class IntColumn extends TableColumn {
+        private final VariantsToTable.IntGetter getter;
+
+        IntColumn(final String name, final VariantsToTable.IntGetter getter) {
+            super(name, BinaryType.INT);
+            this.getter = getter;
+        }
+
+        Object getValue(final VariantContext vc) {
+            return getter.getInt(vc);
+        }
+
+        @Override
+        boolean format(final VariantContext vc, final int line, final int nLines, final TableOutputBuffer out) {
+            out.appendLong(getter.getInt(vc));
+            return true;
+        }
+
+        @Override
+        void formatBinary(final VariantContext vc, final int line, final int nLines, final TableOutputBuffer out) {
+            out.appendIntLE(getter.getInt(vc));
+        }
+    }
+
+    /**
+     * QUAL, formatted as the VCFWriter formats it
+     */
+    private static class QualColumn extends TableColumn {
+        QualColumn(final String name) {
+            super(name, BinaryType.DOUBLE);
+        }
+
+        Object getValue(final VariantContext vc) {
+            return vc.hasLog10PError() ? vc.getPhredScaledQual() : null;
+        }
+
+        @Override
+        boolean format(final VariantContext vc, final int line, final int nLines, final TableOutputBuffer out) {
+            if ( vc.hasLog10PError() )
+                out.appendQual(vc.getPhredScaledQual());
+            else
+                out.append(VCFConstants.MISSING_VALUE_v4);
+            return true;
+        }
+    }
+
+    /**
+     * ALT when splitting multi-allelic records: one alternate allele per line
+     */
+    private static class SplitAltColumn extends TableColumn {
+        SplitAltColumn(final String name) {
+            super(name, BinaryType.STRING);
+        }
+
+        Object getValue(final VariantContext vc) {
+            return vc.getAlternateAlleles();
+        }
+
+        @Override
+        boolean format(final VariantContext vc, final int line, final int nLines, final TableOutputBuffer out) {
+            final List<Allele> alts = vc.getAlternateAlleles();
+            if ( alts.size() == nLines ) {
+                out.append(alts.get(line).getDisplayString());
+            } else {
+                for ( int i = 0; i < alts.size(); i++ ) {
+                    if ( i > 0 ) out.append((byte)',');
+                    out.append(alts.get(i).getDisplayString());
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void formatBinary(final VariantContext vc, final int line, final int nLines, final TableOutputBuffer out) {
+            final List<Allele> alts = vc.getAlternateAlleles();
+            appendBinaryString(alts.size() == nLines ? alts.get(line).getDisplayString() : alts, out);
+        }
+    }
+
+    private static class InfoColumn extends TableColumn {
+        InfoColumn(final String name, final BinaryType binaryType) {
+            super(name, binaryType);
+        }
+
+        Object getValue(final VariantContext vc) {
+            return vc.getAttribute(name);
+        }
+    }
+
+    /**
+     * All of the INFO values whose keys start with the given prefix, sorted and joined by commas, or NA
+     */
+    private static class WildcardColumn extends TableColumn {
+        private final String prefix;
+
+        WildcardColumn(final String name) {
+            super(name, BinaryType.STRING);
+            prefix = name.substring(0, name.length() - 1);
+        }
+
+        Object getValue(final VariantContext vc) {
+            final Set<String> wildVals = new TreeSet<String>();
+            for ( final Map.Entry<String,Object> elt : vc.getAttributes().entrySet() ) {
+                if ( elt.getKey().startsWith(prefix) )
+                    wildVals.add(elt.getValue().toString());
+            }
+            return wildVals.isEmpty() ? VariantsToTable.MISSING_DATA : Utils.join(",", wildVals);
+        }
+    }
+
+    /**
+     * A field of the genotype of one sample.  Samples without a genotype or without the field are always NA.
+     */
+    private static abstract class GenotypeColumn extends TableColumn {
+        private final String sample;
+
+        GenotypeColumn(final String name, final String sample, final BinaryType binaryType) {
+            super(name, binaryType);
+            this.sample = sample;
+        }
+
+        /**
+         * @return the value of the field in g, or null if g doesn't have it
+         */
+        abstract Object getValue(Genotype g);
+
+        Object getValue(final VariantContext vc) {
+            final Genotype g = vc.getGenotype(sample);
+            return g == null ? null : getValue(g);
+        }
+
+        @Override
+        boolean format(final VariantContext vc, final int line, final int nLines, final TableOutputBuffer out) {
+            if ( ! super.format(vc, line, nLines, out) )
+                out.append(VariantsToTable.MISSING_DATA);
+            return true;
+        }
+    }
+}
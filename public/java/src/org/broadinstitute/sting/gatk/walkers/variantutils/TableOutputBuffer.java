@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A growable byte buffer for formatting the output of VariantsToTable without going through Strings.
+ *
+ * Integers are written digit by digit straight into the buffer, and doubles are formatted as the VCFWriter
+ * formats them (rounding half up to a fixed number of decimals) but without String.format, so formatting a
+ * record costs nothing beyond the occasional growth of the buffer.  The buffer also writes the little-endian
+ * values of the binary column output.  A buffer is meant to be reset and reused for every record by one thread.
+ */
+final class TableOutputBuffer {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Powers of ten for scaling doubles to the number of decimals we print
+     */
+    private final static long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L};
+
+    /**
+     * Doubles at least this big are left to String.format, as scaling them would overflow a long
+     */
+    private final static double MAX_FAST_DOUBLE = 1e15;
+
+    /**
+     * How close to a half the scaled value of a double must be for us to leave its rounding to String.format,
+     * which rounds the shortest decimal representation of the double rather than its binary value
+     */
+    private final static double HALF_TOLERANCE = 1e-6;
+
+    private byte[] bytes;
+    private int size = 0;
+
+    TableOutputBuffer(final int initialCapacity) {
+        bytes = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensureCapacity(final int nMoreBytes) {
+        if ( size + nMoreBytes > bytes.length )
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + nMoreBytes));
+    }
+
+    // ----------------------------------------------------------------------
+    //
+    // text
+    //
+    // ----------------------------------------------------------------------
+
+    void append(final byte b) {
+        ensureCapacity(1);
+        bytes[size++] = b;
+    }
+
+    void append(final byte[] b) {
+        ensureCapacity(b.length);
+        System.arraycopy(b, 0, bytes, size, b.length);
+        size += b.length;
+    }
+
+    void append(final String s) {
+        final int length = s.length();
+        ensureCapacity(length);
+        for ( int i = 0; i < length; i++ ) {
+            final char c = s.charAt(i);
+            if ( c >= 0x80 ) {
+                // not plain ASCII, so let the encoder deal with it
+                size -= i;
+                append(s.getBytes(UTF8));
+                return;
+            }
+            bytes[size++] = (byte)c;
+        }
+    }
+
+    void appendLong(long value) {
+        if ( value == Long.MIN_VALUE ) {
+            append(Long.toString(value));
+            return;
+        }
+        if ( value < 0 ) {
+            append((byte)'-');
+            value = -value;
+        }
+
+        int nDigits = 1;
+        for ( long v = value / 10; v != 0; v /= 10 )
+            nDigits++;
+
+        ensureCapacity(nDigits);
+        for ( int i = size + nDigits - 1; i >= size; i-- ) {
+            bytes[i] = (byte)('0' + (value % 10));
+            value /= 10;
+        }
+        size += nDigits;
+    }
+
+    /**
+     * Appends d with exactly nDecimals decimals, as String.format("%.Nf") would
+     */
+    void appendFixed(final double d, final int nDecimals) {
+        if ( Double.isNaN(d) || Double.isInfinite(d) || Math.abs(d) >= MAX_FAST_DOUBLE ) {
+            append(String.format("%." + nDecimals + "f", d));
+            return;
+        }
+
+        final long scale = POWERS_OF_TEN[nDecimals];
+        final double unrounded = Math.abs(d) * scale;
+        if ( Math.abs(unrounded - Math.floor(unrounded) - 0.5) < HALF_TOLERANCE ) {
+            append(String.format("%." + nDecimals + "f", d));
+            return;
+        }
+
+        final long scaled = Math.round(unrounded);
+        if ( Double.doubleToRawLongBits(d) < 0 ) // String.format keeps the sign of values that round to zero
+            append((byte)'-');
+        appendLong(scaled / scale);
+        append((byte)'.');
+
+        final long fraction = scaled % scale;
+        for ( long p = scale / 10; p > fraction && p > 1; p /= 10 )
+            append((byte)'0');
+        appendLong(fraction);
+    }
+
+    /**
+     * Appends d as VCFWriter.formatVCFDouble() would: %.2f, or %.3f below 1, or %.3e below 0.01
+     */
+    void appendVCFDouble(final double d) {
+        if ( d >= 0.01 )
+            appendFixed(d, d < 1 ? 3 : 2);
+        else if ( Math.abs(d) >= 1e-20 )
+            append(String.format("%.3e", d));
+        else
+            append("0.00");
+    }
+
+    /**
+     * Appends qual as the VCFWriter writes the QUAL field, i.e., with two decimals unless they are both 0
+     */
+    void appendQual(final double qual) {
+        final int start = size;
+        appendFixed(qual, 2);
+        if ( size - start >= 3 && bytes[size - 3] == '.' && bytes[size - 2] == '0' && bytes[size - 1] == '0' )
+            size -= 3;
+    }
+
+    /**
+     * Appends any value we may find in a VariantContext: numbers, strings, and lists or arrays of them,
+     * the elements of which are separated by commas.
+     */
+    void appendValue(final Object value) {
+        if ( value instanceof String ) {
+            append((String)value);
+        } else if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ) {
+            appendLong(((Number)value).longValue());
+        } else if ( value instanceof Double || value instanceof Float ) {
+            appendVCFDouble(((Number)value).doubleValue());
+        } else if ( value instanceof int[] ) {
+            final int[] values = (int[])value;
+            for ( int i = 0; i < values.length; i++ ) {
+                if ( i > 0 ) append((byte)',');
+                appendLong(values[i]);
+            }
+        } else if ( value instanceof double[] ) {
+            final double[] values = (double[])value;
+            for ( int i = 0; i < values.length; i++ ) {
+                if ( i > 0 ) append((byte)',');
+                appendVCFDouble(values[i]);
+            }
+        } else if ( value instanceof List ) {
+            final List values = (List)value;
+            for ( int i = 0; i < values.size(); i++ ) {
+                if ( i > 0 ) append((byte)',');
+                appendValue(values.get(i));
+            }
+        } else if ( value.getClass().isArray() ) {
+            final int length = Array.getLength(value);
+            for ( int i = 0; i < length; i++ ) {
+                if ( i > 0 ) append((byte)',');
+                appendValue(Array.get(value, i));
+            }
+        } else {
+            append(value.toString());
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    //
+    // binary
+    //
+    // ----------------------------------------------------------------------
+
+    void appendIntLE(final int value) {
+        ensureCapacity(4);
+        putIntLE(size, value);
+        size += 4;
+    }
+
+    void appendDoubleLE(final double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        ensureCapacity(8);
+        putIntLE(size, (int)bits);
+        putIntLE(size + 4, (int)(bits >>> 32));
+        size += 8;
+    }
+
+    /**
+     * Overwrites the 4 bytes at offset with the little-endian value, e.g. to fill in a length written before its data
+     */
+    void putIntLE(final int offset, final int value) {
+        bytes[offset]     = (byte)value;
+        bytes[offset + 1] = (byte)(value >>> 8);
+        bytes[offset + 2] = (byte)(value >>> 16);
+        bytes[offset + 3] = (byte)(value >>> 24);
+    }
+}
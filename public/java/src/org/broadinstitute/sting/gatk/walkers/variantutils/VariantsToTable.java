@@ -36,12 +36,13 @@ import org.broadinstitute.sting.utils.variantcontext.VariantContext;
 import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
 import org.broadinstitute.sting.gatk.contexts.ReferenceContext;
 import org.broadinstitute.sting.gatk.refdata.RefMetaDataTracker;
+import org.broadinstitute.sting.gatk.walkers.NanoSchedulable;
 import org.broadinstitute.sting.gatk.walkers.RodWalker;
 import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.variantcontext.VariantContextUtils;
 
-import java.io.PrintStream;
+import java.io.*;
 import java.lang.reflect.Array;
 import java.util.*;
 
@@ -97,11 +98,21 @@ import java.util.*;
  *     et cetera...
  * </pre>
  *
+ * <p>
+ * With -fast, the fields are resolved once up front rather than looked up by name for every record, and values are
+ * formatted straight into bytes, with numbers written as they would be in a VCF file.  Run it with -nct to format
+ * records on several threads; the table is still written in order.  With -binaryColumns PREFIX, each column is
+ * also written to its own binary file PREFIX.NAME.bin, so that downstream tools don't have to parse text at all.
+ * The file PREFIX.columns lists the columns and the type of each: int (32 bit), double (64 bit), or string (32 bit
+ * length followed by UTF-8 bytes), all little-endian.  Missing values are Integer.MIN_VALUE (R's NA_integer_), NaN,
+ * and a length of -1 respectively.
+ * </p>
+ *
  * @author Mark DePristo
  * @since 2010
  */
 @DocumentedGATKFeature( groupName = "Variant Evaluation and Manipulation Tools", extraDocs = {CommandLineGATK.class} )
-public class VariantsToTable extends RodWalker<Integer, Integer> {
+public class VariantsToTable extends RodWalker<List<VariantsToTable.FormattedRecord>, Integer> implements NanoSchedulable {
     /**
      * Variants from this VCF file are used by this tool as input.
      * The file must at least contain the standard VCF header lines, but
@@ -141,6 +152,11 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
      */
     @Argument(fullName="maxRecords", shortName="M", doc="If provided, we will emit at most maxRecord records to the table", required=false)
     public int MAX_RECORDS = -1;
+
+    /**
+     * The number of records written so far, counted in reduce() so that the table is cut off at the same record
+     * no matter how many threads are formatting records
+     */
     long nRecords = 0L;
 
     /**
@@ -171,14 +187,81 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
     @Advanced
     @Argument(fullName="allowMissingData", shortName="AMD", doc="If provided, we will not require every record to contain every field", required=false)
     public boolean ALLOW_MISSING_DATA = false;
-    private final static String MISSING_DATA = "NA";
+    final static String MISSING_DATA = "NA";
+
+    /**
+     * Resolves each field to an accessor once, in initialize(), and formats values straight into bytes rather than
+     * looking up every field by name and building Strings for every record.  Numbers are formatted as they would be
+     * in a VCF file, so floating point values may be printed with fewer digits than without this flag.
+     */
+    @Advanced
+    @Argument(fullName="fastExtraction", shortName="fast", doc="If provided, fields are resolved once and formatted without going through Strings", required=false)
+    public boolean fastExtraction = false;
+
+    /**
+     * If provided, each column of the table is also written to the binary file PREFIX.NAME.bin, one value per line
+     * of the table, and the names, types, and files of the columns are listed in PREFIX.columns.  Characters of
+     * NAME other than letters, digits, '.', '-' and '_' (such as the '/' allowed in sample names) are replaced by
+     * '_' in the file name, with the column number appended if that makes two file names the same.  Implies -fast.
+     */
+    @Advanced
+    @Argument(fullName="binaryColumns", shortName="binaryColumns", doc="If provided, write each column to a binary file with this prefix", required=false)
+    public String binaryColumnsPrefix = null;
 
     private final List<String> samples = new ArrayList<String>();
 
+    /**
+     * The resolved columns of the table, site fields first, when running with -fast
+     */
+    private TableColumn[] columns = null;
+
+    /**
+     * The molten output line of each column, up to its value but without the record ID that starts the line
+     */
+    private byte[][] moltenPrefixes = null;
+
+    /**
+     * The binary output of each column, when running with -binaryColumns
+     */
+    private OutputStream[] binaryOutputs = null;
+
+    /**
+     * Per thread buffers for formatting records
+     */
+    private final ThreadLocal<TableOutputBuffer> textBuffer = new ThreadLocal<TableOutputBuffer>() {
+        @Override
+        protected TableOutputBuffer initialValue() {
+            return new TableOutputBuffer(1024);
+        }
+    };
+    private final ThreadLocal<TableOutputBuffer> binaryBuffer = new ThreadLocal<TableOutputBuffer>() {
+        @Override
+        protected TableOutputBuffer initialValue() {
+            return new TableOutputBuffer(1024);
+        }
+    };
+
+    /**
+     * The output of map() for one usable record: the text of all of its lines of the table and, if we're writing
+     * binary columns, the binary values of its lines for each column one after the other
+     */
+    public static class FormattedRecord {
+        final byte[] text;
+        final byte[] binary;
+        final int[] binaryColumnEnds;
+
+        FormattedRecord(final byte[] text, final byte[] binary, final int[] binaryColumnEnds) {
+            this.text = text;
+            this.binary = binary;
+            this.binaryColumnEnds = binaryColumnEnds;
+        }
+    }
+
     public void initialize() {
 
+        Map<String, VCFHeader> vcfRods = null;
         if ( !genotypeFieldsToTake.isEmpty() ) {
-            Map<String, VCFHeader> vcfRods = VCFUtils.getVCFHeadersFromRods(getToolkit(), variants);
+            vcfRods = VCFUtils.getVCFHeadersFromRods(getToolkit(), variants);
             TreeSet<String> vcfSamples = new TreeSet<String>(SampleUtils.getSampleList(vcfRods, VariantContextUtils.GenotypeMergeType.REQUIRE_UNIQUE));
             samples.addAll(vcfSamples);
 
@@ -196,25 +279,188 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
             final String separator = (!baseHeader.isEmpty() && !genotypeHeader.isEmpty()) ? "\t" : "";
             out.println(baseHeader + separator + genotypeHeader);
         }
+
+        if ( binaryColumnsPrefix != null )
+            fastExtraction = true;
+
+        if ( fastExtraction ) {
+            if ( vcfRods == null )
+                vcfRods = VCFUtils.getVCFHeadersFromRods(getToolkit(), variants);
+            resolveColumns(vcfRods.values());
+            if ( binaryColumnsPrefix != null )
+                openBinaryColumns();
+        }
+    }
+
+    private void resolveColumns(final Collection<VCFHeader> headers) {
+        final List<TableColumn> resolved = new ArrayList<TableColumn>();
+        final List<String> moltenLines = new ArrayList<String>();
+
+        for ( final String field : fieldsToTake ) {
+            resolved.add(TableColumn.forField(field, headers, splitMultiAllelic));
+            moltenLines.add(String.format("\tsite\t%s\t", field));
+        }
+        for ( final String sample : samples ) {
+            for ( final String gf : genotypeFieldsToTake ) {
+                resolved.add(TableColumn.forGenotypeField(sample, gf, headers));
+                moltenLines.add(String.format("\t%s\t%s\t", sample.replace(" ","_"), gf));
+            }
+        }
+
+        columns = resolved.toArray(new TableColumn[resolved.size()]);
+        moltenPrefixes = new byte[columns.length][];
+        for ( int i = 0; i < columns.length; i++ )
+            moltenPrefixes[i] = moltenLines.get(i).getBytes();
+    }
+
+    private void openBinaryColumns() {
+        final File columnsFile = new File(binaryColumnsPrefix + ".columns");
+        try {
+            final PrintStream columnsOut = new PrintStream(columnsFile);
+            binaryOutputs = new OutputStream[columns.length];
+            final Set<String> fileNames = new HashSet<String>();
+            for ( int i = 0; i < columns.length; i++ ) {
+                final File binaryFile = new File(binaryColumnsPrefix + "." + getBinaryColumnFileName(columns[i].name, i, fileNames) + ".bin");
+                columnsOut.println(columns[i].name + "\t" + columns[i].binaryType.toString().toLowerCase() + "\t" + binaryFile.getName());
+                try {
+                    binaryOutputs[i] = new BufferedOutputStream(new FileOutputStream(binaryFile));
+                } catch ( FileNotFoundException e ) {
+                    throw new UserException.CouldNotCreateOutputFile(binaryFile, "the binary column couldn't be created", e);
+                }
+            }
+            columnsOut.close();
+        } catch ( FileNotFoundException e ) {
+            throw new UserException.CouldNotCreateOutputFile(columnsFile, "the list of binary columns couldn't be created", e);
+        }
     }
 
-    public Integer map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
+    /**
+     * The part of the name of the binary file of a column that comes from the column name.  Column names include
+     * sample names, which may contain '/' or other characters that can't go in a file name.
+     *
+     * @param name      the name of the column
+     * @param column    the number of the column
+     * @param fileNames the file names of the columns before this one, to which this column's file name is added
+     * @return the file name for the column, unique among fileNames
+     */
+    protected static String getBinaryColumnFileName(final String name, final int column, final Set<String> fileNames) {
+        String fileName = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        while ( fileNames.contains(fileName) )
+            fileName = fileName + "_" + column;
+        fileNames.add(fileName);
+        return fileName;
+    }
+
+    public List<FormattedRecord> map(RefMetaDataTracker tracker, ReferenceContext ref, AlignmentContext context) {
         if ( tracker == null ) // RodWalkers can make funky map calls
-            return 0;
+            return Collections.emptyList();
 
+        final List<FormattedRecord> records = new ArrayList<FormattedRecord>(1);
         for ( VariantContext vc : tracker.getValues(variants, context.getLocation())) {
-            if ( showFiltered || vc.isNotFiltered() ) {
+            if ( showFiltered || vc.isNotFiltered() )
+                records.add(fastExtraction ? formatRecord(vc) : extractRecord(vc));
+        }
+
+        return records;
+    }
+
+    /**
+     * Writes out the records in order.  Molten lines get their record IDs here, as only reduce() knows the number
+     * of each record.
+     */
+    public Integer reduce(final List<FormattedRecord> records, final Integer sum) {
+        try {
+            for ( final FormattedRecord record : records ) {
+                if ( isDone() )
+                    break;
                 nRecords++;
-                for ( final List<String> record : extractFields(vc, fieldsToTake, genotypeFieldsToTake, samples, ALLOW_MISSING_DATA, splitMultiAllelic) ) {
-                    if ( moltenizeOutput )
-                        emitMoltenizedOutput(record);
-                    else
-                        out.println(Utils.join("\t", record));
+
+                if ( moltenizeOutput )
+                    writeMoltenLines(record.text);
+                else
+                    out.write(record.text);
+
+                if ( binaryOutputs != null ) {
+                    int start = 0;
+                    for ( int i = 0; i < binaryOutputs.length; i++ ) {
+                        binaryOutputs[i].write(record.binary, start, record.binaryColumnEnds[i] - start);
+                        start = record.binaryColumnEnds[i];
+                    }
                 }
             }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(binaryColumnsPrefix, "the binary columns couldn't be written", e);
         }
-        
-        return 1;
+
+        return sum + 1;
+    }
+
+    private void writeMoltenLines(final byte[] lines) {
+        final byte[] recordID = Long.toString(nRecords).getBytes();
+        int start = 0;
+        for ( int i = 0; i < lines.length; i++ ) {
+            if ( lines[i] == '\n' ) {
+                out.write(recordID, 0, recordID.length);
+                out.write(lines, start, i + 1 - start);
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Formats the lines of vc through the resolved columns
+     */
+    private FormattedRecord formatRecord(final VariantContext vc) {
+        final int nLines = splitMultiAllelic ? vc.getAlternateAlleles().size() : 1;
+
+        final TableOutputBuffer text = textBuffer.get();
+        text.reset();
+        for ( int line = 0; line < nLines; line++ ) {
+            for ( int i = 0; i < columns.length; i++ ) {
+                if ( moltenizeOutput )
+                    text.append(moltenPrefixes[i]);
+                else if ( i > 0 )
+                    text.append((byte)'\t');
+
+                if ( ! columns[i].format(vc, line, nLines, text) ) {
+                    if ( ! ALLOW_MISSING_DATA )
+                        throw new UserException(String.format("Missing field %s in vc %s at %s", columns[i].name, vc.getSource(), vc));
+                    text.append(MISSING_DATA);
+                }
+
+                if ( moltenizeOutput )
+                    text.append((byte)'\n');
+            }
+            if ( ! moltenizeOutput )
+                text.append((byte)'\n');
+        }
+
+        if ( binaryOutputs == null )
+            return new FormattedRecord(text.toByteArray(), null, null);
+
+        final TableOutputBuffer binary = binaryBuffer.get();
+        binary.reset();
+        final int[] binaryColumnEnds = new int[columns.length];
+        for ( int i = 0; i < columns.length; i++ ) {
+            for ( int line = 0; line < nLines; line++ )
+                columns[i].formatBinary(vc, line, nLines, binary);
+            binaryColumnEnds[i] = binary.size();
+        }
+        return new FormattedRecord(text.toByteArray(), binary.toByteArray(), binaryColumnEnds);
+    }
+
+    /**
+     * Formats the lines of vc by looking up each field by name
+     */
+    private FormattedRecord extractRecord(final VariantContext vc) {
+        final StringBuilder sb = new StringBuilder();
+        for ( final List<String> record : extractFields(vc, fieldsToTake, genotypeFieldsToTake, samples, ALLOW_MISSING_DATA, splitMultiAllelic) ) {
+            if ( moltenizeOutput )
+                appendMoltenizedOutput(record, sb);
+            else
+                sb.append(Utils.join("\t", record)).append('\n');
+        }
+        return new FormattedRecord(sb.toString().getBytes(), null, null);
     }
 
     @Override
@@ -245,14 +491,14 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
         return sb.toString();
     }
 
-    private void emitMoltenizedOutput(final List<String> record) {
+    private void appendMoltenizedOutput(final List<String> record, final StringBuilder sb) {
         int index = 0;
         for ( final String field : fieldsToTake ) {
-            out.println(String.format("%d\tsite\t%s\t%s", nRecords, field, record.get(index++)));
+            sb.append(String.format("\tsite\t%s\t%s\n", field, record.get(index++)));
         }
         for ( final String sample : samples ) {
             for ( final String gf : genotypeFieldsToTake ) {
-                out.println(String.format("%d\t%s\t%s\t%s", nRecords, sample.replace(" ","_"), gf, record.get(index++)));
+                sb.append(String.format("\t%s\t%s\t%s\n", sample.replace(" ","_"), gf, record.get(index++)));
             }
         }
     }
@@ -380,11 +626,20 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
         return extractFields(vc, fields, null, null, allowMissingData, false);
     }
     //
-    // default reduce -- doesn't do anything at all
+    // reduce just writes out what map() formatted; see reduce() above
     //
     public Integer reduceInit() { return 0; }
-    public Integer reduce(Integer counter, Integer sum) { return counter + sum; }
-    public void onTraversalDone(Integer sum) {}
+
+    public void onTraversalDone(Integer sum) {
+        if ( binaryOutputs != null ) {
+            try {
+                for ( final OutputStream binaryOutput : binaryOutputs )
+                    binaryOutput.close();
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotCreateOutputFile(binaryColumnsPrefix, "the binary columns couldn't be written", e);
+            }
+        }
+    }
 
     // ----------------------------------------------------------------------------------------------------
     //
@@ -393,12 +648,20 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
     // ----------------------------------------------------------------------------------------------------
 
     public static abstract class Getter { public abstract String get(VariantContext vc); }
+
+    /**
+     * A getter whose value is an int, which the -fast columns format and write without going through a String
+     */
+    public static abstract class IntGetter extends Getter {
+        public abstract int getInt(VariantContext vc);
+        public String get(VariantContext vc) { return Integer.toString(getInt(vc)); }
+    }
     public static final Map<String, Getter> getters = new HashMap<String, Getter>();
 
     static {
         // #CHROM  POS     ID      REF     ALT     QUAL    FILTER  INFO    FORMAT
         getters.put("CHROM", new Getter() { public String get(VariantContext vc) { return vc.getChr(); } });
-        getters.put("POS", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getStart()); } });
+        getters.put("POS", new IntGetter() { public int getInt(VariantContext vc) { return vc.getStart(); } });
         getters.put("REF", new Getter() {
             public String get(VariantContext vc) {
                 StringBuilder x = new StringBuilder();
@@ -419,33 +682,33 @@ public class VariantsToTable extends RodWalker<Integer, Integer> {
                 return x.toString();
             }
         });
-        getters.put("EVENTLENGTH", new Getter() { public String get(VariantContext vc) {
+        getters.put("EVENTLENGTH", new IntGetter() { public int getInt(VariantContext vc) {
             int maxLength = 0;
             for ( final Allele a : vc.getAlternateAlleles() ) {
                 final int length = a.length() - vc.getReference().length();
                 if( Math.abs(length) > Math.abs(maxLength) ) { maxLength = length; }
             }
-            return Integer.toString(maxLength);
+            return maxLength;
         }});
         getters.put("QUAL", new Getter() { public String get(VariantContext vc) { return Double.toString(vc.getPhredScaledQual()); } });
-        getters.put("TRANSITION", new Getter() { public String get(VariantContext vc) {
+        getters.put("TRANSITION", new IntGetter() { public int getInt(VariantContext vc) {
             if ( vc.isSNP() && vc.isBiallelic() )
-                return VariantContextUtils.isTransition(vc) ? "1" : "0";
+                return VariantContextUtils.isTransition(vc) ? 1 : 0;
             else
-                return "-1";
+                return -1;
         }});
         getters.put("FILTER", new Getter() { public String get(VariantContext vc) {
             return vc.isNotFiltered() ? "PASS" : Utils.join(",", vc.getFilters()); }
         });
         getters.put("ID", new Getter() { public String get(VariantContext vc) { return vc.getID(); } });
-        getters.put("HET", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getHetCount()); } });
-        getters.put("HOM-REF", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getHomRefCount()); } });
-        getters.put("HOM-VAR", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getHomVarCount()); } });
-        getters.put("NO-CALL", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getNoCallCount()); } });
+        getters.put("HET", new IntGetter() { public int getInt(VariantContext vc) { return vc.getHetCount(); } });
+        getters.put("HOM-REF", new IntGetter() { public int getInt(VariantContext vc) { return vc.getHomRefCount(); } });
+        getters.put("HOM-VAR", new IntGetter() { public int getInt(VariantContext vc) { return vc.getHomVarCount(); } });
+        getters.put("NO-CALL", new IntGetter() { public int getInt(VariantContext vc) { return vc.getNoCallCount(); } });
         getters.put("TYPE", new Getter() { public String get(VariantContext vc) { return vc.getType().toString(); } });
-        getters.put("VAR", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getHetCount() + vc.getHomVarCount()); } });
-        getters.put("NSAMPLES", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getNSamples()); } });
-        getters.put("NCALLED", new Getter() { public String get(VariantContext vc) { return Integer.toString(vc.getNSamples() - vc.getNoCallCount()); } });
+        getters.put("VAR", new IntGetter() { public int getInt(VariantContext vc) { return vc.getHetCount() + vc.getHomVarCount(); } });
+        getters.put("NSAMPLES", new IntGetter() { public int getInt(VariantContext vc) { return vc.getNSamples(); } });
+        getters.put("NCALLED", new IntGetter() { public int getInt(VariantContext vc) { return vc.getNSamples() - vc.getNoCallCount(); } });
         getters.put("MULTI-ALLELIC", new Getter() { public String get(VariantContext vc) { return Boolean.toString(vc.getAlternateAlleles().size() > 1); } });
         getters.put("GQ", new Getter() { public String get(VariantContext vc) {
             if ( vc.getNSamples() > 1 ) throw new UserException("Cannot get GQ values for multi-sample VCF");
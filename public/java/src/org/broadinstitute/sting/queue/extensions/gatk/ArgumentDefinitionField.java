@@ -156,9 +156,9 @@ public abstract class ArgumentDefinitionField extends ArgumentField {
             if (gatherer != null)
                 gatherClass = gatherer.getName();
             else if (SAMFileWriter.class.isAssignableFrom(argumentDefinition.argumentType))
-                gatherClass = "BamGatherFunction";
+                gatherClass = "BamConcatGatherFunction";
             else if (VariantContextWriter.class.isAssignableFrom(argumentDefinition.argumentType))
-                gatherClass = "VcfGatherFunction";
+                gatherClass = "VcfConcatGatherFunction";
             else
                 gatherClass = "org.broadinstitute.sting.queue.function.scattergather.SimpleTextGatherFunction";
 
@@ -160,6 +160,7 @@ public class GATKExtensionsGenerator extends CommandLineProgram {
                                     if (scatterClass != null) {
                                         isScatter = true;
                                         constructor += String.format("scatterClass = classOf[%s]%n", scatterClass);
+                                        constructor += String.format("gatherClass = GATKScatterFunction.unorderedGatherClass(this)%n");
                                     }
 
                                     writeClass(GATK_EXTENSIONS_PACKAGE_NAME + "." + clpClassName, walkerName,
@@ -34,7 +34,7 @@ public class ReadTransformingIterator implements StingSAMIterator {
     @Ensures("result != null")
     public SAMRecord next()     {
         final GATKSAMRecord read = (GATKSAMRecord)it.next();
-        return transformer.apply(read);
+        return transformer.transform(read);
     }
 
     public boolean hasNext()    { return this.it.hasNext(); }
@@ -31,8 +31,6 @@ import org.broadinstitute.sting.utils.exceptions.DynamicClassResolutionException
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.reflections.Reflections;
-import org.reflections.scanners.SubTypesScanner;
-import org.reflections.util.ConfigurationBuilder;
 
 import java.io.File;
 import java.lang.reflect.Constructor;
@@ -49,9 +47,9 @@ import java.util.*;
  */
 public class PluginManager<PluginType> {
     /**
-     * A reference into our introspection utility.
+     * The subtypes of everything on the classpath, read from the build time plugin registry where available.
      */
-    private static final Reflections defaultReflections;
+    private static final PluginRegistry defaultRegistry;
 
     static {
         // turn off logging in the reflections library - they talk too much
@@ -74,9 +72,8 @@ public class PluginManager<PluginType> {
             if (!url.equals(cwd))
                 classPathUrls.add(url);
 
-        defaultReflections = new Reflections( new ConfigurationBuilder()
-            .setUrls(classPathUrls)
-            .setScanners(new SubTypesScanner()));
+        // Only the classpath entries that aren't in the registry built into the jar need to be scanned.
+        defaultRegistry = PluginRegistry.load(classPathUrls);
     }
 
     /**
@@ -138,19 +135,17 @@ public class PluginManager<PluginType> {
         this.plugins = new ArrayList<Class<? extends PluginType>>();
         this.interfaces = new ArrayList<Class<? extends PluginType>>();
 
-        Reflections reflections;
+        Set<Class<? extends PluginType>> allTypes;
         if (classpath == null) {
-            reflections = defaultReflections;
+            allTypes = getSubTypesOf(defaultRegistry, pluginType);
         } else {
             addClasspath(classpath);
-            reflections = new Reflections( new ConfigurationBuilder()
-                .setUrls(classpath)
-                .setScanners(new SubTypesScanner()));
+            PluginRegistry registry = new PluginRegistry();
+            registry.scan(classpath);
+            allTypes = getSubTypesOf(registry, pluginType);
         }
 
         // Load all classes types filtering them by concrete.
-        @SuppressWarnings("unchecked")
-        Set<Class<? extends PluginType>> allTypes = reflections.getSubTypesOf(pluginType);
         for( Class<? extends PluginType> type: allTypes ) {
             // The plugin manager does not support anonymous classes; to be a plugin, a class must have a name.
             if(JVMUtils.isAnonymous(type))
@@ -173,6 +168,11 @@ public class PluginManager<PluginType> {
         sortPlugins(interfaces);
     }
 
+    @SuppressWarnings("unchecked")
+    private static <PluginType> Set<Class<? extends PluginType>> getSubTypesOf(PluginRegistry registry, Class pluginType) {
+        return registry.getSubTypesOf((Class<PluginType>)pluginType);
+    }
+
     /**
      * Sorts, in place, the list of plugins according to getName() on each element
      *
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.classloader;
+
+import org.apache.commons.io.IOUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.reflections.ReflectionUtils;
+import org.reflections.Reflections;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ConfigurationBuilder;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Registry of the subtypes of every type found on a set of classpath entries.
+ *
+ * Scanning the whole classpath with Reflections is slow, especially when the jars live on network storage, so
+ * the build writes a registry of all the jars in the distribution into GenomeAnalysisTK.jar.  At runtime the
+ * registries found on the classpath are loaded, and only the classpath entries that none of them cover (e.g.
+ * user supplied plugin jars or the class directories of a development build) are scanned with Reflections.
+ *
+ * Jars are identified by a fingerprint of the names and CRCs of their classes, read from the jar's central
+ * directory without inflating anything.  A registry keeps covering a distribution that has been moved, copied, or
+ * had its manifests updated, while a jar rebuilt with different classes is scanned again even if its name is the same.
+ */
+public class PluginRegistry {
+    /**
+     * The classpath resource holding the registry written at build time.
+     */
+    public static final String REGISTRY_RESOURCE = "META-INF/gatk-plugin-registry.bin";
+
+    private static final int MAGIC = 0x47505232; // GPR2
+
+    /**
+     * Fingerprints of the jars covered by this registry.
+     */
+    private final Set<String> coveredJars = new HashSet<String>();
+
+    /**
+     * Names of the direct subtypes of each type, keyed by the name of the type.
+     */
+    private final Map<String, Set<String>> directSubTypes = new HashMap<String, Set<String>>();
+
+    /**
+     * Create an empty registry.
+     */
+    public PluginRegistry() {
+    }
+
+    /**
+     * Load the registries found on the classpath, then scan any of the given classpath entries that they don't cover.
+     * @param classPathUrls Classpath entries from which plugins should be found.
+     * @return A registry covering all of the given classpath entries.
+     */
+    public static PluginRegistry load(Collection<URL> classPathUrls) {
+        PluginRegistry registry = new PluginRegistry();
+        try {
+            Enumeration<URL> resources = PluginRegistry.class.getClassLoader().getResources(REGISTRY_RESOURCE);
+            while (resources.hasMoreElements())
+                registry.read(resources.nextElement());
+        } catch (IOException e) {
+            throw new ReviewedStingException("Unable to find the plugin registries on the classpath", e);
+        }
+
+        List<URL> uncoveredUrls = new ArrayList<URL>();
+        for (URL url: classPathUrls)
+            if (!registry.isCovered(url))
+                uncoveredUrls.add(url);
+
+        if (!uncoveredUrls.isEmpty())
+            registry.scan(uncoveredUrls);
+
+        return registry;
+    }
+
+    /**
+     * Scan the given classpath entries with Reflections, adding the subtypes found to this registry.
+     * @param urls Jars or class directories to scan.
+     */
+    public void scan(Collection<URL> urls) {
+        Reflections reflections = new Reflections( new ConfigurationBuilder()
+            .setUrls(urls)
+            .setScanners(new SubTypesScanner()));
+
+        for (Map.Entry<String, Collection<String>> entry: reflections.getStore().get(SubTypesScanner.class).asMap().entrySet())
+            for (String subType: entry.getValue())
+                addSubType(entry.getKey(), subType);
+
+        for (URL url: urls)
+            addCoveredJar(url);
+    }
+
+    /**
+     * Record that subType directly extends or implements superType.
+     * @param superType Name of the supertype.
+     * @param subType Name of the subtype.
+     */
+    public void addSubType(String superType, String subType) {
+        Set<String> subTypes = directSubTypes.get(superType);
+        if (subTypes == null) {
+            subTypes = new HashSet<String>();
+            directSubTypes.put(superType, subTypes);
+        }
+        subTypes.add(subType);
+    }
+
+    /**
+     * Record that the classes of the given jar have been added to this registry.
+     * @param url The jar.  Classpath entries that aren't readable jars are ignored.
+     */
+    public void addCoveredJar(URL url) {
+        String fingerprint = getJarFingerprint(url);
+        if (fingerprint != null)
+            coveredJars.add(fingerprint);
+    }
+
+    /**
+     * Are the classes in the given classpath entry already in this registry?
+     * @param url The classpath entry.
+     * @return true if the classpath entry is a jar with the same classes as a jar in this registry.
+     */
+    public boolean isCovered(URL url) {
+        String fingerprint = getJarFingerprint(url);
+        return fingerprint != null && coveredJars.contains(fingerprint);
+    }
+
+    /**
+     * Gets the names of all the types extending or implementing the given type, directly or not.
+     * @param typeName Name of the type.
+     * @return Names of all of its subtypes.
+     */
+    public Set<String> getSubTypeNamesOf(String typeName) {
+        Set<String> subTypes = new LinkedHashSet<String>();
+        LinkedList<String> pending = new LinkedList<String>();
+        pending.add(typeName);
+        while (!pending.isEmpty()) {
+            Set<String> directSubTypesOfType = directSubTypes.get(pending.removeFirst());
+            if (directSubTypesOfType == null)
+                continue;
+            for (String subType: directSubTypesOfType)
+                if (subTypes.add(subType))
+                    pending.add(subType);
+        }
+        return subTypes;
+    }
+
+    /**
+     * Gets all the types extending or implementing the given type that can be loaded.
+     * @param type The type.
+     * @return All of its subtypes.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Set<Class<? extends T>> getSubTypesOf(Class<T> type) {
+        return new LinkedHashSet<Class<? extends T>>(ReflectionUtils.<T>forNames(getSubTypeNamesOf(type.getName())));
+    }
+
+    /**
+     * Write this registry.
+     * @param file File to write.
+     */
+    public void write(File file) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+            // Type names are written once, and then referred to by index.
+            Map<String, Integer> typeIndices = new LinkedHashMap<String, Integer>();
+            for (Map.Entry<String, Set<String>> entry: directSubTypes.entrySet()) {
+                getIndex(typeIndices, entry.getKey());
+                for (String subType: entry.getValue())
+                    getIndex(typeIndices, subType);
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(coveredJars.size());
+            for (String fingerprint: coveredJars)
+                out.writeUTF(fingerprint);
+            out.writeInt(typeIndices.size());
+            for (String typeName: typeIndices.keySet())
+                out.writeUTF(typeName);
+            out.writeInt(directSubTypes.size());
+            for (Map.Entry<String, Set<String>> entry: directSubTypes.entrySet()) {
+                out.writeInt(typeIndices.get(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+                for (String subType: entry.getValue())
+                    out.writeInt(typeIndices.get(subType));
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new ReviewedStingException("Unable to write plugin registry " + file, e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Add the contents of the registry at the given location to this registry.
+     * @param url Location of the registry.
+     */
+    public void read(URL url) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(url.openStream()));
+            if (in.readInt() != MAGIC)
+                throw new ReviewedStingException("Plugin registry " + url + " is not in a recognized format");
+
+            int numJars = in.readInt();
+            for (int i = 0; i < numJars; i++)
+                coveredJars.add(in.readUTF());
+
+            String[] typeNames = new String[in.readInt()];
+            for (int i = 0; i < typeNames.length; i++)
+                typeNames[i] = in.readUTF();
+
+            int numSuperTypes = in.readInt();
+            for (int i = 0; i < numSuperTypes; i++) {
+                String superType = typeNames[in.readInt()];
+                int numSubTypes = in.readInt();
+                for (int j = 0; j < numSubTypes; j++)
+                    addSubType(superType, typeNames[in.readInt()]);
+            }
+        } catch (IOException e) {
+            throw new ReviewedStingException("Unable to read plugin registry " + url, e);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the registry of the jars given on the command line.  Run by the build once the jars have been created.
+     * @param argv The file to write, followed by the jars to include in the registry, as paths or path lists.
+     */
+    public static void main(String[] argv) {
+        if (argv.length < 2) {
+            System.err.println("Usage: PluginRegistry <output registry> <jar>...");
+            System.exit(1);
+        }
+
+        Reflections.log = null;
+
+        List<URL> urls = new ArrayList<URL>();
+        try {
+            for (int i = 1; i < argv.length; i++)
+                for (String jar: argv[i].split(File.pathSeparator))
+                    if (jar.length() > 0)
+                        urls.add(new File(jar).getAbsoluteFile().toURI().toURL());
+        } catch (IOException e) {
+            throw new ReviewedStingException("Unable to locate jar to add to the plugin registry", e);
+        }
+
+        PluginRegistry registry = new PluginRegistry();
+        registry.scan(urls);
+
+        File registryFile = new File(argv[0]);
+        if (registryFile.getParentFile() != null)
+            registryFile.getParentFile().mkdirs();
+        registry.write(registryFile);
+    }
+
+    /**
+     * Gets the fingerprint of the jar at the given classpath entry, an MD5 of the sorted names and CRCs of its
+     * entries outside of META-INF.  The build adds the registry and the manifests to the jars after the registry
+     * is written, so META-INF has to be left out for the jars to keep matching the registry.
+     * @param url The classpath entry.
+     * @return The fingerprint of the jar, or null if the classpath entry isn't a jar that can be read.
+     */
+    private static String getJarFingerprint(URL url) {
+        if (!url.getPath().endsWith(".jar"))
+            return null;
+
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!file.isFile())
+            return null;
+
+        List<String> entries = new ArrayList<String>();
+        ZipFile zipFile = null;
+        try {
+            zipFile = new ZipFile(file);
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                if (!entry.isDirectory() && !entry.getName().startsWith("META-INF/"))
+                    entries.add(entry.getName() + ":" + Long.toHexString(entry.getCrc()));
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (zipFile != null) {
+                try {
+                    zipFile.close();
+                } catch (IOException e) {
+                    // The entries have already been read.
+                }
+            }
+        }
+        Collections.sort(entries);
+
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            for (String entry: entries) {
+                md5.update(entry.getBytes("UTF-8"));
+                md5.update((byte)'\n');
+            }
+            StringBuilder fingerprint = new StringBuilder();
+            for (byte b: md5.digest())
+                fingerprint.append(String.format("%02x", b));
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new ReviewedStingException("Unable to fingerprint jar " + file, e);
+        } catch (UnsupportedEncodingException e) {
+            throw new ReviewedStingException("Unable to fingerprint jar " + file, e);
+        }
+    }
+
+    private static int getIndex(Map<String, Integer> indices, String name) {
+        Integer index = indices.get(name);
+        if (index == null) {
+            index = indices.size();
+            indices.put(name, index);
+        }
+        return index;
+    }
+}
@@ -4,11 +4,12 @@ import com.google.java.contract.Requires;
 import net.sf.samtools.Cigar;
 import net.sf.samtools.CigarElement;
 import net.sf.samtools.CigarOperator;
-import org.broadinstitute.sting.utils.recalibration.EventType;
+import net.sf.samtools.SAMUtils;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Stack;
 import java.util.Vector;
@@ -324,13 +325,8 @@ public class ClippingOp {
         // the cigar may force a shift left or right (or both) in case we are left with insertions
         // starting or ending the read after applying the hard clip on start/stop.
         int newLength = read.getReadLength() - (stop - start + 1) - cigarShift.shiftFromStart - cigarShift.shiftFromEnd;
-        byte[] newBases = new byte[newLength];
-        byte[] newQuals = new byte[newLength];
         int copyStart = (start == 0) ? stop + 1 + cigarShift.shiftFromStart : cigarShift.shiftFromStart;
 
-        System.arraycopy(read.getReadBases(), copyStart, newBases, 0, newLength);
-        System.arraycopy(read.getBaseQualities(), copyStart, newQuals, 0, newLength);
-
         GATKSAMRecord hardClippedRead;
         try {
             hardClippedRead = (GATKSAMRecord) read.clone();
@@ -339,25 +335,39 @@ public class ClippingOp {
         }
 
         hardClippedRead.resetSoftStartAndEnd();                                                                         // reset the cached soft start and end because they may have changed now that the read was hard clipped. No need to calculate them now. They'll be lazily calculated on the next call to getSoftStart()/End()
-        hardClippedRead.setBaseQualities(newQuals);
-        hardClippedRead.setReadBases(newBases);
+        hardClippedRead.setReadBasesAndQualitiesWindow(read, copyStart, newLength);                                     // shares the bases and quals of the original read; they're only copied if someone asks for them
         hardClippedRead.setCigar(cigarShift.cigar);
         if (start == 0)
             hardClippedRead.setAlignmentStart(read.getAlignmentStart() + calculateAlignmentStartShift(read.getCigar(), cigarShift.cigar));
 
         if (read.hasBaseIndelQualities()) {
-            byte[] newBaseInsertionQuals = new byte[newLength];
-            byte[] newBaseDeletionQuals = new byte[newLength];
-            System.arraycopy(read.getBaseInsertionQualities(), copyStart, newBaseInsertionQuals, 0, newLength);
-            System.arraycopy(read.getBaseDeletionQualities(), copyStart, newBaseDeletionQuals, 0, newLength);
-            hardClippedRead.setBaseQualities(newBaseInsertionQuals, EventType.BASE_INSERTION);
-            hardClippedRead.setBaseQualities(newBaseDeletionQuals, EventType.BASE_DELETION);
+            // the indel quals are stored as fastq strings, so clip the strings rather than decoding, copying and re-encoding them
+            hardClippedRead.setAttribute(GATKSAMRecord.BQSR_BASE_INSERTION_QUALITIES, clipQualityString(read.getStringAttribute(GATKSAMRecord.BQSR_BASE_INSERTION_QUALITIES), copyStart, newLength));
+            hardClippedRead.setAttribute(GATKSAMRecord.BQSR_BASE_DELETION_QUALITIES, clipQualityString(read.getStringAttribute(GATKSAMRecord.BQSR_BASE_DELETION_QUALITIES), copyStart, newLength));
         }
         
         return hardClippedRead;
 
     }
 
+    /**
+     * Clips a fastq-encoded quality string.  Missing qualities default to a flat Q45, as in
+     * GATKSAMRecord.getBaseInsertionQualities() and getBaseDeletionQualities().
+     *
+     * @param quals  the fastq-encoded qualities, or null if the read has none
+     * @param start  the offset of the first quality to keep
+     * @param length the number of qualities to keep
+     * @return the clipped fastq-encoded qualities
+     */
+    private static String clipQualityString(final String quals, final int start, final int length) {
+        if (quals != null)
+            return quals.substring(start, start + length);
+
+        final byte[] defaultQuals = new byte[length];
+        Arrays.fill(defaultQuals, (byte) 45);
+        return SAMUtils.phredToFastq(defaultQuals);
+    }
+
     @Requires({"!cigar.isEmpty()"})
     private CigarShift hardClipCigar(Cigar cigar, int start, int stop) {
         Cigar newCigar = new Cigar();
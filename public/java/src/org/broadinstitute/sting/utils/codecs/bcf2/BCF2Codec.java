@@ -45,6 +45,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Decode BCF2 files
@@ -90,9 +91,16 @@ public final class BCF2Codec implements FeatureCodec<VariantContext> {
      * A cached array of GenotypeBuilders for efficient genotype decoding.
      *
      * Caching it allows us to avoid recreating this intermediate data
-     * structure each time we decode genotypes
+     * structure each time we decode genotypes.  Genotypes may be decoded
+     * lazily on any thread, so each thread has its own array
      */
-    private GenotypeBuilder[] builders = null;
+    private ThreadLocal<GenotypeBuilder[]> builders = null;
+
+    /**
+     * The last subset of samples pulled out of our genotypes data.  Callers like SelectVariants ask for
+     * the same samples at every record, so this saves us working out the subset again and again
+     */
+    private BCF2LazyGenotypesDecoder.SampleSubset lastSampleSubset = null;
 
     // for error handling
     private int recordNo = 0;
@@ -187,12 +195,8 @@ public final class BCF2Codec implements FeatureCodec<VariantContext> {
         // prepare the genotype field decoders
         gtFieldDecoders = new BCF2GenotypeFieldDecoders(header);
 
-        // create and initialize the genotype builder array
-        final int nSamples = header.getNGenotypeSamples();
-        builders = new GenotypeBuilder[nSamples];
-        for ( int i = 0; i < nSamples; i++ ) {
-            builders[i] = new GenotypeBuilder(header.getGenotypeSamples().get(i));
-        }
+        // create the per-thread genotype builder arrays
+        builders = BCF2LazyGenotypesDecoder.makeBuilders(header);
 
         // position right before next line (would be right before first real record byte at end of header)
         return new FeatureCodecHeader(header, inputStream.getPosition());
@@ -418,7 +422,7 @@ public final class BCF2Codec implements FeatureCodec<VariantContext> {
                                              final VariantContextBuilder builder ) {
         if (siteInfo.nSamples > 0) {
             final LazyGenotypesContext.LazyParser lazyParser =
-                    new BCF2LazyGenotypesDecoder(this, siteInfo.alleles, siteInfo.nSamples, siteInfo.nFormatFields, builders);
+                    new BCF2LazyGenotypesDecoder(this, header, siteInfo.alleles, siteInfo.nSamples, siteInfo.nFormatFields, builders);
 
             final LazyData lazyData = new LazyData(header, siteInfo.nFormatFields, decoder.getRecordBytes());
             final LazyGenotypesContext lazy = new LazyGenotypesContext(lazyParser, lazyData, header.getNGenotypeSamples());
@@ -444,6 +448,21 @@ public final class BCF2Codec implements FeatureCodec<VariantContext> {
         }
     }
 
+    /**
+     * Get the subset of the samples of a genotypes block with the given header, reusing the last one if possible
+     *
+     * @param blockHeader the header describing the samples of the genotypes block
+     * @param samples the samples to keep
+     * @return the subset of the samples of blockHeader in samples
+     */
+    @Requires({"blockHeader != null", "samples != null"})
+    @Ensures("result != null")
+    protected synchronized BCF2LazyGenotypesDecoder.SampleSubset getSampleSubset(final VCFHeader blockHeader, final Set<String> samples) {
+        if ( lastSampleSubset == null || ! lastSampleSubset.isSubsetOf(blockHeader, samples) )
+            lastSampleSubset = new BCF2LazyGenotypesDecoder.SampleSubset(blockHeader, samples);
+        return lastSampleSubset;
+    }
+
     @Ensures("result != null")
     private final String getDictionaryString() throws IOException {
         return getDictionaryString((Integer) decoder.decodeTypedValue());
@@ -111,6 +111,24 @@ public final class BCF2Decoder {
         return recordStream.available() == 0;
     }
 
+    /**
+     * @return the offset in the current block of the next byte to be decoded
+     */
+    @Ensures("result >= 0")
+    public int getBlockOffset() {
+        return recordBytes.length - recordStream.available();
+    }
+
+    /**
+     * Skip over the next nBytes bytes of the current block without decoding them
+     *
+     * @param nBytes
+     */
+    @Requires("nBytes >= 0")
+    public void skipBytes(final int nBytes) {
+        recordStream.skip(nBytes);
+    }
+
     /**
      * Use the recordBytes[] to read BCF2 records from now on
      *
@@ -26,10 +26,12 @@ package org.broadinstitute.sting.utils.codecs.bcf2;
 
 import com.google.java.contract.Requires;
 import org.apache.log4j.Logger;
+import org.broadinstitute.sting.utils.codecs.vcf.VCFHeader;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.variantcontext.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.*;
 
@@ -39,22 +41,30 @@ import java.util.*;
  * @author Mark DePristo
  * @since 5/12
  */
-public class BCF2LazyGenotypesDecoder implements LazyGenotypesContext.LazyParser {
+public class BCF2LazyGenotypesDecoder implements LazyGenotypesContext.SubsettingLazyParser {
     final protected static Logger logger = Logger.getLogger(BCF2LazyGenotypesDecoder.class);
 
     // the essential information for us to use to decode the genotypes data
     // initialized when this lazy decoder is created, as we know all of this from the BCF2Codec
     // and its stored here again for code cleanliness
     private final BCF2Codec codec;
+    private final VCFHeader header;
     private final List<Allele> siteAlleles;
     private final int nSamples;
     private final int nFields;
-    private final GenotypeBuilder[] builders;
+    private final ThreadLocal<GenotypeBuilder[]> builders;
 
-    @Requires("codec.getHeader().getNGenotypeSamples() == builders.length")
-    BCF2LazyGenotypesDecoder(final BCF2Codec codec, final List<Allele> alleles, final int nSamples,
-                             final int nFields, final GenotypeBuilder[] builders) {
+    /**
+     * @param codec the codec that read the genotypes data
+     * @param header the header describing the samples in the genotypes data, which is the codec's header
+     *               unless the data is a subset of the samples of a record
+     * @param builders each thread's cached builders for the samples in header, see makeBuilders
+     */
+    @Requires("header.getNGenotypeSamples() == nSamples")
+    BCF2LazyGenotypesDecoder(final BCF2Codec codec, final VCFHeader header, final List<Allele> alleles, final int nSamples,
+                             final int nFields, final ThreadLocal<GenotypeBuilder[]> builders) {
         this.codec = codec;
+        this.header = header;
         this.siteAlleles = alleles;
         this.nSamples = nSamples;
         this.nFields = nFields;
@@ -70,6 +80,9 @@ public class BCF2LazyGenotypesDecoder implements LazyGenotypesContext.LazyParser
             // load our byte[] data into the decoder
             final BCF2Decoder decoder = new BCF2Decoder(((BCF2Codec.LazyData)data).bytes);
 
+            // walkers may decode the genotypes of many records at once, so each thread fills its own builders
+            final GenotypeBuilder[] builders = this.builders.get();
+
             for ( int i = 0; i < nSamples; i++ )
                 builders[i].reset(true);
 
@@ -94,9 +107,131 @@ public class BCF2LazyGenotypesDecoder implements LazyGenotypesContext.LazyParser
             for ( final GenotypeBuilder gb : builders )
                 genotypes.add(gb.make());
 
-            return new LazyGenotypesContext.LazyData(genotypes, codec.getHeader().getSampleNamesInOrder(), codec.getHeader().getSampleNameToOffset());
+            return new LazyGenotypesContext.LazyData(genotypes, header.getSampleNamesInOrder(), header.getSampleNameToOffset());
         } catch ( IOException e ) {
             throw new ReviewedStingException("Unexpected IOException parsing already read genotypes data block", e);
         }
     }
+
+    @Override
+    public Set<String> getSampleNames() {
+        return Collections.unmodifiableSet(header.getSampleNameToOffset().keySet());
+    }
+
+    /**
+     * Copies just the values of the samples we want out of the genotypes data, without decoding anything
+     * but the key and type of each field.  Each field stores the same number of elements of the same type
+     * for every sample, so the values of sample i are simply the i-th run of numElements * size bytes after
+     * the field's type.  The result is a new lazy context whose encoded data can be written out as is by
+     * the BCF2Writer, and whose decoding only costs us the samples in the subset.
+     */
+    @Override
+    public GenotypesContext subsetToSamples(final Object data, final Set<String> samples) {
+        final SampleSubset subset = codec.getSampleSubset(header, samples);
+        if ( subset.offsets.length == 0 )
+            return GenotypesContext.NO_GENOTYPES;
+
+        try {
+            final byte[] bytes = ((BCF2Codec.LazyData)data).bytes;
+            final BCF2Decoder decoder = new BCF2Decoder(bytes);
+            final ByteArrayOutputStream subsetBytes = new ByteArrayOutputStream(bytes.length * subset.offsets.length / nSamples + 16 * nFields);
+
+            for ( int i = 0; i < nFields; i++ ) {
+                // the field key, type, and number of elements are the same in the subset
+                final int fieldStart = decoder.getBlockOffset();
+                decoder.decodeTypedValue();
+                final byte typeDescriptor = decoder.readTypeDescriptor();
+                final int numElements = decoder.decodeNumberOfElements(typeDescriptor);
+                final int valuesStart = decoder.getBlockOffset();
+                subsetBytes.write(bytes, fieldStart, valuesStart - fieldStart);
+
+                // followed by the values of just the samples we're keeping
+                final int sampleSize = numElements * BCF2Utils.decodeType(typeDescriptor).getSizeInBytes();
+                if ( valuesStart + nSamples * sampleSize > bytes.length )
+                    throw new UserException.MalformedBCF2("genotypes block is too short for " + nSamples + " samples");
+                for ( final int offset : subset.offsets )
+                    subsetBytes.write(bytes, valuesStart + offset * sampleSize, sampleSize);
+                decoder.skipBytes(nSamples * sampleSize);
+            }
+
+            final BCF2LazyGenotypesDecoder subsetDecoder =
+                    new BCF2LazyGenotypesDecoder(codec, subset.header, siteAlleles, subset.offsets.length, nFields, subset.builders);
+            final BCF2Codec.LazyData subsetData = new BCF2Codec.LazyData(subset.header, nFields, subsetBytes.toByteArray());
+            return new LazyGenotypesContext(subsetDecoder, subsetData, subset.offsets.length);
+        } catch ( IOException e ) {
+            throw new ReviewedStingException("Unexpected IOException subsetting already read genotypes data block", e);
+        }
+    }
+
+    /**
+     * Makes the per-thread builders for decoding genotypes blocks with the samples in header.
+     *
+     * Caching the builders allows us to avoid recreating this intermediate data structure each time we decode
+     * genotypes, but as the genotypes of a record may be decoded on any thread each thread needs its own array
+     *
+     * @param header the header listing the samples of the genotypes blocks
+     * @return a ThreadLocal giving each thread its own GenotypeBuilder for every sample in header
+     */
+    static ThreadLocal<GenotypeBuilder[]> makeBuilders(final VCFHeader header) {
+        final List<String> samples = new ArrayList<String>(header.getGenotypeSamples());
+        return new ThreadLocal<GenotypeBuilder[]>() {
+            @Override
+            protected GenotypeBuilder[] initialValue() {
+                final GenotypeBuilder[] builders = new GenotypeBuilder[samples.size()];
+                for ( int i = 0; i < builders.length; i++ )
+                    builders[i] = new GenotypeBuilder(samples.get(i));
+                return builders;
+            }
+        };
+    }
+
+    /**
+     * The samples of a genotypes block that are kept by a subset, along with the header and
+     * genotype builders for the subset's own genotypes blocks
+     */
+    protected static class SampleSubset {
+        /** the header of the genotypes blocks we subset */
+        private final VCFHeader blockHeader;
+
+        /** the samples requested for the subset, some of which may not be in blockHeader */
+        private final Set<String> requestedSamples;
+
+        /** the offsets in the genotypes blocks of the samples we keep, in increasing order */
+        final int[] offsets;
+
+        /** the header of the subset genotypes blocks, listing just the samples we keep */
+        final VCFHeader header;
+
+        /** per-thread cached builders for decoding the subset genotypes blocks, as in the BCF2Codec */
+        final ThreadLocal<GenotypeBuilder[]> builders;
+
+        SampleSubset(final VCFHeader blockHeader, final Set<String> samples) {
+            this.blockHeader = blockHeader;
+            this.requestedSamples = new HashSet<String>(samples);
+
+            final List<String> blockSamples = blockHeader.getGenotypeSamples();
+            final List<String> keptSamples = new ArrayList<String>(Math.min(samples.size(), blockSamples.size()));
+            final List<Integer> keptOffsets = new ArrayList<Integer>(Math.min(samples.size(), blockSamples.size()));
+            for ( int i = 0; i < blockSamples.size(); i++ ) {
+                if ( samples.contains(blockSamples.get(i)) ) {
+                    keptSamples.add(blockSamples.get(i));
+                    keptOffsets.add(i);
+                }
+            }
+
+            offsets = new int[keptOffsets.size()];
+            for ( int i = 0; i < offsets.length; i++ )
+                offsets[i] = keptOffsets.get(i);
+
+            header = new VCFHeader(blockHeader.getMetaDataInInputOrder(), keptSamples);
+            builders = makeBuilders(header);
+        }
+
+        /**
+         * @return true if this is the subset of the samples of blockHeader in samples
+         */
+        boolean isSubsetOf(final VCFHeader blockHeader, final Set<String> samples) {
+            return this.blockHeader == blockHeader && requestedSamples.equals(samples);
+        }
+    }
 }
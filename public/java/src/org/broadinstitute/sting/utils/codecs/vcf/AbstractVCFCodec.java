@@ -8,6 +8,7 @@ import org.broad.tribble.TribbleException;
 import org.broad.tribble.readers.LineReader;
 import org.broad.tribble.util.BlockCompressedInputStream;
 import org.broad.tribble.util.ParsingUtils;
+import org.broadinstitute.sting.utils.Utils;
 import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.broadinstitute.sting.utils.variantcontext.*;
@@ -17,6 +18,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 
 
@@ -30,12 +32,7 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
     protected VCFHeader header = null;
     protected VCFHeaderVersion version = null;
 
-    // a mapping of the allele
-    protected Map<String, List<Allele>> alleleMap = new HashMap<String, List<Allele>>(3);
-
     // for ParsingUtils.split
-    protected String[] GTValueArray = new String[100];
-    protected String[] genotypeKeyArray = new String[100];
     protected String[] infoFieldArray = new String[1000];
     protected String[] infoValueArray = new String[1000];
 
@@ -45,18 +42,26 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
     // a key optimization -- we need a per thread string parts array, so we don't allocate a big array over and over
     // todo: make this thread safe?
     protected String[] parts = null;
-    protected String[] genotypeParts = null;
     protected final String[] locParts = new String[6];
 
+    // genotypes are decoded lazily, possibly by many threads at once, so each thread has its own split arrays
+    private final ThreadLocal<GenotypeBuffers> genotypeBuffers = new ThreadLocal<GenotypeBuffers>() {
+        @Override
+        protected GenotypeBuffers initialValue() {
+            return new GenotypeBuffers(header.getColumnCount() - NUM_STANDARD_FIELDS);
+        }
+    };
+
     // for performance we cache the hashmap of filter encodings for quick lookup
-    protected HashMap<String,List<String>> filterHash = new HashMap<String,List<String>>();
+    // it's shared with the threads decoding genotype filters, so it needs to be concurrent
+    protected Map<String,List<String>> filterHash = new ConcurrentHashMap<String,List<String>>();
 
     // we store a name to give to each of the variant contexts we emit
     protected String name = "Unknown";
 
     protected int lineNo = 0;
 
-    protected Map<String, String> stringCache = new HashMap<String, String>();
+    protected Map<String, String> stringCache = new ConcurrentHashMap<String, String>();
 
     protected boolean warnedAboutNoEqualsForNonFlag = false;
 
@@ -75,7 +80,7 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
      * decoding the genotypes just to turn around and reencode in the frequent
      * case where we don't actually want to manipulate the genotypes
      */
-    class LazyVCFGenotypesParser implements LazyGenotypesContext.LazyParser {
+    class LazyVCFGenotypesParser implements LazyGenotypesContext.SubsettingLazyParser {
         final List<Allele> alleles;
         final String contig;
         final int start;
@@ -91,6 +96,16 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
             //System.out.printf("Loading genotypes... %s:%d%n", contig, start);
             return createGenotypeMap((String) data, alleles, contig, start);
         }
+
+        @Override
+        public Set<String> getSampleNames() {
+            return Collections.unmodifiableSet(header.getSampleNameToOffset().keySet());
+        }
+
+        @Override
+        public GenotypesContext subsetToSamples(final Object data, final Set<String> samples) {
+            return createGenotypeSubset((String) data, samples, alleles, contig, start);
+        }
     }
 
     /**
@@ -582,8 +597,8 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
                                                               final List<Allele> alleles,
                                                               final String chr,
                                                               final int pos) {
-        if (genotypeParts == null)
-            genotypeParts = new String[header.getColumnCount() - NUM_STANDARD_FIELDS];
+        final GenotypeBuffers buffers = genotypeBuffers.get();
+        final String[] genotypeParts = buffers.genotypeParts;
 
         int nParts = ParsingUtils.split(str, genotypeParts, VCFConstants.FIELD_SEPARATOR_CHAR);
         if ( nParts != genotypeParts.length )
@@ -592,95 +607,171 @@ public abstract class AbstractVCFCodec extends AsciiFeatureCodec<VariantContext>
         ArrayList<Genotype> genotypes = new ArrayList<Genotype>(nParts);
 
         // get the format keys
-        int nGTKeys = ParsingUtils.split(genotypeParts[0], genotypeKeyArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
+        int nGTKeys = ParsingUtils.split(genotypeParts[0], buffers.genotypeKeyArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
 
         // cycle through the sample names
         Iterator<String> sampleNameIterator = header.getGenotypeSamples().iterator();
 
         // clear out our allele mapping
-        alleleMap.clear();
+        buffers.alleleMap.clear();
 
         // cycle through the genotype strings
-        for (int genotypeOffset = 1; genotypeOffset < nParts; genotypeOffset++) {
-            int GTValueSplitSize = ParsingUtils.split(genotypeParts[genotypeOffset], GTValueArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
-
-            final String sampleName = sampleNameIterator.next();
-            final GenotypeBuilder gb = new GenotypeBuilder(sampleName);
-
-            // check to see if the value list is longer than the key list, which is a problem
-            if (nGTKeys < GTValueSplitSize)
-                generateException("There are too many keys for the sample " + sampleName + ", keys = " + parts[8] + ", values = " + parts[genotypeOffset]);
-
-            int genotypeAlleleLocation = -1;
-            if (nGTKeys >= 1) {
-                gb.maxAttributes(nGTKeys - 1);
-
-                for (int i = 0; i < nGTKeys; i++) {
-                    final String gtKey = genotypeKeyArray[i];
-                    boolean missing = i >= GTValueSplitSize;
-
-                    // todo -- all of these on the fly parsing of the missing value should be static constants
-                    if (gtKey.equals(VCFConstants.GENOTYPE_KEY)) {
-                        genotypeAlleleLocation = i;
-                    } else if ( missing ) {
-                        // if its truly missing (there no provided value) skip adding it to the attributes
-                    } else if (gtKey.equals(VCFConstants.GENOTYPE_FILTER_KEY)) {
-                        final List<String> filters = parseFilters(getCachedString(GTValueArray[i]));
-                        if ( filters != null ) gb.filters(filters);
-                    } else if ( GTValueArray[i].equals(VCFConstants.MISSING_VALUE_v4) ) {
-                        // don't add missing values to the map
+        for (int genotypeOffset = 1; genotypeOffset < nParts; genotypeOffset++)
+            genotypes.add(createGenotype(buffers, sampleNameIterator.next(), genotypeParts[genotypeOffset], nGTKeys, alleles, chr, pos));
+
+        return new LazyGenotypesContext.LazyData(genotypes, header.getSampleNamesInOrder(), header.getSampleNameToOffset());
+    }
+
+
+    /**
+     * create the genotypes of just the given samples, tokenizing only their columns of the genotypes string
+     *
+     * @param str the string
+     * @param samples the samples to keep; names not in the header are ignored
+     * @param alleles the list of alleles
+     * @return the genotypes of the samples in samples, in header order
+     */
+    public GenotypesContext createGenotypeSubset(final String str,
+                                                 final Set<String> samples,
+                                                 final List<Allele> alleles,
+                                                 final String chr,
+                                                 final int pos) {
+        final GenotypeBuffers buffers = genotypeBuffers.get();
+        final List<String> sampleNames = header.getGenotypeSamples();
+        final ArrayList<Genotype> genotypes = new ArrayList<Genotype>(Math.min(samples.size(), sampleNames.size()));
+
+        // get the format keys
+        int columnEnd = str.indexOf(VCFConstants.FIELD_SEPARATOR_CHAR);
+        int nGTKeys = ParsingUtils.split(columnEnd == -1 ? str : str.substring(0, columnEnd), buffers.genotypeKeyArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
+
+        // clear out our allele mapping
+        buffers.alleleMap.clear();
+
+        // walk over the genotype columns, only splitting out the ones we want
+        int nGenotypes = 0;
+        while ( columnEnd != -1 ) {
+            final int columnStart = columnEnd + 1;
+            columnEnd = str.indexOf(VCFConstants.FIELD_SEPARATOR_CHAR, columnStart);
+
+            if ( nGenotypes < sampleNames.size() && samples.contains(sampleNames.get(nGenotypes)) )
+                genotypes.add(createGenotype(buffers, sampleNames.get(nGenotypes), str.substring(columnStart, columnEnd == -1 ? str.length() : columnEnd), nGTKeys, alleles, chr, pos));
+            nGenotypes++;
+        }
+
+        if ( nGenotypes != sampleNames.size() )
+            generateException("there are " + nGenotypes + " genotypes while the header requires that " + sampleNames.size() + " genotypes be present for all records at " + chr + ":" + pos, lineNo);
+
+        return GenotypesContext.create(genotypes);
+    }
+
+    /**
+     * create a single genotype from its column of the genotypes string
+     *
+     * @param buffers the calling thread's split arrays
+     * @param sampleName the name of the sample
+     * @param genotypeString the sample's column
+     * @param nGTKeys the number of format keys, already split into buffers.genotypeKeyArray
+     * @param alleles the list of alleles
+     * @return the genotype
+     */
+    private Genotype createGenotype(final GenotypeBuffers buffers,
+                                    final String sampleName,
+                                    final String genotypeString,
+                                    final int nGTKeys,
+                                    final List<Allele> alleles,
+                                    final String chr,
+                                    final int pos) {
+        final String[] GTValueArray = buffers.GTValueArray;
+        final String[] genotypeKeyArray = buffers.genotypeKeyArray;
+        int GTValueSplitSize = ParsingUtils.split(genotypeString, GTValueArray, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR);
+
+        final GenotypeBuilder gb = new GenotypeBuilder(sampleName);
+
+        // check to see if the value list is longer than the key list, which is a problem
+        if (nGTKeys < GTValueSplitSize)
+            generateException("There are too many keys for the sample " + sampleName + ", keys = " + Utils.join(VCFConstants.GENOTYPE_FIELD_SEPARATOR, genotypeKeyArray, 0, nGTKeys) + ", values = " + genotypeString);
+
+        int genotypeAlleleLocation = -1;
+        if (nGTKeys >= 1) {
+            gb.maxAttributes(nGTKeys - 1);
+
+            for (int i = 0; i < nGTKeys; i++) {
+                final String gtKey = genotypeKeyArray[i];
+                boolean missing = i >= GTValueSplitSize;
+
+                // todo -- all of these on the fly parsing of the missing value should be static constants
+                if (gtKey.equals(VCFConstants.GENOTYPE_KEY)) {
+                    genotypeAlleleLocation = i;
+                } else if ( missing ) {
+                    // if its truly missing (there no provided value) skip adding it to the attributes
+                } else if (gtKey.equals(VCFConstants.GENOTYPE_FILTER_KEY)) {
+                    final List<String> filters = parseFilters(getCachedString(GTValueArray[i]));
+                    if ( filters != null ) gb.filters(filters);
+                } else if ( GTValueArray[i].equals(VCFConstants.MISSING_VALUE_v4) ) {
+                    // don't add missing values to the map
+                } else {
+                    if (gtKey.equals(VCFConstants.GENOTYPE_QUALITY_KEY)) {
+                        if ( GTValueArray[i].equals(VCFConstants.MISSING_GENOTYPE_QUALITY_v3) )
+                            gb.noGQ();
+                        else
+                            gb.GQ((int)Math.round(Double.valueOf(GTValueArray[i])));
+                    } else if (gtKey.equals(VCFConstants.GENOTYPE_ALLELE_DEPTHS)) {
+                        gb.AD(decodeInts(GTValueArray[i], buffers.intDecodeArray));
+                    } else if (gtKey.equals(VCFConstants.GENOTYPE_PL_KEY)) {
+                        gb.PL(decodeInts(GTValueArray[i], buffers.intDecodeArray));
+                    } else if (gtKey.equals(VCFConstants.GENOTYPE_LIKELIHOODS_KEY)) {
+                        gb.PL(GenotypeLikelihoods.fromGLField(GTValueArray[i]).getAsPLs());
+                    } else if (gtKey.equals(VCFConstants.DEPTH_KEY)) {
+                        gb.DP(Integer.valueOf(GTValueArray[i]));
                     } else {
-                        if (gtKey.equals(VCFConstants.GENOTYPE_QUALITY_KEY)) {
-                            if ( GTValueArray[i].equals(VCFConstants.MISSING_GENOTYPE_QUALITY_v3) )
-                                gb.noGQ();
-                            else
-                                gb.GQ((int)Math.round(Double.valueOf(GTValueArray[i])));
-                        } else if (gtKey.equals(VCFConstants.GENOTYPE_ALLELE_DEPTHS)) {
-                            gb.AD(decodeInts(GTValueArray[i]));
-                        } else if (gtKey.equals(VCFConstants.GENOTYPE_PL_KEY)) {
-                            gb.PL(decodeInts(GTValueArray[i]));
-                        } else if (gtKey.equals(VCFConstants.GENOTYPE_LIKELIHOODS_KEY)) {
-                            gb.PL(GenotypeLikelihoods.fromGLField(GTValueArray[i]).getAsPLs());
-                        } else if (gtKey.equals(VCFConstants.DEPTH_KEY)) {
-                            gb.DP(Integer.valueOf(GTValueArray[i]));
-                        } else {
-                            gb.attribute(gtKey, GTValueArray[i]);
-                        }
+                        gb.attribute(gtKey, GTValueArray[i]);
                     }
                 }
             }
+        }
 
-            // check to make sure we found a genotype field if our version is less than 4.1 file
-            if ( version != VCFHeaderVersion.VCF4_1 && genotypeAlleleLocation == -1 )
-                generateException("Unable to find the GT field for the record; the GT field is required in VCF4.0");
-            if ( genotypeAlleleLocation > 0 )
-                generateException("Saw GT field at position " + genotypeAlleleLocation + ", but it must be at the first position for genotypes when present");
+        // check to make sure we found a genotype field if our version is less than 4.1 file
+        if ( version != VCFHeaderVersion.VCF4_1 && genotypeAlleleLocation == -1 )
+            generateException("Unable to find the GT field for the record; the GT field is required in VCF4.0");
+        if ( genotypeAlleleLocation > 0 )
+            generateException("Saw GT field at position " + genotypeAlleleLocation + ", but it must be at the first position for genotypes when present");
 
-            final List<Allele> GTalleles = (genotypeAlleleLocation == -1 ? new ArrayList<Allele>(0) : parseGenotypeAlleles(GTValueArray[genotypeAlleleLocation], alleles, alleleMap));
-            gb.alleles(GTalleles);
-            gb.phased(genotypeAlleleLocation != -1 && GTValueArray[genotypeAlleleLocation].indexOf(VCFConstants.PHASED) != -1);
+        final List<Allele> GTalleles = (genotypeAlleleLocation == -1 ? new ArrayList<Allele>(0) : parseGenotypeAlleles(GTValueArray[genotypeAlleleLocation], alleles, buffers.alleleMap));
+        gb.alleles(GTalleles);
+        gb.phased(genotypeAlleleLocation != -1 && GTValueArray[genotypeAlleleLocation].indexOf(VCFConstants.PHASED) != -1);
 
-            // add it to the list
-            try {
-                genotypes.add(gb.make());
-            } catch (TribbleException e) {
-                throw new TribbleException.InternalCodecException(e.getMessage() + ", at position " + chr+":"+pos);
-            }
+        try {
+            return gb.make();
+        } catch (TribbleException e) {
+            throw new TribbleException.InternalCodecException(e.getMessage() + ", at position " + chr+":"+pos);
         }
-
-        return new LazyGenotypesContext.LazyData(genotypes, header.getSampleNamesInOrder(), header.getSampleNameToOffset());
     }
 
-
-    private final static String[] INT_DECODE_ARRAY = new String[10000];
-    private final static int[] decodeInts(final String string) {
-        final int nValues = ParsingUtils.split(string, INT_DECODE_ARRAY, ',');
+    private final static int[] decodeInts(final String string, final String[] intDecodeArray) {
+        final int nValues = ParsingUtils.split(string, intDecodeArray, ',');
         final int[] values = new int[nValues];
         for ( int i = 0; i < nValues; i++ )
-            values[i] = Integer.valueOf(INT_DECODE_ARRAY[i]);
+            values[i] = Integer.valueOf(intDecodeArray[i]);
         return values;
     }
 
+    /**
+     * The arrays that genotype strings are split into.  Each thread decoding genotypes has its own
+     */
+    private final static class GenotypeBuffers {
+        final String[] genotypeParts;
+        final String[] GTValueArray = new String[100];
+        final String[] genotypeKeyArray = new String[100];
+        final String[] intDecodeArray = new String[10000];
+
+        // a mapping of the allele
+        final Map<String, List<Allele>> alleleMap = new HashMap<String, List<Allele>>(3);
+
+        GenotypeBuffers(final int nGenotypeColumns) {
+            genotypeParts = new String[nGenotypeColumns];
+        }
+    }
+
     /**
      * Forces all VCFCodecs to not perform any on the fly modifications to the VCF header
      * of VCF records.  Useful primarily for raw comparisons such as when comparing
@@ -8,6 +8,7 @@ import net.sf.samtools.SAMFileHeader;
 import org.apache.log4j.Logger;
 import org.broad.tribble.Feature;
 import org.broadinstitute.sting.commandline.IntervalBinding;
+import org.broadinstitute.sting.gatk.datasources.reads.BAMIndexReadVolume;
 import org.broadinstitute.sting.gatk.datasources.reference.ReferenceDataSource;
 import org.broadinstitute.sting.utils.GenomeLoc;
 import org.broadinstitute.sting.utils.GenomeLocParser;
@@ -487,6 +488,70 @@ public class IntervalUtils {
         return new SplitLocusRecursive(split, remaining);
     }
 
+    /**
+     * Splits the genome locs into parts holding roughly the same volume of reads, as estimated from the indices of
+     * the BAMs to be processed, instead of the same number of bases as splitLocusIntervals does.  Parts over deep
+     * or piled up regions get shorter and parts over sparse regions longer, so their jobs take about the same time.
+     * If none of the locs has any reads the locs are split by size.
+     * @param locs Genome locs to split.
+     * @param numParts Number of parts to split the locs into.
+     * @param volume The estimated volume of reads along the genome.
+     * @return The locs of each part.
+     */
+    @Requires({"locs != null", "numParts > 0", "volume != null"})
+    @Ensures("result != null")
+    public static List<List<GenomeLoc>> splitLocusIntervalsByReadVolume(List<GenomeLoc> locs, int numParts, BAMIndexReadVolume volume) {
+        final long bp = intervalSize(locs);
+        if (bp < numParts)
+            throw new UserException.BadArgumentValue("scatterParts", String.format("Cannot scatter %d bases into %d parts.", bp, numParts));
+
+        double totalBytes = 0;
+        for (final GenomeLoc loc : locs)
+            totalBytes += volume.getCompressedBytes(loc);
+        if (totalBytes == 0)
+            return splitLocusIntervals(locs, numParts);
+
+        // the number of bases before the end of each part, cutting the windows of the index in proportion to their volume
+        final long[] splitPoints = new long[numParts];
+        int part = 0;
+        double bytes = 0;
+        long offset = 0;
+        for (final GenomeLoc loc : locs) {
+            for (int window = (loc.getStart() - 1) / BAMIndexReadVolume.WINDOW_SIZE; window <= (loc.getStop() - 1) / BAMIndexReadVolume.WINDOW_SIZE; window++) {
+                final int pieceSize = Math.min(loc.getStop(), (window + 1) * BAMIndexReadVolume.WINDOW_SIZE) - Math.max(loc.getStart(), window * BAMIndexReadVolume.WINDOW_SIZE + 1) + 1;
+                final double pieceBytes = volume.getCompressedBytes(loc.getContig(), window) * (double)pieceSize / BAMIndexReadVolume.WINDOW_SIZE;
+                while (part < numParts - 1 && bytes + pieceBytes >= totalBytes * (part + 1) / numParts) {
+                    final double neededBytes = totalBytes * (part + 1) / numParts - bytes;
+                    splitPoints[part++] = offset + (pieceBytes == 0 ? 0 : (long)Math.ceil(neededBytes / pieceBytes * pieceSize));
+                }
+                bytes += pieceBytes;
+                offset += pieceSize;
+            }
+        }
+        // rounding may leave the last split points unset
+        while (part < numParts)
+            splitPoints[part++] = bp;
+
+        // make sure every part gets at least one base
+        for (int i = 0; i < numParts; i++)
+            splitPoints[i] = Math.max(splitPoints[i], (i == 0 ? 0 : splitPoints[i - 1]) + 1);
+        splitPoints[numParts - 1] = bp;
+        for (int i = numParts - 2; i >= 0; i--)
+            splitPoints[i] = Math.min(splitPoints[i], splitPoints[i + 1] - 1);
+
+        final List<List<GenomeLoc>> splits = new ArrayList<List<GenomeLoc>>(numParts);
+        LinkedList<GenomeLoc> locsLinkedList = new LinkedList<GenomeLoc>(locs);
+        for (int i = 0; i < numParts - 1; i++) {
+            final SplitLocusRecursive one = splitLocusIntervals1(locsLinkedList, splitPoints[i] - (i == 0 ? 0 : splitPoints[i - 1]));
+            splits.add(one.split);
+            locsLinkedList = one.remaining;
+        }
+        // the last one gets all of the remaining parts
+        splits.add(new ArrayList<GenomeLoc>(locsLinkedList));
+
+        return splits;
+    }
+
     /**
      * Setup the intervals to be processed
      */
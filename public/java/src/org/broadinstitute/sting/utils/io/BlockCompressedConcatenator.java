@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.io;
+
+import net.sf.samtools.util.BlockCompressedFilePointerUtil;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import net.sf.samtools.util.BlockCompressedStreamConstants;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Concatenates the bodies of BGZF files (BAMs, block compressed VCFs) without decompressing them.
+ *
+ * A new header is compressed into the first blocks of the output.  Then, for each part, the header of the part is
+ * skipped: the rest of the block in which the header ends is decompressed and compressed again into a block of
+ * its own, and all following blocks are copied as they are, except for the empty block marking the end of the
+ * part.  Closing the concatenator writes the end of file marker.
+ */
+public class BlockCompressedConcatenator {
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final BlockCompressedOutputStream compressor;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * @param out              where to write the concatenated file
+     * @param compressionLevel the compression level of the blocks we have to compress ourselves
+     */
+    public BlockCompressedConcatenator(final OutputStream out, final int compressionLevel) {
+        this.out = out;
+        // the compressor is only ever flushed, never closed, as closing it would write the end of file marker
+        this.compressor = new BlockCompressedOutputStream(out, null, compressionLevel);
+    }
+
+    /**
+     * Compresses bytes into new blocks of the output.
+     *
+     * @param bytes the uncompressed bytes to write
+     * @throws IOException if the output can't be written
+     */
+    public void writeCompressed(final byte[] bytes) throws IOException {
+        compressor.write(bytes);
+        compressor.flush();
+    }
+
+    /**
+     * Appends the data of a part from an offset into its uncompressed data, usually the end of its header.
+     *
+     * @param part               the BGZF file to append
+     * @param uncompressedOffset the number of uncompressed bytes at the start of the part to skip
+     * @throws IOException if the part can't be read or the output can't be written
+     */
+    public void append(final File part, final long uncompressedOffset) throws IOException {
+        final long firstCopiedBlock;
+        final BlockCompressedInputStream decompressor = new BlockCompressedInputStream(part);
+        try {
+            skipFully(decompressor, uncompressedOffset);
+
+            final long filePointer = decompressor.getFilePointer();
+            if ( BlockCompressedFilePointerUtil.getBlockOffset(filePointer) == 0 ) {
+                firstCopiedBlock = BlockCompressedFilePointerUtil.getBlockAddress(filePointer);
+            } else {
+                // the header ends inside of a block, so the rest of that block has to be compressed again
+                final byte[] rest = new byte[decompressor.available()];
+                readFully(decompressor, rest);
+                writeCompressed(rest);
+                firstCopiedBlock = BlockCompressedFilePointerUtil.getBlockAddress(decompressor.getFilePointer());
+            }
+        } finally {
+            decompressor.close();
+        }
+
+        final long end = part.length() - (endsWithTerminator(part) ? BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length : 0);
+        final InputStream in = new FileInputStream(part);
+        try {
+            skipFully(in, firstCopiedBlock);
+            long remaining = end - firstCopiedBlock;
+            while ( remaining > 0 ) {
+                final int n = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                if ( n < 0 )
+                    throw new EOFException("Unexpected end of " + part);
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the end of file marker and closes the output.
+     *
+     * @throws IOException if the output can't be written
+     */
+    public void close() throws IOException {
+        compressor.flush();
+        out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+        out.close();
+    }
+
+    private static boolean endsWithTerminator(final File part) throws IOException {
+        final byte[] terminator = BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK;
+        if ( part.length() < terminator.length )
+            return false;
+
+        final byte[] tail = new byte[terminator.length];
+        final RandomAccessFile raf = new RandomAccessFile(part, "r");
+        try {
+            raf.seek(part.length() - terminator.length);
+            raf.readFully(tail);
+        } finally {
+            raf.close();
+        }
+        return Arrays.equals(tail, terminator);
+    }
+
+    private void skipFully(final InputStream in, long nBytes) throws IOException {
+        while ( nBytes > 0 ) {
+            final int n = in.read(buffer, 0, (int)Math.min(buffer.length, nBytes));
+            if ( n < 0 )
+                throw new EOFException("Unexpected end of stream while skipping " + nBytes + " bytes");
+            nBytes -= n;
+        }
+    }
+
+    private static void readFully(final InputStream in, final byte[] bytes) throws IOException {
+        int offset = 0;
+        while ( offset < bytes.length ) {
+            final int n = in.read(bytes, offset, bytes.length - offset);
+            if ( n < 0 )
+                throw new EOFException("Unexpected end of stream while reading " + bytes.length + " bytes");
+            offset += n;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2012 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe counter of events on a hot path, such as ROD lookups or reads written.
+ *
+ * Counters are created by a HotPathMetrics registry.  Counters from a disabled registry
+ * ignore all increments, so callers can count unconditionally.
+ */
+public final class HotPathCounter implements HotPathCounterMBean {
+    /**
+     * The counter handed out by disabled registries
+     */
+    static final HotPathCounter DISABLED = new HotPathCounter("disabled", "disabled", false);
+
+    private final String group;
+    private final String name;
+    private final boolean enabled;
+    private final AtomicLong count = new AtomicLong();
+
+    HotPathCounter(final String group, final String name, final boolean enabled) {
+        this.group = group;
+        this.name = name;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Add one to this counter
+     */
+    public void increment() {
+        if ( enabled )
+            count.incrementAndGet();
+    }
+
+    /**
+     * Add n to this counter
+     *
+     * @param n the amount to add
+     */
+    public void add(final long n) {
+        if ( enabled )
+            count.addAndGet(n);
+    }
+
+    @Override
+    public String getGroup() {
+        return group;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2012 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.metrics;
+
+import org.broadinstitute.sting.gatk.report.GATKReport;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A registry of the counters and timers measuring the hot paths of a GATK run.
+ *
+ * Components such as the traversal engines, read transformers, reference views and output
+ * writers ask the registry for a metric by group and name once, hold on to it, and update it
+ * as they go.  Asking for the same group and name again returns the same metric, so metrics
+ * updated by several threads or several copies of a component are pooled.
+ *
+ * When enabled, each metric is published as an MBean under the
+ * org.broadinstitute.sting.utils.metrics domain as soon as it is created, and all of them
+ * can be written out as a GATKReport table once the run is done.  When disabled, the
+ * registry hands out shared metrics that ignore all updates, so the cost of instrumenting
+ * a hot path is a single branch on a final field.
+ */
+public class HotPathMetrics {
+    /**
+     * A registry that records nothing, for runs and tests that don't want metrics
+     */
+    public static final HotPathMetrics DISABLED = new HotPathMetrics(false);
+
+    /**
+     * The name of the table in the report written by toReport()
+     */
+    public static final String REPORT_TABLE_NAME = "HotPathMetrics";
+
+    /**
+     * Counts the number of enabled instances of the class created in this JVM, so their MBean names are distinct
+     */
+    private static int instanceNumber = 0;
+
+    private final boolean enabled;
+    private final int thisInstance;
+
+    private final ConcurrentMap<String, HotPathTimer> timers = new ConcurrentHashMap<String, HotPathTimer>();
+    private final ConcurrentMap<String, HotPathCounter> counters = new ConcurrentHashMap<String, HotPathCounter>();
+
+    private final MBeanServer mBeanServer;
+    private final List<ObjectName> mBeanNames = new ArrayList<ObjectName>();
+
+    /**
+     * Create a new registry
+     *
+     * @param enabled if false, this registry records nothing and publishes no MBeans
+     */
+    public HotPathMetrics(final boolean enabled) {
+        this.enabled = enabled;
+        if ( enabled ) {
+            synchronized (HotPathMetrics.class) {
+                thisInstance = instanceNumber++;
+            }
+            mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        } else {
+            thisInstance = -1;
+            mBeanServer = null;
+        }
+    }
+
+    /**
+     * @return true if this registry records the metrics it hands out
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the timer with the given group and name, creating it if needed
+     *
+     * @param group the kind of component doing the work, such as traversal or reference
+     * @param name the specific work being timed, such as the name of the walker or read transformer
+     * @return a non-null timer
+     */
+    public HotPathTimer getTimer(final String group, final String name) {
+        if ( ! enabled )
+            return HotPathTimer.DISABLED;
+
+        final String key = makeKey(group, name);
+        HotPathTimer timer = timers.get(key);
+        if ( timer == null ) {
+            final HotPathTimer newTimer = new HotPathTimer(group, name, true);
+            timer = timers.putIfAbsent(key, newTimer);
+            if ( timer == null ) {
+                timer = newTimer;
+                registerMBean(timer, "Timer", group, name);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Get the counter with the given group and name, creating it if needed
+     *
+     * @param group the kind of component doing the work, such as traversal or reference
+     * @param name the specific events being counted
+     * @return a non-null counter
+     */
+    public HotPathCounter getCounter(final String group, final String name) {
+        if ( ! enabled )
+            return HotPathCounter.DISABLED;
+
+        final String key = makeKey(group, name);
+        HotPathCounter counter = counters.get(key);
+        if ( counter == null ) {
+            final HotPathCounter newCounter = new HotPathCounter(group, name, true);
+            counter = counters.putIfAbsent(key, newCounter);
+            if ( counter == null ) {
+                counter = newCounter;
+                registerMBean(counter, "Counter", group, name);
+            }
+        }
+        return counter;
+    }
+
+    private static String makeKey(final String group, final String name) {
+        if ( group == null ) throw new IllegalArgumentException("group cannot be null");
+        if ( name == null ) throw new IllegalArgumentException("name cannot be null");
+        return group + "." + name;
+    }
+
+    private synchronized void registerMBean(final Object mBean, final String type, final String group, final String name) {
+        try {
+            final ObjectName mBeanName = new ObjectName("org.broadinstitute.sting.utils.metrics:type=" + type
+                    + ",instanceNumber=" + thisInstance
+                    + ",group=" + ObjectName.quote(group)
+                    + ",name=" + ObjectName.quote(name));
+            mBeanServer.registerMBean(mBean, mBeanName);
+            mBeanNames.add(mBeanName);
+        }
+        catch (JMException ex) {
+            throw new ReviewedStingException("Unable to register hot path metric " + group + "." + name + " with JMX", ex);
+        }
+    }
+
+    /**
+     * Unregister all of the MBeans published by this registry.  The metrics themselves remain available.
+     */
+    public synchronized void unregisterMBeans() {
+        try {
+            for ( final ObjectName mBeanName : mBeanNames )
+                mBeanServer.unregisterMBean(mBeanName);
+        }
+        catch (JMException ex) {
+            throw new ReviewedStingException("Unable to unregister hot path metrics with JMX", ex);
+        }
+        finally {
+            mBeanNames.clear();
+        }
+    }
+
+    /**
+     * Create a report with one row for each metric in this registry, ordered by group and name
+     *
+     * Times are in seconds for totals and microseconds for individual events.  Counters have
+     * no times.
+     *
+     * @return a non-null single table GATKReport
+     */
+    public GATKReport toReport() {
+        final GATKReport report = GATKReport.newSimpleReportWithDescription(REPORT_TABLE_NAME,
+                "Time spent and events seen on the hot paths of the GATK",
+                "group", "name", "type", "count", "total.seconds", "mean.micros", "median.micros", "p99.micros", "max.micros");
+
+        for ( final HotPathTimer timer : new TreeMap<String, HotPathTimer>(timers).values() ) {
+            report.addRow(timer.getGroup(), timer.getName(), "timer", timer.getCount(),
+                    String.format("%.3f", timer.getTotalNanos() / 1e9),
+                    String.format("%.2f", timer.getMeanMicros()),
+                    String.format("%.2f", timer.getMedianMicros()),
+                    String.format("%.2f", timer.get99thPercentileMicros()),
+                    String.format("%.2f", timer.getMaxMicros()));
+        }
+
+        for ( final HotPathCounter counter : new TreeMap<String, HotPathCounter>(counters).values() ) {
+            report.addRow(counter.getGroup(), counter.getName(), "counter", counter.getCount(), "NA", "NA", "NA", "NA", "NA");
+        }
+
+        return report;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2012 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe timer of events on a hot path, such as walker map calls or reference fetches.
+ *
+ * Usage is:
+ *
+ *     final long start = timer.start();
+ *     ... do work ...
+ *     timer.stop(start);
+ *
+ * Besides the count, total and maximum time of the events, the timer keeps a histogram of
+ * event latencies with one bin per power of two nanoseconds, from which percentiles can be
+ * estimated to within a factor of two without storing the individual times.
+ *
+ * Timers are created by a HotPathMetrics registry.  Timers from a disabled registry don't
+ * read the clock at all, so callers can time unconditionally.
+ */
+public final class HotPathTimer implements HotPathTimerMBean {
+    /**
+     * The timer handed out by disabled registries
+     */
+    static final HotPathTimer DISABLED = new HotPathTimer("disabled", "disabled", false);
+
+    /**
+     * Bin i of the histogram counts events taking between 2^(i-1) (inclusive) and 2^i (exclusive) nanoseconds;
+     * bin 0 counts events that took no measurable time
+     */
+    private final static int N_HISTOGRAM_BINS = 64;
+
+    private final String group;
+    private final String name;
+    private final boolean enabled;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(N_HISTOGRAM_BINS);
+
+    HotPathTimer(final String group, final String name, final boolean enabled) {
+        this.group = group;
+        this.name = name;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start timing an event
+     *
+     * @return the start time of the event, to be given to stop(); 0 if this timer is disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Stop timing an event, recording the time elapsed since startNanos
+     *
+     * @param startNanos the value returned by the call to start() for this event
+     */
+    public void stop(final long startNanos) {
+        if ( enabled )
+            record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record an event that took elapsedNanos
+     *
+     * @param elapsedNanos the time taken by the event, in nanoseconds.  Negative values are treated as 0
+     */
+    public void record(final long elapsedNanos) {
+        if ( ! enabled )
+            return;
+
+        final long nanos = Math.max(elapsedNanos, 0L);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        histogram.incrementAndGet(binFor(nanos));
+
+        long max = maxNanos.get();
+        while ( nanos > max && ! maxNanos.compareAndSet(max, nanos) )
+            max = maxNanos.get();
+    }
+
+    /**
+     * Which histogram bin holds an event taking nanos?
+     *
+     * @param nanos a non-negative time in nanoseconds
+     * @return the index of the bin
+     */
+    protected static int binFor(final long nanos) {
+        return Long.SIZE - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Estimate the time within which the given fraction of events completed
+     *
+     * The estimate is the upper bound of the histogram bin holding the percentile, so it is at
+     * most twice the true value
+     *
+     * @param fraction the percentile as a fraction between 0 and 1
+     * @return the estimated time in nanoseconds; 0 if no events have been recorded
+     */
+    public long getPercentileNanos(final double fraction) {
+        if ( fraction < 0.0 || fraction > 1.0 )
+            throw new IllegalArgumentException("fraction must be between 0 and 1 but got " + fraction);
+
+        final long[] counts = new long[N_HISTOGRAM_BINS];
+        long n = 0;
+        for ( int i = 0; i < N_HISTOGRAM_BINS; i++ ) {
+            counts[i] = histogram.get(i);
+            n += counts[i];
+        }
+        if ( n == 0 )
+            return 0L;
+
+        final long rank = Math.max((long)Math.ceil(fraction * n), 1L);
+        long seen = 0;
+        for ( int i = 0; i < N_HISTOGRAM_BINS; i++ ) {
+            seen += counts[i];
+            if ( seen >= rank )
+                return Math.min(i == 0 ? 0L : (i == N_HISTOGRAM_BINS - 1 ? Long.MAX_VALUE : 1L << i), getMaxNanos());
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * @return the total time in nanoseconds of all recorded events
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * @return the time in nanoseconds of the longest recorded event
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    @Override
+    public String getGroup() {
+        return group;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getTotalTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(getTotalNanos());
+    }
+
+    @Override
+    public double getMeanMicros() {
+        final long n = getCount();
+        return n == 0 ? 0.0 : nanosToMicros(getTotalNanos()) / n;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return nanosToMicros(getMaxNanos());
+    }
+
+    @Override
+    public double getMedianMicros() {
+        return nanosToMicros(getPercentileNanos(0.5));
+    }
+
+    @Override
+    public double get99thPercentileMicros() {
+        return nanosToMicros(getPercentileNanos(0.99));
+    }
+
+    private static double nanosToMicros(final long nanos) {
+        return nanos / 1000.0;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2012 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.metrics;
+
+/**
+ * An interface for retrieving the latencies recorded by a hot path timer over JMX
+ */
+public interface HotPathTimerMBean {
+    /**
+     * @return the group, such as traversal or reference, this timer belongs to
+     */
+    public String getGroup();
+
+    /**
+     * @return the name of this timer within its group
+     */
+    public String getName();
+
+    /**
+     * How many timed events have been recorded?
+     * @return the number of events; 0 if none have been recorded
+     */
+    public long getCount();
+
+    /**
+     * What is the total time spent in the timed events?
+     * @return total time in milliseconds; 0 if none have been recorded
+     */
+    public long getTotalTimeMillis();
+
+    /**
+     * What is the average time spent in a timed event?
+     * @return average time in microseconds; 0 if none have been recorded
+     */
+    public double getMeanMicros();
+
+    /**
+     * What is the longest time spent in a single timed event?
+     * @return maximum time in microseconds; 0 if none have been recorded
+     */
+    public double getMaxMicros();
+
+    /**
+     * @return the median event time in microseconds, accurate to within a factor of two
+     */
+    public double getMedianMicros();
+
+    /**
+     * @return the 99th percentile event time in microseconds, accurate to within a factor of two
+     */
+    public double get99thPercentileMicros();
+}
@@ -0,0 +1,4 @@
+/**
+ * Provides lightweight counters and latency timers for measuring where the GATK spends its time.
+ */
+package org.broadinstitute.sting.utils.metrics;
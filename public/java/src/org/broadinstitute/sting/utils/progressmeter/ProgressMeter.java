@@ -30,13 +30,19 @@ import com.google.java.contract.Requires;
 import org.apache.log4j.Logger;
 import org.broadinstitute.sting.utils.*;
 import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.threading.ThreadEfficiencyMonitor;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A meter measuring progress on a calculation through a set of genomic regions that can
@@ -53,13 +59,16 @@ import java.util.List;
  *      -- The estimated total runtime based on previous performance
  *      -- The estimated time remaining for the entire process
  *
- * The optional file log an expanded set of metrics in tabular format
- * suitable for subsequent analysis in R.
+ * The optional file logs a timeline of an expanded set of metrics in tabular format
+ * suitable for subsequent analysis in R: every PERFORMANCE_LOG_PRINT_FREQUENCY the processing
+ * rate over the last interval, the current position, heap usage, time spent in GC, and, if
+ * a ThreadEfficiencyMonitor has been provided, the percent of time the monitored threads
+ * spent in each state over the last interval.
  *
  * This class is -- and MUST BE -- thread-safe for use in the GATK.  Multiple independent
- * threads executing processors will be calling notifyOfProgress() simultaneously and this
- * class does (and MUST) properly sort out the timings of logs without interlacing outputs
- * because of these threads.
+ * threads executing processors will be calling notifyOfProgress() simultaneously, so
+ * notifyOfProgress() takes no locks: each thread records its progress into one of a set
+ * of striped counters, which are only combined when the daemon thread prints the meter.
  *
  * Consequently, the fundamental model for when to print the logs is time based.  We basically
  * print a meter message every X seconds, minutes, hours, whatever is appropriate based on the
@@ -88,7 +97,14 @@ public class ProgressMeter {
      * How often should we print performance logging information, when we are sending this
      * information to a file?  Not dynamically updated as the logger meter is.
      */
-    private final static long PERFORMANCE_LOG_PRINT_FREQUENCY = 10 * 1000;
+    protected final static long PERFORMANCE_LOG_PRINT_FREQUENCY = 10 * 1000;
+
+    /**
+     * The thread states reported in the performance log, in order
+     */
+    private final static ThreadEfficiencyMonitor.State[] LOGGED_THREAD_STATES = {
+            ThreadEfficiencyMonitor.State.USER_CPU, ThreadEfficiencyMonitor.State.BLOCKING,
+            ThreadEfficiencyMonitor.State.WAITING, ThreadEfficiencyMonitor.State.WAITING_FOR_IO };
 
     private final static double TWO_HOURS_IN_SECONDS    =  2.0 * 60.0 * 60.0;
     private final static double TWELVE_HOURS_IN_SECONDS = 12.0 * 60.0 * 60.0;
@@ -113,6 +129,14 @@ public class ProgressMeter {
      */
     private long lastPerformanceLogPrintTime = -1;
 
+    /**
+     * The number of units processed, total GC time in milliseconds, and thread state times as of the
+     * last print to the performance log, so we can report rates over each interval
+     */
+    private long lastPerformanceLogUnitsProcessed = 0;
+    private long lastPerformanceLogGCTime = 0;
+    private EnumMap<ThreadEfficiencyMonitor.State, Long> lastPerformanceLogStateTimes = null;
+
     // --------------------------------------------------------------------------------
     // final variables fixed at object creation time
     // --------------------------------------------------------------------------------
@@ -144,9 +168,21 @@ public class ProgressMeter {
     /** We use the SimpleTimer to time our run */
     private final SimpleTimer timer = new SimpleTimer();
 
-    private GenomeLoc maxGenomeLoc = null;
-    private String positionMessage = "starting";
-    private long nTotalRecordsProcessed = 0;
+    /**
+     * Counters into which the threads calling notifyOfProgress record their progress.  Each thread
+     * uses the stripe picked by its id, so that threads don't contend for the same counter.
+     */
+    private final ProgressStripe[] stripes;
+
+    /**
+     * The total number of records processed, as given to notifyDone(), or -1 if we aren't done
+     */
+    private volatile long nTotalRecordsProcessedWhenDone = -1;
+
+    /**
+     * An optional monitor of the threads doing the processing
+     */
+    private volatile ThreadEfficiencyMonitor threadEfficiencyMonitor = null;
 
     final ProgressMeterDaemon progressMeterDaemon;
 
@@ -171,7 +207,9 @@ public class ProgressMeter {
             try {
                 this.performanceLog = new PrintStream(new FileOutputStream(performanceLogFile));
                 final List<String> pLogHeader = Arrays.asList("elapsed.time", "units.processed", "processing.speed",
-                        "bp.processed", "bp.speed", "genome.fraction.complete", "est.total.runtime", "est.time.remaining");
+                        "bp.processed", "bp.speed", "genome.fraction.complete", "est.total.runtime", "est.time.remaining",
+                        "position", "units.per.second", "heap.used.mb", "heap.max.mb", "gc.seconds", "gc.fraction",
+                        "pct.user.cpu", "pct.blocking", "pct.waiting", "pct.waiting.for.io");
                 performanceLog.println(Utils.join("\t", pLogHeader));
             } catch (FileNotFoundException e) {
                 throw new UserException.CouldNotCreateOutputFile(performanceLogFile, e);
@@ -183,6 +221,10 @@ public class ProgressMeter {
         // cached for performance reasons
         targetSizeInBP = processingIntervals.coveredSize();
 
+        stripes = new ProgressStripe[Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) * 2];
+        for ( int i = 0; i < stripes.length; i++ )
+            stripes[i] = new ProgressStripe();
+
         // start up the timer
         progressMeterDaemon = new ProgressMeterDaemon(this);
         start();
@@ -196,6 +238,8 @@ public class ProgressMeter {
     private synchronized void start() {
         timer.start();
         lastProgressPrintTime = timer.currentTime();
+        lastPerformanceLogPrintTime = lastProgressPrintTime;
+        lastPerformanceLogGCTime = getTotalGCTime();
 
         logger.info("[INITIALIZATION COMPLETE; STARTING PROCESSING]");
         logger.info(String.format("%15s processed.%s  runtime per.1M.%s completed total.runtime remaining",
@@ -212,12 +256,22 @@ public class ProgressMeter {
         return timer.getElapsedTimeNano();
     }
 
+    /**
+     * Provide a monitor of the processing threads, whose state times will be included in the performance log
+     *
+     * @param threadEfficiencyMonitor the monitor, or null if there is none
+     */
+    public void setThreadEfficiencyMonitor(final ThreadEfficiencyMonitor threadEfficiencyMonitor) {
+        this.threadEfficiencyMonitor = threadEfficiencyMonitor;
+    }
+
     /**
      * Utility routine that prints out process information (including timing) every N records or
      * every M seconds, for N and M set in global variables.
      *
-     * Synchronized to ensure that even with multiple threads calling notifyOfProgress we still
-     * get one clean stream of meter logs.
+     * Takes no locks, so that many threads can report their progress at once.  The progress is
+     * recorded in the calling thread's stripe, and only written there if it's ahead of what the
+     * stripe has already seen.
      *
      * Note this thread doesn't actually print progress, unless must print is true, but just registers
      * the progress itself.  A separate printing daemon periodically polls the meter to print out
@@ -226,17 +280,52 @@ public class ProgressMeter {
      * @param loc       Current location, can be null if you are at the end of the processing unit
      * @param nTotalRecordsProcessed the total number of records we've processed
      */
-    public synchronized void notifyOfProgress(final GenomeLoc loc, final long nTotalRecordsProcessed) {
+    public void notifyOfProgress(final GenomeLoc loc, final long nTotalRecordsProcessed) {
         if ( nTotalRecordsProcessed < 0 ) throw new IllegalArgumentException("nTotalRecordsProcessed must be >= 0");
 
-        // weird comparison to ensure that loc == null (in unmapped reads) is keep before maxGenomeLoc == null (on startup)
-        this.maxGenomeLoc = loc == null ? loc : (maxGenomeLoc == null ? loc : loc.max(maxGenomeLoc));
-        this.nTotalRecordsProcessed = Math.max(this.nTotalRecordsProcessed, nTotalRecordsProcessed);
+        final ProgressStripe stripe = stripes[(int)Thread.currentThread().getId() & (stripes.length - 1)];
+        stripe.update(loc == null ? GenomeLoc.UNMAPPED : loc, nTotalRecordsProcessed);
+    }
+
+    /**
+     * @return the furthest position reported by any thread, GenomeLoc.UNMAPPED if we're in the unmapped reads,
+     *         or null if no position has been reported yet
+     */
+    protected GenomeLoc getMaxGenomeLoc() {
+        GenomeLoc maxGenomeLoc = null;
+        for ( final ProgressStripe stripe : stripes ) {
+            final GenomeLoc loc = stripe.maxGenomeLoc.get();
+            if ( loc != null )
+                maxGenomeLoc = maxGenomeLoc == null ? loc : loc.max(maxGenomeLoc);
+        }
+        return maxGenomeLoc;
+    }
+
+    /**
+     * @return the most records reported processed by any thread, or the final count if we are done
+     */
+    protected long getTotalRecordsProcessed() {
+        if ( nTotalRecordsProcessedWhenDone >= 0 )
+            return nTotalRecordsProcessedWhenDone;
+
+        long nTotalRecordsProcessed = 0;
+        for ( final ProgressStripe stripe : stripes )
+            nTotalRecordsProcessed = Math.max(nTotalRecordsProcessed, stripe.nTotalRecordsProcessed.get());
+        return nTotalRecordsProcessed;
+    }
 
-        // a pretty name for our position
-        this.positionMessage = maxGenomeLoc == null
-                ? "unmapped reads"
-                : String.format("%s:%d", maxGenomeLoc.getContig(), maxGenomeLoc.getStart());
+    /**
+     * @param maxGenomeLoc the furthest position reached
+     * @return a pretty name for our position
+     */
+    private String getPositionMessage(final GenomeLoc maxGenomeLoc) {
+        if ( nTotalRecordsProcessedWhenDone >= 0 )
+            return "done";
+        if ( maxGenomeLoc == null )
+            return "starting";
+        if ( maxGenomeLoc.isUnmapped() )
+            return "unmapped reads";
+        return String.format("%s:%d", maxGenomeLoc.getContig(), maxGenomeLoc.getStart());
     }
 
     /**
@@ -250,10 +339,12 @@ public class ProgressMeter {
     protected synchronized void printProgress(final boolean mustPrint) {
         final long curTime = timer.currentTime();
         final boolean printProgress = mustPrint || maxElapsedIntervalForPrinting(curTime, lastProgressPrintTime, progressPrintFrequency);
-        final boolean printLog = performanceLog != null && maxElapsedIntervalForPrinting(curTime, lastPerformanceLogPrintTime, PERFORMANCE_LOG_PRINT_FREQUENCY);
+        final boolean printLog = performanceLog != null && (mustPrint || curTime - lastPerformanceLogPrintTime >= PERFORMANCE_LOG_PRINT_FREQUENCY);
 
         if ( printProgress || printLog ) {
-            final ProgressMeterData progressData = takeProgressSnapshot(maxGenomeLoc, nTotalRecordsProcessed);
+            final GenomeLoc maxGenomeLoc = getMaxGenomeLoc();
+            final String positionMessage = getPositionMessage(maxGenomeLoc);
+            final ProgressMeterData progressData = takeProgressSnapshot(maxGenomeLoc, getTotalRecordsProcessed());
 
             final AutoFormattingTime elapsed = new AutoFormattingTime(progressData.getElapsedSeconds());
             final AutoFormattingTime bpRate = new AutoFormattingTime(progressData.secondsPerMillionBP());
@@ -273,16 +364,71 @@ public class ProgressMeter {
             }
 
             if ( printLog ) {
-                lastPerformanceLogPrintTime = curTime;
-                performanceLog.printf("%.2f\t%d\t%.2e\t%d\t%.2e\t%.2e\t%.2f\t%.2f%n",
+                final double intervalSeconds = Math.max(curTime - lastPerformanceLogPrintTime, 1) / 1000.0;
+                final long gcTime = getTotalGCTime();
+                final Runtime runtime = Runtime.getRuntime();
+
+                performanceLog.printf("%.2f\t%d\t%.2e\t%d\t%.2e\t%.2e\t%.2f\t%.2f\t%s\t%.2f\t%d\t%d\t%.2f\t%.4f\t%s%n",
                         elapsed.getTimeInSeconds(), progressData.getUnitsProcessed(), unitRate.getTimeInSeconds(),
                         progressData.getBpProcessed(), bpRate.getTimeInSeconds(),
                         fractionGenomeTargetCompleted, estTotalRuntime.getTimeInSeconds(),
-                        timeToCompletion.getTimeInSeconds());
+                        timeToCompletion.getTimeInSeconds(),
+                        positionMessage,
+                        (progressData.getUnitsProcessed() - lastPerformanceLogUnitsProcessed) / intervalSeconds,
+                        (runtime.totalMemory() - runtime.freeMemory()) >> 20, runtime.maxMemory() >> 20,
+                        gcTime / 1000.0, Math.min((gcTime - lastPerformanceLogGCTime) / (intervalSeconds * 1000.0), 1.0),
+                        getThreadStatePercentages());
+
+                lastPerformanceLogPrintTime = curTime;
+                lastPerformanceLogUnitsProcessed = progressData.getUnitsProcessed();
+                lastPerformanceLogGCTime = gcTime;
             }
         }
     }
 
+    /**
+     * @return the total time, in milliseconds, spent in garbage collection by the JVM so far
+     */
+    private static long getTotalGCTime() {
+        long gcTime = 0;
+        for ( final GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans() )
+            gcTime += Math.max(gcBean.getCollectionTime(), 0);
+        return gcTime;
+    }
+
+    /**
+     * Get the percent of the time that the monitored threads spent in each of LOGGED_THREAD_STATES since
+     * the last time this was called, as tab separated columns
+     *
+     * @return the percentages, or NA for each if there's no thread efficiency monitor
+     */
+    private String getThreadStatePercentages() {
+        final ThreadEfficiencyMonitor monitor = threadEfficiencyMonitor;
+        final StringBuilder percentages = new StringBuilder();
+
+        final EnumMap<ThreadEfficiencyMonitor.State, Long> stateTimes = monitor == null ? null : monitor.getStateTimesIncludingRunningThreads();
+        long totalTime = 0;
+        if ( stateTimes != null )
+            for ( final ThreadEfficiencyMonitor.State state : LOGGED_THREAD_STATES )
+                totalTime += getStateTimeInInterval(stateTimes, state);
+
+        for ( final ThreadEfficiencyMonitor.State state : LOGGED_THREAD_STATES ) {
+            if ( percentages.length() > 0 ) percentages.append('\t');
+            if ( stateTimes == null )
+                percentages.append("NA");
+            else
+                percentages.append(String.format("%.2f", (100.0 * getStateTimeInInterval(stateTimes, state)) / Math.max(totalTime, 1)));
+        }
+
+        lastPerformanceLogStateTimes = stateTimes;
+        return percentages.toString();
+    }
+
+    private long getStateTimeInInterval(final EnumMap<ThreadEfficiencyMonitor.State, Long> stateTimes, final ThreadEfficiencyMonitor.State state) {
+        final long previous = lastPerformanceLogStateTimes == null ? 0 : lastPerformanceLogStateTimes.get(state);
+        return Math.max(stateTimes.get(state) - previous, 0);
+    }
+
     /**
      * Determine, based on remaining runtime, how often to print the meter
      *
@@ -301,13 +447,13 @@ public class ProgressMeter {
     /**
      * Creates a new ProgressData object recording a snapshot of our progress at this instant
      *
-     * @param loc our current position.  If null, assumes we are done traversing
+     * @param loc our current position.  If null or unmapped, assumes we are done traversing
      * @param nTotalRecordsProcessed the total number of records we've processed
      * @return
      */
     private ProgressMeterData takeProgressSnapshot(final GenomeLoc loc, final long nTotalRecordsProcessed) {
         // null -> end of processing
-        final long bpProcessed = loc == null ? targetSizeInBP : regionsBeingProcessed.sizeBeforeLoc(loc);
+        final long bpProcessed = loc == null || loc.isUnmapped() ? targetSizeInBP : regionsBeingProcessed.sizeBeforeLoc(loc);
         return new ProgressMeterData(timer.getElapsedTime(), nTotalRecordsProcessed, bpProcessed);
     }
 
@@ -316,8 +462,7 @@ public class ProgressMeter {
      */
     public void notifyDone(final long nTotalRecordsProcessed) {
         // print out the progress meter
-        this.nTotalRecordsProcessed = nTotalRecordsProcessed;
-        this.positionMessage = "done";
+        this.nTotalRecordsProcessedWhenDone = nTotalRecordsProcessed;
         printProgress(true);
 
         logger.info(String.format("Total runtime %.2f secs, %.2f min, %.2f hours",
@@ -341,4 +486,28 @@ public class ProgressMeter {
         final long elapsed = curTime - lastPrintTime;
         return elapsed > printFreq && elapsed > MIN_ELAPSED_TIME_BEFORE_FIRST_PROGRESS;
     }
+
+    /**
+     * The progress reported by the threads sharing one stripe
+     */
+    private static final class ProgressStripe {
+        final AtomicReference<GenomeLoc> maxGenomeLoc = new AtomicReference<GenomeLoc>();
+        final AtomicLong nTotalRecordsProcessed = new AtomicLong();
+
+        /**
+         * Record loc and nTotalRecordsProcessed, if they're beyond what's already been recorded.  Reading before
+         * writing means the stripe's cache line is only invalidated when there's actually progress to record.
+         */
+        void update(final GenomeLoc loc, final long nTotalRecordsProcessed) {
+            long currentRecords;
+            while ( nTotalRecordsProcessed > (currentRecords = this.nTotalRecordsProcessed.get()) )
+                if ( this.nTotalRecordsProcessed.compareAndSet(currentRecords, nTotalRecordsProcessed) )
+                    break;
+
+            GenomeLoc currentLoc;
+            while ( (currentLoc = maxGenomeLoc.get()) == null || loc.compareTo(currentLoc) > 0 )
+                if ( maxGenomeLoc.compareAndSet(currentLoc, loc) )
+                    break;
+        }
+    }
 }
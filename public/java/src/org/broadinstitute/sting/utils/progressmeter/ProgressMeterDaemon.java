@@ -9,14 +9,16 @@ package org.broadinstitute.sting.utils.progressmeter;
  */
 public final class ProgressMeterDaemon extends Thread {
     /**
-     * How frequently should we poll and print progress?
+     * How frequently should we poll and print progress?  Frequent enough that the performance
+     * log is written close to every ProgressMeter.PERFORMANCE_LOG_PRINT_FREQUENCY; the meter
+     * decides itself whether anything is due, so most polls do nothing.
      */
-    private final static long POLL_FREQUENCY_MILLISECONDS = 10 * 1000;
+    private final static long POLL_FREQUENCY_MILLISECONDS = 1000;
 
     /**
      * Are we to continue periodically printing status, or should we shut down?
      */
-    boolean done = false;
+    volatile boolean done = false;
 
     /**
      * The meter we will call print on
@@ -43,7 +45,7 @@ public final class ProgressMeterDaemon extends Thread {
     }
 
     /**
-     * Start up the ProgressMeterDaemon, polling every tens of seconds to print, if
+     * Start up the ProgressMeterDaemon, polling every second to print, if
      * necessary, the provided progress meter.  Never exits until the JVM is complete,
      * or done() is called, as the thread is a daemon thread
      */
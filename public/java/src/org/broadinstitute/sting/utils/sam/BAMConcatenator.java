@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.sam;
+
+import net.sf.samtools.*;
+import net.sf.samtools.util.BinaryCodec;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.io.BlockCompressedConcatenator;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Concatenates BAM files covering disjoint, ordered regions of the genome, such as the outputs of the parts of a
+ * scattered job, into a single BAM without decoding and encoding their reads as MergeSamFiles would.
+ *
+ * The parts must share the same sequence dictionary and sort order.  The header of the output is the header of the
+ * first part plus any read groups and program records only found in the other parts.  The compressed blocks of
+ * the reads are copied as they are; for coordinate sorted parts a final pass over the reads of the output checks
+ * that the parts were in order and rebuilds the index.
+ */
+public class BAMConcatenator {
+    private final static byte[] BAM_MAGIC = "BAM\1".getBytes();
+
+    private BAMConcatenator() {}
+
+    /**
+     * Concatenates parts into output.
+     *
+     * @param parts            the BAM files to concatenate, in genomic order
+     * @param output           the BAM to write
+     * @param compressionLevel the compression level of the few blocks we have to compress ourselves
+     * @param createIndex      if true, a BAM index is written for coordinate sorted outputs
+     * @param createMD5        if true, the MD5 of output is written to output.md5
+     */
+    public static void concatenate(final List<File> parts, final File output, final int compressionLevel, final boolean createIndex, final boolean createMD5) {
+        if ( parts.isEmpty() )
+            throw new UserException.BadArgumentValue("parts", "no files to concatenate into " + output);
+
+        final List<SAMFileHeader> headers = new ArrayList<SAMFileHeader>(parts.size());
+        for ( final File part : parts )
+            headers.add(readHeader(part));
+        final SAMFileHeader header = mergeHeaders(parts, headers);
+
+        try {
+            final MessageDigest md5 = createMD5 ? MessageDigest.getInstance("MD5") : null;
+            OutputStream out = new FileOutputStream(output);
+            if ( md5 != null )
+                out = new DigestOutputStream(out, md5);
+
+            final BlockCompressedConcatenator concatenator = new BlockCompressedConcatenator(new BufferedOutputStream(out), compressionLevel);
+            concatenator.writeCompressed(encodeHeader(header));
+            for ( final File part : parts )
+                concatenator.append(part, getHeaderLength(part));
+            concatenator.close();
+
+            if ( md5 != null ) {
+                final Writer md5Writer = new FileWriter(output.getPath() + ".md5");
+                md5Writer.write(String.format("%032x", new BigInteger(1, md5.digest())));
+                md5Writer.close();
+            }
+        } catch ( IOException e ) {
+            output.delete();
+            throw new UserException.CouldNotCreateOutputFile(output, "Unable to concatenate " + parts, e);
+        } catch ( NoSuchAlgorithmException e ) {
+            throw new UserException.CouldNotCreateOutputFile(output, "MD5 digests are not available", e);
+        }
+
+        if ( header.getSortOrder() == SAMFileHeader.SortOrder.coordinate ) {
+            try {
+                checkOrderAndIndex(output, createIndex);
+            } catch ( UserException e ) {
+                output.delete();
+                getIndexFile(output).delete();
+                throw e;
+            }
+        }
+    }
+
+    private static SAMFileHeader readHeader(final File part) {
+        final SAMFileReader reader = new SAMFileReader(part);
+        try {
+            reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+            if ( ! reader.isBinary() )
+                throw new UserException.MalformedBAM(part, "Only BAM files can be concatenated");
+            return reader.getFileHeader();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks that the parts can be concatenated, and returns the header of the output.
+     */
+    private static SAMFileHeader mergeHeaders(final List<File> parts, final List<SAMFileHeader> headers) {
+        final SAMFileHeader merged = headers.get(0).clone();
+        final List<SAMSequenceRecord> sequences = merged.getSequenceDictionary().getSequences();
+
+        for ( int i = 1; i < headers.size(); i++ ) {
+            final SAMFileHeader header = headers.get(i);
+            if ( header.getSortOrder() != merged.getSortOrder() )
+                throw new UserException(String.format("Cannot concatenate %s and %s, as they are not sorted in the same order", parts.get(0), parts.get(i)));
+            if ( ! isSameDictionary(sequences, header.getSequenceDictionary().getSequences()) )
+                throw new UserException.IncompatibleSequenceDictionaries("Cannot concatenate BAMs with different sequence dictionaries",
+                        parts.get(0).getPath(), merged.getSequenceDictionary(), parts.get(i).getPath(), header.getSequenceDictionary());
+
+            for ( final SAMReadGroupRecord readGroup : header.getReadGroups() )
+                if ( merged.getReadGroup(readGroup.getReadGroupId()) == null )
+                    merged.addReadGroup(readGroup);
+            for ( final SAMProgramRecord program : header.getProgramRecords() )
+                if ( merged.getProgramRecord(program.getProgramGroupId()) == null )
+                    merged.addProgramRecord(program);
+        }
+
+        return merged;
+    }
+
+    private static boolean isSameDictionary(final List<SAMSequenceRecord> sequences, final List<SAMSequenceRecord> others) {
+        if ( sequences.size() != others.size() )
+            return false;
+        for ( int i = 0; i < sequences.size(); i++ ) {
+            final SAMSequenceRecord sequence = sequences.get(i);
+            final SAMSequenceRecord other = others.get(i);
+            if ( ! sequence.getSequenceName().equals(other.getSequenceName()) || sequence.getSequenceLength() != other.getSequenceLength() )
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encodes the header as it is stored at the start of the uncompressed data of a BAM.
+     */
+    private static byte[] encodeHeader(final SAMFileHeader header) {
+        final StringWriter text = new StringWriter();
+        new SAMTextHeaderCodec().encode(text, header);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final BinaryCodec codec = new BinaryCodec(bytes);
+        codec.writeBytes(BAM_MAGIC);
+        codec.writeString(text.toString(), true, false);
+        final List<SAMSequenceRecord> sequences = header.getSequenceDictionary().getSequences();
+        codec.writeInt(sequences.size());
+        for ( final SAMSequenceRecord sequence : sequences ) {
+            codec.writeString(sequence.getSequenceName(), true, true);
+            codec.writeInt(sequence.getSequenceLength());
+        }
+        codec.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the length of the header at the start of the uncompressed data of part, i.e. the offset of its first read
+     */
+    private static long getHeaderLength(final File part) throws IOException {
+        final BinaryCodec codec = new BinaryCodec(new BlockCompressedInputStream(part));
+        try {
+            final byte[] magic = new byte[BAM_MAGIC.length];
+            codec.readBytes(magic);
+            if ( ! Arrays.equals(magic, BAM_MAGIC) )
+                throw new UserException.MalformedBAM(part, "Invalid BAM file header");
+
+            final int textLength = codec.readInt();
+            codec.readBytes(new byte[textLength]);
+            long length = BAM_MAGIC.length + 4 + textLength + 4;
+
+            final int nSequences = codec.readInt();
+            for ( int i = 0; i < nSequences; i++ ) {
+                final int nameLength = codec.readInt();
+                codec.readBytes(new byte[nameLength]);
+                codec.readInt();
+                length += 4 + nameLength + 4;
+            }
+            return length;
+        } finally {
+            codec.close();
+        }
+    }
+
+    /**
+     * Reads every read of a coordinate sorted output, checking that they are sorted, and indexes them if requested.
+     */
+    private static void checkOrderAndIndex(final File output, final boolean createIndex) {
+        final SAMFileReader reader = new SAMFileReader(output);
+        try {
+            reader.setValidationStringency(SAMFileReader.ValidationStringency.SILENT);
+            reader.enableFileSource(createIndex);
+            final BAMIndexer indexer = createIndex ? new BAMIndexer(getIndexFile(output), reader.getFileHeader()) : null;
+
+            int lastContig = 0;
+            int lastStart = 0;
+            for ( final SAMRecord read : reader ) {
+                // unplaced reads sort after all of the placed ones
+                final int contig = read.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX ? Integer.MAX_VALUE : read.getReferenceIndex();
+                final int start = read.getAlignmentStart();
+                if ( contig < lastContig || (contig == lastContig && start < lastStart) )
+                    throw new UserException(String.format("Cannot concatenate the parts of %s, as they are not in order: read %s at %s:%d follows a read at %s:%d",
+                            output, read.getReadName(), read.getReferenceName(), start, lastContig == Integer.MAX_VALUE ? "*" : reader.getFileHeader().getSequence(lastContig).getSequenceName(), lastStart));
+                lastContig = contig;
+                lastStart = start;
+
+                if ( indexer != null )
+                    indexer.processAlignment(read);
+            }
+
+            if ( indexer != null )
+                indexer.finish();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the index of a BAM, named as Queue names the indices of the BAMs written by the GATK
+     */
+    private static File getIndexFile(final File bam) {
+        final String path = bam.getPath();
+        return new File((path.endsWith(".bam") ? path.substring(0, path.length() - ".bam".length()) : path) + BAMIndex.BAMIndexSuffix);
+    }
+}
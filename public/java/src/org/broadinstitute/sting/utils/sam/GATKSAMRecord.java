@@ -68,6 +68,15 @@ public class GATKSAMRecord extends BAMRecord {
     private boolean retrievedReadGroup = false;
     private boolean retrievedReduceReadCounts = false;
 
+    // when this read was clipped out of another read, its bases and base qualities are windows of that read's arrays,
+    // shared until they are first requested or replaced (see setReadBasesAndQualitiesWindow).  The sources are only
+    // cleared once the copy is in place, so that another thread reading the same record sees either the window or the copy
+    private volatile byte[] basesWindowSource = null;
+    private int basesWindowOffset = 0;
+    private volatile byte[] qualsWindowSource = null;
+    private int qualsWindowOffset = 0;
+    private int windowLength = 0;
+
     // These temporary attributes were added here to make life easier for
     // certain algorithms by providing a way to label or attach arbitrary data to
     // individual GATKSAMRecords.
@@ -141,6 +150,51 @@ public class GATKSAMRecord extends BAMRecord {
         mReadString = s;
     }
 
+    @Override
+    public byte[] getReadBases() {
+        final byte[] source = basesWindowSource;
+        if ( source != null ) {
+            super.setReadBases(Arrays.copyOfRange(source, basesWindowOffset, basesWindowOffset + windowLength));
+            basesWindowSource = null;
+        }
+        return super.getReadBases();
+    }
+
+    @Override
+    public void setReadBases(final byte[] bases) {
+        basesWindowSource = null;
+        super.setReadBases(bases);
+    }
+
+    @Override
+    public byte[] getBaseQualities() {
+        final byte[] source = qualsWindowSource;
+        if ( source != null ) {
+            super.setBaseQualities(Arrays.copyOfRange(source, qualsWindowOffset, qualsWindowOffset + windowLength));
+            qualsWindowSource = null;
+        }
+        return super.getBaseQualities();
+    }
+
+    @Override
+    public void setBaseQualities(final byte[] quals) {
+        qualsWindowSource = null;
+        super.setBaseQualities(quals);
+    }
+
+    @Override
+    public int getReadLength() {
+        return basesWindowSource != null ? windowLength : super.getReadLength();
+    }
+
+    @Override
+    protected void eagerDecode() {
+        // equals() and hashCode() look at the underlying arrays directly
+        getReadBases();
+        getBaseQualities();
+        super.eagerDecode();
+    }
+
     @Override
     public GATKSAMReadGroupRecord getReadGroup() {
         if ( !retrievedReadGroup ) {
@@ -360,9 +414,56 @@ public class GATKSAMRecord extends BAMRecord {
      * @return true if the read has no bases
      */
     public boolean isEmpty() {
+        if ( basesWindowSource != null )
+            return windowLength == 0;
         return super.getReadBases() == null || super.getReadLength() == 0;
     }
 
+    /**
+     * Makes this read's bases and base qualities the [offset, offset + length) windows of another read's bases and
+     * base qualities, without copying them.
+     *
+     * The arrays of the other read are shared until this read's bases or qualities are first requested (including
+     * when the read is written out, compared or hashed), at which point only the window is copied, or until they are
+     * replaced with setReadBases() / setBaseQualities().  Clipping a clipped read just narrows the window, so a read
+     * clipped several times is copied at most once.  As for clone(), this relies on the arrays of a read never being
+     * modified in place.
+     *
+     * @param read   the read whose bases and qualities to share
+     * @param offset the offset of the first base of the window in the other read
+     * @param length the number of bases in the window
+     */
+    public void setReadBasesAndQualitiesWindow(final GATKSAMRecord read, final int offset, final int length) {
+        byte[] bases = read.basesWindowSource, quals = read.qualsWindowSource;
+        final int basesOffset, qualsOffset;
+        if ( bases != null ) {
+            basesOffset = read.basesWindowOffset + offset;
+        } else {
+            bases = read.getReadBases();
+            basesOffset = offset;
+        }
+        if ( quals != null ) {
+            qualsOffset = read.qualsWindowOffset + offset;
+        } else {
+            quals = read.getBaseQualities();
+            qualsOffset = offset;
+        }
+
+        if ( offset < 0 || length < 0 || offset + length > read.getReadLength() || qualsOffset + length > quals.length )
+            throw new ReviewedStingException(String.format("Window [%d, %d) lies outside of the bases or qualities of read %s", offset, offset + length, read.getReadName()));
+
+        // detach from any bases, qualities and binary data this record shares with the other read
+        super.setReadBases(SAMRecord.NULL_SEQUENCE);
+        super.setBaseQualities(SAMRecord.NULL_QUALS);
+        mReadString = null;
+
+        basesWindowSource = bases;
+        basesWindowOffset = basesOffset;
+        qualsWindowSource = quals;
+        qualsWindowOffset = qualsOffset;
+        windowLength = length;
+    }
+
     /**
      * Clears all attributes except ReadGroup of the read.
      */
@@ -54,18 +54,18 @@ public class ListFileUtils {
      * LIST_FILE_COMMENT_START are ignored.
      *
      * @param samFiles The sam files, in string format.
-     * @param parser Parser
+     * @param parser Parser, or null if the files have no tags
      * @return a flattened list of the bam files provided
      */
     public static List<SAMReaderID> unpackBAMFileList(final List<String> samFiles, final ParsingEngine parser) {
         List<SAMReaderID> unpackedReads = new ArrayList<SAMReaderID>();
         for( String inputFileName: samFiles ) {
-            Tags inputFileNameTags = parser.getTags(inputFileName);
+            Tags inputFileNameTags = getTags(parser, inputFileName);
             inputFileName = expandFileName(inputFileName);
             if (inputFileName.toLowerCase().endsWith(".list") ) {
                 try {
                     for ( String fileName : new XReadLines(new File(inputFileName), true, LIST_FILE_COMMENT_START) ) {
-                        unpackedReads.add(new SAMReaderID(fileName,parser.getTags(inputFileName)));
+                        unpackedReads.add(new SAMReaderID(fileName,getTags(parser, inputFileName)));
                     }
                 }
                 catch( FileNotFoundException ex ) {
@@ -87,6 +87,21 @@ public class ListFileUtils {
         return unpackedReads;
     }
 
+    /**
+     * Unpack the bam files to be processed, given a list of files, as the GATK does but outside of a command line,
+     * for example in Queue.  None of the files are tagged.
+     *
+     * @param samFiles The sam files, in string format.
+     * @return a flattened list of the bam files provided
+     */
+    public static List<SAMReaderID> unpackBAMFileList(final List<String> samFiles) {
+        return unpackBAMFileList(samFiles, null);
+    }
+
+    private static Tags getTags(final ParsingEngine parser, final String key) {
+        return parser == null ? new Tags() : parser.getTags(key);
+    }
+
     /**
      * Convert command-line argument representation of ROD bindings to something more easily understandable by the engine.
      * @param RODBindings a text equivale
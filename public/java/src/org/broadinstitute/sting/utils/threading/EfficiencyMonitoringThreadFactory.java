@@ -138,6 +138,7 @@ public class EfficiencyMonitoringThreadFactory extends ThreadEfficiencyMonitor i
         nThreadsCreated++;
         final Thread myThread = new TrackingThread(runnable);
         activeThreads.add(myThread);
+        threadIsStarted(myThread);
         return myThread;
     }
 
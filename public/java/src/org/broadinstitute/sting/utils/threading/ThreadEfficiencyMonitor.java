@@ -11,13 +11,16 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Uses an MXBean to monitor thread efficiency
  *
  * Once the monitor is created, calls to threadIsDone() can be used to add information
- * about the efficiency of the provided thread to this monitor.
+ * about the efficiency of the provided thread to this monitor.  Threads registered with
+ * threadIsStarted() can also be sampled while they are still running.
  *
  * Provides simple print() for displaying efficiency information to a logger
  *
@@ -41,6 +44,11 @@ public class ThreadEfficiencyMonitor {
      */
     final ThreadMXBean bean;
 
+    /**
+     * Threads registered with threadIsStarted() whose information hasn't yet been added to times
+     */
+    private final Set<Thread> runningThreads = new LinkedHashSet<Thread>();
+
     public ThreadEfficiencyMonitor() {
         bean = ManagementFactory.getThreadMXBean();
 
@@ -159,6 +167,40 @@ public class ThreadEfficiencyMonitor {
 
         if ( DEBUG ) logger.warn("UpdateThreadInfo called");
 
+        runningThreads.remove(thread);
+        addThreadTimes(times, thread);
+    }
+
+    /**
+     * Register a thread whose time should be included in getStateTimesIncludingRunningThreads()
+     * until threadIsDone() is called for it
+     *
+     * @param thread the running thread
+     */
+    public synchronized void threadIsStarted(final Thread thread) {
+        runningThreads.add(thread);
+    }
+
+    /**
+     * Get the time spent in each state by all of the threads that are done, plus the time spent so far
+     * by the threads that have started but aren't yet done
+     *
+     * @return the time in milliseconds spent in each state
+     */
+    public synchronized EnumMap<State, Long> getStateTimesIncludingRunningThreads() {
+        final EnumMap<State, Long> stateTimes = new EnumMap<State, Long>(times);
+        for ( final Thread thread : runningThreads )
+            addThreadTimes(stateTimes, thread);
+        return stateTimes;
+    }
+
+    /**
+     * Add the time thread has spent in each state to stateTimes
+     *
+     * @param stateTimes the times to update
+     * @param thread the thread whose times we want
+     */
+    private void addThreadTimes(final EnumMap<State, Long> stateTimes, final Thread thread) {
         final long threadID = thread.getId();
         final ThreadInfo info = bean.getThreadInfo(thread.getId());
         final long totalTimeNano = bean.getThreadCpuTime(threadID);
@@ -169,23 +211,23 @@ public class ThreadEfficiencyMonitor {
 
         if ( info != null ) {
             if ( DEBUG ) logger.warn("Updating thread with user runtime " + userTimeInMilliseconds + " and system runtime " + systemTimeInMilliseconds + " of which blocked " + info.getBlockedTime() + " and waiting " + info.getWaitedTime());
-            incTimes(State.BLOCKING, info.getBlockedTime());
-            incTimes(State.WAITING, info.getWaitedTime());
-            incTimes(State.USER_CPU, userTimeInMilliseconds);
-            incTimes(State.WAITING_FOR_IO, systemTimeInMilliseconds);
+            incTimes(stateTimes, State.BLOCKING, info.getBlockedTime());
+            incTimes(stateTimes, State.WAITING, info.getWaitedTime());
+            incTimes(stateTimes, State.USER_CPU, userTimeInMilliseconds);
+            incTimes(stateTimes, State.WAITING_FOR_IO, systemTimeInMilliseconds);
         }
     }
 
     /**
      * Helper function that increments the times counter by by for state
      *
+     * @param stateTimes the times to update
      * @param state
      * @param by
      */
     @Requires({"state != null", "by >= 0"})
-    @Ensures("getTotalTime() == old(getTotalTime()) + by")
-    private synchronized void incTimes(final State state, final long by) {
-        times.put(state, times.get(state) + by);
+    private static void incTimes(final EnumMap<State, Long> stateTimes, final State state, final long by) {
+        stateTimes.put(state, stateTimes.get(state) + by);
     }
 
     public enum State {
@@ -30,6 +30,7 @@ import com.google.java.contract.Requires;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Lazy-loading GenotypesContext.  A lazy-loading context has access to the
@@ -70,6 +71,29 @@ public class LazyGenotypesContext extends GenotypesContext {
         public LazyData parse(Object data);
     }
 
+    /**
+     * A LazyParser that can also pull a subset of the samples out of the encoded
+     * genotypes data without decoding the genotypes of all of the other samples.
+     * Selecting a handful of samples from a file with thousands of them then only
+     * costs us the decoding of the samples we keep
+     */
+    public interface SubsettingLazyParser extends LazyParser {
+        /**
+         * @return the names of the samples in the encoded genotypes data
+         */
+        @Ensures("result != null")
+        public Set<String> getSampleNames();
+
+        /**
+         * @param data the encoded genotypes data, as provided to the LazyGenotypesContext
+         * @param samples the samples to keep.  Names not in the data are ignored
+         * @return a context holding the genotypes of just the samples in samples
+         */
+        @Requires({"data != null", "samples != null"})
+        @Ensures("result != null")
+        public GenotypesContext subsetToSamples(Object data, Set<String> samples);
+    }
+
     /**
      * Returns the data used in the full GenotypesContext constructor
      *
@@ -191,6 +215,44 @@ public class LazyGenotypesContext extends GenotypesContext {
         return loaded ? super.size() : nUnparsedGenotypes;
     }
 
+    @Override
+    public Set<String> getSampleNames() {
+        // optimization -- a subsetting parser knows the samples in the unparsed data, so we don't
+        // need to decode everything just to list their names
+        if ( ! loaded && parser instanceof SubsettingLazyParser )
+            return ((SubsettingLazyParser)parser).getSampleNames();
+        return super.getSampleNames();
+    }
+
+    @Override
+    public boolean containsSample(final String sample) {
+        return ! loaded && parser instanceof SubsettingLazyParser ? getSampleNames().contains(sample) : super.containsSample(sample);
+    }
+
+    @Override
+    public GenotypesContext subsetToSamples(final Set<String> samples) {
+        // optimization -- let the parser pull out just the samples we want, rather than decoding
+        // all of the genotypes and then throwing most of them away
+        if ( ! loaded && ! samples.isEmpty() && parser instanceof SubsettingLazyParser )
+            return ((SubsettingLazyParser)parser).subsetToSamples(unparsedGenotypeData, samples);
+        return super.subsetToSamples(samples);
+    }
+
+    /**
+     * Decodes the genotypes data into a new GenotypesContext, leaving this context and its
+     * unparsed data untouched.  Useful when we need to look at the genotypes but still want
+     * to write out the encoded data as is, which decode() would throw away.
+     *
+     * @return a fully decoded copy of this context, or this context itself if it's already decoded
+     */
+    @Ensures("result != null")
+    public GenotypesContext decodeCopy() {
+        if ( loaded )
+            return this;
+        final LazyData parsed = parser.parse(unparsedGenotypeData);
+        return new GenotypesContext(parsed.genotypes, parsed.sampleNameToOffset, parsed.sampleNamesInOrder);
+    }
+
     public Object getUnparsedGenotypeData() {
         return unparsedGenotypeData;
     }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.variantcontext;
+
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+
+import java.util.*;
+
+/**
+ * Precomputed mapping of the samples of each input of a merge onto the samples of the merged output.
+ *
+ * simpleMerge() normally works out the merged name of every genotype at every site and looks it up in the growing
+ * set of merged genotypes.  When the samples of each input are known up front (from the VCF headers), all of that
+ * can be done once: for every input and every sample index in that input's header, this table holds the merged
+ * sample name and the slot of that sample in the merged output, so merging genotypes is a matter of filling an
+ * array of slots.
+ *
+ * Inputs are identified by the source of their VariantContexts, i.e. the name of their rod binding.
+ */
+public class SampleIndexRemapping {
+    /**
+     * The index of each input, keyed by source name.
+     */
+    private final Map<String, Integer> inputIndices = new HashMap<String, Integer>();
+
+    /**
+     * For each input, its sample names in header order.
+     */
+    private final String[][] inputSamples;
+
+    /**
+     * For each input, the merged name of each of its samples.
+     */
+    private final String[][] mergedSamples;
+
+    /**
+     * For each input, the slot of each of its samples in the merged output.
+     */
+    private final int[][] outputSlots;
+
+    /**
+     * The slot of each merged sample name.
+     */
+    private final Map<String, Integer> outputSlotsByName = new HashMap<String, Integer>();
+
+    /**
+     * Builds the remapping tables.
+     *
+     * @param samplesBySource the sample names of each input, in header order, keyed by source name
+     * @param uniquifySamples if true, samples are renamed sample.source, as with GenotypeMergeType.UNIQUIFY
+     */
+    public SampleIndexRemapping(final Map<String, List<String>> samplesBySource, final boolean uniquifySamples) {
+        final int nInputs = samplesBySource.size();
+        inputSamples = new String[nInputs][];
+        mergedSamples = new String[nInputs][];
+        outputSlots = new int[nInputs][];
+
+        int input = 0;
+        for ( final Map.Entry<String, List<String>> entry : samplesBySource.entrySet() ) {
+            final String source = entry.getKey();
+            final List<String> samples = entry.getValue();
+
+            inputIndices.put(source, input);
+            inputSamples[input] = samples.toArray(new String[samples.size()]);
+            mergedSamples[input] = new String[samples.size()];
+            outputSlots[input] = new int[samples.size()];
+
+            for ( int i = 0; i < samples.size(); i++ ) {
+                final String merged = VariantContextUtils.mergedSampleName(source, samples.get(i), uniquifySamples);
+                Integer slot = outputSlotsByName.get(merged);
+                if ( slot == null ) {
+                    slot = outputSlotsByName.size();
+                    outputSlotsByName.put(merged, slot);
+                }
+                mergedSamples[input][i] = merged;
+                outputSlots[input][i] = slot;
+            }
+            input++;
+        }
+    }
+
+    /**
+     * @return the number of samples in the merged output
+     */
+    public int getNumMergedSamples() {
+        return outputSlotsByName.size();
+    }
+
+    /**
+     * @param vcs the records being merged
+     * @return true if every record comes from an input known to this table
+     */
+    public boolean coversAll(final Collection<VariantContext> vcs) {
+        for ( final VariantContext vc : vcs )
+            if ( ! inputIndices.containsKey(vc.getSource()) )
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the genotypes of a record from one input under their merged sample names.
+     *
+     * @param vc a record from an input known to this table
+     * @return the genotypes of vc, renamed if their merged names differ from their names in vc
+     */
+    public GenotypesContext renameGenotypes(final VariantContext vc) {
+        final int input = getInputIndex(vc);
+        final GenotypesContext genotypes = vc.getGenotypes();
+        final GenotypesContext renamed = GenotypesContext.create(genotypes.size());
+        for ( int i = 0; i < genotypes.size(); i++ ) {
+            final Genotype g = genotypes.get(i);
+            final String merged = mergedSamples[input][getSampleIndex(input, i, g)];
+            renamed.add(merged.equals(g.getSampleName()) ? g : new GenotypeBuilder(g).name(merged).make());
+        }
+        return renamed;
+    }
+
+    /**
+     * Merges the genotypes of one record into the slots of the merged output.  Samples whose slot is already
+     * filled by an earlier record are skipped, so records should be added in priority order.
+     *
+     * @param slots     the merged genotypes so far, indexed by output slot
+     * @param vc        a record from an input known to this table
+     * @param remapping the new allele of each allele in vc, or null if the alleles are unchanged
+     */
+    public void mergeGenotypes(final Genotype[] slots, final VariantContext vc, final Map<Allele, Allele> remapping) {
+        final int input = getInputIndex(vc);
+        final GenotypesContext genotypes = vc.getGenotypes();
+        for ( int i = 0; i < genotypes.size(); i++ ) {
+            final Genotype g = genotypes.get(i);
+            final int sample = getSampleIndex(input, i, g);
+            final int slot = outputSlots[input][sample];
+            if ( slots[slot] != null )
+                continue;
+
+            final String merged = mergedSamples[input][sample];
+            if ( remapping == null && merged.equals(g.getSampleName()) ) {
+                slots[slot] = g;
+            } else {
+                final GenotypeBuilder gb = new GenotypeBuilder(g).name(merged);
+                if ( remapping != null ) {
+                    final List<Allele> alleles = new ArrayList<Allele>(g.getPloidy());
+                    for ( final Allele a : g.getAlleles() )
+                        alleles.add(remapping.containsKey(a) ? remapping.get(a) : a);
+                    gb.alleles(alleles);
+                }
+                slots[slot] = gb.make();
+            }
+        }
+    }
+
+    /**
+     * Collects the filled slots of a merge into a GenotypesContext.
+     *
+     * @param slots the merged genotypes, indexed by output slot
+     * @return the merged genotypes
+     */
+    public static GenotypesContext collectGenotypes(final Genotype[] slots) {
+        final ArrayList<Genotype> genotypes = new ArrayList<Genotype>(slots.length);
+        for ( final Genotype g : slots )
+            if ( g != null )
+                genotypes.add(g);
+        return GenotypesContext.create(genotypes);
+    }
+
+    private int getInputIndex(final VariantContext vc) {
+        final Integer input = inputIndices.get(vc.getSource());
+        if ( input == null )
+            throw new ReviewedStingException("BUG: no sample remapping for variant context from " + vc.getSource());
+        return input;
+    }
+
+    /**
+     * Genotypes decoded from a VCF are in header order, so the index of a genotype is nearly always the index
+     * of its sample; otherwise we fall back to searching the header samples.
+     */
+    private int getSampleIndex(final int input, final int genotypeIndex, final Genotype g) {
+        final String[] samples = inputSamples[input];
+        final String name = g.getSampleName();
+        if ( genotypeIndex < samples.length && samples[genotypeIndex].equals(name) )
+            return genotypeIndex;
+        for ( int i = 0; i < samples.length; i++ )
+            if ( samples[i].equals(name) )
+                return i;
+        throw new ReviewedStingException("BUG: sample " + name + " of a variant context from " + inputSourceName(input) + " isn't in its header");
+    }
+
+    private String inputSourceName(final int input) {
+        for ( final Map.Entry<String, Integer> entry : inputIndices.entrySet() )
+            if ( entry.getValue() == input )
+                return entry.getKey();
+        return null;
+    }
+}
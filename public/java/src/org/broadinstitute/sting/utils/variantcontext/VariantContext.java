@@ -345,6 +345,10 @@ public class VariantContext implements Feature { // to enable tribble integratio
                 builder.alleles(alleles);
             }
 
+            // a subset that's still encoded came straight from our own genotypes, so there's nothing
+            // to validate and no reason to decode it here
+            if ( newGenotypes.isLazyWithData() )
+                return builder.genotypesNoValidation(newGenotypes).make();
             return builder.genotypes(newGenotypes).make();
         }
     }
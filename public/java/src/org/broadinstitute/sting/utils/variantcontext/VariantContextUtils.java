@@ -480,6 +480,43 @@ public class VariantContextUtils {
                                              final String setKey,
                                              final boolean filteredAreUncalled,
                                              final boolean mergeInfoWithMaxAC ) {
+        return simpleMerge(genomeLocParser,unsortedVCs,priorityListOfVCs,originalNumOfVCs,filteredRecordMergeType,genotypeMergeOptions,annotateOrigin,printMessages,setKey,filteredAreUncalled,mergeInfoWithMaxAC,null);
+    }
+
+    /**
+     * Merges VariantContexts into a single hybrid.  Takes genotypes for common samples in priority order, if provided.
+     * If uniquifySamples is true, the priority order is ignored and names are created by concatenating the VC name with
+     * the sample name
+     *
+     * If the samples of every input are known up front, sampleRemapping lets the genotypes be merged by precomputed
+     * sample index instead of by name.  A site with a single record is passed through without rebuilding its
+     * genotypes, attributes and alleles.
+     *
+     * @param genomeLocParser           loc parser
+     * @param unsortedVCs               collection of unsorted VCs
+     * @param priorityListOfVCs         priority list detailing the order in which we should grab the VCs
+     * @param filteredRecordMergeType   merge type for filtered records
+     * @param genotypeMergeOptions      merge option for genotypes
+     * @param annotateOrigin            should we annotate the set it came from?
+     * @param printMessages             should we print messages?
+     * @param setKey                    the key name of the set
+     * @param filteredAreUncalled       are filtered records uncalled?
+     * @param mergeInfoWithMaxAC        should we merge in info from the VC with maximum allele count?
+     * @param sampleRemapping           precomputed sample remapping of the inputs, or null to merge genotypes by name
+     * @return new VariantContext       representing the merge of unsortedVCs
+     */
+    public static VariantContext simpleMerge(final GenomeLocParser genomeLocParser,
+                                             final Collection<VariantContext> unsortedVCs,
+                                             final List<String> priorityListOfVCs,
+                                             final int originalNumOfVCs,
+                                             final FilteredRecordMergeType filteredRecordMergeType,
+                                             final GenotypeMergeType genotypeMergeOptions,
+                                             final boolean annotateOrigin,
+                                             final boolean printMessages,
+                                             final String setKey,
+                                             final boolean filteredAreUncalled,
+                                             final boolean mergeInfoWithMaxAC,
+                                             final SampleIndexRemapping sampleRemapping ) {
 
         if ( unsortedVCs == null || unsortedVCs.size() == 0 )
             return null;
@@ -504,6 +541,12 @@ public class VariantContextUtils {
         if ( VCs.size() == 0 ) // everything is filtered out and we're filteredAreUncalled
             return null;
 
+        final boolean remapSamples = sampleRemapping != null && sampleRemapping.coversAll(VCs);
+
+        // a record seen in only one input at this site can be passed through as is
+        if ( VCs.size() == 1 && ! mergeInfoWithMaxAC )
+            return passThroughSingleRecord(VCs.get(0), originalNumOfVCs, filteredRecordMergeType, genotypeMergeOptions, annotateOrigin, setKey, remapSamples ? sampleRemapping : null);
+
         // establish the baseline info from the first VC
         final VariantContext first = VCs.get(0);
         final String name = first.getSource();
@@ -524,6 +567,7 @@ public class VariantContextUtils {
         double log10PError = CommonInfo.NO_LOG10_PERROR;
         VariantContext vcWithMaxAC = null;
         GenotypesContext genotypes = GenotypesContext.create();
+        final Genotype[] genotypeSlots = remapSamples ? new Genotype[sampleRemapping.getNumMergedSamples()] : null;
 
         // counting the number of filtered and variant VCs
         int nFiltered = 0;
@@ -547,7 +591,10 @@ public class VariantContextUtils {
 
             alleles.addAll(alleleMapping.values());
 
-            mergeGenotypes(genotypes, vc, alleleMapping, genotypeMergeOptions == GenotypeMergeType.UNIQUIFY);
+            if ( remapSamples )
+                sampleRemapping.mergeGenotypes(genotypeSlots, vc, alleleMapping.map);
+            else
+                mergeGenotypes(genotypes, vc, alleleMapping, genotypeMergeOptions == GenotypeMergeType.UNIQUIFY);
 
             // We always take the QUAL of the first VC with a non-MISSING qual for the combined value
             if ( log10PError == CommonInfo.NO_LOG10_PERROR )
@@ -605,6 +652,9 @@ public class VariantContextUtils {
             }
         }
 
+        if ( remapSamples )
+            genotypes = SampleIndexRemapping.collectGenotypes(genotypeSlots);
+
         // if we have more alternate alleles in the merged VC than in one or more of the
         // original VCs, we need to strip out the GL/PLs (because they are no longer accurate), as well as allele-dependent attributes like AC,AF, and AD
         for ( final VariantContext vc : VCs ) {
@@ -674,6 +724,56 @@ public class VariantContextUtils {
         return merged;
     }
 
+    /**
+     * The result of simpleMerge() on a single record: the record itself with the merged filters, origin annotation
+     * and sample names, without copying its genotypes, attributes and alleles through the general merge.
+     */
+    private static VariantContext passThroughSingleRecord(final VariantContext vc,
+                                                          final int originalNumOfVCs,
+                                                          final FilteredRecordMergeType filteredRecordMergeType,
+                                                          final GenotypeMergeType genotypeMergeOptions,
+                                                          final boolean annotateOrigin,
+                                                          final String setKey,
+                                                          final SampleIndexRemapping sampleRemapping) {
+        final VariantContextBuilder builder = new VariantContextBuilder(vc);
+
+        if ( genotypeMergeOptions == GenotypeMergeType.UNIQUIFY && vc.hasGenotypes() ) {
+            if ( sampleRemapping != null ) {
+                builder.genotypes(sampleRemapping.renameGenotypes(vc));
+            } else {
+                final GenotypesContext genotypes = GenotypesContext.create(vc.getNSamples());
+                for ( final Genotype g : vc.getGenotypes() )
+                    genotypes.add(new GenotypeBuilder(g).name(mergedSampleName(vc.getSource(), g.getSampleName(), true)).make());
+                builder.genotypes(genotypes);
+            }
+        }
+
+        final boolean clearFilters = (filteredRecordMergeType == FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED && ! vc.isFiltered()) || filteredRecordMergeType == FilteredRecordMergeType.KEEP_UNCONDITIONAL;
+        builder.filters(clearFilters || ! vc.isFiltered() ? new HashSet<String>() : new TreeSet<String>(vc.getFilters()));
+
+        final Map<String, Object> attributes = new TreeMap<String, Object>(vc.getAttributes());
+        if ( annotateOrigin && setKey != null ) {
+            final String setValue;
+            if ( ! vc.isFiltered() && vc.isVariant() && originalNumOfVCs == 1 )
+                setValue = MERGE_INTERSECTION;
+            else if ( vc.isFiltered() )
+                setValue = MERGE_FILTER_IN_ALL;
+            else if ( ! vc.isVariant() )
+                setValue = MERGE_REF_IN_ALL;
+            else
+                setValue = vc.getSource();
+            attributes.put(setKey, setValue);
+        }
+        if ( vc.hasAttribute(VCFConstants.DEPTH_KEY) ) {
+            final int depth = vc.getAttributeAsInt(VCFConstants.DEPTH_KEY, 0);
+            if ( depth > 0 )
+                attributes.put(VCFConstants.DEPTH_KEY, String.valueOf(depth));
+        }
+        builder.attributes(attributes);
+
+        return builder.make();
+    }
+
     private static final boolean hasPLIncompatibleAlleles(final Collection<Allele> alleleSet1, final Collection<Allele> alleleSet2) {
         final Iterator<Allele> it1 = alleleSet1.iterator();
         final Iterator<Allele> it2 = alleleSet2.iterator();
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.variantcontext.writer;
+
+import net.sf.samtools.SAMSequenceDictionary;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import org.apache.log4j.Logger;
+import org.broad.tribble.Feature;
+import org.broad.tribble.FeatureCodec;
+import org.broad.tribble.Tribble;
+import org.broad.tribble.index.DynamicIndexCreator;
+import org.broad.tribble.index.Index;
+import org.broad.tribble.index.IndexFactory;
+import org.broad.tribble.readers.PositionalBufferedStream;
+import org.broad.tribble.util.LittleEndianOutputStream;
+import org.broadinstitute.sting.gatk.refdata.tracks.IndexDictionaryUtils;
+import org.broadinstitute.sting.utils.codecs.bcf2.BCF2Codec;
+import org.broadinstitute.sting.utils.codecs.bcf2.BCF2Utils;
+import org.broadinstitute.sting.utils.codecs.vcf.VCFCodec;
+import org.broadinstitute.sting.utils.codecs.vcf.VCFContigHeaderLine;
+import org.broadinstitute.sting.utils.codecs.vcf.VCFHeader;
+import org.broadinstitute.sting.utils.codecs.vcf.VCFUtils;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.io.BlockCompressedConcatenator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Concatenates VCF or BCF2 files covering disjoint, ordered regions of the genome, such as the outputs of the
+ * parts of a scattered job, into a single file without decoding their records.
+ *
+ * The headers of the parts must be compatible: they must list the same samples in the same order, and BCF2 parts
+ * must also share their string and contig dictionaries, which their records refer to by offset.  The header of a
+ * VCF output is the merge of the headers of the parts, as with CombineVariants; a BCF2 output takes the header of
+ * the first part.  The records of the parts are then copied as raw bytes (or as raw blocks for block compressed
+ * parts), and a final pass over the locations of the records of the output checks that the parts were in order
+ * and rebuilds the index.  The contigs are ordered as in the contig lines of the header, or as in the sequence
+ * dictionary of the parts when the header has none.
+ */
+public class VCFConcatenator {
+    private final static Logger logger = Logger.getLogger(VCFConcatenator.class);
+    private final static byte[] BCF_MAGIC = "BCF".getBytes();
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * What we need to know of each part to concatenate it
+     */
+    private static class Part {
+        final File file;
+        final boolean blockCompressed;
+        final boolean bcf;
+        final VCFHeader header;
+        /** the offset of the first record in the uncompressed data of the part */
+        final long headerEnd;
+
+        private Part(final File file, final boolean blockCompressed, final boolean bcf, final VCFHeader header, final long headerEnd) {
+            this.file = file;
+            this.blockCompressed = blockCompressed;
+            this.bcf = bcf;
+            this.header = header;
+            this.headerEnd = headerEnd;
+        }
+    }
+
+    private VCFConcatenator() {}
+
+    /**
+     * Concatenates parts into output.
+     *
+     * @param parts       the VCF or BCF2 files to concatenate, in genomic order
+     * @param output      the file to write
+     * @param createIndex if true, a Tribble index is written for output, unless output is block compressed
+     */
+    public static void concatenate(final List<File> parts, final File output, final boolean createIndex) {
+        concatenate(parts, output, createIndex, false);
+    }
+
+    /**
+     * Concatenates parts into output.
+     *
+     * @param parts       the VCF or BCF2 files to concatenate, in genomic order
+     * @param output      the file to write
+     * @param createIndex if true, a Tribble index is written for output, unless output is block compressed
+     * @param lenientVCFProcessing if true, the VCF headers of the parts are read without on the fly modifications,
+     *                             as the GATK reads them with -U LENIENT_VCF_PROCESSING
+     */
+    public static void concatenate(final List<File> parts, final File output, final boolean createIndex, final boolean lenientVCFProcessing) {
+        if ( parts.isEmpty() )
+            throw new UserException.BadArgumentValue("parts", "no files to concatenate into " + output);
+
+        final List<Part> readParts = new ArrayList<Part>(parts.size());
+        for ( final File part : parts )
+            readParts.add(readPart(part, lenientVCFProcessing));
+        final Part first = readParts.get(0);
+
+        try {
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(output), BUFFER_SIZE);
+            final byte[] header = makeHeader(readParts, output);
+            if ( first.blockCompressed ) {
+                final BlockCompressedConcatenator concatenator = new BlockCompressedConcatenator(out, BlockCompressedOutputStream.getDefaultCompressionLevel());
+                concatenator.writeCompressed(header);
+                for ( final Part part : readParts )
+                    concatenator.append(part.file, part.headerEnd);
+                concatenator.close();
+            } else {
+                out.write(header);
+                for ( final Part part : readParts )
+                    appendRecords(part, out);
+                out.close();
+            }
+        } catch ( IOException e ) {
+            output.delete();
+            throw new UserException.CouldNotCreateOutputFile(output, "Unable to concatenate " + parts, e);
+        }
+
+        try {
+            checkOrderAndIndex(first, output, createIndex && ! first.blockCompressed, lenientVCFProcessing);
+        } catch ( UserException e ) {
+            output.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the header of a part, and works out its format.
+     */
+    private static Part readPart(final File file, final boolean lenientVCFProcessing) {
+        try {
+            final InputStream sniffer = new BufferedInputStream(new FileInputStream(file));
+            final boolean blockCompressed;
+            final byte[] magic = new byte[BCF_MAGIC.length];
+            try {
+                blockCompressed = BlockCompressedInputStream.isValidFile(sniffer);
+                final InputStream data = blockCompressed ? new BlockCompressedInputStream(sniffer) : sniffer;
+                if ( data.read(magic) != magic.length )
+                    throw new UserException.MalformedFile(file, "File is too short to be a VCF or BCF2 file");
+            } finally {
+                sniffer.close();
+            }
+
+            final boolean bcf = Arrays.equals(magic, BCF_MAGIC);
+            final PositionalBufferedStream stream = openData(file, blockCompressed);
+            try {
+                final FeatureCodec codec = bcf ? new BCF2Codec() : makeVCFCodec(lenientVCFProcessing);
+                final VCFHeader header = (VCFHeader)codec.readHeader(stream).getHeaderValue();
+                return new Part(file, blockCompressed, bcf, header, stream.getPosition());
+            } finally {
+                stream.close();
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, e);
+        }
+    }
+
+    private static VCFCodec makeVCFCodec(final boolean lenientVCFProcessing) {
+        final VCFCodec codec = new VCFCodec();
+        if ( lenientVCFProcessing )
+            codec.disableOnTheFlyModifications();
+        return codec;
+    }
+
+    private static PositionalBufferedStream openData(final File file, final boolean blockCompressed) throws IOException {
+        final InputStream in = blockCompressed ? new BlockCompressedInputStream(file) : new FileInputStream(file);
+        return new PositionalBufferedStream(in);
+    }
+
+    /**
+     * Checks that the parts can be concatenated, and returns the bytes of the header of the output.
+     */
+    private static byte[] makeHeader(final List<Part> parts, final File output) throws IOException {
+        final Part first = parts.get(0);
+        final List<String> samples = first.header.getGenotypeSamples();
+        for ( final Part part : parts ) {
+            if ( part.bcf != first.bcf || part.blockCompressed != first.blockCompressed )
+                throw new UserException(String.format("Cannot concatenate %s and %s, as they are not in the same format", first.file, part.file));
+            if ( ! part.header.getGenotypeSamples().equals(samples) )
+                throw new UserException(String.format("Cannot concatenate %s and %s, as they don't have the same samples in the same order", first.file, part.file));
+        }
+
+        if ( first.bcf ) {
+            final List<String> dictionary = BCF2Utils.makeDictionary(first.header);
+            final List<String> contigs = getContigs(first.header);
+            for ( final Part part : parts ) {
+                if ( ! BCF2Utils.makeDictionary(part.header).equals(dictionary) || ! getContigs(part.header).equals(contigs) )
+                    throw new UserException(String.format("Cannot concatenate BCF2 files %s and %s, as their headers define different dictionaries", first.file, part.file));
+            }
+
+            // the records refer to the dictionaries of the header, so we keep the header exactly as it is
+            final byte[] header = new byte[(int)first.headerEnd];
+            final InputStream in = openData(first.file, first.blockCompressed);
+            try {
+                new DataInputStream(in).readFully(header);
+            } finally {
+                in.close();
+            }
+            return header;
+        } else {
+            final List<VCFHeader> headers = new ArrayList<VCFHeader>(parts.size());
+            for ( final Part part : parts )
+                headers.add(part.header);
+
+            final VCFHeader merged;
+            try {
+                merged = new VCFHeader(VCFUtils.smartMergeHeaders(headers, logger), samples);
+            } catch ( IllegalStateException e ) {
+                throw new UserException("Cannot concatenate " + first.file + " with the other parts: " + e.getMessage());
+            }
+
+            final ByteArrayOutputStream capture = new ByteArrayOutputStream();
+            final Writer writer = new OutputStreamWriter(capture);
+            VCFWriter.writeHeader(merged, writer, false, VCFWriter.getVersionLine(), output.getAbsolutePath());
+            writer.close();
+            return capture.toByteArray();
+        }
+    }
+
+    private static List<String> getContigs(final VCFHeader header) {
+        final List<String> contigs = new ArrayList<String>();
+        for ( final VCFContigHeaderLine contig : header.getContigLines() )
+            contigs.add(contig.getID());
+        return contigs;
+    }
+
+    /**
+     * Copies the records of an uncompressed part into out.
+     */
+    private static void appendRecords(final Part part, final OutputStream out) throws IOException {
+        final InputStream in = new FileInputStream(part.file);
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long toSkip = part.headerEnd;
+            while ( toSkip > 0 ) {
+                final long n = in.skip(toSkip);
+                if ( n <= 0 )
+                    throw new EOFException("Unexpected end of " + part.file);
+                toSkip -= n;
+            }
+
+            int lastByte = '\n';
+            int n;
+            while ( (n = in.read(buffer)) > 0 ) {
+                out.write(buffer, 0, n);
+                lastByte = buffer[n - 1];
+            }
+
+            // don't let the last record of a VCF without a final newline run into the first record of the next part
+            if ( ! part.bcf && lastByte != '\n' )
+                out.write('\n');
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the location of every record of output, checking that they are sorted, and indexes them if requested.
+     */
+    private static void checkOrderAndIndex(final Part first, final File output, final boolean createIndex, final boolean lenientVCFProcessing) {
+        final File indexFile = Tribble.indexFile(output);
+        try {
+            final DynamicIndexCreator indexer = createIndex ? new DynamicIndexCreator(IndexFactory.IndexBalanceApproach.FOR_SEEK_TIME) : null;
+            if ( indexer != null )
+                indexer.initialize(output, indexer.defaultBinSize());
+
+            final FeatureCodec codec = first.bcf ? new BCF2Codec() : makeVCFCodec(lenientVCFProcessing);
+            final PositionalBufferedStream stream = openData(output, first.blockCompressed);
+            try {
+                final VCFHeader header = (VCFHeader)codec.readHeader(stream).getHeaderValue();
+                final SAMSequenceDictionary dict = getSequenceDictionary(first.file);
+                final Map<String, Integer> contigOrder = getContigOrder(header, dict);
+
+                final Set<String> finishedContigs = new HashSet<String>();
+                String contig = null;
+                int start = 0;
+                while ( ! stream.isDone() ) {
+                    final long position = stream.getPosition();
+                    final Feature loc = codec.decodeLoc(stream);
+                    if ( loc == null )
+                        continue;
+
+                    if ( ! loc.getChr().equals(contig) ) {
+                        if ( contig != null )
+                            finishedContigs.add(contig);
+                        if ( finishedContigs.contains(loc.getChr()) )
+                            throw new UserException(String.format("Cannot concatenate the parts of %s, as they are not in order: %s is found again after %s", output, loc.getChr(), contig));
+                        if ( contig != null && contigOrder.containsKey(contig) && contigOrder.containsKey(loc.getChr()) && contigOrder.get(loc.getChr()) < contigOrder.get(contig) )
+                            throw new UserException(String.format("Cannot concatenate the parts of %s, as they are not in order: %s follows %s, which comes after it in the sequence dictionary", output, loc.getChr(), contig));
+                        contig = loc.getChr();
+                    } else if ( loc.getStart() < start ) {
+                        throw new UserException(String.format("Cannot concatenate the parts of %s, as they are not in order: %s:%d follows %s:%d", output, contig, loc.getStart(), contig, start));
+                    }
+                    start = loc.getStart();
+
+                    if ( indexer != null )
+                        indexer.addFeature(loc, position);
+                }
+
+                if ( indexer != null ) {
+                    final Index index = indexer.finalizeIndex(stream.getPosition());
+                    if ( dict != null )
+                        IndexDictionaryUtils.setIndexSequenceDictionary(index, dict);
+                    final LittleEndianOutputStream indexStream = new LittleEndianOutputStream(new FileOutputStream(indexFile));
+                    index.write(indexStream);
+                    indexStream.close();
+                }
+            } finally {
+                stream.close();
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(indexFile, "Unable to index the concatenated " + output, e);
+        }
+    }
+
+    /**
+     * The order of the contigs, from the contig lines of the header or, for headers without any, from the sequence
+     * dictionary, as the BAMConcatenator takes it from the reference indices of the records.
+     */
+    private static Map<String, Integer> getContigOrder(final VCFHeader header, final SAMSequenceDictionary dict) {
+        final Map<String, Integer> contigOrder = new HashMap<String, Integer>();
+        for ( final VCFContigHeaderLine contig : header.getContigLines() )
+            contigOrder.put(contig.getID(), contigOrder.size());
+        if ( contigOrder.isEmpty() && dict != null ) {
+            for ( final SAMSequenceRecord sequence : dict.getSequences() )
+                contigOrder.put(sequence.getSequenceName(), sequence.getSequenceIndex());
+        }
+        return contigOrder;
+    }
+
+    /**
+     * The writer stores the reference sequence dictionary in the index, so we take it from the index of a part
+     */
+    private static SAMSequenceDictionary getSequenceDictionary(final File part) {
+        final File partIndex = Tribble.indexFile(part);
+        if ( ! partIndex.exists() )
+            return null;
+        return IndexDictionaryUtils.getSequenceDictionaryFromProperties(IndexFactory.loadIndex(partIndex.getAbsolutePath()));
+    }
+}
@@ -0,0 +1,59 @@
+package org.broadinstitute.sting.alignment.bwa.java;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.alignment.Alignment;
+import org.broadinstitute.sting.alignment.bwa.BWTFiles;
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class BWAJavaAlignerUnitTest extends BaseTest {
+    private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+    private static final int READ_LENGTH = 36;
+
+    private byte[] reference;
+    private BWAJavaAligner aligner;
+
+    @BeforeClass
+    public void init() {
+        Random random = new Random(42);
+        reference = new byte[5000];
+        for( int i = 0; i < reference.length; i++ )
+            reference[i] = BASES[random.nextInt(BASES.length)];
+        aligner = new BWAJavaAligner(BWTFiles.createFromReferenceSequence(reference));
+    }
+
+    @AfterClass
+    public void close() {
+        aligner.close();
+    }
+
+    @Test
+    public void testExactForwardStrandMatches() {
+        for( int start = 0; start + READ_LENGTH <= reference.length; start += 487 ) {
+            byte[] read = Arrays.copyOfRange(reference,start,start+READ_LENGTH);
+            Alignment alignment = aligner.getBestAlignment(read);
+            Assert.assertNotNull(alignment, "read from " + start + " didn't align");
+            Assert.assertEquals(alignment.getContigIndex(),0);
+            Assert.assertEquals(alignment.getAlignmentStart(),start+1);
+            Assert.assertFalse(alignment.isNegativeStrand());
+            Assert.assertEquals(alignment.getMappingQuality(),37);
+        }
+    }
+
+    @Test
+    public void testExactReverseStrandMatches() {
+        for( int start = 0; start + READ_LENGTH <= reference.length; start += 487 ) {
+            byte[] read = BaseUtils.simpleReverseComplement(Arrays.copyOfRange(reference,start,start+READ_LENGTH));
+            Alignment alignment = aligner.getBestAlignment(read);
+            Assert.assertNotNull(alignment, "read from " + start + " didn't align");
+            Assert.assertEquals(alignment.getAlignmentStart(),start+1);
+            Assert.assertTrue(alignment.isNegativeStrand());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+public class OccurrenceIndexUnitTest extends BaseTest {
+    private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+
+    @DataProvider(name = "sequences")
+    public Object[][] createSequences() {
+        Random random = new Random(42);
+        return new Object[][] {
+                { "A".getBytes() },
+                { "GATTACA".getBytes() },
+                { randomSequence(random,31) },
+                { randomSequence(random,255) },
+                { randomSequence(random,256) },
+                { randomSequence(random,512) },
+                { randomSequence(random,1000) },
+                { randomSequence(random,4096) }
+        };
+    }
+
+    @Test(dataProvider = "sequences")
+    public void testOccurrencesMatchNaiveCount( byte[] sequence ) {
+        SuffixArrayBuilder builder = new SuffixArrayBuilder(1);
+        BWT bwt = builder.createBWT(sequence,builder.createSuffixArray(sequence));
+        assertMatchesNaiveCount(bwt.getOccurrenceIndex(),bwt);
+    }
+
+    @Test(dataProvider = "sequences")
+    public void testWrittenIndexMapsBack( byte[] sequence ) throws IOException {
+        SuffixArrayBuilder builder = new SuffixArrayBuilder(1);
+        BWT bwt = builder.createBWT(sequence,builder.createSuffixArray(sequence));
+
+        File indexFile = File.createTempFile("bwt",OccurrenceIndex.FILE_EXTENSION);
+        indexFile.deleteOnExit();
+        bwt.getOccurrenceIndex().write(indexFile);
+
+        OccurrenceIndex mapped = OccurrenceIndex.map(indexFile);
+        Assert.assertTrue(mapped.matches(bwt.inverseSA0,bwt.counts));
+        assertMatchesNaiveCount(mapped,bwt);
+    }
+
+    private static void assertMatchesNaiveCount( OccurrenceIndex index, BWT bwt ) {
+        // Rebuild the full BWT, including the '$' at inverse SA[0].
+        byte[] stored = bwt.getSequence();
+        byte[] full = new byte[stored.length+1];
+        System.arraycopy(stored,0,full,0,(int)bwt.inverseSA0);
+        full[(int)bwt.inverseSA0] = '$';
+        System.arraycopy(stored,(int)bwt.inverseSA0,full,(int)bwt.inverseSA0+1,stored.length-(int)bwt.inverseSA0);
+
+        Assert.assertEquals(index.length(),bwt.length());
+        long[] counts = new long[BASES.length];
+        for( int i = 0; i < full.length; i++ ) {
+            if( i != bwt.inverseSA0 )
+                Assert.assertEquals(index.getBase(i),full[i],"base mismatch at " + i);
+            for( int b = 0; b < BASES.length; b++ ) {
+                if( full[i] == BASES[b] ) counts[b]++;
+                Assert.assertEquals(index.occurrences(BASES[b],i),counts[b],"occurrence mismatch for " + (char)BASES[b] + " at " + i);
+            }
+        }
+        for( byte base: BASES ) {
+            Assert.assertEquals(index.counts(base),bwt.counts(base));
+            Assert.assertEquals(index.occurrences(base,-1),0L);
+        }
+    }
+
+    private static byte[] randomSequence( Random random, int length ) {
+        byte[] sequence = new byte[length];
+        for( int i = 0; i < length; i++ )
+            sequence[i] = BASES[random.nextInt(BASES.length)];
+        return sequence;
+    }
+}
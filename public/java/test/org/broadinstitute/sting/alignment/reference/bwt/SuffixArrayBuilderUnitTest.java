@@ -0,0 +1,128 @@
+package org.broadinstitute.sting.alignment.reference.bwt;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.alignment.reference.packing.PackUtils;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+public class SuffixArrayBuilderUnitTest extends BaseTest {
+    private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+
+    @DataProvider(name = "sequences")
+    public Object[][] createSequences() {
+        Random random = new Random(42);
+        return new Object[][] {
+                { "A".getBytes() },
+                { "ACGT".getBytes() },
+                { "TTTTTTTTTT".getBytes() },
+                { "ACACACACACACACA".getBytes() },
+                { "GATTACAGATTACAGATTACA".getBytes() },
+                { "CCCCCGCCCCCGCCCCCGCCCCCA".getBytes() },
+                { randomSequence(random,100,4) },
+                { randomSequence(random,1000,2) },
+                { randomSequence(random,5000,4) },
+                { repeat(randomSequence(random,37,4),50) }
+        };
+    }
+
+    @Test(dataProvider = "sequences")
+    public void testSuffixArrayMatchesNaiveSort( byte[] sequence ) {
+        SuffixArray suffixArray = new SuffixArrayBuilder(1).createSuffixArray(sequence);
+        long[] expected = naiveSuffixArray(sequence);
+
+        Assert.assertEquals(suffixArray.length(), expected.length);
+        for( int i = 0; i < expected.length; i++ )
+            Assert.assertEquals(suffixArray.get(i), expected[i], "suffix array mismatch at " + i);
+        Assert.assertEquals(suffixArray.get(suffixArray.inverseSA0), 0L);
+
+        for( byte base: BASES ) {
+            long count = 0;
+            for( byte b: sequence )
+                if( b == base ) count++;
+            Assert.assertEquals(suffixArray.occurrences.get(base), count);
+        }
+    }
+
+    @Test(dataProvider = "sequences")
+    public void testPackedSequenceSortsLikeASCII( byte[] sequence ) {
+        byte[] packed = new byte[sequence.length];
+        for( int i = 0; i < sequence.length; i++ )
+            packed[i] = PackUtils.packBase(sequence[i]);
+
+        SuffixArrayBuilder builder = new SuffixArrayBuilder(1);
+        Assert.assertEquals(builder.buildSuffixArray(packed), builder.buildSuffixArray(sequence));
+    }
+
+    @Test(dataProvider = "sequences")
+    public void testBWTMatchesNaiveTransform( byte[] sequence ) {
+        SuffixArrayBuilder builder = new SuffixArrayBuilder(1);
+        BWT bwt = builder.createBWT(sequence,builder.createSuffixArray(sequence));
+
+        long[] suffixArray = naiveSuffixArray(sequence);
+        byte[] expected = new byte[sequence.length];
+        int bwtIndex = 0;
+        for( long suffix: suffixArray ) {
+            if( suffix != 0 )
+                expected[bwtIndex++] = sequence[(int)suffix-1];
+        }
+        Assert.assertEquals(bwt.getSequence(), expected);
+    }
+
+    @Test(expectedExceptions = ReviewedStingException.class)
+    public void testAmbiguousBasesAreRejected() {
+        new SuffixArrayBuilder(1).createSuffixArray("ACGTNACGT".getBytes());
+    }
+
+    @Test
+    public void testMultithreadedBuildMatchesSingleThreaded() {
+        byte[] sequence = randomSequence(new Random(7),3000000,4);
+
+        SuffixArrayBuilder serial = new SuffixArrayBuilder(1);
+        SuffixArrayBuilder parallel = new SuffixArrayBuilder(4);
+
+        SuffixArray serialSA = serial.createSuffixArray(sequence);
+        SuffixArray parallelSA = parallel.createSuffixArray(sequence);
+        Assert.assertEquals(parallelSA.sequence, serialSA.sequence);
+        Assert.assertEquals(parallelSA.inverseSA0, serialSA.inverseSA0);
+        Assert.assertEquals(parallelSA.occurrences.toArray(false), serialSA.occurrences.toArray(false));
+
+        Assert.assertEquals(parallel.createBWT(sequence,parallelSA).getSequence(), serial.createBWT(sequence,serialSA).getSequence());
+    }
+
+    private static byte[] randomSequence( Random random, int length, int alphabetSize ) {
+        byte[] sequence = new byte[length];
+        for( int i = 0; i < length; i++ )
+            sequence[i] = BASES[random.nextInt(alphabetSize)];
+        return sequence;
+    }
+
+    private static byte[] repeat( byte[] unit, int times ) {
+        byte[] sequence = new byte[unit.length*times];
+        for( int i = 0; i < times; i++ )
+            System.arraycopy(unit,0,sequence,i*unit.length,unit.length);
+        return sequence;
+    }
+
+    private static long[] naiveSuffixArray( final byte[] sequence ) {
+        final String text = new String(sequence);
+        Integer[] suffixes = new Integer[sequence.length+1];
+        for( int i = 0; i < suffixes.length; i++ )
+            suffixes[i] = i;
+        Arrays.sort(suffixes,new Comparator<Integer>() {
+            public int compare( Integer lhs, Integer rhs ) {
+                return text.substring(lhs).compareTo(text.substring(rhs));
+            }
+        });
+
+        long[] suffixArray = new long[suffixes.length];
+        for( int i = 0; i < suffixes.length; i++ )
+            suffixArray[i] = suffixes[i];
+        return suffixArray;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.interval.IntervalUtils;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Tests the estimates of read volume from BAM indices, and the splitting of intervals by those estimates.
+ */
+public class BAMIndexReadVolumeUnitTest extends BaseTest {
+    private final static int CONTIG_SIZE = 1000000;
+    private final static int READ_LENGTH = 100;
+
+    /**
+     * Ten windows of the linear index on chr1 holding 25 times as many reads as the rest of the genome
+     */
+    private final static int HOTSPOT_START = 20 * BAMIndexReadVolume.WINDOW_SIZE + 1;
+    private final static int HOTSPOT_STOP = 30 * BAMIndexReadVolume.WINDOW_SIZE;
+
+    private SAMFileHeader header;
+    private GenomeLocParser genomeLocParser;
+    private List<GenomeLoc> locs;
+
+    /**
+     * The read starts of each contig of the test BAM
+     */
+    private final Map<String, List<Integer>> readStarts = new HashMap<String, List<Integer>>();
+    private File bam;
+
+    @BeforeClass
+    public void init() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(2, 1, CONTIG_SIZE);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        locs = Arrays.asList(genomeLocParser.createGenomeLoc("chr1", 1, CONTIG_SIZE), genomeLocParser.createGenomeLoc("chr2", 1, CONTIG_SIZE));
+
+        final List<Integer> chr1Starts = new ArrayList<Integer>();
+        final List<Integer> chr2Starts = new ArrayList<Integer>();
+        for ( int start = 1; start < CONTIG_SIZE - READ_LENGTH; start += 500 ) {
+            chr1Starts.add(start);
+            chr2Starts.add(start);
+        }
+        for ( int start = HOTSPOT_START; start <= HOTSPOT_STOP; start += 20 )
+            chr1Starts.add(start);
+        Collections.sort(chr1Starts);
+        readStarts.put("chr1", chr1Starts);
+        readStarts.put("chr2", chr2Starts);
+
+        bam = writeBAM(readStarts);
+    }
+
+    private File writeBAM(final Map<String, List<Integer>> starts) {
+        final File file = createTempFile("BAMIndexReadVolumeUnitTest", ".bam");
+        new File(file.getPath().replaceAll("\\.bam$", ".bai")).deleteOnExit();
+
+        // random bases, so that the reads don't compress down to nothing
+        final Random random = new Random(42);
+        final SAMFileWriterFactory factory = new SAMFileWriterFactory();
+        factory.setCreateIndex(true);
+        final SAMFileWriter writer = factory.makeBAMWriter(header, true, file);
+        int nReads = 0;
+        for ( int contig = 0; contig < header.getSequenceDictionary().size(); contig++ ) {
+            final List<Integer> contigStarts = starts.get(header.getSequence(contig).getSequenceName());
+            if ( contigStarts == null )
+                continue;
+            for ( final int start : contigStarts ) {
+                final byte[] bases = new byte[READ_LENGTH];
+                final byte[] quals = new byte[READ_LENGTH];
+                for ( int i = 0; i < READ_LENGTH; i++ ) {
+                    bases[i] = (byte)"ACGT".charAt(random.nextInt(4));
+                    quals[i] = (byte)random.nextInt(40);
+                }
+                writer.addAlignment(ArtificialSAMUtils.createArtificialRead(header, "read" + nReads++, contig, start, bases, quals));
+            }
+        }
+        writer.close();
+        return file;
+    }
+
+    private int countReads(final List<GenomeLoc> split) {
+        int nReads = 0;
+        for ( final GenomeLoc loc : split )
+            for ( final int start : readStarts.get(loc.getContig()) )
+                if ( start >= loc.getStart() && start <= loc.getStop() )
+                    nReads++;
+        return nReads;
+    }
+
+    @Test
+    public void testCompressedBytes() {
+        final BAMIndexReadVolume volume = new BAMIndexReadVolume(Arrays.asList(bam));
+
+        final double total = volume.getCompressedBytes(locs.get(0)) + volume.getCompressedBytes(locs.get(1));
+        Assert.assertEquals(total, (double)bam.length(), 0.05 * bam.length(), "The volume of all reads should be about the size of the BAM");
+
+        // the two contigs have the same reads outside of the hotspot
+        final GenomeLoc chr1Flank = genomeLocParser.createGenomeLoc("chr1", HOTSPOT_STOP + 1, CONTIG_SIZE);
+        final GenomeLoc chr2Flank = genomeLocParser.createGenomeLoc("chr2", HOTSPOT_STOP + 1, CONTIG_SIZE);
+        Assert.assertEquals(volume.getCompressedBytes(chr1Flank), volume.getCompressedBytes(chr2Flank), 0.05 * volume.getCompressedBytes(chr2Flank));
+
+        final GenomeLoc hotspot = genomeLocParser.createGenomeLoc("chr1", HOTSPOT_START, HOTSPOT_STOP);
+        Assert.assertTrue(volume.getCompressedBytes(hotspot) > 0.5 * total, "The hotspot should hold most of the reads");
+
+        Assert.assertEquals(volume.getCompressedBytes("chr3", 0), 0L);
+        Assert.assertEquals(volume.getCompressedBytes("chr1", CONTIG_SIZE), 0L);
+    }
+
+    @Test
+    public void testSplitByReadVolume() {
+        final BAMIndexReadVolume volume = new BAMIndexReadVolume(Arrays.asList(bam));
+        final int nParts = 8;
+        final List<List<GenomeLoc>> splits = IntervalUtils.splitLocusIntervalsByReadVolume(locs, nParts, volume);
+
+        Assert.assertEquals(splits.size(), nParts);
+        Assert.assertEquals(IntervalUtils.intervalSize(IntervalUtils.flattenSplitIntervals(splits)), IntervalUtils.intervalSize(locs));
+
+        final double meanReads = (readStarts.get("chr1").size() + readStarts.get("chr2").size()) / (double)nParts;
+        for ( final List<GenomeLoc> split : splits )
+            Assert.assertEquals(countReads(split), meanReads, 0.2 * meanReads, "Unbalanced part " + split);
+
+        // splitting by size puts the whole hotspot into one part
+        int maxReadsBySize = 0;
+        for ( final List<GenomeLoc> split : IntervalUtils.splitLocusIntervals(locs, nParts) )
+            maxReadsBySize = Math.max(maxReadsBySize, countReads(split));
+        Assert.assertTrue(maxReadsBySize > 2 * meanReads);
+    }
+
+    @Test
+    public void testSplitWithoutReads() {
+        final BAMIndexReadVolume volume = new BAMIndexReadVolume(Arrays.asList(writeBAM(Collections.<String, List<Integer>>emptyMap())));
+        Assert.assertEquals(IntervalUtils.splitLocusIntervalsByReadVolume(locs, 5, volume), IntervalUtils.splitLocusIntervals(locs, 5));
+    }
+
+    @Test
+    public void testSplitIntoSingleBases() {
+        final BAMIndexReadVolume volume = new BAMIndexReadVolume(Arrays.asList(bam));
+        final List<GenomeLoc> hotspotStart = Arrays.asList(genomeLocParser.createGenomeLoc("chr1", HOTSPOT_START, HOTSPOT_START + 9));
+        final List<List<GenomeLoc>> splits = IntervalUtils.splitLocusIntervalsByReadVolume(hotspotStart, 10, volume);
+        for ( int i = 0; i < splits.size(); i++ )
+            Assert.assertEquals(splits.get(i), Arrays.asList(genomeLocParser.createGenomeLoc("chr1", HOTSPOT_START + i, HOTSPOT_START + i)));
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testSplitIntoTooManyParts() {
+        final BAMIndexReadVolume volume = new BAMIndexReadVolume(Arrays.asList(bam));
+        IntervalUtils.splitLocusIntervalsByReadVolume(Arrays.asList(genomeLocParser.createGenomeLoc("chr1", 1, 3)), 4, volume);
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testUnindexedBAM() {
+        final File unindexed = createTempFile("BAMIndexReadVolumeUnitTest.unindexed", ".bam");
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, unindexed);
+        writer.close();
+        new BAMIndexReadVolume(Arrays.asList(unindexed));
+    }
+}
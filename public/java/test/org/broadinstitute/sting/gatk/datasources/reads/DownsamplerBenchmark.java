@@ -30,18 +30,23 @@ import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
 import net.sf.samtools.SAMRecord;
 import org.broadinstitute.sting.commandline.Tags;
-import org.broadinstitute.sting.gatk.downsampling.DownsamplingMethod;
+import org.broadinstitute.sting.gatk.downsampling.*;
 import org.broadinstitute.sting.gatk.ReadProperties;
 import org.broadinstitute.sting.gatk.arguments.ValidationExclusion;
 import org.broadinstitute.sting.gatk.filters.ReadFilter;
 import org.broadinstitute.sting.gatk.filters.UnmappedReadFilter;
 import org.broadinstitute.sting.gatk.iterators.LegacyLocusIteratorByState;
 import org.broadinstitute.sting.gatk.iterators.ReadTransformer;
+import org.broadinstitute.sting.gatk.iterators.StingSAMIterator;
+import org.broadinstitute.sting.gatk.iterators.StingSAMIteratorAdapter;
 import org.broadinstitute.sting.gatk.walkers.qc.CountLoci;
 import org.broadinstitute.sting.utils.GenomeLocParser;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Created by IntelliJ IDEA.
@@ -92,6 +97,59 @@ public class DownsamplerBenchmark extends ReadProcessingBenchmark {
         }
     }
 
+    @Param
+    private DownsamplerImplementation downsamplerImplementation;
+
+    public void timePerSampleDownsampling(int reps) {
+        for(int i = 0; i < reps; i++) {
+            SAMFileReader reader = new SAMFileReader(inputFile);
+            StingSAMIterator readIterator = new PerSampleDownsamplingReadsIterator(StingSAMIteratorAdapter.adapt(reader.iterator()),
+                    downsamplerImplementation.createPositionalDownsamplerFactory(DOWNSAMPLING_TARGET_COVERAGE));
+            while(readIterator.hasNext()) {
+                readIterator.next();
+            }
+            reader.close();
+        }
+    }
+
+    public void timeLeveling(int reps) {
+        Downsampler<List<Object>> downsampler = downsamplerImplementation.createLevelingDownsampler(DOWNSAMPLING_TARGET_COVERAGE);
+        for(int i = 0; i < reps; i++) {
+            // emulate the per-sample read state stacks of a locus with a new alignment start every base
+            List<List<Object>> stacks = new ArrayList<List<Object>>(LEVELING_STACKS);
+            for(int stack = 0; stack < LEVELING_STACKS; stack++) {
+                List<Object> reads = new LinkedList<Object>();
+                for(int read = 0; read < LEVELING_STACK_SIZE; read++)
+                    reads.add(stack);
+                stacks.add(reads);
+            }
+            downsampler.submit(stacks);
+            downsampler.signalEndOfInput();
+            downsampler.consumeFinalizedItems();
+        }
+    }
+
+    private static final int DOWNSAMPLING_TARGET_COVERAGE = DownsamplingMethod.DEFAULT_LOCUS_BASED_TRAVERSAL_DOWNSAMPLING_COVERAGE / 4;
+    private static final int LEVELING_STACKS = 100;
+    private static final int LEVELING_STACK_SIZE = 10;
+
+    private enum DownsamplerImplementation {
+        ORIGINAL {
+            @Override
+            ReadsDownsamplerFactory<SAMRecord> createPositionalDownsamplerFactory(int targetCoverage) { return new SimplePositionalDownsamplerFactory<SAMRecord>(targetCoverage); }
+            @Override
+            Downsampler<List<Object>> createLevelingDownsampler(int targetSize) { return new LevelingDownsampler<List<Object>, Object>(targetSize); }
+        },
+        COMPACT {
+            @Override
+            ReadsDownsamplerFactory<SAMRecord> createPositionalDownsamplerFactory(int targetCoverage) { return new CompactPositionalDownsamplerFactory<SAMRecord>(targetCoverage); }
+            @Override
+            Downsampler<List<Object>> createLevelingDownsampler(int targetSize) { return new CompactLevelingDownsampler<List<Object>, Object>(targetSize); }
+        };
+        abstract ReadsDownsamplerFactory<SAMRecord> createPositionalDownsamplerFactory(int targetCoverage);
+        abstract Downsampler<List<Object>> createLevelingDownsampler(int targetSize);
+    }
+
     private enum Downsampling {
         NONE {
             @Override
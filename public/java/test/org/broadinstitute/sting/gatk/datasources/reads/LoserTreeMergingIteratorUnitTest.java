@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMRecordCoordinateComparator;
+import net.sf.samtools.util.CloseableIterator;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class LoserTreeMergingIteratorUnitTest extends BaseTest {
+    private SAMFileHeader header;
+
+    @BeforeClass
+    public void init() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(3, 1, 1000);
+    }
+
+    @Test
+    public void testNoInputs() {
+        final LoserTreeMergingIterator merger = new LoserTreeMergingIterator(Collections.<CloseableIterator<SAMRecord>>emptyList());
+        Assert.assertFalse(merger.hasNext());
+    }
+
+    @Test
+    public void testMergeOrder() {
+        final SAMRecord a1 = createRead("a1", 0, 5), a2 = createRead("a2", 1, 1), a3 = createRead("a3", -1, 0);
+        final SAMRecord b1 = createRead("b1", 0, 1), b2 = createRead("b2", 0, 5), b3 = createRead("b3", 2, 10);
+        final SAMRecord c1 = createRead("c1", 0, 5);
+
+        final List<SAMRecord> merged = merge(Arrays.asList(a1, a2, a3), Collections.<SAMRecord>emptyList(), Arrays.asList(b1, b2, b3), Arrays.asList(c1));
+
+        // reads at the same position come out in read name order, and unmapped reads come last
+        Assert.assertEquals(merged, Arrays.asList(b1, a1, b2, c1, a2, b3, a3));
+    }
+
+    @Test
+    public void testTiesUseCoordinateComparator() {
+        final SAMRecord a1 = createRead("z", 0, 5), b1 = createRead("y", 0, 5), c1 = createRead("a", 0, 5);
+        final SAMRecord d1 = createRead("x", 0, 5), d2 = createRead("x", 0, 5);
+        c1.setReadNegativeStrandFlag(true);
+
+        final List<SAMRecord> merged = merge(Arrays.asList(a1), Arrays.asList(d1), Arrays.asList(b1), Arrays.asList(c1), Arrays.asList(d2));
+
+        // forward strand before reverse, then by read name, as Picard's merge would; identical reads keep their input order
+        Assert.assertEquals(merged, Arrays.asList(d1, d2, b1, a1, c1));
+    }
+
+    @Test
+    public void testRandomMerges() {
+        final Random random = new Random(42);
+        for ( int trial = 0; trial < 100; trial++ ) {
+            final List<List<SAMRecord>> inputs = new ArrayList<List<SAMRecord>>();
+            final List<SAMRecord> expected = new ArrayList<SAMRecord>();
+            final int nInputs = 1 + random.nextInt(20);
+            for ( int i = 0; i < nInputs; i++ ) {
+                final List<SAMRecord> input = new ArrayList<SAMRecord>();
+                for ( int j = random.nextInt(30); j > 0; j-- ) {
+                    final int contig = random.nextInt(4) - 1;
+                    final SAMRecord read = createRead(random.nextInt(10) + "." + j, contig, contig < 0 ? 0 : 1 + random.nextInt(100));
+                    read.setReadNegativeStrandFlag(random.nextBoolean());
+                    input.add(read);
+                }
+                Collections.sort(input, COORDINATE_ORDER);
+                inputs.add(input);
+                expected.addAll(input);
+            }
+
+            // a stable sort of the concatenated inputs keeps reads that compare equal in input order
+            Collections.sort(expected, COORDINATE_ORDER);
+            Assert.assertEquals(merge(inputs.toArray(new List[inputs.size()])), expected, "Merge of " + nInputs + " inputs out of order");
+        }
+    }
+
+    /**
+     * The packed key, refined by Picard's coordinate comparator
+     */
+    private static final Comparator<SAMRecord> COORDINATE_ORDER = new Comparator<SAMRecord>() {
+        private final SAMRecordCoordinateComparator comparator = new SAMRecordCoordinateComparator();
+
+        public int compare(final SAMRecord read1, final SAMRecord read2) {
+            final long key1 = LoserTreeMergingIterator.getKey(read1), key2 = LoserTreeMergingIterator.getKey(read2);
+            return key1 != key2 ? (key1 < key2 ? -1 : 1) : comparator.compare(read1, read2);
+        }
+    };
+
+    private List<SAMRecord> merge(final List<SAMRecord>... inputs) {
+        final List<CloseableIterator<SAMRecord>> iterators = new ArrayList<CloseableIterator<SAMRecord>>();
+        for ( final List<SAMRecord> input : inputs )
+            iterators.add(ArtificialSAMUtils.createReadIterator(input));
+
+        final LoserTreeMergingIterator merger = new LoserTreeMergingIterator(iterators);
+        final List<SAMRecord> merged = new ArrayList<SAMRecord>();
+        while ( merger.hasNext() )
+            merged.add(merger.next());
+        merger.close();
+        return merged;
+    }
+
+    private SAMRecord createRead(final String name, final int contig, final int start) {
+        return ArtificialSAMUtils.createArtificialRead(header, name, contig, start, 10);
+    }
+}
@@ -57,6 +57,7 @@ public class ReadShardBalancerUnitTest extends BaseTest {
         private int stackSize;
         private int numUnmappedReads;
         private DownsamplingMethod downsamplingMethod;
+        private Integer readBufferSize;
         private int expectedReadCount;
 
         private SAMFileHeader header;
@@ -67,18 +68,29 @@ public class ReadShardBalancerUnitTest extends BaseTest {
                                                   int stackSize,
                                                   int numUnmappedReads,
                                                   int downsamplingTargetCoverage ) {
+            this(numContigs, numStacksPerContig, stackSize, numUnmappedReads, downsamplingTargetCoverage, ReadShard.DEFAULT_MAX_READS);
+        }
+
+        public ExperimentalReadShardBalancerTest( int numContigs,
+                                                  int numStacksPerContig,
+                                                  int stackSize,
+                                                  int numUnmappedReads,
+                                                  int downsamplingTargetCoverage,
+                                                  Integer readBufferSize ) {
             super(ExperimentalReadShardBalancerTest.class);
 
             this.numContigs = numContigs;
             this.numStacksPerContig = numStacksPerContig;
             this.stackSize = stackSize;
             this.numUnmappedReads = numUnmappedReads;
+            this.readBufferSize = readBufferSize;
 
             this.downsamplingMethod = new DownsamplingMethod(DownsampleType.BY_SAMPLE, downsamplingTargetCoverage, null, false);
             this.expectedReadCount = Math.min(stackSize, downsamplingTargetCoverage) * numStacksPerContig * numContigs + numUnmappedReads;
 
-            setName(String.format("%s: numContigs=%d numStacksPerContig=%d stackSize=%d numUnmappedReads=%d downsamplingTargetCoverage=%d",
-                                  getClass().getSimpleName(), numContigs, numStacksPerContig, stackSize, numUnmappedReads, downsamplingTargetCoverage));
+            setName(String.format("%s: numContigs=%d numStacksPerContig=%d stackSize=%d numUnmappedReads=%d downsamplingTargetCoverage=%d readBufferSize=%s",
+                                  getClass().getSimpleName(), numContigs, numStacksPerContig, stackSize, numUnmappedReads, downsamplingTargetCoverage,
+                                  readBufferSize != null ? readBufferSize : "adaptive"));
         }
 
         public void run() {
@@ -90,7 +102,7 @@ public class ReadShardBalancerUnitTest extends BaseTest {
                                                          new GenomeLocParser(header.getSequenceDictionary()),
                                                          false,
                                                          SAMFileReader.ValidationStringency.SILENT,
-                                                         ReadShard.DEFAULT_MAX_READS,  // reset ReadShard.MAX_READS to ReadShard.DEFAULT_MAX_READS for each test
+                                                         readBufferSize,  // reset ReadShard.MAX_READS for each test (a null buffer size turns on adaptive buffer sizing)
                                                          downsamplingMethod,
                                                          new ValidationExclusion(),
                                                          new ArrayList<ReadFilter>(),
@@ -191,6 +203,13 @@ public class ReadShardBalancerUnitTest extends BaseTest {
             }
         }
 
+        // Shard boundaries move around when the read buffer size is tuned on the fly, so make sure they still land in the right places
+        for ( int numContigs = 1; numContigs <= 2; numContigs++ ) {
+            for ( int stackSize : Arrays.asList(ReadShard.DEFAULT_MAX_READS / 2 + 10, ReadShard.DEFAULT_MAX_READS + 1, ReadShard.DEFAULT_MAX_READS * 2) ) {
+                new ExperimentalReadShardBalancerTest(numContigs, 4, stackSize, ReadShard.DEFAULT_MAX_READS / 2, ReadShard.DEFAULT_MAX_READS * 10, null);
+            }
+        }
+
         return ExperimentalReadShardBalancerTest.getTests(ExperimentalReadShardBalancerTest.class);
     }
 
@@ -200,4 +219,22 @@ public class ReadShardBalancerUnitTest extends BaseTest {
 
         test.run();
     }
+
+    @Test
+    public void testAdaptiveReadBufferSize() {
+        final int base = ReadShard.DEFAULT_MAX_READS;
+
+        // nothing seen yet, or reads of the typical size: keep the configured size
+        Assert.assertEquals(ReadShard.getAdaptiveReadBufferSize(base, 0, 0), base);
+        Assert.assertEquals(ReadShard.getAdaptiveReadBufferSize(base, 1000, 1000L * ReadShard.TYPICAL_RECORD_SIZE), base);
+
+        // short reads get proportionally bigger buffers and long reads proportionally smaller ones
+        Assert.assertEquals(ReadShard.getAdaptiveReadBufferSize(base, 1000, 1000L * ReadShard.TYPICAL_RECORD_SIZE / 2), base * 2);
+        Assert.assertEquals(ReadShard.getAdaptiveReadBufferSize(base, 1000, 1000L * ReadShard.TYPICAL_RECORD_SIZE * 2), base / 2);
+
+        // but never by more than MAX_ADAPTIVE_SCALING
+        Assert.assertEquals(ReadShard.getAdaptiveReadBufferSize(base, 1000, 1000L), base * ReadShard.MAX_ADAPTIVE_SCALING);
+        Assert.assertEquals(ReadShard.getAdaptiveReadBufferSize(base, 1000, 1000L * 1000000), base / ReadShard.MAX_ADAPTIVE_SCALING);
+        Assert.assertEquals(ReadShard.getAdaptiveReadBufferSize(1, 1000, 1000L * 1000000), 1);
+    }
 }
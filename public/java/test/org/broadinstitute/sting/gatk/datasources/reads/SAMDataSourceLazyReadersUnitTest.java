@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.datasources.reads;
+
+import net.sf.samtools.*;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.commandline.Tags;
+import org.broadinstitute.sting.gatk.arguments.ValidationExclusion;
+import org.broadinstitute.sting.gatk.downsampling.DownsamplingMethod;
+import org.broadinstitute.sting.gatk.filters.ReadFilter;
+import org.broadinstitute.sting.gatk.iterators.ReadTransformer;
+import org.broadinstitute.sting.gatk.iterators.StingSAMIterator;
+import org.broadinstitute.sting.gatk.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.GenomeLocSortedSet;
+import org.broadinstitute.sting.utils.exceptions.ReviewedStingException;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Tests of SAMDataSource when BAM readers are opened lazily (-maxOpenBAMs): the merged reads must match the eager
+ * Picard merge, and no more than the allowed number of readers may be left open.
+ */
+public class SAMDataSourceLazyReadersUnitTest extends BaseTest {
+    private static final int CONTIG_LENGTH = 1000;
+
+    @DataProvider(name = "MaxOpenReaders")
+    public Object[][] makeMaxOpenReaders() {
+        // 1 and 2 buffer most of the files in every shard; 5 streams every file
+        return new Object[][]{{1}, {2}, {3}, {5}, {10}};
+    }
+
+    /**
+     * Five files whose read groups and program groups collide, two of which lack chr2 so that their
+     * sequence indices have to be remapped.  Many reads share a start position across files.
+     */
+    @Test(dataProvider = "MaxOpenReaders")
+    public void testLazyMergeMatchesEagerMerge(final int maxOpenReaders) {
+        final SAMSequenceDictionary fullDictionary = createDictionary("chr1", "chr2", "chr3");
+        final SAMSequenceDictionary partialDictionary = createDictionary("chr1", "chr3");
+
+        final List<SAMReaderID> ids = new ArrayList<SAMReaderID>();
+        for ( int file = 0; file < 5; file++ ) {
+            final SAMFileHeader header = createHeader(file % 2 == 0 ? fullDictionary : partialDictionary, "sample" + file, "program" + file);
+            final Random random = new Random(file);
+            final List<SAMRecord> reads = new ArrayList<SAMRecord>();
+            for ( int contig = 0; contig < header.getSequenceDictionary().size(); contig++ ) {
+                for ( int i = 0; i < 60; i++ ) {
+                    final SAMRecord read = createRead(header, String.format("read%d.%d.%d", random.nextInt(1000), file, reads.size()), contig, 1 + random.nextInt(100));
+                    read.setReadNegativeStrandFlag(random.nextBoolean());
+                    read.setReadPairedFlag(true);
+                    read.setMateReferenceIndex(header.getSequenceDictionary().size() - 1);
+                    read.setMateAlignmentStart(1);
+                    reads.add(read);
+                }
+            }
+            for ( int i = 0; i < 3; i++ )
+                reads.add(createRead(header, String.format("unmapped.%d.%d", file, i), SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX, SAMRecord.NO_ALIGNMENT_START));
+            ids.add(createBAM(header, reads));
+        }
+
+        final SAMDataSource eager = createDataSource(ids, fullDictionary, null);
+        final SAMDataSource lazy = createDataSource(ids, fullDictionary, maxOpenReaders);
+
+        Assert.assertEquals(eager.getHeader().getReadGroups().size(), 5, "test files should have colliding read groups");
+        Assert.assertEquals(lazy.getHeader().getReadGroups(), eager.getHeader().getReadGroups());
+        Assert.assertEquals(lazy.getHeader().getProgramRecords(), eager.getHeader().getProgramRecords());
+
+        final List<String> expected = readAll(eager, fullDictionary);
+        Assert.assertEquals(expected.size(), 5 * 3 + 3 * 60 * 3 + 2 * 60 * 2);
+        Assert.assertEquals(readAll(lazy, fullDictionary), expected);
+        Assert.assertTrue(lazy.getOpenReaderIDs().size() <= maxOpenReaders, "Too many readers left open: " + lazy.getOpenReaderIDs());
+    }
+
+    /**
+     * The same merge with read shards so small that the files sharing the last open slot are refilled many times.
+     */
+    @Test(dataProvider = "MaxOpenReaders")
+    public void testLazyMergeMatchesEagerMergeWithSmallBuffers(final int maxOpenReaders) {
+        ReadShard.setReadBufferSize(7);
+        try {
+            testLazyMergeMatchesEagerMerge(maxOpenReaders);
+        }
+        finally {
+            ReadShard.setReadBufferSize(ReadShard.DEFAULT_MAX_READS);
+        }
+    }
+
+    /**
+     * Four files with reads on one contig each, visited a contig at a time with room for two open readers.
+     */
+    @Test
+    public void testLeastRecentlyUsedReadersAreClosed() {
+        final SAMSequenceDictionary dictionary = createDictionary("chr1", "chr2", "chr3", "chr4");
+        final List<SAMReaderID> ids = new ArrayList<SAMReaderID>();
+        for ( int file = 0; file < 4; file++ ) {
+            final SAMFileHeader header = createHeader(dictionary, "sample", "program");
+            final List<SAMRecord> reads = new ArrayList<SAMRecord>();
+            for ( int i = 0; i < 10; i++ )
+                reads.add(createRead(header, String.format("read.%d.%d", file, i), file, 1 + 10 * i));
+            ids.add(createBAM(header, reads));
+        }
+
+        final SAMDataSource data = createDataSource(ids, dictionary, 2);
+
+        // opening every file for its header leaves the last two open
+        Assert.assertEquals(data.getOpenReaderIDs(), new HashSet<SAMReaderID>(Arrays.asList(ids.get(2), ids.get(3))));
+
+        final int[] contigsVisited = {0, 1, 2, 1, 3};
+        final int[][] expectedOpen = {{3, 0}, {0, 1}, {1, 2}, {1, 2}, {1, 3}};
+        for ( int i = 0; i < contigsVisited.length; i++ ) {
+            final int contig = contigsVisited[i];
+            Assert.assertEquals(readContig(data, dictionary, contig).size(), 10);
+
+            final Set<SAMReaderID> open = new HashSet<SAMReaderID>();
+            for ( final int file : expectedOpen[i] )
+                open.add(ids.get(file));
+            Assert.assertEquals(data.getOpenReaderIDs(), open, "Wrong readers open after reading chr" + (contig + 1));
+        }
+    }
+
+    /**
+     * Three files on the same contig with room for two open readers: the first file streams and stays pinned while
+     * the other two share the remaining slot.
+     */
+    @Test
+    public void testStreamingReadersArePinnedUntilRelease() {
+        final SAMSequenceDictionary dictionary = createDictionary("chr1");
+        final List<SAMReaderID> ids = createFilesOnOneContig(dictionary, 3, 100);
+
+        final SAMDataSource data = createDataSource(ids, dictionary, 2);
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(dictionary);
+        for ( final Shard shard : data.createShardIteratorOverIntervals(new GenomeLocSortedSet(genomeLocParser, genomeLocParser.createOverEntireContig("chr1")), new LocusShardBalancer()) ) {
+            final StingSAMIterator iterator = data.seek(shard);
+
+            // file 0 is streaming, so it must survive file 1 being opened, buffered and closed to make room for file 2
+            final Set<SAMReaderID> open = new HashSet<SAMReaderID>(Arrays.asList(ids.get(0), ids.get(2)));
+            Assert.assertEquals(data.getOpenReaderIDs(), open);
+
+            int readCount = 0;
+            for ( final SAMRecord read : iterator )
+                readCount++;
+            Assert.assertEquals(readCount, 300);
+            Assert.assertEquals(data.getOpenReaderIDs(), open);
+
+            // releasing the shard unpins file 0; both readers fit, so both stay open for the next shard
+            iterator.close();
+            Assert.assertEquals(data.getOpenReaderIDs(), open);
+        }
+    }
+
+    /**
+     * Three files on the same contig with room for two open readers and a buffer of ten reads: the two files sharing
+     * the last slot have to take turns reopening it, and the pinned file is never closed.
+     */
+    @Test
+    public void testFilesSharingASlotAreReadInBoundedBuffers() {
+        final SAMSequenceDictionary dictionary = createDictionary("chr1");
+        final List<SAMReaderID> ids = createFilesOnOneContig(dictionary, 3, 100);
+
+        final SAMDataSource data = createDataSource(ids, dictionary, 2);
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(dictionary);
+        ReadShard.setReadBufferSize(10);
+        try {
+            for ( final Shard shard : data.createShardIteratorOverIntervals(new GenomeLocSortedSet(genomeLocParser, genomeLocParser.createOverEntireContig("chr1")), new LocusShardBalancer()) ) {
+                final StingSAMIterator iterator = data.seek(shard);
+
+                int readCount = 0;
+                int reopenCount = 0;
+                int lastStart = 0;
+                Set<SAMReaderID> lastOpen = data.getOpenReaderIDs();
+                for ( final SAMRecord read : iterator ) {
+                    Assert.assertTrue(read.getAlignmentStart() >= lastStart, "Reads out of order at " + read.getReadName());
+                    lastStart = read.getAlignmentStart();
+                    readCount++;
+
+                    final Set<SAMReaderID> open = data.getOpenReaderIDs();
+                    Assert.assertEquals(open.size(), 2, "Wrong number of readers open: " + open);
+                    Assert.assertTrue(open.contains(ids.get(0)), "The streaming file was closed");
+                    if ( !open.equals(lastOpen) )
+                        reopenCount++;
+                    lastOpen = open;
+                }
+                iterator.close();
+
+                Assert.assertEquals(readCount, 300);
+                Assert.assertTrue(reopenCount >= 10, "Files sharing the last slot were only reopened " + reopenCount + " times");
+            }
+        }
+        finally {
+            ReadShard.setReadBufferSize(ReadShard.DEFAULT_MAX_READS);
+        }
+    }
+
+    /**
+     * The legacy read shards are filled by the data source itself, which has to unpin the readers once each shard is full.
+     */
+    @Test
+    public void testLegacyFillShardReleasesReaders() {
+        final SAMSequenceDictionary dictionary = createDictionary("chr1");
+        final List<SAMReaderID> ids = createFilesOnOneContig(dictionary, 5, 100);
+
+        final SAMDataSource eager = createDataSource(ids, dictionary, null);
+        final SAMDataSource lazy = createDataSource(ids, dictionary, 2);
+
+        ReadShard.setReadBufferSize(50);
+        try {
+            final List<String> expected = new ArrayList<String>();
+            for ( final Shard shard : eager.createShardIteratorOverAllReads(new LegacyReadShardBalancer()) ) {
+                for ( final SAMRecord read : shard.iterator() )
+                    expected.add(describe(read, eager.getHeader()));
+            }
+            Assert.assertEquals(expected.size(), 500);
+
+            final List<String> reads = new ArrayList<String>();
+            for ( final Shard shard : lazy.createShardIteratorOverAllReads(new LegacyReadShardBalancer()) ) {
+                Assert.assertTrue(lazy.getOpenReaderIDs().size() <= 2, "Too many readers left open: " + lazy.getOpenReaderIDs());
+                for ( final SAMRecord read : shard.iterator() )
+                    reads.add(describe(read, lazy.getHeader()));
+            }
+            Assert.assertEquals(reads, expected);
+        }
+        finally {
+            ReadShard.setReadBufferSize(ReadShard.DEFAULT_MAX_READS);
+        }
+    }
+
+    private List<String> readAll(final SAMDataSource data, final SAMSequenceDictionary dictionary) {
+        final List<String> reads = new ArrayList<String>();
+        for ( final Shard shard : data.createShardIteratorOverAllReads(new ReadShardBalancer()) ) {
+            for ( final SAMRecord read : shard.iterator() )
+                reads.add(describe(read, data.getHeader()));
+        }
+        return reads;
+    }
+
+    private List<String> readContig(final SAMDataSource data, final SAMSequenceDictionary dictionary, final int contig) {
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(dictionary);
+        final GenomeLocSortedSet intervals = new GenomeLocSortedSet(genomeLocParser, genomeLocParser.createOverEntireContig(dictionary.getSequence(contig).getSequenceName()));
+
+        final List<String> reads = new ArrayList<String>();
+        for ( final Shard shard : data.createShardIteratorOverIntervals(intervals, new LocusShardBalancer()) ) {
+            final StingSAMIterator iterator = data.seek(shard);
+            for ( final SAMRecord read : iterator )
+                reads.add(describe(read, data.getHeader()));
+            iterator.close();
+        }
+        return reads;
+    }
+
+    /**
+     * Everything about a read that the merge can change: its position in the merged header and its read and program groups
+     */
+    private static String describe(final SAMRecord read, final SAMFileHeader mergedHeader) {
+        Assert.assertSame(read.getHeader(), mergedHeader, "Read " + read.getReadName() + " wasn't moved onto the merged header");
+        return String.format("%s %d:%d %s %s %s %d:%d", read.getReadName(), read.getReferenceIndex(), read.getAlignmentStart(),
+                read.getReadNegativeStrandFlag() ? "-" : "+", read.getAttribute("RG"), read.getAttribute("PG"),
+                read.getMateReferenceIndex(), read.getMateAlignmentStart());
+    }
+
+    private static List<SAMReaderID> createFilesOnOneContig(final SAMSequenceDictionary dictionary, final int numFiles, final int readsPerFile) {
+        final List<SAMReaderID> ids = new ArrayList<SAMReaderID>();
+        for ( int file = 0; file < numFiles; file++ ) {
+            final SAMFileHeader header = createHeader(dictionary, "sample", "program");
+            final List<SAMRecord> reads = new ArrayList<SAMRecord>();
+            for ( int i = 0; i < readsPerFile; i++ )
+                reads.add(createRead(header, String.format("read.%d.%d", file, i), 0, 1 + i));
+            ids.add(createBAM(header, reads));
+        }
+        return ids;
+    }
+
+    private static SAMDataSource createDataSource(final List<SAMReaderID> ids, final SAMSequenceDictionary dictionary, final Integer maxOpenReaders) {
+        return new SAMDataSource(ids,
+                new ThreadAllocation(),
+                null,
+                new GenomeLocParser(dictionary),
+                false,
+                SAMFileReader.ValidationStringency.SILENT,
+                null,
+                DownsamplingMethod.NONE,
+                new ValidationExclusion(),
+                new ArrayList<ReadFilter>(),
+                Collections.<ReadTransformer>emptyList(),
+                false,
+                (byte) -1,
+                false,
+                maxOpenReaders);
+    }
+
+    private static SAMSequenceDictionary createDictionary(final String... contigs) {
+        final SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+        for ( final String contig : contigs )
+            dictionary.addSequence(new SAMSequenceRecord(contig, CONTIG_LENGTH));
+        return dictionary;
+    }
+
+    private static SAMFileHeader createHeader(final SAMSequenceDictionary dictionary, final String sample, final String programName) {
+        final SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        header.setSequenceDictionary(dictionary);
+
+        final SAMReadGroupRecord readGroup = new SAMReadGroupRecord("rg");
+        readGroup.setSample(sample);
+        header.addReadGroup(readGroup);
+
+        final SAMProgramRecord program = new SAMProgramRecord("pg");
+        program.setProgramName(programName);
+        header.addProgramRecord(program);
+        return header;
+    }
+
+    private static SAMRecord createRead(final SAMFileHeader header, final String name, final int contig, final int start) {
+        final SAMRecord read = new SAMRecord(header);
+        read.setReadName(name);
+        read.setReadBases("ACGTACGTAC".getBytes());
+        read.setBaseQualities(new byte[]{30, 30, 30, 30, 30, 30, 30, 30, 30, 30});
+        read.setAttribute("RG", "rg");
+        read.setAttribute("PG", "pg");
+        if ( contig == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX ) {
+            read.setReadUnmappedFlag(true);
+        }
+        else {
+            read.setReferenceIndex(contig);
+            read.setAlignmentStart(start);
+            read.setCigarString("10M");
+            read.setMappingQuality(60);
+        }
+        return read;
+    }
+
+    private static SAMReaderID createBAM(final SAMFileHeader header, final List<SAMRecord> reads) {
+        final File bamFile;
+        try {
+            bamFile = File.createTempFile("SAMDataSourceLazyReadersUnitTest", ".bam");
+            bamFile.deleteOnExit();
+        }
+        catch ( IOException e ) {
+            throw new ReviewedStingException("Failed to create temp bam file: " + e.getMessage());
+        }
+
+        final SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, false, bamFile);
+        for ( final SAMRecord read : reads )
+            writer.addAlignment(read);
+        writer.close();
+
+        new File(bamFile.getPath().replace(".bam", ".bai")).deleteOnExit();
+        return new SAMReaderID(bamFile, new Tags());
+    }
+}
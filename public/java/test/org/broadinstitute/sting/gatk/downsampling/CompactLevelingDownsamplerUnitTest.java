@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.downsampling;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class CompactLevelingDownsamplerUnitTest extends BaseTest {
+
+    @DataProvider(name = "CompactLevelingDownsamplerTestDataProvider")
+    public Object[][] createCompactLevelingDownsamplerTestData() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( int targetSize = 1; targetSize <= 10000; targetSize *= 10 ) {
+            for ( int numStacks = 0; numStacks <= 20; numStacks += 5 ) {
+                for ( int maxStackSize = 1; maxStackSize <= 1000; maxStackSize *= 10 ) {
+                    tests.add(new Object[]{targetSize, numStacks, maxStackSize, true});
+                    tests.add(new Object[]{targetSize, numStacks, maxStackSize, false});
+                }
+            }
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test( dataProvider = "CompactLevelingDownsamplerTestDataProvider" )
+    public void testMatchesLevelingDownsampler( int targetSize, int numStacks, int maxStackSize, boolean useLinkedLists ) {
+        final Random random = new Random(targetSize + 31 * numStacks + 961 * maxStackSize);
+        final List<List<Integer>> stacks = new ArrayList<List<Integer>>();
+        int item = 0;
+        for ( int i = 0; i < numStacks; i++ ) {
+            final List<Integer> stack = new ArrayList<Integer>();
+            final int stackSize = random.nextInt(maxStackSize) + 1;
+            for ( int j = 0; j < stackSize; j++ )
+                stack.add(item++);
+            stacks.add(stack);
+        }
+
+        // given the same random seed, both downsamplers must keep exactly the same items
+        GenomeAnalysisEngine.resetRandomGenerator();
+        final Downsampler<List<Integer>> levelingDownsampler = new LevelingDownsampler<List<Integer>, Integer>(targetSize);
+        final List<List<Integer>> expected = level(levelingDownsampler, stacks, useLinkedLists);
+
+        GenomeAnalysisEngine.resetRandomGenerator();
+        final Downsampler<List<Integer>> compactDownsampler = new CompactLevelingDownsampler<List<Integer>, Integer>(targetSize);
+        final List<List<Integer>> actual = level(compactDownsampler, stacks, useLinkedLists);
+
+        Assert.assertEquals(actual, expected);
+        Assert.assertEquals(compactDownsampler.getNumberOfDiscardedItems(), levelingDownsampler.getNumberOfDiscardedItems());
+    }
+
+    @Test
+    public void testDownsamplerIsReusable() {
+        final Downsampler<List<Integer>> downsampler = new CompactLevelingDownsampler<List<Integer>, Integer>(10);
+
+        for ( int numStacks = 1; numStacks <= 50; numStacks++ ) {
+            final List<List<Integer>> stacks = new ArrayList<List<Integer>>();
+            for ( int i = 0; i < numStacks; i++ )
+                stacks.add(new LinkedList<Integer>(Collections.nCopies(numStacks, i)));
+
+            downsampler.submit(stacks);
+            downsampler.signalEndOfInput();
+
+            int totalSize = 0;
+            for ( List<Integer> stack : downsampler.consumeFinalizedItems() ) {
+                Assert.assertTrue(stack.size() >= 1);
+                totalSize += stack.size();
+            }
+            Assert.assertEquals(totalSize, Math.min(numStacks * numStacks, Math.max(10, numStacks)));
+        }
+    }
+
+    private static List<List<Integer>> level( Downsampler<List<Integer>> downsampler, List<List<Integer>> stacks, boolean useLinkedLists ) {
+        for ( List<Integer> stack : stacks )
+            downsampler.submit(useLinkedLists ? new LinkedList<Integer>(stack) : new ArrayList<Integer>(stack));
+        downsampler.signalEndOfInput();
+
+        final List<List<Integer>> leveledStacks = new ArrayList<List<Integer>>();
+        for ( List<Integer> stack : downsampler.consumeFinalizedItems() )
+            leveledStacks.add(new ArrayList<Integer>(stack));
+        return leveledStacks;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.downsampling;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class CompactPositionalDownsamplerUnitTest extends BaseTest {
+
+    @DataProvider(name = "CompactPositionalDownsamplerTestDataProvider")
+    public Object[][] createCompactPositionalDownsamplerTestData() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+        for ( int targetCoverage = 1; targetCoverage <= 1000; targetCoverage *= 10 ) {
+            for ( int numStacks = 0; numStacks <= 10; numStacks += 5 ) {
+                tests.add(new Object[]{targetCoverage, numStacks, false});
+                tests.add(new Object[]{targetCoverage, numStacks, true});
+            }
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test( dataProvider = "CompactPositionalDownsamplerTestDataProvider" )
+    public void testMatchesSimplePositionalDownsampler( int targetCoverage, int numStacks, boolean includeUnmappedReads ) {
+        final List<SAMRecord> reads = createReads(targetCoverage, numStacks, includeUnmappedReads);
+
+        // given the same random seed, both downsamplers must keep exactly the same reads in the same order
+        GenomeAnalysisEngine.resetRandomGenerator();
+        final List<SAMRecord> expected = downsample(new SimplePositionalDownsampler<SAMRecord>(targetCoverage), reads);
+        final int expectedDiscarded = reads.size() - expected.size();
+
+        GenomeAnalysisEngine.resetRandomGenerator();
+        final ReadsDownsampler<SAMRecord> downsampler = new CompactPositionalDownsampler<SAMRecord>(targetCoverage);
+        final List<SAMRecord> actual = downsample(downsampler, reads);
+
+        Assert.assertEquals(actual.size(), expected.size());
+        for ( int i = 0; i < expected.size(); i++ )
+            Assert.assertSame(actual.get(i), expected.get(i), "read " + i + " differs");
+        Assert.assertEquals(downsampler.getNumberOfDiscardedItems(), expectedDiscarded);
+        Assert.assertFalse(downsampler.hasFinalizedItems() || downsampler.hasPendingItems());
+    }
+
+    @Test
+    public void testReservoirIsReusedAcrossPositions() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000000);
+        final ReadsDownsampler<SAMRecord> downsampler = new CompactPositionalDownsampler<SAMRecord>(5);
+
+        for ( int start = 1; start <= 1000; start += 10 ) {
+            for ( SAMRecord read : ArtificialSAMUtils.createStackOfIdenticalArtificialReads(20, header, "foo", 0, start, 100) )
+                downsampler.submit(read);
+            Assert.assertTrue(downsampler.hasPendingItems());
+            Assert.assertEquals(downsampler.peekPending().getAlignmentStart(), start);
+        }
+        downsampler.signalEndOfInput();
+
+        final List<SAMRecord> downsampledReads = downsampler.consumeFinalizedItems();
+        Assert.assertEquals(downsampledReads.size(), 100 * 5);
+        Assert.assertEquals(downsampler.getNumberOfDiscardedItems(), 100 * 15);
+    }
+
+    private static List<SAMRecord> createReads( int targetCoverage, int numStacks, boolean includeUnmappedReads ) {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(2, 1, 1000000);
+        final Random random = new Random(targetCoverage * 100 + numStacks);
+        final List<SAMRecord> reads = new ArrayList<SAMRecord>();
+
+        int alignmentStart = 1;
+        for ( int i = 0; i < numStacks; i++ ) {
+            final int refIndex = i < numStacks / 2 ? 0 : 1;
+            reads.addAll(ArtificialSAMUtils.createStackOfIdenticalArtificialReads(random.nextInt(targetCoverage * 2) + 1, header, "foo", refIndex, alignmentStart, 100));
+            alignmentStart += 10;
+        }
+
+        if ( includeUnmappedReads )
+            reads.addAll(ArtificialSAMUtils.createStackOfIdenticalArtificialReads(targetCoverage * 2, header, "foo", SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX, SAMRecord.NO_ALIGNMENT_START, 100));
+
+        return reads;
+    }
+
+    private static List<SAMRecord> downsample( ReadsDownsampler<SAMRecord> downsampler, List<SAMRecord> reads ) {
+        final List<SAMRecord> downsampledReads = new ArrayList<SAMRecord>();
+        for ( SAMRecord read : reads ) {
+            downsampler.submit(read);
+            if ( downsampler.hasFinalizedItems() )
+                downsampledReads.addAll(downsampler.consumeFinalizedItems());
+        }
+        downsampler.signalEndOfInput();
+        downsampledReads.addAll(downsampler.consumeFinalizedItems());
+        return downsampledReads;
+    }
+}
@@ -0,0 +1,192 @@
+package org.broadinstitute.sting.gatk.filters;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine;
+import org.broadinstitute.sting.gatk.ReadMetrics;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.broadinstitute.sting.utils.metrics.HotPathCounter;
+import org.broadinstitute.sting.utils.metrics.HotPathMetrics;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class ReadFilterChainUnitTest extends BaseTest {
+    private SAMFileHeader header;
+    private List<SAMRecord> reads;
+
+    @BeforeClass
+    public void init() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+
+        Random random = new Random(42);
+        reads = new ArrayList<SAMRecord>();
+        for ( int i = 0; i < 10000; i++ ) {
+            SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, 1 + random.nextInt(900), 20);
+            read.setFlags(random.nextInt(0x800) & ~0x4);
+            read.setMappingQuality(random.nextInt(5));
+            reads.add(read);
+        }
+    }
+
+    /**
+     * Rejects reads whose names end in the given digit
+     */
+    private static class ReadNameDigitFilter extends ReadFilter {
+        private final char digit;
+        private ReadNameDigitFilter(final char digit) { this.digit = digit; }
+        public boolean filterOut(final SAMRecord read) {
+            return read.getReadName().charAt(read.getReadName().length()-1) == digit;
+        }
+    }
+
+    /**
+     * A duplicate filter that also lets duplicates with a mapping quality of zero through
+     */
+    private static class LenientDuplicateReadFilter extends DuplicateReadFilter {
+        public boolean filterOut(final SAMRecord read) {
+            return super.filterOut(read) && read.getMappingQuality() != 0;
+        }
+    }
+
+    @Test
+    public void testChainFiltersTheSameReads() {
+        final List<ReadFilter> filters = Arrays.asList(new ReadNameDigitFilter('7'), new MappingQualityZeroFilter(),
+                new NotPrimaryAlignmentFilter(), new LenientDuplicateReadFilter(), new FailsVendorQualityCheckFilter());
+        final ReadFilterChain chain = new ReadFilterChain(filters);
+
+        long expectedFiltered = 0;
+        for ( final SAMRecord read : reads ) {
+            boolean expected = false;
+            for ( final ReadFilter filter : filters )
+                expected |= filter.filterOut(read);
+            if ( expected )
+                expectedFiltered++;
+            Assert.assertEquals(chain.filterOut(read), expected, "Filtering disagrees for " + read.getReadName());
+        }
+
+        final ReadMetrics metrics = new ReadMetrics();
+        chain.flushFilterCounts(metrics);
+        long filtered = 0;
+        for ( final long count : metrics.getCountsByFilter().values() )
+            filtered += count;
+        Assert.assertEquals(filtered, expectedFiltered);
+
+        // Flushing again doesn't count the reads twice
+        chain.flushFilterCounts(metrics);
+        Assert.assertEquals(metrics.getCountsByFilter(), metricsOf(filters).getCountsByFilter());
+    }
+
+    @Test
+    public void testHotPathMetricsMatchReadMetrics() {
+        final List<ReadFilter> filters = Arrays.asList(new ReadNameDigitFilter('7'), new MappingQualityZeroFilter(),
+                new NotPrimaryAlignmentFilter(), new LenientDuplicateReadFilter());
+        final HotPathMetrics hotPathMetrics = new HotPathMetrics(true);
+        try {
+            final ReadFilterChain chain = new ReadFilterChain(filters, hotPathMetrics);
+            for ( final SAMRecord read : reads )
+                chain.filterOut(read);
+
+            // Rejections only reach the counters when flushed
+            Assert.assertEquals(hotPathMetrics.getCounter("readFilter", "MappingQualityZeroFilter.rejected").getCount(), 0);
+
+            final ReadMetrics metrics = new ReadMetrics();
+            chain.flushFilterCounts(metrics);
+            Assert.assertEquals(hotPathMetrics.getTimer("readFilter", "chain").getCount(), reads.size());
+            for ( final ReadFilter filter : filters ) {
+                final HotPathCounter counter = hotPathMetrics.getCounter("readFilter", filter.getClass().getSimpleName() + ".rejected");
+                Assert.assertEquals(counter.getCount(), (long)metrics.getCountsByFilter().get(filter.getClass().getSimpleName()),
+                        "Rejections disagree for " + filter.getClass().getSimpleName());
+            }
+        } finally {
+            hotPathMetrics.unregisterMBeans();
+        }
+    }
+
+    @Test
+    public void testFiltersAreOrderedByCostThenRejectionRate() {
+        final ReadFilter rarelyRejects = new BadCigarFilter();
+        final ReadFilter alwaysRejects = new MissingReadGroupFilter();
+        final ReadFilter fixedFieldFilter = new MappingQualityZeroFilter();
+        final ReadFilterChain chain = new ReadFilterChain(Arrays.asList(rarelyRejects, alwaysRejects, fixedFieldFilter));
+
+        // Filters that only look at fixed fields run first
+        Assert.assertEquals(chain.getOrderedFilters(), Arrays.asList(fixedFieldFilter, rarelyRejects, alwaysRejects));
+
+        for ( final SAMRecord read : reads )
+            chain.filterOut(read);
+
+        Assert.assertEquals(chain.getOrderedFilters(), Arrays.asList(fixedFieldFilter, alwaysRejects, rarelyRejects));
+    }
+
+    @Test
+    public void testUnknownFiltersAreNotReordered() {
+        final ReadFilter unknownFilter = new ReadNameDigitFilter('3');
+        final ReadFilter rarelyRejects = new BadCigarFilter();
+        final ReadFilter alwaysRejects = new MissingReadGroupFilter();
+        final ReadFilter fixedFieldFilter = new MappingQualityZeroFilter();
+        final ReadFilterChain chain = new ReadFilterChain(Arrays.asList(rarelyRejects, unknownFilter, alwaysRejects, fixedFieldFilter));
+
+        for ( final SAMRecord read : reads )
+            chain.filterOut(read);
+
+        // Known filters may only be reordered amongst those on the same side of the unknown filter
+        Assert.assertEquals(chain.getOrderedFilters(), Arrays.asList(rarelyRejects, unknownFilter, fixedFieldFilter, alwaysRejects));
+    }
+
+    @Test
+    public void testReassignedMappingQualityIsSeenByLaterFilters() {
+        final ReassignMappingQualityFilter reassignFilter = new ReassignMappingQualityFilter();
+        final MappingQualityFilter mappingQualityFilter = new MappingQualityFilter();
+        final ReadFilterChain chain = new ReadFilterChain(Arrays.<ReadFilter>asList(reassignFilter, mappingQualityFilter));
+
+        for ( int i = 0; i < 2 * 4096; i++ ) {
+            final SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, 1, 20);
+            read.setMappingQuality(i % 5);
+            Assert.assertFalse(chain.filterOut(read), "Read with a reassigned mapping quality was filtered out");
+            Assert.assertEquals(read.getMappingQuality(), reassignFilter.defaultMappingQuality);
+        }
+
+        Assert.assertEquals(chain.getOrderedFilters(), Arrays.asList(reassignFilter, mappingQualityFilter));
+    }
+
+    @Test(expectedExceptions = UserException.ReadMissingReadGroup.class)
+    public void testMalformedReadFilterSeesDuplicatesGivenAfterIt() {
+        final ReadFilterChain chain = new ReadFilterChain(Arrays.asList(createMalformedReadFilter(), new DuplicateReadFilter()));
+        final SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "duplicate", 0, 1, 20);
+        read.setDuplicateReadFlag(true);
+        chain.filterOut(read);
+    }
+
+    @Test
+    public void testMalformedReadFilterDoesNotSeeDuplicatesGivenBeforeIt() {
+        final ReadFilterChain chain = new ReadFilterChain(Arrays.asList(new DuplicateReadFilter(), createMalformedReadFilter()));
+        final SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "duplicate", 0, 1, 20);
+        read.setDuplicateReadFlag(true);
+        Assert.assertTrue(chain.filterOut(read));
+    }
+
+    private ReadFilter createMalformedReadFilter() {
+        final ReadFilter filter = new MalformedReadFilter();
+        filter.initialize(new GenomeAnalysisEngine() {
+            @Override
+            public SAMFileHeader getSAMFileHeader() {
+                return header;
+            }
+        });
+        return filter;
+    }
+
+    private ReadMetrics metricsOf(final List<ReadFilter> filters) {
+        final ReadFilterChain chain = new ReadFilterChain(filters);
+        for ( final SAMRecord read : reads )
+            chain.filterOut(read);
+        final ReadMetrics metrics = new ReadMetrics();
+        chain.flushFilterCounts(metrics);
+        return metrics;
+    }
+}
@@ -259,6 +259,44 @@ public class RefMetaDataTrackerUnitTest {
         testGetter(nameAsString, Arrays.asList(v4), startingHere(test.expected(nameAsString)), false, tracker);
     }
 
+    @Test(enabled = true, dataProvider = "tests")
+    public void testSlotConstructor(MyTest test) {
+        logger.warn("Testing " + test + " for trackers built from track slots");
+        final int[] slots = new int[]{RefMetaDataTracker.getTrackSlot("A"), RefMetaDataTracker.getTrackSlot("B")};
+        final RODRecordList[] tracks = new RODRecordList[]{test.AValues, test.BValues};
+        final RefMetaDataTracker tracker = new RefMetaDataTracker(slots, tracks);
+
+        // the tracker must not depend on the caller's scratch arrays
+        tracks[0] = tracks[1] = null;
+
+        Assert.assertEquals(tracker.getNTracksWithBoundFeatures(), test.nBoundTracks());
+        Assert.assertEquals(tracker.getBoundRodTracks().size(), test.nBoundTracks());
+        testSimpleBindings("A", tracker, test.AValues);
+        testSimpleBindings("B", tracker, test.BValues);
+
+        final RodBinding<Feature> A = new RodBinding<Feature>(Feature.class, "A", "none", "vcf", new Tags());
+        testGetter("A", tracker.getValues(A), test.expected("A"), true, tracker);
+        Assert.assertEquals(A.getTrackSlot(), slots[0], "RodBindings should remember the slot of their track");
+    }
+
+    @Test(enabled = true)
+    public void testTrackSlots() {
+        final int slot = RefMetaDataTracker.getTrackSlot("slotTest");
+        Assert.assertEquals(RefMetaDataTracker.getTrackSlot("slotTest"), slot);
+        Assert.assertEquals(RefMetaDataTracker.getTrackSlot("SLOTTEST"), slot, "Track slots should be case insensitive");
+        Assert.assertTrue(RefMetaDataTracker.getTrackSlot("otherSlotTest") != slot);
+    }
+
+    @Test(enabled = true)
+    public void testEmptyTracker() {
+        final RefMetaDataTracker tracker = RefMetaDataTracker.EMPTY_TRACKER;
+        Assert.assertEquals(tracker.getNTracksWithBoundFeatures(), 0);
+        Assert.assertTrue(tracker.getBoundRodTracks().isEmpty());
+        Assert.assertTrue(tracker.getValues(Feature.class).isEmpty());
+        Assert.assertFalse(tracker.hasValues(new RodBinding<Feature>(Feature.class, "A", "none", "vcf", new Tags())));
+        Assert.assertFalse(tracker.hasValues("neverBoundTrack"));
+    }
+
     private List<GATKFeature> startingHere(List<GATKFeature> l) {
         List<GATKFeature> x = new ArrayList<GATKFeature>();
         for ( GATKFeature f : l ) if ( f.getStart() == locus.getStart() ) x.add(f);
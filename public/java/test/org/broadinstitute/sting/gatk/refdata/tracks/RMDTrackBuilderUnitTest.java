@@ -129,6 +129,31 @@ public class RMDTrackBuilderUnitTest extends BaseTest {
     }
 
 
+    @Test
+    public void testIndexIsCachedForUnchangedFile() throws IOException {
+        File vcfFile = new File(validationDataLocation + "/ROD_validation/read_only/no_index.vcf");
+
+        Index first = builder.loadIndex(vcfFile, new VCF3Codec());
+        Index second = builder.loadIndex(vcfFile, new VCF3Codec());
+        Assert.assertSame(second, first, "Index for an unchanged file wasn't reused");
+
+        // the cache belongs to the builder, so other builders can't see (or change) its indices
+        Index other = new RMDTrackBuilder(seq.getSequenceDictionary(),genomeLocParser,null).loadIndex(vcfFile, new VCF3Codec());
+        Assert.assertNotSame(other, first, "Index was shared between builders");
+    }
+
+    @Test
+    public void testIndexIsNotCachedForChangedFile() throws IOException {
+        File vcfFile = File.createTempFile("RMDTrackBuilderUnitTest", ".vcf");
+        vcfFile.deleteOnExit();
+        Tribble.indexFile(vcfFile).deleteOnExit();
+        copyFile(new File(validationDataLocation + "/ROD_validation/read_only/no_index.vcf"), vcfFile);
+
+        Index first = builder.loadIndex(vcfFile, new VCF3Codec());
+        Assert.assertTrue(vcfFile.setLastModified(vcfFile.lastModified() + 10000));
+        Assert.assertNotSame(builder.loadIndex(vcfFile, new VCF3Codec()), first, "Index was reused after the file changed");
+    }
+
     @Test
     public void testGenerateIndexForUnindexedFile() {
         File vcfFile = new File(privateTestDir + "always_reindex.vcf");
@@ -195,4 +195,55 @@ public class GATKReportUnitTest extends BaseTest {
             System.err.format("IOException: %s%n", x);
         }
     }
+
+    @Test
+    public void testTypedColumnValues() {
+        final GATKReportTable table = new GATKReportTable("TypedTable", "", 3);
+        table.addColumn("count");
+        table.addColumn("value", "%.2f");
+        table.addColumn("mixed");
+
+        for ( int i = 0; i < 3; i++ )
+            table.increment("row" + i, "count");
+        table.increment("row1", "count");
+        table.set("row0", "value", 1.5);
+        table.set("row0", "mixed", 7L);
+        table.set("row1", "mixed", "seven");
+
+        // values come back out as the same class that went in, even when a column mixes them
+        Assert.assertEquals(table.get("row0", "count"), 1);
+        Assert.assertEquals(table.get("row1", "count"), 2);
+        Assert.assertEquals(table.get("row0", "value"), 1.5);
+        Assert.assertNull(table.get("row1", "value"));
+        Assert.assertEquals(table.get("row0", "mixed"), 7L);
+        Assert.assertEquals(table.get("row1", "mixed"), "seven");
+        Assert.assertNull(table.get("row2", "mixed"));
+    }
+
+    @Test
+    public void testSortedRowOrder() throws IOException {
+        final String[] sortedIDs = { "a", "b", "c", "d" };
+
+        // the rows are written out in row ID order no matter the order in which they were added
+        final GATKReportTable inOrder = new GATKReportTable("SortedTable", "", 1, true);
+        final GATKReportTable outOfOrder = new GATKReportTable("SortedTable", "", 1, true);
+        inOrder.addColumn("id", "%s");
+        outOfOrder.addColumn("id", "%s");
+        for ( int i = 0; i < sortedIDs.length; i++ ) {
+            inOrder.set(sortedIDs[i], "id", sortedIDs[i]);
+            outOfOrder.set(sortedIDs[sortedIDs.length - 1 - i], "id", sortedIDs[sortedIDs.length - 1 - i]);
+        }
+
+        for ( final GATKReportTable table : new GATKReportTable[]{ inOrder, outOfOrder } ) {
+            final File file = createTempFile("GATKReportTable-UnitTest", ".tbl");
+            final PrintStream ps = new PrintStream(file);
+            new GATKReport(table).print(ps);
+            ps.close();
+
+            final GATKReportTable inputRead = new GATKReport(file).getTable("SortedTable");
+            Assert.assertEquals(inputRead.getNumRows(), sortedIDs.length);
+            for ( int i = 0; i < sortedIDs.length; i++ )
+                Assert.assertEquals(inputRead.get(i, "id"), sortedIDs[i]);
+        }
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2012 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.annotator;
+
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.contexts.AlignmentContext;
+import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
+import org.broadinstitute.sting.utils.genotyper.StandardPerReadAlleleLikelihoodMap;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+import org.broadinstitute.sting.utils.variantcontext.VariantContext;
+import org.broadinstitute.sting.utils.variantcontext.VariantContextBuilder;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class SiteAnnotationContextUnitTest extends BaseTest {
+    private static final Allele REF = Allele.create("C", true);
+    private static final Allele ALT = Allele.create("T");
+
+    private SAMFileHeader header;
+    private VariantContext vc;
+
+    @BeforeMethod
+    public void setup() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        vc = new VariantContextBuilder("test", "chr1", 2, 2, Arrays.asList(REF, ALT)).make();
+    }
+
+    private GATKSAMRecord makeRead(final String name, final String bases, final byte qual, final int mappingQual, final boolean negativeStrand) {
+        final byte[] quals = new byte[bases.length()];
+        Arrays.fill(quals, qual);
+        final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, name, 0, 1, bases.getBytes(), quals);
+        read.setMappingQuality(mappingQual);
+        read.setReadNegativeStrandFlag(negativeStrand);
+        return read;
+    }
+
+    private Map<String, AlignmentContext> makeContexts(final String sample, final List<GATKSAMRecord> reads) {
+        // every read starts at position 1, so offset 1 is the site at position 2
+        final ReadBackedPileupImpl pileup = new ReadBackedPileupImpl(null, reads, 1);
+        return Collections.singletonMap(sample, new AlignmentContext(null, pileup));
+    }
+
+    @Test
+    public void testPileupFeatures() {
+        final List<GATKSAMRecord> reads = Arrays.asList(
+                makeRead("ref", "ACGT", (byte)30, 40, false),
+                makeRead("alt", "ATGT", (byte)20, 0, true),
+                makeRead("other", "AGGT", (byte)30, 50, false),
+                makeRead("lowQual", "ACGT", (byte)2, 60, true));
+        final SiteAnnotationContext siteContext = new SiteAnnotationContext(makeContexts("NA12878", reads), vc, null);
+
+        final SiteAnnotationContext.PileupFeatures features = siteContext.getPileupFeatures("NA12878");
+        Assert.assertNotNull(features);
+        Assert.assertEquals(features.size(), 4);
+        Assert.assertEquals(features.getDepthOfCoverage(), 4);
+        Assert.assertEquals(features.getMappingQuals(), new int[]{40, 0, 50, 60});
+        Assert.assertEquals(features.getBaseQuals(), new byte[]{30, 20, 30, 2});
+        Assert.assertEquals(features.getNegativeStrand(), new boolean[]{false, true, false, true});
+        Assert.assertEquals(features.getUsable(), new boolean[]{true, false, true, false}, "MQ0 and low base quality elements are not usable");
+
+        final int[] alleleIndices = features.getAlleleIndices();
+        Assert.assertEquals(alleleIndices[0], 0);
+        Assert.assertEquals(alleleIndices[1], SiteAnnotationContext.NO_ALLELE, "unusable elements have no allele");
+        Assert.assertEquals(alleleIndices[2], SiteAnnotationContext.NO_ALLELE, "bases of none of the alleles have no allele");
+        Assert.assertEquals(alleleIndices[3], SiteAnnotationContext.NO_ALLELE, "unusable elements have no allele");
+    }
+
+    @Test
+    public void testFeaturesAreExtractedOncePerSample() {
+        final List<GATKSAMRecord> reads = Arrays.asList(makeRead("alt", "ATGT", (byte)30, 60, false));
+        final SiteAnnotationContext siteContext = new SiteAnnotationContext(makeContexts("NA12878", reads), vc, null);
+
+        Assert.assertSame(siteContext.getPileupFeatures("NA12878"), siteContext.getPileupFeatures("NA12878"));
+        Assert.assertSame(siteContext.getPileupFeatures("NA12878").getAlleleIndices(), siteContext.getPileupFeatures("NA12878").getAlleleIndices());
+        Assert.assertEquals(siteContext.getPileupFeatures("NA12878").getAlleleIndices()[0], 1);
+
+        Assert.assertNull(siteContext.getPileupFeatures("NA12891"), "a sample without a context has no features");
+        Assert.assertNull(siteContext.getLikelihoodFeatures("NA12878"), "a site without likelihoods has no likelihood features");
+        Assert.assertTrue(siteContext.getLikelihoodSamples().isEmpty());
+    }
+
+    @Test
+    public void testLikelihoodFeatures() {
+        final GATKSAMRecord refRead = makeRead("ref", "ACGT", (byte)30, 40, false);
+        final GATKSAMRecord altRead = makeRead("alt", "ATGT", (byte)30, 0, true);
+        final GATKSAMRecord uninformativeRead = makeRead("uninformative", "ACGT", (byte)30, 50, false);
+
+        final PerReadAlleleLikelihoodMap likelihoodMap = new StandardPerReadAlleleLikelihoodMap();
+        likelihoodMap.add(refRead, REF, -0.1);
+        likelihoodMap.add(refRead, ALT, -3.0);
+        likelihoodMap.add(altRead, REF, -4.0);
+        likelihoodMap.add(altRead, ALT, -0.2);
+        likelihoodMap.add(uninformativeRead, REF, -1.0);
+        likelihoodMap.add(uninformativeRead, ALT, -1.05);
+
+        final Map<String, PerReadAlleleLikelihoodMap> likelihoods = new HashMap<String, PerReadAlleleLikelihoodMap>();
+        likelihoods.put("NA12878", likelihoodMap);
+        likelihoods.put("NA12891", new StandardPerReadAlleleLikelihoodMap());
+        final SiteAnnotationContext siteContext = new SiteAnnotationContext(null, vc, likelihoods);
+
+        Assert.assertNull(siteContext.getLikelihoodFeatures("NA12891"), "an empty likelihood map has no features");
+
+        final SiteAnnotationContext.LikelihoodFeatures features = siteContext.getLikelihoodFeatures("NA12878");
+        Assert.assertNotNull(features);
+        Assert.assertEquals(features.size(), 3);
+
+        final Map<String, Integer> indexOfRead = new HashMap<String, Integer>();
+        int i = 0;
+        for ( final GATKSAMRecord read : likelihoodMap.getStoredElements() )
+            indexOfRead.put(read.getReadName(), i++);
+
+        final int refIndex = indexOfRead.get("ref"), altIndex = indexOfRead.get("alt"), uninformativeIndex = indexOfRead.get("uninformative");
+        Assert.assertEquals(features.getMostLikelyAlleles()[refIndex], REF);
+        Assert.assertEquals(features.getMostLikelyAlleles()[altIndex], ALT);
+        Assert.assertTrue(features.getMostLikelyAlleles()[uninformativeIndex].isNoCall());
+        Assert.assertEquals(features.getMostLikelyLikelihoods()[altIndex], -0.2);
+        Assert.assertTrue(Double.isNaN(features.getMostLikelyLikelihoods()[uninformativeIndex]));
+        Assert.assertEquals(features.getMappingQuals()[altIndex], 0);
+        Assert.assertTrue(features.getNegativeStrand()[altIndex]);
+        Assert.assertEquals(features.getRepresentativeCounts(), new int[]{1, 1, 1});
+        Assert.assertEquals(features.getHardClippedBases(), new int[]{0, 0, 0});
+        Assert.assertEquals(features.getReadPositions()[refIndex], 1);
+    }
+}
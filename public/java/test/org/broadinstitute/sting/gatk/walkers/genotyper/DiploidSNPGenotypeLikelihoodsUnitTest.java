@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2012 The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+ * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.genotyper;
+
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.BaseUtils;
+import org.broadinstitute.sting.utils.fragments.FragmentCollection;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class DiploidSNPGenotypeLikelihoodsUnitTest extends BaseTest {
+    private static final double PCR_ERROR = DiploidSNPGenotypeLikelihoods.DEFAULT_PCR_ERROR_RATE;
+
+    private SAMFileHeader header;
+
+    @BeforeMethod
+    public void setup() {
+        header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+    }
+
+    private GATKSAMRecord makeRead(final String name, final String bases, final byte qual) {
+        final byte[] quals = new byte[bases.length()];
+        Arrays.fill(quals, qual);
+        final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, name, 0, 1, bases.getBytes(), quals);
+        read.setMappingQuality(60);
+        return read;
+    }
+
+    private GATKSAMRecord makeMate(final String name, final String bases, final byte qual) {
+        final GATKSAMRecord read = makeRead(name, bases, qual);
+        read.setReadPairedFlag(true);
+        read.setMateReferenceIndex(0);
+        read.setMateAlignmentStart(1);
+        return read;
+    }
+
+    // P(observed | true base), summing over the base of the fragment the read was sequenced from
+    private static double pObservedGivenTrueBase(final byte observed, final byte qual, final byte trueBase) {
+        final double e = Math.pow(10, qual / -10.0);
+        double p = 0.0;
+        for ( final byte fragmentBase : BaseUtils.BASES ) {
+            final double pFragment = fragmentBase == trueBase ? 1.0 - PCR_ERROR : PCR_ERROR / 3.0;
+            p += pFragment * (observed == fragmentBase ? 1.0 - e : e / 3.0);
+        }
+        return p;
+    }
+
+    @Test
+    public void testSingleObservation() {
+        final ReadBackedPileup pileup = new ReadBackedPileupImpl(null, Arrays.asList(makeRead("read", "ACGT", (byte)30)), 1);
+        final DiploidSNPGenotypeLikelihoods GL = new DiploidSNPGenotypeLikelihoods(PCR_ERROR);
+
+        Assert.assertEquals(GL.add(pileup, true, true, 10), 1);
+        for ( final DiploidGenotype g : DiploidGenotype.values() ) {
+            final double expected = Math.log10(pObservedGivenTrueBase((byte)'C', (byte)30, g.base1) / 2.0 + pObservedGivenTrueBase((byte)'C', (byte)30, g.base2) / 2.0);
+            Assert.assertEquals(GL.getLikelihoods()[g.ordinal()], expected, 1e-10, "Wrong likelihood for genotype " + g);
+        }
+    }
+
+    @Test
+    public void testBadBasesAreIgnored() {
+        final List<GATKSAMRecord> reads = Arrays.asList(makeRead("lowQual", "ACGT", (byte)5), makeRead("noCall", "ANGT", (byte)30));
+        final DiploidSNPGenotypeLikelihoods GL = new DiploidSNPGenotypeLikelihoods(PCR_ERROR);
+
+        Assert.assertEquals(GL.add(new ReadBackedPileupImpl(null, reads, 1), true, true, 10), 0);
+        Assert.assertEquals(GL.getLikelihoods(), new double[DiploidGenotype.values().length]);
+    }
+
+    @Test
+    public void testPileupMatchesElementByElement() {
+        final List<GATKSAMRecord> reads = Arrays.asList(
+                makeRead("ref1", "ACGT", (byte)30),
+                makeRead("ref2", "ACGT", (byte)20),
+                makeRead("alt", "ATGT", (byte)35),
+                makeRead("lowQual", "ATGT", (byte)3),
+                makeMate("pair", "ACGT", (byte)25),
+                makeMate("pair", "ATGT", (byte)40),
+                makeMate("halfGoodPair", "ACGT", (byte)2),
+                makeMate("halfGoodPair", "ACGT", (byte)30));
+        final ReadBackedPileup pileup = new ReadBackedPileupImpl(null, reads, 1);
+        final FragmentCollection<PileupElement> fragments = pileup.toFragments();
+        Assert.assertEquals(fragments.getOverlappingPairs().size(), 2);
+
+        final DiploidSNPGenotypeLikelihoods batched = new DiploidSNPGenotypeLikelihoods(PCR_ERROR);
+        final int nBatched = batched.add(pileup, true, true, 10);
+
+        final DiploidSNPGenotypeLikelihoods byElement = new DiploidSNPGenotypeLikelihoods(PCR_ERROR);
+        int nByElement = 0;
+        for ( final PileupElement p : fragments.getSingletonReads() )
+            nByElement += byElement.add(p, true, true, 10);
+        for ( final List<PileupElement> overlappingPair : fragments.getOverlappingPairs() )
+            nByElement += byElement.add(overlappingPair, true, true, 10);
+
+        Assert.assertEquals(nBatched, 5);
+        Assert.assertEquals(nBatched, nByElement);
+        Assert.assertEquals(batched.getLikelihoods(), byElement.getLikelihoods());
+    }
+
+    @Test
+    public void testPairedObservationDiffersFromSingleObservations() {
+        final List<GATKSAMRecord> pair = Arrays.asList(makeMate("pair", "ACGT", (byte)30), makeMate("pair", "ACGT", (byte)30));
+        final List<GATKSAMRecord> unpaired = Arrays.asList(makeRead("read1", "ACGT", (byte)30), makeRead("read2", "ACGT", (byte)30));
+
+        final DiploidSNPGenotypeLikelihoods pairGL = new DiploidSNPGenotypeLikelihoods(PCR_ERROR);
+        Assert.assertEquals(pairGL.add(new ReadBackedPileupImpl(null, pair, 1), true, true, 10), 1);
+        final DiploidSNPGenotypeLikelihoods unpairedGL = new DiploidSNPGenotypeLikelihoods(PCR_ERROR);
+        Assert.assertEquals(unpairedGL.add(new ReadBackedPileupImpl(null, unpaired, 1), true, true, 10), 2);
+
+        // both reads of a pair come from the same fragment, so they are not independent evidence against a het
+        final int AA = DiploidGenotype.AA.ordinal();
+        final int CC = DiploidGenotype.CC.ordinal();
+        Assert.assertTrue(pairGL.getLikelihoods()[AA] - pairGL.getLikelihoods()[CC] > unpairedGL.getLikelihoods()[AA] - unpairedGL.getLikelihoods()[CC]);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.indels;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ConsensusScorerUnitTest extends BaseTest {
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    @DataProvider(name = "scoringThreads")
+    public Object[][] getScoringThreads() {
+        return new Object[][]{
+                new Object[]{1, 5, 10},
+                new Object[]{1, 30, 200},
+                new Object[]{2, 30, 200},
+                new Object[]{4, 3, 7},
+                new Object[]{4, 30, 500},
+                new Object[]{8, 30, 1000}
+        };
+    }
+
+    @Test(dataProvider = "scoringThreads")
+    public void testScoresMatchBruteForce(final int nThreads, final int nConsensuses, final int nReads) {
+        final Random random = new Random(nThreads * 1000 + nReads);
+        final byte[] reference = randomBases(random, 300);
+
+        final List<byte[]> consensuses = new ArrayList<byte[]>();
+        for ( int i = 0; i < nConsensuses; i++ ) {
+            final byte[] consensus = reference.clone();
+            for ( int j = 0; j < 5; j++ )
+                consensus[random.nextInt(consensus.length)] = BASES[random.nextInt(BASES.length)];
+            consensuses.add(consensus);
+        }
+
+        final List<byte[]> readBases = new ArrayList<byte[]>();
+        final List<byte[]> readQuals = new ArrayList<byte[]>();
+        final List<Integer> originalAlignments = new ArrayList<Integer>();
+        for ( int i = 0; i < nReads; i++ ) {
+            final int length = 50 + random.nextInt(50);
+            final int start = random.nextInt(reference.length - length);
+            final byte[] bases = new byte[length];
+            final byte[] quals = new byte[length];
+            for ( int j = 0; j < length; j++ ) {
+                bases[j] = random.nextInt(20) == 0 ? BASES[random.nextInt(BASES.length)] : reference[start + j];
+                quals[j] = (byte)(10 + random.nextInt(30));
+            }
+            readBases.add(bases);
+            readQuals.add(quals);
+            originalAlignments.add(Math.max(0, start + random.nextInt(11) - 5));
+        }
+
+        final ConsensusScorer scorer = new ConsensusScorer(nThreads);
+        try {
+            // score twice to make sure that the reused arrays are reset properly between intervals
+            for ( int pass = 0; pass < 2; pass++ ) {
+                scorer.clear();
+                for ( int i = 0; i < nReads; i++ )
+                    scorer.addRead(readBases.get(i), readQuals.get(i), originalAlignments.get(i));
+                for ( final byte[] consensus : consensuses )
+                    scorer.addConsensus(consensus);
+                scorer.score();
+
+                Assert.assertEquals(scorer.getNumReads(), nReads);
+                Assert.assertEquals(scorer.getNumConsensuses(), nConsensuses);
+                for ( int c = 0; c < nConsensuses; c++ ) {
+                    for ( int r = 0; r < nReads; r++ ) {
+                        final int[] expected = bestOffset(consensuses.get(c), readBases.get(r), readQuals.get(r), originalAlignments.get(r));
+                        Assert.assertEquals(scorer.getBestScore(c, r), expected[1], "score of consensus " + c + " read " + r);
+                        Assert.assertEquals(scorer.getBestOffset(c, r), expected[0], "offset of consensus " + c + " read " + r);
+                    }
+                }
+            }
+        } finally {
+            scorer.close();
+        }
+    }
+
+    @Test
+    public void testEmptyInterval() {
+        final ConsensusScorer scorer = new ConsensusScorer(4);
+        try {
+            scorer.addConsensus(new byte[]{'A', 'C', 'G', 'T'});
+            scorer.score();
+            Assert.assertEquals(scorer.getNumReads(), 0);
+        } finally {
+            scorer.close();
+        }
+    }
+
+    private static byte[] randomBases(final Random random, final int length) {
+        final byte[] bases = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            bases[i] = BASES[random.nextInt(BASES.length)];
+        return bases;
+    }
+
+    // straightforward exhaustive search, preferring the original alignment and then the leftmost offset on ties
+    private static int[] bestOffset(final byte[] ref, final byte[] bases, final byte[] quals, final int originalAlignment) {
+        int bestIndex = originalAlignment;
+        int bestScore = score(ref, bases, quals, originalAlignment);
+        for ( int i = 0; i <= ref.length - bases.length; i++ ) {
+            if ( bestScore == 0 )
+                break;
+            final int score = score(ref, bases, quals, i);
+            if ( score < bestScore ) {
+                bestScore = score;
+                bestIndex = i;
+            }
+        }
+        return new int[]{bestIndex, bestScore};
+    }
+
+    private static int score(final byte[] ref, final byte[] bases, final byte[] quals, final int offset) {
+        int sum = 0;
+        for ( int i = 0; i < bases.length; i++ ) {
+            if ( offset + i >= ref.length )
+                sum += 99;
+            else if ( bases[i] != ref[offset + i] )
+                sum += quals[i];
+        }
+        return sum;
+    }
+}
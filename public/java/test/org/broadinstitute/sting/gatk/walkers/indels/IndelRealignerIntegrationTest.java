@@ -66,6 +66,21 @@ public class IndelRealignerIntegrationTest extends WalkerTest {
         }
     }
 
+    @Test
+    public void testConsensusScoringThreads() {
+        HashMap<String, String> e = new HashMap<String, String>();
+        e.put( "-cst 4", base_md5 );
+        e.put( "-cst 4 --consensusDeterminationModel USE_SW -known " + knownIndels, base_md5_with_SW_or_VCF );
+
+        for ( Map.Entry<String, String> entry : e.entrySet() ) {
+            WalkerTest.WalkerTestSpec spec = new WalkerTest.WalkerTestSpec(
+                    baseCommand + entry.getKey(),
+                    1,
+                    Arrays.asList(entry.getValue()));
+            executeTest(String.format("realigner [%s]", entry.getKey()), spec);
+        }
+    }
+
     @Test
     public void testLongRun() {
         WalkerTestSpec spec = new WalkerTestSpec(
@@ -0,0 +1,134 @@
+package org.broadinstitute.sting.gatk.walkers.indels;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.walkers.genotyper.ArtificialReadPileupTestProvider;
+import org.broadinstitute.sting.gatk.walkers.genotyper.IndelGenotypeLikelihoodsCalculationModel;
+import org.broadinstitute.sting.utils.Haplotype;
+import org.broadinstitute.sting.utils.genotyper.PerReadAlleleLikelihoodMap;
+import org.broadinstitute.sting.utils.pairhmm.PairHMM;
+import org.broadinstitute.sting.utils.pileup.PileupElement;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileup;
+import org.broadinstitute.sting.utils.pileup.ReadBackedPileupImpl;
+import org.broadinstitute.sting.utils.variantcontext.Allele;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Checks that the read x haplotype likelihood cache in PairHMMIndelErrorModel gives exactly the likelihoods
+ * of the uncached computation, whether the model is used by one thread or shared by several.
+ */
+public class PairHMMIndelErrorModelUnitTest extends BaseTest {
+    private static final byte GOP = 45;
+    private static final byte GCP = 10;
+    private static final int NUM_THREADS = 4;
+
+    private ArtificialReadPileupTestProvider pileupProvider;
+
+    @BeforeClass
+    public void before() {
+        pileupProvider = new ArtificialReadPileupTestProvider(1, "sample");
+    }
+
+    @DataProvider(name = "IndelData")
+    public Object[][] makeIndelData() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final PairHMM.HMM_IMPLEMENTATION hmmType : Arrays.asList(PairHMM.HMM_IMPLEMENTATION.ORIGINAL, PairHMM.HMM_IMPLEMENTATION.EXACT) ) {
+            tests.add(new Object[]{hmmType, 4, "CCTC"});   // insertion
+            tests.add(new Object[]{hmmType, -3, ""});      // deletion
+            tests.add(new Object[]{hmmType, 0, "T"});      // reads of the same length that differ only in their bases
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "IndelData")
+    public void testCachedLikelihoodsMatchUncached(final PairHMM.HMM_IMPLEMENTATION hmmType, final int eventLength, final String altBases) {
+        final ReadBackedPileup pileup = makePileup(eventLength, altBases);
+        final LinkedHashMap<Allele, Haplotype> haplotypeMap = makeHaplotypeMap(eventLength, altBases);
+        final double[][] expected = computeUncached(hmmType, pileup, haplotypeMap, eventLength);
+
+        // the pileup has many reads with identical content, so the first pass already hits the cache for most
+        // of them; the second pass is served entirely from it
+        final PairHMMIndelErrorModel model = new PairHMMIndelErrorModel(GOP, GCP, false, hmmType);
+        assertLikelihoodsEqual(compute(model, pileup, haplotypeMap, eventLength), expected);
+        assertLikelihoodsEqual(compute(model, pileup, haplotypeMap, eventLength), expected);
+    }
+
+    @Test(dataProvider = "IndelData")
+    public void testConcurrentLikelihoodsMatchUncached(final PairHMM.HMM_IMPLEMENTATION hmmType, final int eventLength, final String altBases) throws Exception {
+        final ReadBackedPileup pileup = makePileup(eventLength, altBases);
+        final LinkedHashMap<Allele, Haplotype> haplotypeMap = makeHaplotypeMap(eventLength, altBases);
+        final double[][] expected = computeUncached(hmmType, pileup, haplotypeMap, eventLength);
+
+        final PairHMMIndelErrorModel model = new PairHMMIndelErrorModel(GOP, GCP, false, hmmType);
+        final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            final List<Future<double[][]>> results = new ArrayList<Future<double[][]>>();
+            for ( int i = 0; i < 4 * NUM_THREADS; i++ ) {
+                results.add(executor.submit(new Callable<double[][]>() {
+                    @Override
+                    public double[][] call() {
+                        return compute(model, pileup, haplotypeMap, eventLength);
+                    }
+                }));
+            }
+
+            for ( final Future<double[][]> result : results )
+                assertLikelihoodsEqual(result.get(), expected);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ReadBackedPileup makePileup(final int eventLength, final String altBases) {
+        return pileupProvider.getAlignmentContextFromAlleles(eventLength, altBases, new int[]{10, 10}).values().iterator().next().getBasePileup();
+    }
+
+    private LinkedHashMap<Allele, Haplotype> makeHaplotypeMap(final int eventLength, final String altBases) {
+        final String refChar = new String(new byte[]{pileupProvider.getRefByte()});
+        final List<Allele> alleles;
+        if ( eventLength == 0 )
+            alleles = Arrays.asList(Allele.create(refChar, true), Allele.create(altBases, false));
+        else if ( eventLength > 0 )
+            alleles = Arrays.asList(Allele.create(refChar, true), Allele.create(refChar + altBases, false));
+        else
+            alleles = Arrays.asList(Allele.create(new String(pileupProvider.getReferenceContext().getForwardBases()).substring(0, -eventLength + 1), true),
+                    Allele.create(refChar, false));
+
+        final LinkedHashMap<Allele, Haplotype> haplotypeMap = new LinkedHashMap<Allele, Haplotype>();
+        IndelGenotypeLikelihoodsCalculationModel.getHaplotypeMapFromAlleles(alleles, pileupProvider.getReferenceContext(), pileupProvider.loc, haplotypeMap);
+        Assert.assertEquals(haplotypeMap.size(), 2);
+        return haplotypeMap;
+    }
+
+    private double[][] compute(final PairHMMIndelErrorModel model, final ReadBackedPileup pileup,
+                               final LinkedHashMap<Allele, Haplotype> haplotypeMap, final int eventLength) {
+        return model.computeGeneralReadHaplotypeLikelihoods(pileup, haplotypeMap, pileupProvider.getReferenceContext(), eventLength,
+                PerReadAlleleLikelihoodMap.getBestAvailablePerReadAlleleLikelihoodMap(), new int[pileup.getNumberOfElements()]);
+    }
+
+    /**
+     * Scores every read on its own with a fresh model, so that no likelihood comes from the cache
+     */
+    private double[][] computeUncached(final PairHMM.HMM_IMPLEMENTATION hmmType, final ReadBackedPileup pileup,
+                                       final LinkedHashMap<Allele, Haplotype> haplotypeMap, final int eventLength) {
+        final double[][] likelihoods = new double[pileup.getNumberOfElements()][];
+        int readIdx = 0;
+        for ( final PileupElement p : pileup ) {
+            final ReadBackedPileup single = new ReadBackedPileupImpl(pileup.getLocation(), Collections.singletonList(p));
+            final PairHMMIndelErrorModel model = new PairHMMIndelErrorModel(GOP, GCP, false, hmmType);
+            likelihoods[readIdx++] = compute(model, single, haplotypeMap, eventLength)[0];
+        }
+        return likelihoods;
+    }
+
+    private static void assertLikelihoodsEqual(final double[][] actual, final double[][] expected) {
+        Assert.assertEquals(actual.length, expected.length);
+        for ( int i = 0; i < expected.length; i++ )
+            Assert.assertTrue(Arrays.equals(actual[i], expected[i]), "Likelihoods differ for read " + i + ": " + Arrays.toString(actual[i]) + " vs " + Arrays.toString(expected[i]));
+    }
+}
@@ -12,6 +12,8 @@ public class PhaseByTransmissionIntegrationTest extends WalkerTest {
     private static String TPTest = phaseByTransmissionTestDataRoot + "PhaseByTransmission.IntegrationTest.TP.vcf";
     private static String FPTest = phaseByTransmissionTestDataRoot + "PhaseByTransmission.IntegrationTest.FP.vcf";
     private static String SpecialTest = phaseByTransmissionTestDataRoot + "PhaseByTransmission.IntegrationTest.Special.vcf";
+    private static String multiFamilyFile = publicTestDir + "exampleMultiFamily.ped";
+    private static String multiFamilyTest = publicTestDir + "exampleMultiFamily.vcf";
 
     //Tests using PbT on all genotypes with default parameters
     //And all reporting options
@@ -91,6 +93,47 @@ public class PhaseByTransmissionIntegrationTest extends WalkerTest {
         executeTest("testSpecialCases", spec);
     }
 
+    //Test phasing several families at each site
+    @Test
+    public void testMultipleFamilies() {
+        WalkerTestSpec spec = new WalkerTestSpec(
+                buildCommandLine(
+                        "-T PhaseByTransmission",
+                        "--no_cmdline_in_header",
+                        "-R " + publicTestDir + "exampleFASTA.fasta",
+                        "--variant " + multiFamilyTest,
+                        "-ped "+ multiFamilyFile,
+                        "-L chr1:1-100000",
+                        "-mvf %s",
+                        "-o %s"
+                ),
+                2,
+                Arrays.asList("58eb8d2aa661bda90fe8eb14dd3f79f0","c709b4d88cf264e0be5d57c7a76112c3")
+        );
+        executeTest("testMultipleFamilies", spec);
+    }
+
+    //Test phasing the families at each site concurrently; the output must be the same as when they're phased serially
+    @Test
+    public void testTrioThreads() {
+        WalkerTestSpec spec = new WalkerTestSpec(
+                buildCommandLine(
+                        "-T PhaseByTransmission",
+                        "--no_cmdline_in_header",
+                        "-R " + publicTestDir + "exampleFASTA.fasta",
+                        "--variant " + multiFamilyTest,
+                        "-ped "+ multiFamilyFile,
+                        "-L chr1:1-100000",
+                        "-trioThreads 2",
+                        "-mvf %s",
+                        "-o %s"
+                ),
+                2,
+                Arrays.asList("58eb8d2aa661bda90fe8eb14dd3f79f0","c709b4d88cf264e0be5d57c7a76112c3")
+        );
+        executeTest("testTrioThreads", spec);
+    }
+
     //Test using a different prior
     //Here the FP file is used but as the prior is lowered, 3 turn to TP
     @Test
@@ -100,4 +100,24 @@ public class ReadBackedPhasingIntegrationTest extends WalkerTest {
         executeTest("Use trio-phased VCF, and respect its phasing [TEST EIGHT]", spec);
     }
 
+    @Test
+    public void test9() {
+        WalkerTestSpec spec = new WalkerTestSpec(
+                baseTestString(hg18Reference, "phasing_test_chr20_332341_1332503.bam", "CEU.trio.2010_03.genotypes.hg18.vcf", 20000, 10, 10)
+                        + " -L chr20:332341-802503" + " -phasingThreads 2",
+                1,
+                Arrays.asList("44eb225ab3167651ec0a9e1fdcc83d34"));
+        executeTest("Use trio-phased VCF, but ignore its phasing; phase samples on 2 threads [TEST NINE]", spec);
+    }
+
+    @Test
+    public void test10() {
+        WalkerTestSpec spec = new WalkerTestSpec(
+                baseTestString(hg18Reference, "phasing_test_chr20_332341_1332503.bam", "phasing_test_chr20_332341_1332503.vcf", 20000, 10, 10)
+                        + " -L chr20:652810-681757" + " -phasingThreads 2",
+                1,
+                Arrays.asList("4c8f6190ecc86766baba3aba08542991"));
+        executeTest("MAX 10 het sites [TEST TEN]; require PQ >= 10; cacheWindow = 20000; has inconsistent sites; 2 phasing threads", spec);
+    }
+
 }
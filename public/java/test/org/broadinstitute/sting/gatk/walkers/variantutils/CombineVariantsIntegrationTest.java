@@ -25,6 +25,7 @@
 package org.broadinstitute.sting.gatk.walkers.variantutils;
 
 import org.broadinstitute.sting.WalkerTest;
+import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.testng.annotations.Test;
 
 import java.io.File;
@@ -115,6 +116,19 @@ public class CombineVariantsIntegrationTest extends WalkerTest {
     @Test public void combineTrioCallsMin() { combine2("CEU.trio.2010_03.genotypes.vcf.gz", "YRI.trio.2010_03.genotypes.vcf.gz", " -minimalVCF", "848d4408ee953053d2307cefebc6bd6d"); } // official project VCF files in tabix format
     @Test public void combine2Indels() { combine2("CEU.dindel.vcf4.trio.2010_06.indel.genotypes.vcf", "CEU.dindel.vcf4.low_coverage.2010_06.indel.genotypes.vcf", "", "629656bfef7713c23f3a593523503b2f"); }
 
+    // the streaming merge runs in a single thread, so these can't go through the -nt runs of executeTestParallel
+    @Test public void combineTrioCallsStreaming() { combine2("CEU.trio.2010_03.genotypes.vcf.gz", "YRI.trio.2010_03.genotypes.vcf.gz", " -streamingMerge", "4efdf983918db822e4ac13d911509576", false); }
+    @Test public void combine2IndelsStreaming() { combine2("CEU.dindel.vcf4.trio.2010_06.indel.genotypes.vcf", "CEU.dindel.vcf4.low_coverage.2010_06.indel.genotypes.vcf", " -streamingMerge", "629656bfef7713c23f3a593523503b2f", false); }
+
+    @Test
+    public void testStreamingMergeRejectsMultipleThreads() {
+        WalkerTestSpec spec = new WalkerTestSpec(
+                baseTestString(" -priority v1,v2 -V:v1 " + validationDataLocation + "CEU.trio.2010_03.genotypes.vcf.gz -V:v2 " + validationDataLocation + "YRI.trio.2010_03.genotypes.vcf.gz -streamingMerge -nt 2"),
+                1,
+                UserException.BadArgumentValue.class);
+        cvExecuteTest("testStreamingMergeRejectsMultipleThreads", spec, false);
+    }
+
     @Test public void combineSNPsAndIndels() { combine2("CEU.trio.2010_03.genotypes.vcf.gz", "CEU.dindel.vcf4.low_coverage.2010_06.indel.genotypes.vcf", "", "e54d0dcf14f90d5c8e58b45191dd0219"); }
 
     @Test public void uniqueSNPs() {
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the fast number formatting of VariantsToTable matches String.format
+ */
+public class TableOutputBufferUnitTest extends BaseTest {
+    @DataProvider(name = "Doubles")
+    public Object[][] makeDoubles() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final double d : Arrays.asList(0.0, -0.0, 1.0, -1.0, 0.5, 0.0004, -0.0004, 0.005, 0.125, 1.005, 2.675,
+                                            9.995, 99.999, 123456.789, -3.14159, 1e14, 1e16, 1e-30,
+                                            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY) )
+            tests.add(new Object[]{d});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "Doubles")
+    public void testAppendFixed(final double d) {
+        for ( int nDecimals = 1; nDecimals <= 3; nDecimals++ ) {
+            final TableOutputBuffer buffer = new TableOutputBuffer(0);
+            buffer.appendFixed(d, nDecimals);
+            Assert.assertEquals(new String(buffer.toByteArray()), String.format("%." + nDecimals + "f", d), "nDecimals " + nDecimals);
+        }
+    }
+
+    @Test(dataProvider = "Doubles")
+    public void testAppendQual(final double d) {
+        final TableOutputBuffer buffer = new TableOutputBuffer(0);
+        buffer.appendQual(d);
+        final String expected = String.format("%.2f", d);
+        Assert.assertEquals(new String(buffer.toByteArray()), expected.endsWith(".00") ? expected.substring(0, expected.length() - 3) : expected);
+    }
+
+    @Test
+    public void testAppendLong() {
+        for ( final long l : Arrays.asList(0L, 7L, -7L, 10L, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE) ) {
+            final TableOutputBuffer buffer = new TableOutputBuffer(0);
+            buffer.appendLong(l);
+            Assert.assertEquals(new String(buffer.toByteArray()), Long.toString(l));
+        }
+    }
+
+    @Test
+    public void testAppendValue() {
+        final TableOutputBuffer buffer = new TableOutputBuffer(0);
+        buffer.appendValue(Arrays.asList(1, "A", 0.5));
+        buffer.append((byte)'\t');
+        buffer.appendValue(new int[]{10, 20});
+        buffer.append((byte)'\t');
+        buffer.appendValue("s\u00e9q");
+        Assert.assertEquals(new String(buffer.toByteArray(), Charset.forName("UTF-8")), "1,A,0.500\t10,20\ts\u00e9q");
+    }
+
+    @Test
+    public void testBinary() {
+        final TableOutputBuffer buffer = new TableOutputBuffer(0);
+        buffer.appendIntLE(0x01020304);
+        buffer.appendDoubleLE(1.0);
+        Assert.assertEquals(buffer.toByteArray(), new byte[]{4, 3, 2, 1, 0, 0, 0, 0, 0, 0, (byte)0xF0, 0x3F});
+    }
+}
@@ -28,6 +28,7 @@ import org.broadinstitute.sting.WalkerTest;
 import org.broadinstitute.sting.utils.exceptions.UserException;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.*;
 
 public class VariantsToTableIntegrationTest extends WalkerTest {
@@ -154,4 +155,40 @@ public class VariantsToTableIntegrationTest extends WalkerTest {
                 Arrays.asList("c131e2c3cfb673c456cb160bda476101"));
         executeTest("testMoltenOutputWithMultipleAlleles", spec);
     }
+
+    private String variantsToTableFastCmd(String moreArgs) {
+        return "-R " + exampleFASTA +
+                " --variant " + publicTestDir + "exampleMultiFamily.vcf" +
+                " -T VariantsToTable" +
+                " -F CHROM -F POS -F ID -F REF -F ALT -F QUAL -F FILTER -F TRANSITION -F HET -F NCALLED" +
+                " -GF GT -GF GQ -GF PL" +
+                " -o %s" + moreArgs;
+    }
+
+    @Test(enabled = true)
+    public void testFastExtraction() {
+        WalkerTestSpec spec = new WalkerTestSpec(variantsToTableFastCmd(" -fast"),
+                Arrays.asList("0ee8419ef0c80a21cd645ae28f28f1c7"));
+        executeTest("testFastExtraction", spec);
+    }
+
+    @Test(enabled = true)
+    public void testFastExtractionMultipleThreads() {
+        // the records are formatted on several threads but must be written in the same order
+        WalkerTestSpec spec = new WalkerTestSpec(variantsToTableFastCmd(" -fast -nct 2"),
+                Arrays.asList("0ee8419ef0c80a21cd645ae28f28f1c7"));
+        executeTest("testFastExtractionMultipleThreads", spec);
+    }
+
+    @Test(enabled = true)
+    public void testBinaryColumns() {
+        final File prefix = createTempFile("variantsToTableBinaryColumns", "");
+        WalkerTestSpec spec = new WalkerTestSpec(variantsToTableFastCmd(" -binaryColumns " + prefix.getAbsolutePath()),
+                Arrays.asList("0ee8419ef0c80a21cd645ae28f28f1c7"));
+        spec.addAuxFile("349e3403f7a7f4ccaf3fd86fb50c7776", createTempFileFromBase(prefix.getAbsolutePath() + ".POS.bin"));
+        spec.addAuxFile("749703bcae01a5f991f88085a937dc7c", createTempFileFromBase(prefix.getAbsolutePath() + ".QUAL.bin"));
+        spec.addAuxFile("298212c56c6fcdb8f19e27191e8d91c4", createTempFileFromBase(prefix.getAbsolutePath() + ".FAM1_KID.GT.bin"));
+        spec.addAuxFile("61c009a6d80ef8183d987329ecac6ee0", createTempFileFromBase(prefix.getAbsolutePath() + ".FAM1_KID.GQ.bin"));
+        executeTest("testBinaryColumns", spec);
+    }
 }
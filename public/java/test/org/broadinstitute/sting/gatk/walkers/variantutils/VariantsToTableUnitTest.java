@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.gatk.walkers.variantutils;
+
+import org.broadinstitute.sting.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class VariantsToTableUnitTest extends BaseTest {
+    @Test
+    public void testBinaryColumnFileNames() {
+        final List<String> names = Arrays.asList("CHROM", "POS", "NA12878.GT", "pop/NA12878.GT", "pop_NA12878.GT", "a b:c*.DP", "pop_NA12878.GT_4");
+        final List<String> expected = Arrays.asList("CHROM", "POS", "NA12878.GT", "pop_NA12878.GT", "pop_NA12878.GT_4", "a_b_c_.DP", "pop_NA12878.GT_4_6");
+
+        final Set<String> fileNames = new HashSet<String>();
+        for ( int i = 0; i < names.size(); i++ )
+            Assert.assertEquals(VariantsToTable.getBinaryColumnFileName(names.get(i), i, fileNames), expected.get(i));
+        Assert.assertEquals(fileNames.size(), names.size());
+    }
+}
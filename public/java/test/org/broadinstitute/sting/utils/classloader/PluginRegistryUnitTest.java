@@ -0,0 +1,85 @@
+package org.broadinstitute.sting.utils.classloader;
+
+import org.broadinstitute.sting.BaseTest;
+import org.reflections.Reflections;
+import org.reflections.scanners.Scanner;
+import org.reflections.scanners.SubTypesScanner;
+import org.reflections.util.ConfigurationBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+public class PluginRegistryUnitTest extends BaseTest {
+    @Test
+    public void testSubTypesAreTransitive() {
+        PluginRegistry registry = new PluginRegistry();
+        registry.addSubType("A", "B");
+        registry.addSubType("A", "C");
+        registry.addSubType("B", "D");
+        registry.addSubType("D", "E");
+        registry.addSubType("X", "Y");
+
+        Assert.assertEquals(registry.getSubTypeNamesOf("A"), new HashSet<String>(Arrays.asList("B", "C", "D", "E")));
+        Assert.assertEquals(registry.getSubTypeNamesOf("D"), Collections.singleton("E"));
+        Assert.assertTrue(registry.getSubTypeNamesOf("E").isEmpty());
+    }
+
+    @Test
+    public void testJarsAreCoveredByTheirClasses() throws Exception {
+        File jar = createTempFile("GenomeAnalysisTK", ".jar");
+        writeJar(jar, false, "first build");
+        PluginRegistry registry = new PluginRegistry();
+        registry.addCoveredJar(jar.toURI().toURL());
+        Assert.assertTrue(registry.isCovered(jar.toURI().toURL()));
+
+        // A copy elsewhere with its manifest updated still has the same classes.
+        File copy = createTempFile("GenomeAnalysisTK", ".jar");
+        writeJar(copy, true, "first build");
+        Assert.assertTrue(registry.isCovered(copy.toURI().toURL()));
+
+        // A jar rebuilt in place with different classes has to be scanned again.
+        writeJar(jar, false, "second build");
+        Assert.assertFalse(registry.isCovered(jar.toURI().toURL()));
+
+        Assert.assertFalse(registry.isCovered(new URL("file:/opt/gatk/MyWalkers.jar")));
+        Assert.assertFalse(registry.isCovered(new URL("file:/opt/gatk/classes/")));
+    }
+
+    @Test
+    public void testWrittenRegistryMatchesReflections() throws Exception {
+        URL jar = JVMUtils.getLocationFor(Reflections.class).toURI().toURL();
+
+        PluginRegistry scanned = new PluginRegistry();
+        scanned.scan(Collections.singletonList(jar));
+
+        File registryFile = createTempFile("plugins", ".bin");
+        scanned.write(registryFile);
+        PluginRegistry registry = new PluginRegistry();
+        registry.read(registryFile.toURI().toURL());
+
+        Assert.assertTrue(registry.isCovered(jar));
+
+        Reflections reflections = new Reflections(new ConfigurationBuilder()
+                .setUrls(Collections.singletonList(jar))
+                .setScanners(new SubTypesScanner()));
+        Set<Class<? extends Scanner>> expected = reflections.getSubTypesOf(Scanner.class);
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(registry.getSubTypesOf(Scanner.class), expected);
+    }
+
+    private static void writeJar(File jar, boolean withManifest, String classContents) throws IOException {
+        JarOutputStream out = withManifest ? new JarOutputStream(new FileOutputStream(jar), new Manifest()) : new JarOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new ZipEntry("org/example/MyWalker.class"));
+        out.write(classContents.getBytes());
+        out.closeEntry();
+        out.close();
+    }
+}
@@ -30,11 +30,13 @@ import net.sf.samtools.CigarElement;
 import net.sf.samtools.CigarOperator;
 import org.broadinstitute.sting.BaseTest;
 import org.broadinstitute.sting.utils.Utils;
+import org.broadinstitute.sting.utils.recalibration.EventType;
 import org.broadinstitute.sting.utils.sam.GATKSAMRecord;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -85,6 +87,70 @@ public class ReadClipperUnitTest extends BaseTest {
         }
     }
 
+    @Test(enabled = true)
+    public void testHardClipTwiceKeepsBasesAndQualities() {
+        GATKSAMRecord read = ReadClipperTestUtils.makeReadFromCigar("20M");
+        final byte[] bases = read.getReadBases();
+        final byte[] quals = read.getBaseQualities();
+        for (int i = 0; i < 8; i++) {
+            GATKSAMRecord clipLeft = ReadClipper.hardClipByReadCoordinates(read, 0, i);
+            GATKSAMRecord clipBoth = ReadClipper.hardClipByReadCoordinates(clipLeft, clipLeft.getReadLength() - 1 - i, clipLeft.getReadLength() - 1);
+            Assert.assertEquals(clipBoth.getReadLength(), 20 - 2 * (i + 1));
+            Assert.assertEquals(clipBoth.getReadBases(), Arrays.copyOfRange(bases, i + 1, 20 - i - 1));
+            Assert.assertEquals(clipBoth.getBaseQualities(), Arrays.copyOfRange(quals, i + 1, 20 - i - 1));
+            Assert.assertEquals(clipLeft.getReadBases(), Arrays.copyOfRange(bases, i + 1, 20));
+            Assert.assertEquals(read.getReadBases(), bases);
+        }
+    }
+
+    @Test(enabled = true)
+    public void testHardClipIndelQualities() {
+        GATKSAMRecord read = ReadClipperTestUtils.makeReadFromCigar("20M");
+        final byte[] insertionQuals = new byte[20];
+        final byte[] deletionQuals = new byte[20];
+        for (int i = 0; i < 20; i++) {
+            insertionQuals[i] = (byte) (10 + i);
+            deletionQuals[i] = (byte) (40 - i);
+        }
+        read.setBaseQualities(insertionQuals, EventType.BASE_INSERTION);
+        read.setBaseQualities(deletionQuals, EventType.BASE_DELETION);
+        final String insertionString = read.getStringAttribute(GATKSAMRecord.BQSR_BASE_INSERTION_QUALITIES);
+        final String deletionString = read.getStringAttribute(GATKSAMRecord.BQSR_BASE_DELETION_QUALITIES);
+
+        for (int i = 0; i < 8; i++) {
+            GATKSAMRecord clipLeft = ReadClipper.hardClipByReadCoordinates(read, 0, i);
+            GATKSAMRecord clipBoth = ReadClipper.hardClipByReadCoordinates(clipLeft, clipLeft.getReadLength() - 1 - i, clipLeft.getReadLength() - 1);
+
+            // both tags are clipped as substrings of the original fastq strings
+            Assert.assertEquals(clipLeft.getStringAttribute(GATKSAMRecord.BQSR_BASE_INSERTION_QUALITIES), insertionString.substring(i + 1));
+            Assert.assertEquals(clipLeft.getStringAttribute(GATKSAMRecord.BQSR_BASE_DELETION_QUALITIES), deletionString.substring(i + 1));
+            Assert.assertEquals(clipBoth.getStringAttribute(GATKSAMRecord.BQSR_BASE_INSERTION_QUALITIES), insertionString.substring(i + 1, 20 - i - 1));
+            Assert.assertEquals(clipBoth.getStringAttribute(GATKSAMRecord.BQSR_BASE_DELETION_QUALITIES), deletionString.substring(i + 1, 20 - i - 1));
+
+            Assert.assertEquals(clipBoth.getBaseInsertionQualities(), Arrays.copyOfRange(insertionQuals, i + 1, 20 - i - 1));
+            Assert.assertEquals(clipBoth.getBaseDeletionQualities(), Arrays.copyOfRange(deletionQuals, i + 1, 20 - i - 1));
+        }
+    }
+
+    @Test(enabled = true)
+    public void testHardClipMissingIndelQualitiesDefaultToQ45() {
+        for (final EventType present : Arrays.asList(EventType.BASE_INSERTION, EventType.BASE_DELETION)) {
+            GATKSAMRecord read = ReadClipperTestUtils.makeReadFromCigar("20M");
+            final byte[] quals = new byte[20];
+            for (int i = 0; i < 20; i++)
+                quals[i] = (byte) (10 + i);
+            read.setBaseQualities(quals, present);
+
+            GATKSAMRecord clipped = ReadClipper.hardClipByReadCoordinates(read, 0, 4);
+            final byte[] defaultQuals = new byte[15];
+            Arrays.fill(defaultQuals, (byte) 45);
+
+            Assert.assertEquals(clipped.getBaseQualities(present), Arrays.copyOfRange(quals, 5, 20));
+            final EventType missing = present == EventType.BASE_INSERTION ? EventType.BASE_DELETION : EventType.BASE_INSERTION;
+            Assert.assertEquals(clipped.getBaseQualities(missing), defaultQuals);
+        }
+    }
+
     @Test(enabled = true)
     public void testHardClipByReferenceCoordinates() {
         for (Cigar cigar : cigarList) {
@@ -0,0 +1,106 @@
+package org.broadinstitute.sting.utils.metrics;
+
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.gatk.report.GATKReportTable;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class HotPathMetricsUnitTest extends BaseTest {
+    @Test
+    public void testDisabledMetricsRecordNothing() {
+        final HotPathMetrics metrics = HotPathMetrics.DISABLED;
+        Assert.assertFalse(metrics.isEnabled());
+
+        final HotPathTimer timer = metrics.getTimer("walker", "map");
+        timer.stop(timer.start());
+        timer.record(100);
+        Assert.assertEquals(timer.getCount(), 0);
+        Assert.assertEquals(timer.getTotalNanos(), 0);
+        Assert.assertEquals(timer.start(), 0, "disabled timers shouldn't read the clock");
+
+        final HotPathCounter counter = metrics.getCounter("rod", "records");
+        counter.increment();
+        counter.add(10);
+        Assert.assertEquals(counter.getCount(), 0);
+
+        Assert.assertEquals(metrics.toReport().getTable(HotPathMetrics.REPORT_TABLE_NAME).getNumRows(), 0);
+    }
+
+    @Test
+    public void testMetricsAreSharedByGroupAndName() {
+        final HotPathMetrics metrics = new HotPathMetrics(true);
+        try {
+            Assert.assertSame(metrics.getTimer("walker", "map"), metrics.getTimer("walker", "map"));
+            Assert.assertNotSame(metrics.getTimer("walker", "map"), metrics.getTimer("walker", "reduce"));
+            Assert.assertSame(metrics.getCounter("rod", "records"), metrics.getCounter("rod", "records"));
+
+            metrics.getCounter("rod", "records").increment();
+            metrics.getCounter("rod", "records").add(4);
+            Assert.assertEquals(metrics.getCounter("rod", "records").getCount(), 5);
+        } finally {
+            metrics.unregisterMBeans();
+        }
+    }
+
+    @Test
+    public void testTimerStatistics() {
+        final HotPathMetrics metrics = new HotPathMetrics(true);
+        try {
+            final HotPathTimer timer = metrics.getTimer("reference", "fetch");
+            for ( int i = 1; i <= 100; i++ )
+                timer.record(TimeUnit.MICROSECONDS.toNanos(i));
+
+            Assert.assertEquals(timer.getCount(), 100);
+            Assert.assertEquals(timer.getTotalNanos(), TimeUnit.MICROSECONDS.toNanos(5050));
+            Assert.assertEquals(timer.getMeanMicros(), 50.5, 1e-6);
+            Assert.assertEquals(timer.getMaxMicros(), 100.0, 1e-6);
+
+            // percentiles are accurate to within a factor of two, and never more than the max
+            Assert.assertTrue(timer.getMedianMicros() >= 50.0 && timer.getMedianMicros() <= 100.0, "median " + timer.getMedianMicros());
+            Assert.assertTrue(timer.get99thPercentileMicros() >= 99.0 && timer.get99thPercentileMicros() <= 100.0, "p99 " + timer.get99thPercentileMicros());
+        } finally {
+            metrics.unregisterMBeans();
+        }
+    }
+
+    @DataProvider(name = "Bins")
+    public Object[][] makeBinsData() {
+        return new Object[][]{
+                {0L, 0},
+                {1L, 1},
+                {2L, 2},
+                {3L, 2},
+                {4L, 3},
+                {1023L, 10},
+                {1024L, 11},
+                {Long.MAX_VALUE, 63}
+        };
+    }
+
+    @Test(dataProvider = "Bins")
+    public void testBinFor(final long nanos, final int expectedBin) {
+        Assert.assertEquals(HotPathTimer.binFor(nanos), expectedBin);
+    }
+
+    @Test
+    public void testReport() {
+        final HotPathMetrics metrics = new HotPathMetrics(true);
+        try {
+            metrics.getTimer("walker", "reduce").record(1000);
+            metrics.getTimer("walker", "map").record(2000);
+            metrics.getCounter("rod", "records").increment();
+
+            final GATKReportTable table = metrics.toReport().getTable(HotPathMetrics.REPORT_TABLE_NAME);
+            Assert.assertEquals(table.getNumRows(), 3);
+            Assert.assertEquals(table.get(0, "name"), "map", "timers should be sorted by group and name");
+            Assert.assertEquals(table.get(1, "name"), "reduce", "timers should be sorted by group and name");
+            Assert.assertEquals(table.get(2, "type"), "counter");
+            Assert.assertEquals(table.get(0, "count"), 1L);
+        } finally {
+            metrics.unregisterMBeans();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.broadinstitute.sting.utils.progressmeter;
+
+import net.sf.samtools.SAMFileHeader;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.GenomeLoc;
+import org.broadinstitute.sting.utils.GenomeLocParser;
+import org.broadinstitute.sting.utils.GenomeLocSortedSet;
+import org.broadinstitute.sting.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProgressMeterUnitTest extends BaseTest {
+    private GenomeLocParser genomeLocParser;
+    private GenomeLocSortedSet intervals;
+
+    @BeforeClass
+    public void init() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(2, 1, 100000);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        intervals = GenomeLocSortedSet.createSetFromSequenceDictionary(header.getSequenceDictionary());
+    }
+
+    @Test
+    public void testConcurrentProgressIsCombined() throws Exception {
+        final ProgressMeter meter = new ProgressMeter(null, "sites", intervals);
+        Assert.assertNull(meter.getMaxGenomeLoc());
+
+        final int nThreads = 8;
+        final int nSteps = 10000;
+        final List<Thread> threads = new ArrayList<Thread>();
+        for ( int i = 0; i < nThreads; i++ ) {
+            final int thread = i;
+            threads.add(new Thread() {
+                public void run() {
+                    for ( int step = 1; step <= nSteps; step++ ) {
+                        // each thread walks its own part of the second contig
+                        final int position = thread * nSteps + step;
+                        meter.notifyOfProgress(genomeLocParser.createGenomeLoc("chr2", position, position), position);
+                    }
+                }
+            });
+        }
+        for ( final Thread thread : threads ) thread.start();
+        for ( final Thread thread : threads ) thread.join();
+
+        Assert.assertEquals(meter.getTotalRecordsProcessed(), nThreads * nSteps);
+        Assert.assertEquals(meter.getMaxGenomeLoc(), genomeLocParser.createGenomeLoc("chr2", nThreads * nSteps, nThreads * nSteps));
+
+        // progress behind what's already been seen is ignored
+        meter.notifyOfProgress(genomeLocParser.createGenomeLoc("chr1", 1, 1), 1);
+        Assert.assertEquals(meter.getTotalRecordsProcessed(), nThreads * nSteps);
+        Assert.assertEquals(meter.getMaxGenomeLoc(), genomeLocParser.createGenomeLoc("chr2", nThreads * nSteps, nThreads * nSteps));
+
+        // unmapped reads come after everything else
+        meter.notifyOfProgress(null, nThreads * nSteps + 1);
+        Assert.assertEquals(meter.getMaxGenomeLoc(), GenomeLoc.UNMAPPED);
+
+        meter.notifyDone(12345);
+        Assert.assertEquals(meter.getTotalRecordsProcessed(), 12345);
+    }
+
+    @Test
+    public void testPerformanceLogTimeline() throws Exception {
+        final File performanceLog = createTempFile("progress", ".txt");
+        final ProgressMeter meter = new ProgressMeter(performanceLog, "sites", intervals);
+        meter.notifyOfProgress(genomeLocParser.createGenomeLoc("chr1", 500, 500), 10);
+        meter.printProgress(true);
+        meter.notifyOfProgress(genomeLocParser.createGenomeLoc("chr2", 1000, 1000), 20);
+        meter.notifyDone(20);
+
+        final List<String[]> rows = new ArrayList<String[]>();
+        final BufferedReader reader = new BufferedReader(new FileReader(performanceLog));
+        for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            rows.add(line.split("\t"));
+        reader.close();
+
+        Assert.assertTrue(rows.size() >= 3, "Expected a header and at least two samples");
+        final String[] header = rows.get(0);
+        Assert.assertEquals(header[0], "elapsed.time");
+        Assert.assertEquals(header[8], "position");
+        for ( final String[] row : rows )
+            Assert.assertEquals(row.length, header.length);
+
+        Assert.assertEquals(rows.get(1)[1], "10");
+        Assert.assertEquals(rows.get(1)[8], "chr1:500");
+
+        // there's no thread efficiency monitor, so no thread states
+        final String[] last = rows.get(rows.size() - 1);
+        Assert.assertEquals(last[1], "20");
+        Assert.assertEquals(last[8], "done");
+        Assert.assertEquals(last[header.length - 1], "NA");
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.sam;
+
+import net.sf.samtools.*;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BAMConcatenatorUnitTest extends BaseTest {
+    private final static int READ_LENGTH = 50;
+
+    private final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(2, 1, 1000000);
+
+    /**
+     * Writes a BAM with nReads reads evenly spread over [start, start + span) of contig, in the given read group
+     */
+    private File writePart(final SAMFileHeader header, final String readGroup, final int contig, final int start, final int span, final int nReads) {
+        final File part = createTempFile("BAMConcatenatorUnitTest", ".bam");
+        final SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, true, part);
+        for ( int i = 0; i < nReads; i++ ) {
+            final SAMRecord read = ArtificialSAMUtils.createArtificialRead(header, readGroup + "." + contig + "." + i, contig, start + (int)((long)i * span / nReads), READ_LENGTH);
+            read.setAttribute("RG", readGroup);
+            writer.addAlignment(read);
+        }
+        writer.close();
+        return part;
+    }
+
+    private List<File> writeParts() {
+        final SAMFileHeader header1 = header.clone();
+        header1.addReadGroup(new SAMReadGroupRecord("rg1"));
+        final SAMFileHeader header2 = header.clone();
+        header2.addReadGroup(new SAMReadGroupRecord("rg2"));
+
+        return Arrays.asList(
+                writePart(header1, "rg1", 0, 1, 500000, 5000),
+                writePart(header1, "rg1", 0, 500001, 500000, 5000),
+                writePart(header1, "rg1", 1, 1, 500000, 0),
+                writePart(header2, "rg2", 1, 500001, 500000, 5000));
+    }
+
+    private static List<String> readAll(final File bam) {
+        final List<String> reads = new ArrayList<String>();
+        final SAMFileReader reader = new SAMFileReader(bam);
+        reader.setValidationStringency(SAMFileReader.ValidationStringency.STRICT);
+        for ( final SAMRecord read : reader )
+            reads.add(read.getSAMString());
+        reader.close();
+        return reads;
+    }
+
+    private static String md5(final File file) throws Exception {
+        final MessageDigest md5 = MessageDigest.getInstance("MD5");
+        final InputStream in = new FileInputStream(file);
+        final byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ( (n = in.read(buffer)) > 0 )
+            md5.update(buffer, 0, n);
+        in.close();
+        return String.format("%032x", new BigInteger(1, md5.digest()));
+    }
+
+    @Test
+    public void testConcatenate() throws Exception {
+        final List<File> parts = writeParts();
+        final File output = createTempFile("BAMConcatenatorUnitTest.output", ".bam");
+        final File index = new File(output.getPath().replaceAll("\\.bam$", ".bai"));
+        final File md5File = new File(output.getPath() + ".md5");
+        index.deleteOnExit();
+        md5File.deleteOnExit();
+
+        BAMConcatenator.concatenate(parts, output, 5, true, true);
+
+        final List<String> expected = new ArrayList<String>();
+        for ( final File part : parts )
+            expected.addAll(readAll(part));
+        Assert.assertEquals(readAll(output), expected);
+
+        final SAMFileReader reader = new SAMFileReader(output, index);
+        Assert.assertNotNull(reader.getFileHeader().getReadGroup("rg1"));
+        Assert.assertNotNull(reader.getFileHeader().getReadGroup("rg2"), "Read groups of the later parts should be added to the header");
+        int nReads = 0;
+        final SAMRecordIterator iterator = reader.queryOverlapping("chr2", 500001, 750000);
+        while ( iterator.hasNext() ) {
+            iterator.next();
+            nReads++;
+        }
+        iterator.close();
+        reader.close();
+        Assert.assertEquals(nReads, 2500);
+
+        final BufferedReader md5Reader = new BufferedReader(new FileReader(md5File));
+        Assert.assertEquals(md5Reader.readLine(), md5(output));
+        md5Reader.close();
+    }
+
+    @Test
+    public void testPartsOutOfOrder() {
+        final List<File> parts = writeParts();
+        final File output = createTempFile("BAMConcatenatorUnitTest.output", ".bam");
+        try {
+            BAMConcatenator.concatenate(Arrays.asList(parts.get(1), parts.get(0)), output, 5, true, false);
+            Assert.fail("Parts out of order should not be concatenated");
+        } catch ( UserException e ) {
+            Assert.assertFalse(output.exists(), "A failed concatenation should not leave its output behind");
+        }
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testDifferentDictionaries() {
+        final SAMFileHeader other = ArtificialSAMUtils.createArtificialSamHeader(2, 2, 1000000);
+        BAMConcatenator.concatenate(Arrays.asList(writePart(header, "rg1", 0, 1, 1000, 10), writePart(other, "rg1", 0, 1001, 1000, 10)),
+                createTempFile("BAMConcatenatorUnitTest.output", ".bam"), 5, false, false);
+    }
+}
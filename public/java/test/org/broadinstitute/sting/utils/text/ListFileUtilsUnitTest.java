@@ -167,5 +167,7 @@ public class ListFileUtilsUnitTest extends BaseTest {
                             "Unpacked BAM file list contains extraneous lines");
         Assert.assertEquals(unpackedBAMFileList, expectedUnpackedFileList,
                             "Unpacked BAM file list does not contain correct BAM file names");
+        Assert.assertEquals(ListFileUtils.unpackBAMFileList(bamFiles), expectedUnpackedFileList,
+                            "Unpacking without a parser does not give the same BAM file names");
     }
 }
@@ -641,6 +641,45 @@ public class VariantContextTestProvider {
         }
     }
 
+    public static void testReaderWriterWithSubsetOfSamples(final VariantContextIOTest tester, final VariantContextTestData data) throws IOException {
+        final int nSamples = data.header.getNGenotypeSamples();
+        if ( nSamples > 2 ) {
+            for ( final VariantContext vc : data.vcs )
+                if ( vc.isSymbolic() )
+                    // cannot handle symbolic alleles because they may be weird non-call VCFs
+                    return;
+
+            final File tmpFile = File.createTempFile("testReaderWriter", tester.getExtension());
+            tmpFile.deleteOnExit();
+
+            // write expected to disk
+            final EnumSet<Options> options = EnumSet.of(Options.INDEX_ON_THE_FLY);
+            final VariantContextWriter writer = tester.makeWriter(tmpFile, options);
+            writeVCsToFile(writer, data.header, data.vcs);
+
+            // keep the first and last samples, plus one that isn't in the file at all
+            final List<String> samplesInVCF = data.header.getGenotypeSamples();
+            final Set<String> subset = new HashSet<String>(Arrays.asList(samplesInVCF.get(0), samplesInVCF.get(nSamples - 1), "MISSING1"));
+
+            // subset the records as they come out of the codec, before anything has decoded their genotypes
+            final Pair<VCFHeader, Iterable<VariantContext>> p = readAllVCs(tmpFile, tester.makeCodec(), false);
+            final VCFHeader header = p.getFirst();
+
+            int i = 0;
+            for ( final VariantContext readVC : p.getSecond() ) {
+                if ( readVC == null ) continue; // sometimes we read null records...
+                final VariantContext expected = data.vcs.get(i++);
+                final VariantContext sub = readVC.subContextFromSamples(subset, false).fullyDecode(header, false);
+
+                final Set<String> expectedSamples = new HashSet<String>(subset);
+                expectedSamples.retainAll(expected.getSampleNames());
+                Assert.assertEquals(new HashSet<String>(sub.getSampleNames()), expectedSamples);
+                for ( final Genotype g : sub.getGenotypes() )
+                    assertEquals(g, expected.getGenotype(g.getSampleName()));
+            }
+        }
+    }
+
     public static void testReaderWriter(final VariantContextIOTest tester, final VariantContextTestData data) throws IOException {
         testReaderWriter(tester, data.header, data.vcs, data.vcs, true);
     }
@@ -688,6 +727,19 @@ public class VariantContextTestProvider {
      * @throws IOException
      */
     private final static Pair<VCFHeader, Iterable<VariantContext>> readAllVCs( final File source, final FeatureCodec<VariantContext> codec ) throws IOException {
+        return readAllVCs(source, codec, true);
+    }
+
+    /**
+     * Utility class to read all of the VC records from a file
+     *
+     * @param source
+     * @param codec
+     * @param fullyDecode if false, the records are returned as the codec made them, with their genotypes not yet decoded
+     * @return
+     * @throws IOException
+     */
+    private final static Pair<VCFHeader, Iterable<VariantContext>> readAllVCs( final File source, final FeatureCodec<VariantContext> codec, final boolean fullyDecode ) throws IOException {
         // read in the features
         PositionalBufferedStream pbs = new PositionalBufferedStream(new FileInputStream(source));
         FeatureCodecHeader header = codec.readHeader(pbs);
@@ -697,18 +749,20 @@ public class VariantContextTestProvider {
         pbs.skip(header.getHeaderEnd());
 
         final VCFHeader vcfHeader = (VCFHeader)header.getHeaderValue();
-        return new Pair<VCFHeader, Iterable<VariantContext>>(vcfHeader, new VCIterable(pbs, codec, vcfHeader));
+        return new Pair<VCFHeader, Iterable<VariantContext>>(vcfHeader, new VCIterable(pbs, codec, vcfHeader, fullyDecode));
     }
 
     private static class VCIterable implements Iterable<VariantContext>, Iterator<VariantContext> {
         final PositionalBufferedStream pbs;
         final FeatureCodec<VariantContext> codec;
         final VCFHeader header;
+        final boolean fullyDecode;
 
-        private VCIterable(final PositionalBufferedStream pbs, final FeatureCodec<VariantContext> codec, final VCFHeader header) {
+        private VCIterable(final PositionalBufferedStream pbs, final FeatureCodec<VariantContext> codec, final VCFHeader header, final boolean fullyDecode) {
             this.pbs = pbs;
             this.codec = codec;
             this.header = header;
+            this.fullyDecode = fullyDecode;
         }
 
         @Override
@@ -729,7 +783,7 @@ public class VariantContextTestProvider {
         public VariantContext next() {
             try {
                 final VariantContext vc = codec.decode(pbs);
-                return vc == null ? null : vc.fullyDecode(header, false);
+                return vc == null || ! fullyDecode ? vc : vc.fullyDecode(header, false);
             } catch ( IOException e ) {
                 throw new RuntimeException(e);
             }
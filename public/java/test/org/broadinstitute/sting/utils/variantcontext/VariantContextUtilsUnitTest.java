@@ -501,6 +501,35 @@ public class VariantContextUtilsUnitTest extends BaseTest {
         assertGenotypesAreMostlyEqual(merged.getGenotypes(), cfg.expected.getGenotypes());
     }
 
+    @Test(dataProvider = "mergeGenotypes")
+    public void testMergeGenotypesWithSampleRemapping(MergeGenotypesTest cfg) {
+        final VariantContext merged = VariantContextUtils.simpleMerge(genomeLocParser,
+                cfg.inputs, cfg.priority, cfg.priority.size(), VariantContextUtils.FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED,
+                VariantContextUtils.GenotypeMergeType.PRIORITIZE, true, false, "set", false, false, makeSampleRemapping(cfg.inputs, false));
+
+        // test alleles are equal
+        Assert.assertEquals(merged.getAlleles(), cfg.expected.getAlleles());
+
+        // test genotypes
+        assertGenotypesAreMostlyEqual(merged.getGenotypes(), cfg.expected.getGenotypes());
+    }
+
+    /**
+     * Builds the sample remapping the inputs would have from their headers: each source's samples in order of appearance
+     */
+    private SampleIndexRemapping makeSampleRemapping(final Collection<VariantContext> vcs, final boolean uniquify) {
+        final Map<String, List<String>> samplesBySource = new LinkedHashMap<String, List<String>>();
+        for ( final VariantContext vc : vcs ) {
+            if ( ! samplesBySource.containsKey(vc.getSource()) )
+                samplesBySource.put(vc.getSource(), new ArrayList<String>());
+            final List<String> samples = samplesBySource.get(vc.getSource());
+            for ( final Genotype g : vc.getGenotypes() )
+                if ( ! samples.contains(g.getSampleName()) )
+                    samples.add(g.getSampleName());
+        }
+        return new SampleIndexRemapping(samplesBySource, uniquify);
+    }
+
     // necessary to not overload equals for genotypes
     private void assertGenotypesAreMostlyEqual(GenotypesContext actual, GenotypesContext expected) {
         if (actual == expected) {
@@ -539,6 +568,51 @@ public class VariantContextUtilsUnitTest extends BaseTest {
         Assert.assertEquals(merged.getSampleNames(), new HashSet<String>(Arrays.asList("s1.1", "s1.2")));
     }
 
+    @Test
+    public void testMergeGenotypesUniquifyWithSampleRemapping() {
+        final VariantContext vc1 = makeVC("1", Arrays.asList(Aref, T), makeG("s1", Aref, T, -1), makeG("s2", Aref, Aref, -1));
+        final VariantContext vc2 = makeVC("2", Arrays.asList(Aref, T), makeG("s2", Aref, T, -2), makeG("s1", T, T, -2));
+        final SampleIndexRemapping remapping = makeSampleRemapping(Arrays.asList(vc1, vc2), true);
+
+        final VariantContext merged = VariantContextUtils.simpleMerge(genomeLocParser,
+                Arrays.asList(vc1, vc2), null, 2, VariantContextUtils.FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED,
+                VariantContextUtils.GenotypeMergeType.UNIQUIFY, false, false, "set", false, false, remapping);
+
+        Assert.assertEquals(merged.getSampleNames(), new HashSet<String>(Arrays.asList("s1.1", "s2.1", "s1.2", "s2.2")));
+        Assert.assertEquals(merged.getGenotype("s1.2").getAlleles(), Arrays.asList(T, T));
+        Assert.assertEquals(merged.getGenotype("s2.1").getAlleles(), Arrays.asList(Aref, Aref));
+
+        // a record seen in only one input is passed through, but still gets its uniquified sample names
+        final VariantContext single = VariantContextUtils.simpleMerge(genomeLocParser,
+                Arrays.asList(vc2), null, 2, VariantContextUtils.FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED,
+                VariantContextUtils.GenotypeMergeType.UNIQUIFY, false, false, "set", false, false, remapping);
+        Assert.assertEquals(single.getSampleNames(), new HashSet<String>(Arrays.asList("s1.2", "s2.2")));
+        Assert.assertEquals(single.getGenotype("s2.2").getAlleles(), Arrays.asList(Aref, T));
+    }
+
+    @DataProvider(name = "singleRecordMerge")
+    public Object[][] singleRecordMergeData() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        tests.add(new Object[]{makeVC("1", Arrays.asList(Aref, T), "."), 1, VariantContextUtils.FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED, VariantContextUtils.MERGE_INTERSECTION, Collections.<String>emptySet()});
+        tests.add(new Object[]{makeVC("1", Arrays.asList(Aref, T), "."), 2, VariantContextUtils.FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED, "1", Collections.<String>emptySet()});
+        tests.add(new Object[]{makeVC("2", Arrays.asList(Aref, T), VariantContext.PASSES_FILTERS), 2, VariantContextUtils.FilteredRecordMergeType.KEEP_IF_ALL_UNFILTERED, "2", Collections.<String>emptySet()});
+        tests.add(new Object[]{makeVC("2", Arrays.asList(Aref, T), "FAIL"), 2, VariantContextUtils.FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED, VariantContextUtils.MERGE_FILTER_IN_ALL, new HashSet<String>(Arrays.asList("FAIL"))});
+        tests.add(new Object[]{makeVC("2", Arrays.asList(Aref, T), "FAIL"), 2, VariantContextUtils.FilteredRecordMergeType.KEEP_UNCONDITIONAL, VariantContextUtils.MERGE_FILTER_IN_ALL, Collections.<String>emptySet()});
+        tests.add(new Object[]{makeVC("1", Arrays.asList(Aref), VariantContext.PASSES_FILTERS), 1, VariantContextUtils.FilteredRecordMergeType.KEEP_IF_ANY_UNFILTERED, VariantContextUtils.MERGE_REF_IN_ALL, Collections.<String>emptySet()});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "singleRecordMerge")
+    public void testSingleRecordMerge(final VariantContext vc, final int nInputs, final VariantContextUtils.FilteredRecordMergeType type, final String setExpected, final Set<String> filtersExpected) {
+        final VariantContext merged = VariantContextUtils.simpleMerge(genomeLocParser,
+                Arrays.asList(vc), null, nInputs, type, VariantContextUtils.GenotypeMergeType.UNSORTED, true, false, "set", false, false);
+
+        Assert.assertEquals(merged.getAlleles(), vc.getAlleles());
+        Assert.assertEquals(merged.getAttribute("set"), setExpected);
+        Assert.assertTrue(merged.filtersWereApplied());
+        Assert.assertEquals(merged.getFilters(), filtersExpected);
+    }
+
     @Test(expectedExceptions = UserException.class)
     public void testMergeGenotypesRequireUnique() {
         final VariantContext vc1 = makeVC("1", Arrays.asList(Aref, T), makeG("s1", Aref, T, -1));
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.utils.variantcontext.writer;
+
+import net.sf.samtools.util.BlockCompressedInputStream;
+import net.sf.samtools.util.BlockCompressedOutputStream;
+import org.broad.tribble.Tribble;
+import org.broadinstitute.sting.BaseTest;
+import org.broadinstitute.sting.utils.exceptions.UserException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class VCFConcatenatorUnitTest extends BaseTest {
+    private final static String HEADER =
+            "##fileformat=VCFv4.1\n" +
+            "##INFO=<ID=DP,Number=1,Type=Integer,Description=\"Total Depth\">\n" +
+            "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n" +
+            "##contig=<ID=1,length=1000000>\n" +
+            "##contig=<ID=2,length=1000000>\n" +
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tNA1\tNA2\n";
+
+    private final static List<String> RECORDS = Arrays.asList(
+            "1\t100\t.\tA\tC\t50\tPASS\tDP=10\tGT\t0/1\t0/0\n",
+            "1\t200\t.\tG\tT\t50\tPASS\tDP=12\tGT\t1/1\t0/1\n",
+            "1\t300\t.\tT\tA\t50\tPASS\tDP=14\tGT\t0/0\t0/1\n",
+            "2\t50\t.\tC\tG\t50\tPASS\tDP=16\tGT\t0/1\t0/1\n",
+            "2\t60\t.\tA\tT\t50\tPASS\tDP=18\tGT\t0/1\t1/1\n");
+
+    private static File writePart(final String header, final List<String> records, final boolean compressed) throws IOException {
+        final File part = createTempFile("VCFConcatenatorUnitTest", compressed ? ".vcf.gz" : ".vcf");
+        final OutputStream out = compressed ? new BlockCompressedOutputStream(part) : new FileOutputStream(part);
+        out.write(header.getBytes());
+        for ( final String record : records )
+            out.write(record.getBytes());
+        out.close();
+        return part;
+    }
+
+    private static List<File> writeParts(final boolean compressed, final int... splits) throws IOException {
+        final List<File> parts = new ArrayList<File>();
+        int start = 0;
+        for ( final int end : splits ) {
+            parts.add(writePart(HEADER, RECORDS.subList(start, end), compressed));
+            start = end;
+        }
+        return parts;
+    }
+
+    private static List<String> readLines(final File file, final boolean compressed) throws IOException {
+        final InputStream in = compressed ? new BlockCompressedInputStream(file) : new FileInputStream(file);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        final List<String> lines = new ArrayList<String>();
+        String line;
+        while ( (line = reader.readLine()) != null )
+            lines.add(line + "\n");
+        reader.close();
+        return lines;
+    }
+
+    private static List<String> getRecords(final List<String> lines) {
+        final List<String> records = new ArrayList<String>();
+        for ( final String line : lines )
+            if ( ! line.startsWith("#") )
+                records.add(line);
+        return records;
+    }
+
+    private void testConcatenation(final boolean compressed) throws IOException {
+        // the third part is empty, and the fourth one ends in the middle of contig 1
+        final List<File> parts = writeParts(compressed, 2, 3, 3, 5);
+        final File output = createTempFile("VCFConcatenatorUnitTest.output", compressed ? ".vcf.gz" : ".vcf");
+        final File index = Tribble.indexFile(output);
+        index.deleteOnExit();
+
+        VCFConcatenator.concatenate(parts, output, true);
+
+        final List<String> lines = readLines(output, compressed);
+        Assert.assertEquals(getRecords(lines), RECORDS);
+        Assert.assertTrue(lines.get(0).startsWith("##fileformat=VCFv4.1"));
+        Assert.assertEquals(lines.get(lines.size() - RECORDS.size() - 1), HEADER.substring(HEADER.lastIndexOf("#CHROM")));
+        Assert.assertEquals(index.exists(), ! compressed, "Only uncompressed outputs should be indexed");
+    }
+
+    @Test
+    public void testConcatenateVCF() throws IOException {
+        testConcatenation(false);
+    }
+
+    @Test
+    public void testConcatenateBlockCompressedVCF() throws IOException {
+        testConcatenation(true);
+    }
+
+    @Test
+    public void testMissingFinalNewline() throws IOException {
+        final File first = writePart(HEADER, RECORDS.subList(0, 2), false);
+        final RandomAccessFile truncate = new RandomAccessFile(first, "rw");
+        truncate.setLength(first.length() - 1);
+        truncate.close();
+        final File second = writePart(HEADER, RECORDS.subList(2, 5), false);
+        final File output = createTempFile("VCFConcatenatorUnitTest.output", ".vcf");
+        Tribble.indexFile(output).deleteOnExit();
+
+        VCFConcatenator.concatenate(Arrays.asList(first, second), output, false);
+        Assert.assertEquals(getRecords(readLines(output, false)), RECORDS);
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testPartsOutOfOrder() throws IOException {
+        final List<File> parts = writeParts(false, 2, 5);
+        final File output = createTempFile("VCFConcatenatorUnitTest.output", ".vcf");
+        try {
+            VCFConcatenator.concatenate(Arrays.asList(parts.get(1), parts.get(0)), output, false);
+        } finally {
+            Assert.assertFalse(output.exists(), "A failed concatenation should not leave its output behind");
+        }
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testContigsOutOfOrder() throws IOException {
+        // each contig is contiguous, but contig 2 comes before contig 1
+        final List<File> parts = writeParts(false, 3, 5);
+        final File output = createTempFile("VCFConcatenatorUnitTest.output", ".vcf");
+        try {
+            VCFConcatenator.concatenate(Arrays.asList(parts.get(1), parts.get(0)), output, false);
+        } finally {
+            Assert.assertFalse(output.exists(), "A failed concatenation should not leave its output behind");
+        }
+    }
+
+    @Test(expectedExceptions = UserException.class)
+    public void testDifferentSamples() throws IOException {
+        final File first = writePart(HEADER, RECORDS.subList(0, 2), false);
+        final File second = writePart(HEADER.replace("NA2", "NA3"), RECORDS.subList(2, 5), false);
+        VCFConcatenator.concatenate(Arrays.asList(first, second), createTempFile("VCFConcatenatorUnitTest.output", ".vcf"), false);
+    }
+
+    @Test
+    public void testLenientVCFProcessing() throws IOException {
+        // DP is a standard header line, so reading it normally repairs its type to Integer
+        final String header = HEADER.replace("ID=DP,Number=1,Type=Integer", "ID=DP,Number=1,Type=Float");
+        for ( final boolean lenient : Arrays.asList(true, false) ) {
+            final List<File> parts = Arrays.asList(writePart(header, RECORDS.subList(0, 2), false), writePart(header, RECORDS.subList(2, 5), false));
+            final File output = createTempFile("VCFConcatenatorUnitTest.output", ".vcf");
+            Tribble.indexFile(output).deleteOnExit();
+
+            VCFConcatenator.concatenate(parts, output, false, lenient);
+            final List<String> lines = readLines(output, false);
+            Assert.assertEquals(getRecords(lines), RECORDS);
+            Assert.assertEquals(lines.toString().contains("ID=DP,Number=1,Type=Float"), lenient, "lenient " + lenient);
+        }
+    }
+}
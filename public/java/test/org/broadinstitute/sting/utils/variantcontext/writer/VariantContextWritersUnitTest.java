@@ -87,6 +87,11 @@ public class VariantContextWritersUnitTest extends BaseTest {
         VariantContextTestProvider.testReaderWriterWithMissingGenotypes(new BCFIOTester(), testData);
     }
 
+    @Test(dataProvider = "VariantContextTest_SingleContexts")
+    public void testBCF2WriterReaderSubsetOfSamples(final VariantContextTestProvider.VariantContextTestData testData) throws IOException {
+        VariantContextTestProvider.testReaderWriterWithSubsetOfSamples(new BCFIOTester(), testData);
+    }
+
     private class BCFIOTester extends VariantContextTestProvider.VariantContextIOTest {
         @Override
         public String getExtension() {
@@ -120,6 +125,11 @@ public class VariantContextWritersUnitTest extends BaseTest {
         VariantContextTestProvider.testReaderWriterWithMissingGenotypes(new VCFIOTester(), testData);
     }
 
+    @Test(enabled = true, dataProvider = "VariantContextTest_SingleContexts")
+    public void testVCF4WriterReaderSubsetOfSamples(final VariantContextTestProvider.VariantContextTestData testData) throws IOException {
+        VariantContextTestProvider.testReaderWriterWithSubsetOfSamples(new VCFIOTester(), testData);
+    }
+
     private class VCFIOTester extends VariantContextTestProvider.VariantContextIOTest {
         @Override
         public String getExtension() {
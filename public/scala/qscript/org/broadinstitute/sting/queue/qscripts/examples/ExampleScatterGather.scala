@@ -0,0 +1,80 @@
+package org.broadinstitute.sting.queue.qscripts.examples
+
+import org.broadinstitute.sting.queue.QScript
+import org.broadinstitute.sting.queue.extensions.gatk._
+import org.broadinstitute.sting.queue.function.InProcessFunction
+import org.broadinstitute.sting.queue.function.scattergather.{CloneFunction, ScatterFunction}
+import org.broadinstitute.sting.utils.interval.IntervalUtils
+import org.broadinstitute.sting.utils.io.IOUtils
+import org.broadinstitute.sting.gatk.walkers.genotyper.UnifiedGenotyperEngine.OUTPUT_MODE
+import org.broadinstitute.sting.commandline.Output
+import collection.JavaConversions._
+
+/**
+ * Runs the UnifiedGenotyper twice with the same scatter count.
+ * The first run uses the default GATK scatter, so its VCF is gathered by concatenating the parts.
+ * The second run uses a scatter function defined below that hands out the parts in reverse order,
+ * so its VCF has to be gathered by merging the parts instead.  Both runs should call the same records.
+ * Every site is emitted, so that the gathers are compared even when the BAM has no variants.
+ */
+class ExampleScatterGather extends QScript {
+  qscript =>
+
+  @Input(doc="The reference file for the bam files.", shortName="R")
+  var referenceFile: File = _
+
+  @Input(doc="Bam file to genotype.", shortName="I")
+  var bamFile: File = _
+
+  @Argument(doc="Number of parts to scatter the genotyper into.", shortName="sc", required=false)
+  var scatterCount = 3
+
+  def script() {
+    val concatenated = new UnifiedGenotyper
+    concatenated.reference_sequence = qscript.referenceFile
+    concatenated.input_file :+= qscript.bamFile
+    concatenated.scatterCount = qscript.scatterCount
+    concatenated.output_mode = OUTPUT_MODE.EMIT_ALL_SITES
+    concatenated.out = swapExt(qscript.bamFile, "bam", "concatenated.vcf")
+
+    val merged = new UnifiedGenotyper
+    merged.reference_sequence = qscript.referenceFile
+    merged.input_file :+= qscript.bamFile
+    merged.scatterCount = qscript.scatterCount
+    merged.output_mode = OUTPUT_MODE.EMIT_ALL_SITES
+    merged.scatterClass = classOf[ReversedLocusScatterFunction]
+    merged.out = swapExt(qscript.bamFile, "bam", "merged.vcf")
+
+    add(concatenated, merged)
+  }
+}
+
+/**
+ * Splits the loci like the LocusScatterFunction, but writes the parts last to first.
+ * It is created by Queue through the scatterClass, so it can't be an inner class of the QScript.
+ * This isn't a GATKScatterFunction, so the parts can't be concatenated back together.
+ */
+class ReversedLocusScatterFunction extends ScatterFunction with InProcessFunction {
+  @Output(doc="Scatter function outputs")
+  var scatterOutputFiles: Seq[java.io.File] = Nil
+
+  override def initCloneInputs(cloneFunction: CloneFunction, index: Int) {
+    cloneFunction.setFieldValue("intervals", Seq(new java.io.File("scatter.intervals")))
+    cloneFunction.setFieldValue("intervalsString", Seq.empty[String])
+  }
+
+  override def bindCloneInputs(cloneFunction: CloneFunction, index: Int) {
+    val scatterPart = cloneFunction.getFieldValue("intervals")
+            .asInstanceOf[Seq[java.io.File]]
+            .map(file => IOUtils.absolute(cloneFunction.commandDirectory, file))
+    cloneFunction.setFieldValue("intervals", scatterPart)
+    this.scatterOutputFiles ++= scatterPart
+  }
+
+  def run() {
+    val gi = GATKScatterFunction.getGATKIntervals(originalFunction.asInstanceOf[CommandLineGATK])
+    val splits = new java.util.ArrayList(IntervalUtils.splitLocusIntervals(gi.locs, this.scatterOutputFiles.size))
+    java.util.Collections.reverse(splits)
+    IntervalUtils.scatterFixedIntervals(gi.samFileHeader, splits, this.scatterOutputFiles)
+  }
+}
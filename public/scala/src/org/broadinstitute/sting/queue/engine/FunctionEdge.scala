@@ -45,6 +45,21 @@ class FunctionEdge(val function: QFunction, val inputs: QNode, val outputs: QNod
    */
   var depth = -1
 
+  /**
+   * The function edges that produce the inputs of this edge, filled in once the graph is complete.
+   */
+  var previous = Seq.empty[FunctionEdge]
+
+  /**
+   * The function edges that consume the outputs of this edge, filled in once the graph is complete.
+   */
+  var next = Seq.empty[FunctionEdge]
+
+  /**
+   * The number of previous function edges that are not yet done.
+   */
+  var unfinishedPrevious = 0
+
   val myRunInfo: JobRunInfo = JobRunInfo.default // purely for dryRun testing
 
   /**
@@ -36,6 +36,7 @@ import org.broadinstitute.sting.queue.function.{InProcessFunction, CommandLineFu
 import org.apache.commons.lang.StringUtils
 import org.broadinstitute.sting.queue.util._
 import collection.immutable.{TreeSet, TreeMap}
+import collection.mutable.ListBuffer
 import org.broadinstitute.sting.queue.function.scattergather.{ScatterFunction, CloneFunction, GatherFunction, ScatterGatherableFunction}
 import java.util.Date
 import org.broadinstitute.sting.utils.Utils
@@ -62,8 +63,12 @@ class QGraph extends Logging {
 
   private var running = true
   private val runningLock = new Object
+  // Milliseconds between checks of the running jobs' status.  Shortened by the unit tests.
+  private[engine] var runningCheckInterval = 30 * 1000L
   private var runningJobs = Set.empty[FunctionEdge]
   private var cleanupJobs = Set.empty[FunctionEdge]
+  // Pending jobs whose previous jobs have all finished, since the last call to takeReadyJobs.
+  private var newlyReadyJobs = Set.empty[FunctionEdge]
 
   private val nl = "%n".format()
 
@@ -137,6 +142,7 @@ class QGraph extends Logging {
       if (running) {
         org.broadinstitute.sting.utils.io.IOUtils.checkTempDir(settings.qSettings.tempDirectory)
         fillGraph()
+        linkFunctions()
         val isReady = numMissingValues == 0
 
         if (this.jobGraph.edgeSet.isEmpty) {
@@ -217,40 +223,19 @@ class QGraph extends Logging {
    * @return A list of prior function edges.
    */
   private def previousFunctions(edge: QEdge): Seq[FunctionEdge] = {
-    var previous = Seq.empty[FunctionEdge]
+    val previous = new ListBuffer[FunctionEdge]
     val source = this.jobGraph.getEdgeSource(edge)
     for (incomingEdge <- this.jobGraph.incomingEdgesOf(source)) {
       incomingEdge match {
 
         // Stop recursing when we find a function edge and return it
-        case functionEdge: FunctionEdge => previous :+= functionEdge
+        case functionEdge: FunctionEdge => previous += functionEdge
 
         // For any other type of edge find the jobs preceding the edge
         case edge: QEdge => previous ++= previousFunctions(edge)
       }
     }
-    previous
-  }
-
-  /**
-   * Walks up the graph looking for the next function edges.
-   * @param edge Graph edge to examine for the next functions.
-   * @return A list of prior function edges.
-   */
-  private def nextFunctions(edge: QEdge): Seq[FunctionEdge] = {
-    var next = Seq.empty[FunctionEdge]
-    val target = this.jobGraph.getEdgeTarget(edge)
-    for (outgoingEdge <- this.jobGraph.outgoingEdgesOf(target)) {
-      outgoingEdge match {
-
-        // Stop recursing when we find a function edge and return it
-        case functionEdge: FunctionEdge => next :+= functionEdge
-
-        // For any other type of edge find the jobs following the edge
-        case edge: QEdge => next ++= nextFunctions(edge)
-      }
-    }
-    next
+    previous.toList
   }
 
   /**
@@ -278,25 +263,77 @@ class QGraph extends Logging {
     })
   }
 
-  private def getReadyJobs: Set[FunctionEdge] = {
-    jobGraph.edgeSet.filter{
-      case f: FunctionEdge =>
-        this.previousFunctions(f).forall(_.status == RunnerStatus.DONE) && f.status == RunnerStatus.PENDING
-      case _ => false
-    }.toSet.asInstanceOf[Set[FunctionEdge]]
+  /**
+   * Once the graph is complete, caches the previous and next function edges of every function edge
+   * so that the scheduler doesn't have to walk the graph each time a job finishes.
+   */
+  private def linkFunctions() {
+    val edges = getFunctionEdges
+    val next = edges.map(edge => (edge, new ListBuffer[FunctionEdge])).toMap
+    for (edge <- edges) {
+      edge.previous = previousFunctions(edge).distinct
+      edge.previous.foreach(previous => next(previous) += edge)
+    }
+    edges.foreach(edge => edge.next = next(edge).toList)
+  }
+
+  /**
+   * Counts the unfinished previous jobs of each job and seeds the ready jobs with the pending jobs that have none.
+   * Must be called after the status of the graph has been updated.
+   */
+  private def initReadyJobs() {
+    newlyReadyJobs = Set.empty[FunctionEdge]
+    for (edge <- getFunctionEdges) {
+      edge.unfinishedPrevious = edge.previous.count(_.status != RunnerStatus.DONE)
+      addIfReady(edge)
+    }
+  }
+
+  /**
+   * Notifies the jobs following the edge that one of their previous jobs is done.
+   * @param edge Edge that is now done.
+   */
+  private def functionDone(edge: FunctionEdge) {
+    for (next <- edge.next) {
+      next.unfinishedPrevious -= 1
+      addIfReady(next)
+    }
+  }
+
+  /**
+   * Adds the edge to the ready jobs if it is pending and all of its previous jobs are done.
+   * @param edge Edge to check.
+   */
+  private def addIfReady(edge: FunctionEdge) {
+    if (edge.unfinishedPrevious == 0 && edge.status == RunnerStatus.PENDING)
+      newlyReadyJobs += edge
+  }
+
+  /**
+   * Returns the jobs that have become ready since the last call.
+   * @return the jobs that have become ready since the last call.
+   */
+  private def takeReadyJobs: Set[FunctionEdge] = {
+    val readyJobs = newlyReadyJobs
+    newlyReadyJobs = Set.empty[FunctionEdge]
+    readyJobs
   }
 
   /**
    *  Removes mapping edges that aren't being used, and nodes that don't belong to anything.
    */
   private def prune() {
-    var pruning = true
-    while (pruning) {
-      pruning = false
-      val filler = jobGraph.edgeSet.filter(isFiller(_))
-      if (filler.size > 0) {
-        jobGraph.removeAllEdges(filler)
-        pruning = running
+    // Removing a filler edge can only turn the edges entering its source or leaving its target
+    // into filler, so only those are rechecked instead of rescanning the whole graph.
+    val candidates = new java.util.ArrayDeque[QEdge](jobGraph.edgeSet)
+    while (running && !candidates.isEmpty) {
+      val edge = candidates.poll()
+      if (jobGraph.containsEdge(edge) && isFiller(edge)) {
+        val source = jobGraph.getEdgeSource(edge)
+        val target = jobGraph.getEdgeTarget(edge)
+        jobGraph.removeEdge(edge)
+        candidates.addAll(jobGraph.incomingEdgesOf(source))
+        candidates.addAll(jobGraph.outgoingEdgesOf(target))
       }
     }
 
@@ -345,8 +382,9 @@ class QGraph extends Logging {
       logger.info("Will remove outputs from previous runs.")
 
     updateGraphStatus(cleanOutputs = false)
+    initReadyJobs()
 
-    var readyJobs = getReadyJobs
+    var readyJobs = takeReadyJobs
     while (running && readyJobs.size > 0) {
       logger.debug("+++++++")
       foreachFunction(readyJobs.toSeq, edge => {
@@ -356,9 +394,10 @@ class QGraph extends Logging {
           logEdge(edge)
           edge.myRunInfo.doneTime = new Date()
           edge.markAsDone()
+          functionDone(edge)
         }
       })
-      readyJobs = getReadyJobs
+      readyJobs = takeReadyJobs
     }
   }
 
@@ -413,9 +452,10 @@ class QGraph extends Logging {
         logger.info("Removing outputs from previous runs.")
 
       updateGraphStatus(cleanOutputs = true)
+      initReadyJobs()
 
       var readyJobs = TreeSet.empty[FunctionEdge](functionOrdering)
-      readyJobs ++= getReadyJobs
+      readyJobs ++= takeReadyJobs
       runningJobs = Set.empty[FunctionEdge]
       var lastRunningCheck = System.currentTimeMillis
       var logNextStatusCounts = true
@@ -483,6 +523,7 @@ class QGraph extends Logging {
 
         startedJobsToEmail &~= failedJobs
 
+        doneJobs.foreach(functionDone(_))
         addCleanup(doneJobs)
 
         statusCounts.running -= doneJobs.size
@@ -504,7 +545,7 @@ class QGraph extends Logging {
           writeJobsReport(plot = false)
         }
 
-        readyJobs ++= getReadyJobs
+        readyJobs ++= takeReadyJobs
       }
 
       logStatusCounts()
@@ -522,7 +563,7 @@ class QGraph extends Logging {
     lastRunningCheck > 0 && nextRunningCheck(lastRunningCheck) <= 0
 
   private def nextRunningCheck(lastRunningCheck: Long) =
-    ((30 * 1000L) - (System.currentTimeMillis - lastRunningCheck))
+    (runningCheckInterval - (System.currentTimeMillis - lastRunningCheck))
 
   def formattedStatusCounts: String = {
     "%d Pend, %d Run, %d Fail, %d Done".format(
@@ -569,7 +610,7 @@ class QGraph extends Logging {
       if (edge.status != RunnerStatus.DONE)
         edge.markAsSkipped()
     } else {
-      val previous = this.previousFunctions(edge)
+      val previous = edge.previous
       val isDone = edge.status == RunnerStatus.DONE &&
               previous.forall(edge => edge.status == RunnerStatus.DONE || edge.status == RunnerStatus.SKIPPED)
       if (!isDone) {
@@ -626,7 +667,7 @@ class QGraph extends Logging {
     var doneJobs = Set.empty[FunctionEdge]
 
     for (edge <- cleanupJobs) {
-      val nextDone = nextFunctions(edge).forall(next => {
+      val nextDone = edge.next.forall(next => {
         val status = next.status
         (status == RunnerStatus.DONE || status == RunnerStatus.SKIPPED)
       })
@@ -651,7 +692,7 @@ class QGraph extends Logging {
    */
   private def graphDepth(edge: FunctionEdge): Int = {
     if (edge.depth < 0) {
-      val previous = previousFunctions(edge)
+      val previous = edge.previous
       if (previous.size == 0)
         edge.depth = 0
       else
@@ -670,10 +711,10 @@ class QGraph extends Logging {
    * @param cleanOutputs If true will clean up the output files when resetting jobs to pending.
    */
   private def resetPreviousSkipped(edge: FunctionEdge, previous: Seq[FunctionEdge], cleanOutputs: Boolean) {
-    val edges = previous.filter(_.status == RunnerStatus.SKIPPED) ++ this.nextFunctions(edge).filter(_.status != RunnerStatus.PENDING)
+    val edges = previous.filter(_.status == RunnerStatus.SKIPPED) ++ edge.next.filter(_.status != RunnerStatus.PENDING)
     for (resetEdge <- edges) {
       resetEdge.resetToPending(cleanOutputs)
-      resetPreviousSkipped(resetEdge, this.previousFunctions(resetEdge), cleanOutputs)
+      resetPreviousSkipped(resetEdge, resetEdge.previous, cleanOutputs)
     }
   }
 
@@ -721,6 +762,7 @@ class QGraph extends Logging {
             failedJob.function.retries, settings.retries, failedJob.function.description))
           statusCounts.failed -= 1
           statusCounts.pending += 1
+          addIfReady(failedJob)
         } else {
           logger.info("Giving up after retrying %d times: %s".format(
             settings.retries, failedJob.function.description))
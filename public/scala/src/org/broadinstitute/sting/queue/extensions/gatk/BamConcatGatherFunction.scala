@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.queue.extensions.gatk
+
+import org.broadinstitute.sting.queue.function.scattergather.GatherFunction
+import org.broadinstitute.sting.queue.function.InProcessFunction
+import org.broadinstitute.sting.queue.QException
+import org.broadinstitute.sting.queue.util.ClassFieldCache
+import org.broadinstitute.sting.gatk.io.stubs.SAMFileWriterArgumentTypeDescriptor
+import org.broadinstitute.sting.utils.sam.BAMConcatenator
+import net.sf.samtools.util.BlockCompressedOutputStream
+import collection.JavaConversions._
+
+/**
+ * Gathers BAM parts by concatenating their compressed blocks in process, instead of merging them with MergeSamFiles.
+ *
+ * Only works for parts that cover disjoint, ordered intervals, as created by the GATKScatterFunctions.
+ * The headers of the parts and the order of their reads are checked while gathering.
+ */
+class BamConcatGatherFunction extends GatherFunction with InProcessFunction {
+  var compressionLevel: Option[Int] = None
+  var createIndex = true
+  var createMD5 = false
+
+  override def freezeFieldValues() {
+    val originalGATK = originalFunction.asInstanceOf[CommandLineGATK]
+
+    if (!classOf[GATKScatterFunction].isAssignableFrom(originalFunction.scatterClass))
+      throw new QException("%s can only gather ordered parts, which %s doesn't create; use %s instead".format(
+        this.getClass.getSimpleName, originalFunction.scatterClass.getSimpleName, classOf[BamGatherFunction].getSimpleName))
+
+    // bam_compression and index_output_bam_on_the_fly from SAMFileWriterArgumentTypeDescriptor
+    // are added by the GATKExtensionsGenerator to the subclass of CommandLineGATK
+
+    val compression = ClassFieldCache.findField(originalFunction.getClass, SAMFileWriterArgumentTypeDescriptor.COMPRESSION_FULLNAME)
+    this.compressionLevel = originalGATK.getFieldValue(compression).asInstanceOf[Option[Int]]
+
+    val disableIndex = ClassFieldCache.findField(originalFunction.getClass, SAMFileWriterArgumentTypeDescriptor.DISABLE_INDEXING_FULLNAME)
+    this.createIndex = !originalGATK.getFieldValue(disableIndex).asInstanceOf[Boolean]
+
+    val enableMD5 = ClassFieldCache.findField(originalFunction.getClass, SAMFileWriterArgumentTypeDescriptor.ENABLE_MD5_FULLNAME)
+    this.createMD5 = originalGATK.getFieldValue(enableMD5).asInstanceOf[Boolean]
+
+    super.freezeFieldValues()
+  }
+
+  def run() {
+    waitForGatherParts()
+    BAMConcatenator.concatenate(gatherParts, originalOutput,
+      compressionLevel.getOrElse(BlockCompressedOutputStream.getDefaultCompressionLevel), createIndex, createMD5)
+  }
+}
@@ -27,7 +27,8 @@ package org.broadinstitute.sting.queue.extensions.gatk
 import org.broadinstitute.sting.utils.interval.IntervalUtils
 import java.io.File
 import org.broadinstitute.sting.utils.io.IOUtils
-import org.broadinstitute.sting.queue.function.scattergather.{CloneFunction, ScatterFunction}
+import org.broadinstitute.sting.queue.function.scattergather.{GatherFunction, ScatterGatherableFunction, CloneFunction, ScatterFunction}
+import org.broadinstitute.sting.queue.util.ReflectionUtils
 import org.broadinstitute.sting.commandline._
 
 trait GATKScatterFunction extends ScatterFunction {
@@ -98,6 +99,32 @@ trait GATKScatterFunction extends ScatterFunction {
 object GATKScatterFunction {
   var gatkIntervalsCache = Seq.empty[GATKIntervals]
 
+  /** The gather functions that merge the parts, for the ones that concatenate them. */
+  private val unorderedGatherClasses = Map[Class[_], Class[_ <: GatherFunction]](
+    classOf[VcfConcatGatherFunction] -> classOf[VcfGatherFunction],
+    classOf[BamConcatGatherFunction] -> classOf[BamGatherFunction])
+
+  /**
+   * Only the GATKScatterFunctions split the intervals into ordered, disjoint parts that can be gathered by concatenation.
+   * The GATKExtensionsGenerator sets this as the gatherClass of every scatter/gatherable walker, so that outputs
+   * gathered by concatenation by default are merged instead when the function is scattered some other way.
+   * @param function The scatter/gatherable function.
+   * @return The gather class to use for the outputs of function that can't be concatenated.
+   */
+  def unorderedGatherClass(function: ScatterGatherableFunction): PartialFunction[ArgumentSource, Class[_ <: GatherFunction]] = {
+    case gatherField if !isOrdered(function) && unorderedGatherClasses.contains(annotatedGatherClass(gatherField)) =>
+      unorderedGatherClasses(annotatedGatherClass(gatherField))
+  }
+
+  private def isOrdered(function: ScatterGatherableFunction) =
+    function.scatterClass != null && classOf[GATKScatterFunction].isAssignableFrom(function.scatterClass)
+
+  private def annotatedGatherClass(gatherField: ArgumentSource): Class[_] =
+    if (ReflectionUtils.hasAnnotation(gatherField.field, classOf[Gather]))
+      ReflectionUtils.getAnnotation(gatherField.field, classOf[Gather]).value
+    else
+      null
+
   def getGATKIntervals(originalFunction: CommandLineGATK) = {
     val gatkIntervals = new GATKIntervals(originalFunction)
     gatkIntervalsCache.find(_ == gatkIntervals) match {
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.queue.extensions.gatk
+
+import collection.JavaConversions._
+import org.broadinstitute.sting.utils.interval.IntervalUtils
+import org.broadinstitute.sting.gatk.datasources.reads.BAMIndexReadVolume
+import org.broadinstitute.sting.queue.function.InProcessFunction
+import org.broadinstitute.sting.utils.text.ListFileUtils
+import java.io.File
+
+/**
+ * A scatter function that divides down to the locus level like the LocusScatterFunction, but into parts holding
+ * about the same volume of reads, as estimated from the indices of the input BAMs, instead of the same number of bases.
+ */
+class ReadVolumeScatterFunction extends GATKScatterFunction with InProcessFunction {
+  protected override def maxIntervals = scatterCount
+
+  override def isScatterGatherable = super.isScatterGatherable && !this.originalGATK.input_file.isEmpty
+
+  def run() {
+    val gi = GATKScatterFunction.getGATKIntervals(this.originalGATK)
+    val volume = new BAMIndexReadVolume(bamFiles)
+    val splits = IntervalUtils.splitLocusIntervalsByReadVolume(gi.locs, this.scatterOutputFiles.size, volume)
+    IntervalUtils.scatterFixedIntervals(gi.samFileHeader, splits, this.scatterOutputFiles)
+  }
+
+  /**
+   * @return the BAMs read by the original function, with any .list of BAMs expanded like the GATK does.
+   */
+  private def bamFiles: Seq[File] =
+    ListFileUtils.unpackBAMFileList(this.originalGATK.input_file.map(_.getPath))
+      .map(id => new File(id.getSamFilePath))
+}
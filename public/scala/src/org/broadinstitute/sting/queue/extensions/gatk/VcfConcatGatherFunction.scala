@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.queue.extensions.gatk
+
+import org.broadinstitute.sting.queue.function.scattergather.GatherFunction
+import org.broadinstitute.sting.queue.function.InProcessFunction
+import org.broadinstitute.sting.queue.QException
+import org.broadinstitute.sting.gatk.GenomeAnalysisEngine
+import org.broadinstitute.sting.gatk.arguments.ValidationExclusion
+import org.broadinstitute.sting.utils.variantcontext.writer.VCFConcatenator
+import org.broad.tribble.Tribble
+import collection.JavaConversions._
+
+/**
+ * Gathers VCF or BCF2 parts by concatenating their records in process, instead of merging them with CombineVariants.
+ *
+ * Only works for parts that cover disjoint, ordered intervals, as created by the GATKScatterFunctions.
+ * The headers of the parts and the order of their records are checked while gathering.
+ */
+class VcfConcatGatherFunction extends GatherFunction with InProcessFunction {
+  var createIndex = true
+  var unsafe: ValidationExclusion.TYPE = _
+
+  override def freezeFieldValues() {
+    val originalGATK = originalFunction.asInstanceOf[CommandLineGATK]
+
+    if (!classOf[GATKScatterFunction].isAssignableFrom(originalFunction.scatterClass))
+      throw new QException("%s can only gather ordered parts, which %s doesn't create; use %s instead".format(
+        this.getClass.getSimpleName, originalFunction.scatterClass.getSimpleName, classOf[VcfGatherFunction].getSimpleName))
+
+    // The VCF writer indexes the uncompressed outputs, for which the GATKExtensionsGenerator
+    // adds the index to the outputs of the original function.
+    this.createIndex = originalFunction.outputs.map(_.getAbsoluteFile).contains(Tribble.indexFile(originalOutput).getAbsoluteFile)
+
+    // ensure that the gather function receives the same unsafe parameter as the scattered function
+    this.unsafe = originalGATK.unsafe
+
+    super.freezeFieldValues()
+  }
+
+  def run() {
+    waitForGatherParts()
+    VCFConcatenator.concatenate(gatherParts, originalOutput, createIndex, GenomeAnalysisEngine.lenientVCFProcessing(unsafe))
+  }
+}
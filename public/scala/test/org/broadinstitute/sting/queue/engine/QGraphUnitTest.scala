@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.broadinstitute.sting.queue.engine
+
+import java.io.File
+import org.testng.Assert
+import org.testng.annotations.{BeforeClass, Test}
+import org.apache.commons.io.FileUtils
+import org.broadinstitute.sting.commandline.{ParsingEngine, Input, Output}
+import org.broadinstitute.sting.queue.{QCommandLine, QException}
+import org.broadinstitute.sting.queue.function.InProcessFunction
+import org.broadinstitute.sting.queue.util.ClassFieldCache
+import org.broadinstitute.sting.utils.io.IOUtils
+import collection.mutable.ListBuffer
+
+/**
+ * Runs small graphs of in-process jobs and checks the order the jobs are started in, both against the expected
+ * order and against a replay of the original scheduler, which rescanned the whole graph after every status check
+ * for the pending jobs whose previous jobs were all done.
+ */
+class QGraphUnitTest {
+  @BeforeClass
+  def init() {
+    // QCommandLine normally provides the parser used to find the inputs and outputs of the functions
+    if (ClassFieldCache.parsingEngine == null)
+      ClassFieldCache.parsingEngine = new ParsingEngine(new QCommandLine)
+  }
+
+  @Test
+  def testDoneJobsReleaseTheirNextJobs() {
+    val graph = new TestGraph(retries = 0)
+    val a = graph.job("A")
+    val b = graph.job("B", a)
+    val c = graph.job("C", b)
+    val d = graph.job("D")
+    graph.job("E", c, d)
+
+    val expected = Seq("A", "D", "B", "C", "E")
+    Assert.assertEquals(graph.originalOrder, expected)
+    Assert.assertEquals(graph.run(), expected)
+  }
+
+  @Test
+  def testFailedJobsHoldBackTheirNextJobs() {
+    val graph = new TestGraph(retries = 0)
+    val a = graph.failingJob("A", 1)
+    val b = graph.job("B", a)
+    graph.job("C", b)
+    val d = graph.job("D")
+    graph.job("E", a, d)
+    graph.job("F", d)
+
+    // B and C follow the failed A, and so does E even though D is done, but F only needs D
+    val expected = Seq("A", "D", "F")
+    Assert.assertEquals(graph.originalOrder, expected)
+    Assert.assertEquals(graph.run(), expected)
+  }
+
+  @Test
+  def testFailedJobsAreRetriedBeforeTheirNextJobs() {
+    val graph = new TestGraph(retries = 1)
+    val a = graph.failingJob("A", 1)
+    graph.job("B", a)
+    val c = graph.job("C")
+    graph.job("D", c)
+    val g = graph.failingJob("G", 2)
+    graph.job("H", g)
+
+    // A and G are retried alongside D, which is deeper and so goes first.  A then releases B, while G gives up
+    // after its one retry and H never runs.
+    val expected = Seq("A", "C", "G", "D", "A", "G", "B")
+    Assert.assertEquals(graph.originalOrder, expected)
+    Assert.assertEquals(graph.run(), expected)
+  }
+
+  /**
+   * A job that records when it's started, and fails its first attempts.
+   */
+  private class TestJob(name: String, val previous: Seq[TestJob], val failures: Int, started: ListBuffer[String]) extends InProcessFunction {
+    @Input(doc="Outputs of the previous jobs", required=false)
+    var inputFiles: Seq[File] = Nil
+
+    @Output(doc="Output of this job")
+    var outputFile: File = _
+
+    private var attempts = 0
+
+    analysisName = name
+
+    def run() {
+      started += name
+      attempts += 1
+      if (attempts <= failures)
+        throw new QException("Failing attempt %d of %s".format(attempts, name))
+      FileUtils.touch(outputFile)
+    }
+  }
+
+  private class TestGraph(retries: Int) {
+    private val runDirectory = IOUtils.tempDir("QGraphUnitTest.", "")
+    private val jobs = new ListBuffer[TestJob]
+    private val started = new ListBuffer[String]
+
+    def job(name: String, previous: TestJob*) = failingJob(name, 0, previous: _*)
+
+    def failingJob(name: String, failures: Int, previous: TestJob*) = {
+      val job = new TestJob(name, previous, failures, started)
+      job.inputFiles = previous.map(_.outputFile)
+      job.outputFile = new File(runDirectory, name)
+      job.addOrder = Seq(jobs.size + 1)
+      jobs += job
+      job
+    }
+
+    /**
+     * Runs the jobs with QGraph.
+     * @return the names of the jobs in the order they were started.
+     */
+    def run(): Seq[String] = {
+      val settings = new QGraphSettings
+      settings.run = true
+      settings.retries = retries
+      settings.disableJobReport = true
+      settings.qSettings.runName = "QGraphUnitTest"
+      settings.qSettings.runDirectory = runDirectory
+      settings.qSettings.tempDirectory = runDirectory
+
+      val graph = new QGraph
+      graph.initializeWithSettings(settings)
+      // in-process jobs are done as soon as they've started, so there's no need to wait between status checks
+      graph.runningCheckInterval = 200
+      try {
+        jobs.foreach(graph.add(_))
+        graph.run()
+      } finally {
+        graph.shutdown()
+        FileUtils.deleteQuietly(runDirectory)
+      }
+      started.toList
+    }
+
+    /**
+     * Replays the original scheduler: each pass starts every pending job whose previous jobs are all done,
+     * deepest first and then in the order they were added, and failed jobs with retries left become pending again.
+     * @return the names of the jobs in the order they would have been started.
+     */
+    def originalOrder: Seq[String] = {
+      def depth(job: TestJob): Int = if (job.previous.isEmpty) 0 else job.previous.map(depth(_)).max + 1
+
+      val status = collection.mutable.Map(jobs.map(_ -> RunnerStatus.PENDING): _*)
+      val attempts = collection.mutable.Map(jobs.map(_ -> 0): _*)
+      val order = new ListBuffer[String]
+
+      def readyJobs = jobs.filter(job => status(job) == RunnerStatus.PENDING && job.previous.forall(status(_) == RunnerStatus.DONE))
+              .sortBy(job => (-depth(job), job.addOrder.head))
+
+      var ready = readyJobs
+      while (!ready.isEmpty) {
+        for (job <- ready) {
+          order += job.analysisName
+          attempts(job) += 1
+          status(job) = if (attempts(job) <= job.failures) RunnerStatus.FAILED else RunnerStatus.DONE
+        }
+        for (job <- ready if status(job) == RunnerStatus.FAILED && attempts(job) <= retries)
+          status(job) = RunnerStatus.PENDING
+        ready = readyJobs
+      }
+      order.toList
+    }
+  }
+}
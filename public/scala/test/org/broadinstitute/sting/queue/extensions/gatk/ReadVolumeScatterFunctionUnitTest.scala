@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.queue.extensions.gatk
+
+import java.io.{PrintWriter, File}
+import org.testng.Assert
+import org.testng.annotations.Test
+import org.broadinstitute.sting.BaseTest
+import org.broadinstitute.sting.gatk.datasources.reads.BAMIndexReadVolume
+import org.broadinstitute.sting.utils.GenomeLoc
+import org.broadinstitute.sting.queue.function.InProcessFunction
+import collection.JavaConversions._
+
+class ReadVolumeScatterFunctionUnitTest {
+  private final lazy val reference = new File(BaseTest.publicTestDir + "exampleFASTA.fasta")
+  private final lazy val bam = new File(BaseTest.publicTestDir + "exampleBAM.bam")
+  private final lazy val volume = new BAMIndexReadVolume(Seq(bam))
+
+  @Test
+  def testBalancedParts() {
+    val parts = scatter(Seq(bam), 3)
+    val locs = parts.flatten
+    val totalBytes = locs.map(volume.getCompressedBytes(_)).sum
+    Assert.assertTrue(totalBytes > 0, "exampleBAM has no reads in its index")
+
+    // the parts cover chr1, the only contig of the reference, in order and without gaps or overlaps
+    Assert.assertEquals(locs.head.getStart, 1)
+    for ((previous, next) <- locs.zip(locs.tail))
+      Assert.assertEquals(next.getStart, previous.getStop + 1)
+    Assert.assertEquals(locs.last.getStop, createGATKIntervals(Nil).locs.head.getStop)
+
+    for (part <- parts)
+      Assert.assertEquals(part.map(volume.getCompressedBytes(_)).sum, totalBytes / parts.size, 0.01 * totalBytes / parts.size, "Unbalanced part " + part)
+
+    // the reads of exampleBAM are at the start of chr1, so splitting by size puts most of them into the first part
+    val locusParts = scatter(new LocusScatterFunction, Seq(bam), 3)
+    Assert.assertTrue(locusParts.head.map(volume.getCompressedBytes(_)).sum > 2 * totalBytes / parts.size)
+  }
+
+  @Test
+  def testBAMList() {
+    val bamList = File.createTempFile("ReadVolumeScatterFunctionUnitTest", ".list")
+    bamList.deleteOnExit()
+    val writer = new PrintWriter(bamList)
+    writer.println(bam.getAbsolutePath)
+    writer.close()
+
+    Assert.assertEquals(scatter(Seq(bamList), 3), scatter(Seq(bam), 3))
+  }
+
+  private def scatter(inputFiles: Seq[File], scatterCount: Int): Seq[Seq[GenomeLoc]] =
+    scatter(new ReadVolumeScatterFunction, inputFiles, scatterCount)
+
+  /**
+   * Runs the scatter function on a walker reading inputFiles, and reads back the intervals it wrote for each part.
+   */
+  private def scatter(scatterFunction: GATKScatterFunction with InProcessFunction, inputFiles: Seq[File], scatterCount: Int): Seq[Seq[GenomeLoc]] = {
+    val gatk = new PrintReads
+    gatk.reference_sequence = reference
+    gatk.input_file = inputFiles
+    gatk.scatterCount = scatterCount
+
+    scatterFunction.originalFunction = gatk
+    scatterFunction.init()
+    scatterFunction.scatterOutputFiles = (1 to scatterCount).map(index => {
+      val scatterPart = File.createTempFile("ReadVolumeScatterFunctionUnitTest." + index, ".intervals")
+      scatterPart.deleteOnExit()
+      scatterPart
+    })
+    scatterFunction.run()
+
+    scatterFunction.scatterOutputFiles.map(scatterPart => createGATKIntervals(Seq(scatterPart)).locs.toSeq)
+  }
+
+  private def createGATKIntervals(intervals: Seq[File]) = {
+    val gatk = new CommandLineGATK
+    gatk.reference_sequence = reference
+    gatk.intervals = intervals
+    new GATKIntervals(gatk)
+  }
+}
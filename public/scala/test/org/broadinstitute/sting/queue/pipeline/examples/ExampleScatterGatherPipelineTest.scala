@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2012, The Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following
+ * conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.broadinstitute.sting.queue.pipeline.examples
+
+import org.testng.annotations.Test
+import org.testng.Assert
+import org.broadinstitute.sting.queue.pipeline.{PipelineTest, PipelineTestSpec}
+import org.broadinstitute.sting.BaseTest
+import io.Source
+import java.io.File
+
+class ExampleScatterGatherPipelineTest {
+  @Test(timeOut=36000000)
+  def testScatterGather() {
+    val spec = new PipelineTestSpec
+    spec.name = "scattergather"
+    spec.args = Array(
+      " -S public/scala/qscript/org/broadinstitute/sting/queue/qscripts/examples/ExampleScatterGather.scala",
+      " -R " + BaseTest.publicTestDir + "exampleFASTA.fasta",
+      " -I " + BaseTest.publicTestDir + "exampleBAM.bam").mkString
+    for (jobRunner <- PipelineTest.allJobRunners) {
+      PipelineTest.executeTest(spec, jobRunner)
+      // The concatenated and the merged gathers should put the same records in the same order.
+      if (PipelineTest.run)
+        Assert.assertEquals(records(spec.name, jobRunner, "exampleBAM.merged.vcf"), records(spec.name, jobRunner, "exampleBAM.concatenated.vcf"))
+    }
+  }
+
+  private def records(testName: String, jobRunner: String, vcf: String) =
+    Source.fromFile(new File(PipelineTest.testDir(testName, jobRunner) + "run/" + vcf)).getLines().filterNot(_.startsWith("#")).toList
+}